@@ -0,0 +1,103 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.ServerAddress;
+import com.mongodb.migratecluster.commandline.ResourceFilter;
+
+/**
+ * File: NamespaceBenchmark Author: Shyam Arjarapu Date: 2/7/19 9:00 AM Description:
+ *
+ * Measures the per entry work done on the namespace of an oplog entry; the black list check, through the resolved
+ * handle as the dispatcher does it and against the compiled matchers as for the first entry of a namespace, and
+ * getting the target collection of a namespace. The black list holds whole databases, single collections and a glob,
+ * and a tenth of the namespaces are black listed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NamespaceBenchmark {
+	private static final int NAMESPACES = 1000;
+
+	@Param({ "10", "100" })
+	public int blackListSize;
+
+	private List<String> namespaces;
+	private NamespaceFilter filter;
+	private MongoClient client;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		ObjectMapper mapper = new ObjectMapper();
+		List<ResourceFilter> blackList = new ArrayList<>();
+		for (int i = 0; i < blackListSize; i++) {
+			String json = (i % 2 == 0) ? String.format("{ \"database\": \"tenant%d\", \"collection\": \"{}\" }", i)
+					: String.format("{ \"database\": \"app\", \"collection\": \"audit%d\" }", i);
+			blackList.add(mapper.readValue(json, ResourceFilter.class));
+		}
+		blackList.add(mapper.readValue("{ \"database\": \"archive_*\", \"collection\": \"{}\" }", ResourceFilter.class));
+
+		namespaces = new ArrayList<>(NAMESPACES);
+		for (int i = 0; i < NAMESPACES; i++) {
+			int listed = i % (blackListSize * 10);
+			namespaces.add((listed % 2 == 0) ? String.format("tenant%d.orders", listed) : String.format("app.audit%d", listed));
+		}
+
+		// the client only connects once an operation is run; none is
+		client = new MongoClient(new ServerAddress("localhost", 27017), MongoClientOptions.builder().serverSelectionTimeout(1).build());
+		filter = new NamespaceFilter(blackList, new ArrayList<>(), client);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		client.close();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NAMESPACES)
+	public void isAllowed(Blackhole blackhole) {
+		for (String namespace : namespaces) {
+			blackhole.consume(filter.isAllowed(namespace));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NAMESPACES)
+	public void checkIfNamespaceIsAllowed(Blackhole blackhole) {
+		for (String namespace : namespaces) {
+			blackhole.consume(filter.checkIfNamespaceIsAllowed(namespace));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NAMESPACES)
+	public void getTargetCollection(Blackhole blackhole) {
+		for (String namespace : namespaces) {
+			blackhole.consume(filter.resolve(namespace).getTargetCollection());
+		}
+	}
+}
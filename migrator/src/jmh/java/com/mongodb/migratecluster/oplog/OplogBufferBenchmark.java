@@ -0,0 +1,66 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * File: OplogBufferBenchmark Author: Shyam Arjarapu Date: 2/7/19 9:30 AM Description:
+ *
+ * Measures the hand-off of batches from the reader to the writer through the oplog buffer, with one thread publishing
+ * and one thread draining, for several batch sizes. A buffer holding a few batches keeps both sides contending for it.
+ * The scores are batches per second; the put score is the throughput of the hand-off. Both sides wait at most 10 ms,
+ * so neither is left blocked on the other when an iteration ends and the buffer is replaced.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OplogBufferBenchmark {
+	private static final int ENTRY_BYTES = 256;
+
+	@Param({ "1", "100", "10000" })
+	public int batchSize;
+
+	private OplogBuffer<OplogEntry> buffer;
+	private List<OplogEntry> batch;
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		batch = new OplogEntryGenerator(42, "app.users").getEntries("i", batchSize, ENTRY_BYTES, true);
+		buffer = new OplogBuffer<>(4L * batchSize * ENTRY_BYTES);
+	}
+
+	@Benchmark
+	@Group("handoff")
+	@GroupThreads(1)
+	public boolean put() throws InterruptedException {
+		// a timed put, so that the producer never stays blocked once the consumer stopped at the end of an iteration
+		return buffer.offer(batch, (long) batchSize * ENTRY_BYTES, 10, TimeUnit.MILLISECONDS);
+	}
+
+	@Benchmark
+	@Group("handoff")
+	@GroupThreads(1)
+	public int drainTo() throws InterruptedException {
+		List<OplogEntry> entries = new ArrayList<>(batchSize * 4);
+		return buffer.drainTo(entries, 10, TimeUnit.MILLISECONDS);
+	}
+}
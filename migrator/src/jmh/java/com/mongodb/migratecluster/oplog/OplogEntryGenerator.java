@@ -0,0 +1,101 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
+import org.bson.BsonTimestamp;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+
+/**
+ * File: OplogEntryGenerator Author: Shyam Arjarapu Date: 2/7/19 8:00 AM Description:
+ *
+ * A class to generate synthetic oplog entries for the benchmarks. The documents are made of fields of about 32 bytes
+ * each until they reach the requested size; the same seed always generates the same entries.
+ */
+public class OplogEntryGenerator {
+	private final Random random;
+	private final String namespace;
+	private int time = 1500000000;
+	private int inc;
+
+	public OplogEntryGenerator(long seed, String namespace) {
+		this.random = new Random(seed);
+		this.namespace = namespace;
+	}
+
+	/**
+	 * Get's a list of entries of the same operation
+	 *
+	 * @param operation
+	 *          i, u or d
+	 * @param count
+	 *          the number of entries
+	 * @param documentBytes
+	 *          the approximate size of the inserted documents and of the updates
+	 * @param raw
+	 *          true to keep the entries as raw BSON, like the reader does with rawOplogEntries
+	 * @return the generated entries
+	 */
+	public List<OplogEntry> getEntries(String operation, int count, int documentBytes, boolean raw) {
+		List<OplogEntry> entries = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			entries.add(getEntry(operation, documentBytes, raw));
+		}
+		return entries;
+	}
+
+	/**
+	 * Get's a single entry
+	 *
+	 * @param operation
+	 *          i, u or d
+	 * @param documentBytes
+	 *          the approximate size of the inserted document or of the update
+	 * @param raw
+	 *          true to keep the entry as raw BSON
+	 * @return the generated entry
+	 */
+	public OplogEntry getEntry(String operation, int documentBytes, boolean raw) {
+		BsonInt64 id = new BsonInt64(random.nextInt(1000000));
+		BsonDocument entry = new BsonDocument("ts", nextTimestamp()).append("op", new BsonString(operation)).append("ns", new BsonString(namespace));
+		switch (operation) {
+		case "i":
+			entry.append("o", getDocument(new BsonDocument("_id", id), documentBytes));
+			break;
+		case "u":
+			entry.append("o", new BsonDocument("$v", new BsonInt32(1)).append("$set", getDocument(new BsonDocument(), documentBytes)));
+			entry.append("o2", new BsonDocument("_id", id));
+			break;
+		case "d":
+			entry.append("o", new BsonDocument("_id", id));
+			break;
+		default:
+			throw new IllegalArgumentException(String.format("unsupported operation %s", operation));
+		}
+
+		RawBsonDocument bytes = new RawBsonDocument(entry, new BsonDocumentCodec());
+		int size = bytes.getByteBuffer().remaining();
+		return new OplogEntry(raw ? bytes : entry, size);
+	}
+
+	private BsonTimestamp nextTimestamp() {
+		if (++inc > 1000) {
+			time++;
+			inc = 1;
+		}
+		return new BsonTimestamp(time, inc);
+	}
+
+	private BsonDocument getDocument(BsonDocument document, int documentBytes) {
+		for (int field = 0; field * 32 < documentBytes; field++) {
+			document.append(String.format("field%d", field), new BsonString(Long.toHexString(random.nextLong()) + Long.toHexString(random.nextLong())));
+		}
+		return document;
+	}
+}
@@ -0,0 +1,63 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * File: WriteModelBenchmark Author: Shyam Arjarapu Date: 2/7/19 8:30 AM Description:
+ *
+ * Measures turning oplog entries into the write models of the bulk writes, for every operation and document size, with
+ * decoded and with raw entries.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriteModelBenchmark {
+	private static final int ENTRIES = 1000;
+
+	@Param({ "i", "u", "d" })
+	public String operation;
+
+	@Param({ "128", "1024", "16384" })
+	public int documentBytes;
+
+	@Param({ "false", "true" })
+	public boolean raw;
+
+	private List<OplogEntry> entries;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		entries = new OplogEntryGenerator(42, "app.users").getEntries(operation, ENTRIES, documentBytes, raw);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ENTRIES)
+	public void getWriteModelForOperation(Blackhole blackhole) {
+		for (OplogEntry entry : entries) {
+			WriteModel<BsonDocument> model = OplogApplyWorker.getWriteModelForOperation(entry);
+			blackhole.consume(model);
+		}
+	}
+}
@@ -1,20 +1,46 @@
 package com.mongodb.migratecluster;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 import org.apache.commons.cli.ParseException;
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import com.mongodb.migratecluster.capture.OplogCapture;
+import com.mongodb.migratecluster.capture.OplogReplay;
 import com.mongodb.migratecluster.commandline.ApplicationOptions;
 import com.mongodb.migratecluster.commandline.ApplicationOptionsLoader;
 import com.mongodb.migratecluster.commandline.InputArgsParser;
+import com.mongodb.migratecluster.commandline.TargetOptions;
+import com.mongodb.migratecluster.copy.InitialCopier;
+import com.mongodb.migratecluster.metrics.MetricsExporter;
+import com.mongodb.migratecluster.metrics.MetricsRegistry;
+import com.mongodb.migratecluster.oplog.ChangeStreamReader;
+import com.mongodb.migratecluster.oplog.CheckpointStore;
+import com.mongodb.migratecluster.oplog.OplogBuffer;
+import com.mongodb.migratecluster.oplog.OplogEntry;
+import com.mongodb.migratecluster.oplog.OplogFanOut;
 import com.mongodb.migratecluster.oplog.OplogReader;
 import com.mongodb.migratecluster.oplog.OplogWriter;
+import com.mongodb.migratecluster.oplog.SpillLog;
 
 /**
  * File: Application Author: Shyam Arjarapu Date: 1/12/17 9:40 AM Description:
  *
  * A class to run the migration of MongoDB cluster based on the inputs configured in config file
  *
+ * With several targets, the oplog of the source is read once and fanned out by an OplogFanOut to a buffer per target,
+ * each applied by an OplogWriter of its own with its own checkpoints; the spill, when configured, is kept per target.
  */
 public class Application {
+	private final static Logger logger = LoggerFactory.getLogger(Application.class);
 
 	public static void main(String[] args) {
 		ApplicationOptions options;
@@ -34,14 +60,232 @@ public class Application {
 
 		String configFilePath = options.getConfigFilePath();
 		if (configFilePath != "") {
+			String mode = options.getMode();
 			options = ApplicationOptionsLoader.load(configFilePath);
+			if (mode != null) {
+				options.setMode(mode);
+			}
+		}
+
+		MetricsRegistry metrics = new MetricsRegistry();
+		boolean fanOut = options.isFanOut() && !options.isCaptureMode();
+
+		// with several targets, the buffer of each target spills rather than the one of the reader
+		SpillLog spill = fanOut ? null : getSpill(options, Paths.get(options.getSpillDirectory()), metrics.withPrefix("reader."));
+		OplogBuffer<OplogEntry> buffer = new OplogBuffer<>(options.getOplogBufferSizeMB() * 1024L * 1024L, spill);
+		metrics.gauge("reader.queue.entries", buffer::getCount);
+		metrics.gauge("reader.queue.bytes", buffer::getSizeInBytes);
+		new MetricsExporter(metrics, options.getMetricsHttpPort()).start();
+
+		if (options.isCaptureMode()) {
+			capture(options, buffer, metrics);
+			return;
+		}
+		if (fanOut) {
+			if (!fanOut(options, buffer, metrics)) {
+				return;
+			}
+		} else {
+			CheckpointStore checkpointStore = new CheckpointStore(options.getTargetClient(), options.getStateDatabase());
+			BsonTimestamp resumePosition = loadResumePosition(options, checkpointStore);
+
+			getStage(getReader(options, buffer, resumePosition, checkpointStore.loadResumeToken(), metrics), "Reader").start();
+
+			OplogWriter writer = new OplogWriter(options, checkpointStore, metrics);
+			Thread thread = getStage(() -> writer.applyOperations(buffer), "Writer");
+			thread.start();
+			if (!awaitWriters(Collections.singletonList(thread))) {
+				return;
+			}
+		}
+
+		if (options.isReplayMode()) {
+			// the capture is applied; the worker threads and the metrics endpoint are still up
+			logger.info("replay completed; stopping");
+			System.exit(0);
+		}
+	}
+
+	/**
+	 * Applies the oplog of the source on every target, reading it once
+	 *
+	 * @param options
+	 *          the options of the application
+	 * @param buffer
+	 *          the buffer the reader publishes to
+	 * @param metrics
+	 *          the registry of the metrics
+	 * @return a boolean representing if every writer returned, false when interrupted
+	 */
+	private static boolean fanOut(ApplicationOptions options, OplogBuffer<OplogEntry> buffer, MetricsRegistry metrics) {
+		List<TargetOptions> targets = options.getTargets();
+		if (options.getSpillDirectory().isEmpty()) {
+			logger.warn("fanning out to {} targets without a spillDirectory; a slow target holds the others back once it is far enough behind",
+					targets.size());
+		}
+		List<ApplicationOptions> targetOptions = new ArrayList<>();
+		List<CheckpointStore> checkpointStores = new ArrayList<>();
+		List<BsonTimestamp> startPositions = new ArrayList<>();
+
+		// the reader starts from the oldest position of the targets
+		BsonTimestamp resumePosition = null;
+		BsonDocument resumeToken = null;
+		boolean fromStart = false;
+		for (TargetOptions target : targets) {
+			ApplicationOptions pipeline = options.getTargetOptions(target);
+			CheckpointStore checkpointStore = new CheckpointStore(pipeline.getTargetClient(), pipeline.getStateDatabase());
+			BsonTimestamp position = loadResumePosition(pipeline, checkpointStore);
+			if (position == null && !options.isReplayMode() && !options.isChangeStreamReader()) {
+				position = OplogReader.guessStartPosition(pipeline.getTargetClient());
+			}
+
+			targetOptions.add(pipeline);
+			checkpointStores.add(checkpointStore);
+			startPositions.add(position);
+			if (position == null) {
+				// a replay without a checkpoint starts from the first capture file, a change stream from now
+				fromStart |= options.isReplayMode();
+			} else if (resumePosition == null || position.compareTo(resumePosition) < 0) {
+				resumePosition = position;
+				resumeToken = checkpointStore.loadResumeToken();
+			}
+		}
+		if (fromStart) {
+			resumePosition = null;
+			resumeToken = null;
+		}
+
+		getStage(getReader(options, buffer, resumePosition, resumeToken, metrics), "Reader").start();
+
+		List<OplogBuffer<OplogEntry>> outputs = new ArrayList<>();
+		List<Thread> writers = new ArrayList<>();
+		for (int i = 0; i < targets.size(); i++) {
+			String name = getTargetName(targets.get(i), i);
+			MetricsRegistry targetMetrics = metrics.withPrefix(String.format("target.%s.", name));
+
+			SpillLog spill = getSpill(options, Paths.get(options.getSpillDirectory(), name), targetMetrics.withPrefix("reader."));
+			OplogBuffer<OplogEntry> output = new OplogBuffer<>(options.getOplogBufferSizeMB() * 1024L * 1024L, spill);
+			targetMetrics.gauge("reader.queue.entries", output::getCount);
+			targetMetrics.gauge("reader.queue.bytes", output::getSizeInBytes);
+			outputs.add(output);
+
+			OplogWriter writer = new OplogWriter(targetOptions.get(i), checkpointStores.get(i), targetMetrics);
+			writers.add(getStage(() -> writer.applyOperations(output), String.format("Writer-%s", name)));
 		}
+		writers.forEach(Thread::start);
+		getStage(new OplogFanOut(buffer, outputs, startPositions), "FanOut").start();
+
+		return awaitWriters(writers);
+	}
 
-		OplogReader reader = new OplogReader(options);
-		new Thread(reader, "Reader").start();
+	/**
+	 * Waits for the writers to return, which they only do once a replay is applied
+	 *
+	 * @param writers
+	 *          the threads of the writers
+	 * @return a boolean representing if every writer returned, false when interrupted
+	 */
+	private static boolean awaitWriters(List<Thread> writers) {
+		for (Thread writer : writers) {
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Get's the position to read the oplog from for a target, running the initial copy first when it is enabled and the
+	 * target has no checkpoint
+	 *
+	 * @param options
+	 *          the options of the target
+	 * @param checkpointStore
+	 *          the checkpoints of the target
+	 * @return the position to resume from, or null when there is no checkpoint
+	 */
+	private static BsonTimestamp loadResumePosition(ApplicationOptions options, CheckpointStore checkpointStore) {
+		BsonTimestamp resumePosition = checkpointStore.loadResumePosition();
+		if (resumePosition == null && options.isInitialCopy() && !options.isReplayMode()) {
+			resumePosition = new InitialCopier(options).copy();
+			// the copy is done; a restart from here on only has to tail the oplog
+			checkpointStore.saveResumePosition(resumePosition);
+		}
+		return resumePosition;
+	}
+
+	private static Runnable getReader(ApplicationOptions options, OplogBuffer<OplogEntry> buffer, BsonTimestamp resumePosition, BsonDocument resumeToken,
+			MetricsRegistry metrics) {
+		if (options.isReplayMode()) {
+			return new OplogReplay(options, buffer, resumePosition, metrics);
+		} else if (options.isChangeStreamReader()) {
+			return new ChangeStreamReader(options, buffer, resumePosition, resumeToken, metrics);
+		}
+		return new OplogReader(options, buffer, resumePosition, metrics);
+	}
+
+	/**
+	 * Get's a thread of a stage of the pipeline; the other stages do not notice when it dies, as they keep waiting for
+	 * the entries it would have published or taken, so the process is stopped when it fails
+	 *
+	 * @param stage
+	 *          the reader, the fan out or a writer
+	 * @param name
+	 *          the name of the thread
+	 * @return a thread ready to be started
+	 */
+	private static Thread getStage(Runnable stage, String name) {
+		Thread thread = new Thread(stage, name);
+		thread.setUncaughtExceptionHandler((failed, e) -> {
+			logger.error("{} failed; stopping the migration", failed.getName(), e);
+			System.exit(1);
+		});
+		return thread;
+	}
+
+	private static SpillLog getSpill(ApplicationOptions options, Path directory, MetricsRegistry metrics) {
+		if (options.getSpillDirectory().isEmpty()) {
+			return null;
+		}
+		SpillLog spill = new SpillLog(directory, options.getSpillSegmentSizeMB() * 1024L * 1024L, options.isSpillCompression(), options.isRawOplogEntries());
+		metrics.gauge("spill.entries", spill::getCount);
+		metrics.gauge("spill.bytes", spill::getSizeInBytes);
+		metrics.gauge("spill.segments", spill::getSegmentCount);
+		return spill;
+	}
+
+	private static String getTargetName(TargetOptions target, int index) {
+		return (target.getName() == null || target.getName().isEmpty()) ? String.format("target%d", index) : target.getName();
+	}
+
+	/**
+	 * Records the oplog of the source from now on into the capture directory, instead of applying it on the target
+	 *
+	 * @param options
+	 *          the options of the application
+	 * @param buffer
+	 *          the buffer the reader publishes to
+	 * @param metrics
+	 *          the registry of the metrics
+	 */
+	private static void capture(ApplicationOptions options, OplogBuffer<OplogEntry> buffer, MetricsRegistry metrics) {
+		BsonTimestamp now = new BsonTimestamp((int) TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()), 0);
+		Runnable reader;
+		if (options.isChangeStreamReader()) {
+			reader = new ChangeStreamReader(options, buffer, now, null, metrics);
+		} else {
+			reader = new OplogReader(options, buffer, now, metrics);
+		}
+		Thread thread = getStage(reader, "Reader");
+		thread.setDaemon(true);
+		thread.start();
 
-		OplogWriter writer = new OplogWriter(options);
-		writer.applyOperations(reader.queue);
+		new OplogCapture(options, metrics).capture(buffer);
+		// the reader may be blocked on the source cursor, and the metrics endpoint is still up
+		System.exit(0);
 	}
 
 }
@@ -0,0 +1,141 @@
+package com.mongodb.migratecluster.capture;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.migratecluster.commandline.ApplicationOptions;
+import com.mongodb.migratecluster.metrics.Meter;
+import com.mongodb.migratecluster.metrics.MetricsRegistry;
+import com.mongodb.migratecluster.oplog.OplogBuffer;
+import com.mongodb.migratecluster.oplog.OplogEntry;
+import com.mongodb.migratecluster.oplog.OplogEntrySerializer;
+
+/**
+ * File: OplogCapture Author: Shyam Arjarapu Date: 2/6/19 8:00 AM Description:
+ *
+ * A class to record the oplog entries published by the reader into gzipped capture files, in place of the writer, so
+ * that the same stretch of the source oplog can later be replayed against a target any number of times by
+ * OplogReplay. The entries are filtered by the source just like for a migration.
+ *
+ * The entries are written one after the other with OplogEntrySerializer; a new file is started once captureFileSizeMB
+ * of entries were written to the current one. The capture runs for captureDurationSeconds, or until the application is
+ * stopped, in which case the last file may end in the middle of an entry.
+ */
+public class OplogCapture {
+	private final static Logger logger = LoggerFactory.getLogger(OplogCapture.class);
+
+	static final String FILE_PREFIX = "capture-";
+	static final String FILE_SUFFIX = ".bson.gz";
+
+	private final Path directory;
+	private final long fileSizeInBytes;
+	private final long durationMillis;
+	private final Meter capturedMeter;
+
+	private DataOutputStream output;
+	private long fileId;
+	private long fileBytes;
+
+	public OplogCapture(ApplicationOptions options, MetricsRegistry metrics) {
+		this.directory = Paths.get(options.getCaptureDirectory());
+		this.fileSizeInBytes = options.getCaptureFileSizeMB() * 1024L * 1024L;
+		this.durationMillis = TimeUnit.SECONDS.toMillis(options.getCaptureDurationSeconds());
+		this.capturedMeter = metrics.meter("capture.written");
+	}
+
+	/**
+	 * Get's the name of the nth capture file; the names sort in the order the files were written
+	 *
+	 * @param fileId
+	 *          the index of the file
+	 * @return the file name
+	 */
+	static String getFileName(long fileId) {
+		return String.format("%s%010d%s", FILE_PREFIX, fileId, FILE_SUFFIX);
+	}
+
+	/**
+	 * Records the entries of the buffer until the capture duration is over
+	 *
+	 * @param buffer
+	 *          a buffer of oplog entries published by the reader
+	 */
+	public void capture(OplogBuffer<OplogEntry> buffer) {
+		prepareDirectory();
+
+		long deadline = (durationMillis > 0) ? System.currentTimeMillis() + durationMillis : Long.MAX_VALUE;
+		long count = 0;
+		List<OplogEntry> entries = new ArrayList<>();
+		try {
+			while (System.currentTimeMillis() < deadline) {
+				entries.clear();
+				buffer.drainTo(entries, Math.min(1000, Math.max(1, deadline - System.currentTimeMillis())), TimeUnit.MILLISECONDS);
+
+				for (OplogEntry entry : entries) {
+					write(entry);
+				}
+				count += entries.size();
+				capturedMeter.mark(entries.size());
+			}
+		} catch (InterruptedException e) {
+			logger.info("oplog capture interrupted; stopping");
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			throw new UncheckedIOException(String.format("error while writing the capture files in %s", directory), e);
+		} finally {
+			close();
+		}
+		logger.info("captured {} oplog entries into {} files in {}", count, fileId, directory);
+	}
+
+	private void prepareDirectory() {
+		try {
+			Files.createDirectories(directory);
+			try (Stream<Path> files = Files.list(directory)) {
+				if (files.anyMatch(path -> path.getFileName().toString().startsWith(FILE_PREFIX))) {
+					throw new IllegalStateException(String.format("the capture directory %s already holds a capture", directory));
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(String.format("unable to prepare the capture directory %s", directory), e);
+		}
+	}
+
+	private void write(OplogEntry entry) throws IOException {
+		if (output == null || fileBytes >= fileSizeInBytes) {
+			close();
+			Path path = directory.resolve(getFileName(fileId++));
+			output = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(path), 64 * 1024)));
+			fileBytes = 0;
+			logger.info("capturing the oplog into {}", path);
+		}
+		int before = output.size();
+		OplogEntrySerializer.write(output, entry);
+		fileBytes += output.size() - before;
+	}
+
+	private void close() {
+		if (output == null) {
+			return;
+		}
+		try {
+			output.close();
+		} catch (IOException e) {
+			logger.error("error while closing a capture file", e);
+		}
+		output = null;
+	}
+}
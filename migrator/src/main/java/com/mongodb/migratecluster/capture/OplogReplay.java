@@ -0,0 +1,169 @@
+package com.mongodb.migratecluster.capture;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import org.bson.BsonTimestamp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.migratecluster.commandline.ApplicationOptions;
+import com.mongodb.migratecluster.metrics.Meter;
+import com.mongodb.migratecluster.metrics.MetricsRegistry;
+import com.mongodb.migratecluster.oplog.OplogBuffer;
+import com.mongodb.migratecluster.oplog.OplogEntry;
+import com.mongodb.migratecluster.oplog.OplogEntrySerializer;
+
+/**
+ * File: OplogReplay Author: Shyam Arjarapu Date: 2/6/19 8:40 AM Description:
+ *
+ * A class to publish the oplog entries of the capture files written by OplogCapture to the oplog buffer, in place of
+ * the reader, so that the writer applies a recorded stretch of the source oplog on a target.
+ *
+ * The entries are published at replaySpeed times the pace they were written to the source, as told by their ts; the ts
+ * only has a resolution of a second, so the entries of a second are published together. A replaySpeed of zero
+ * publishes them as fast as the writer takes them. The entries older than the resume position of a previous replay of
+ * the same target are skipped. The buffer is closed once the last capture file is replayed, so that the writer stops
+ * when it has applied every entry.
+ */
+public class OplogReplay implements Runnable {
+	private final int MAX_BATCH_COUNT = 10000;
+	private final int MAX_BATCH_BYTES = 16 * 1024 * 1024;
+
+	private final static Logger logger = LoggerFactory.getLogger(OplogReplay.class);
+
+	private final Path directory;
+	private final double speed;
+	private final boolean rawEntries;
+	private final OplogBuffer<OplogEntry> buffer;
+	private final BsonTimestamp resumePosition;
+	private final Meter readMeter;
+	private final Meter readBytesMeter;
+
+	private final List<OplogEntry> batch = new ArrayList<>();
+	private long batchBytes;
+	private BsonTimestamp firstTs;
+	private long startedAt;
+
+	public OplogReplay(ApplicationOptions options, OplogBuffer<OplogEntry> buffer, BsonTimestamp resumePosition, MetricsRegistry metrics) {
+		this.directory = Paths.get(options.getCaptureDirectory());
+		this.speed = options.getReplaySpeed();
+		this.rawEntries = options.isRawOplogEntries();
+		this.buffer = buffer;
+		this.resumePosition = resumePosition;
+		this.readMeter = metrics.meter("oplog.read");
+		this.readBytesMeter = metrics.meter("oplog.readBytes");
+	}
+
+	/**
+	 * Get's the capture files of a directory in the order they were written
+	 *
+	 * @param directory
+	 *          the capture directory
+	 * @return the paths of the capture files
+	 */
+	static List<Path> getFiles(Path directory) {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(path -> path.getFileName().toString().startsWith(OplogCapture.FILE_PREFIX)).sorted().collect(Collectors.toList());
+		} catch (IOException e) {
+			throw new UncheckedIOException(String.format("unable to list the capture directory %s", directory), e);
+		}
+	}
+
+	@Override
+	public void run() {
+		List<Path> files = getFiles(directory);
+		if (files.isEmpty()) {
+			throw new IllegalStateException(String.format("the capture directory %s holds no capture", directory));
+		}
+		logger.info("replaying {} capture files of {} at {}", files.size(), directory, (speed > 0) ? speed + "x" : "maximum speed");
+
+		long count = 0;
+		long started = System.currentTimeMillis();
+		try {
+			for (Path path : files) {
+				count += replay(path);
+			}
+			publish();
+		} catch (InterruptedException e) {
+			logger.info("oplog replay interrupted; stopping");
+			Thread.currentThread().interrupt();
+			return;
+		}
+		logger.info("replayed {} oplog entries in {} seconds", count, TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - started));
+		// the writer applies what is left, saves its checkpoint and returns
+		buffer.close();
+	}
+
+	private long replay(Path path) throws InterruptedException {
+		long count = 0;
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(path), 64 * 1024)))) {
+			OplogEntry entry;
+			while ((entry = OplogEntrySerializer.read(input, rawEntries)) != null) {
+				if (resumePosition != null && entry.getTimestamp().compareTo(resumePosition) < 0) {
+					continue;
+				}
+				pace(entry.getTimestamp());
+
+				batch.add(entry);
+				batchBytes += entry.getSizeInBytes();
+				count++;
+				if (batch.size() >= MAX_BATCH_COUNT || batchBytes >= MAX_BATCH_BYTES) {
+					publish();
+				}
+			}
+		} catch (EOFException e) {
+			// the capture was stopped while this file was written
+			logger.warn("the capture file {} is truncated; replaying the {} entries before the end", path, count);
+		} catch (IOException e) {
+			throw new UncheckedIOException(String.format("error while reading the capture file %s", path), e);
+		}
+		return count;
+	}
+
+	/**
+	 * Waits until an entry is due, publishing the entries read so far first
+	 *
+	 * @param ts
+	 *          the timestamp of the next entry
+	 */
+	private void pace(BsonTimestamp ts) throws InterruptedException {
+		if (speed <= 0) {
+			return;
+		}
+		if (firstTs == null) {
+			firstTs = ts;
+			startedAt = System.nanoTime();
+		}
+
+		long due = startedAt + (long) (TimeUnit.SECONDS.toNanos(ts.getTime() - firstTs.getTime()) / speed);
+		long wait = due - System.nanoTime();
+		if (wait > 0) {
+			publish();
+			TimeUnit.NANOSECONDS.sleep(wait);
+		}
+	}
+
+	private void publish() throws InterruptedException {
+		if (batch.isEmpty()) {
+			return;
+		}
+		buffer.put(new ArrayList<>(batch), batchBytes);
+		readMeter.mark(batch.size());
+		readBytesMeter.mark(batchBytes);
+		batch.clear();
+		batchBytes = 0;
+	}
+}
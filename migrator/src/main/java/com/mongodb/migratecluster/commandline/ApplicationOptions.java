@@ -1,9 +1,15 @@
 package com.mongodb.migratecluster.commandline;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mongodb.MongoClient;
 import com.mongodb.MongoClientURI;
 
@@ -13,19 +19,94 @@ import com.mongodb.MongoClientURI;
 public class ApplicationOptions {
 	private String sourceCluster;
 	private String targetCluster;
+	private ConnectionProfile sourceConnection;
+	private ConnectionProfile targetConnection;
+	private List<TargetOptions> targets;
 	private String configFilePath;
 	private boolean showHelp;
 	private List<ResourceFilter> blackListFilter;
+	private List<ResourceFilter> whiteListFilter;
+	private int oplogBufferSizeMB;
+	private int writerThreads;
+	private int commandThreads;
+	private String transactionMode;
+	private Map<String, Integer> namespaceLanes;
+	private String stateDatabase;
+	private boolean compactBatches;
+	private boolean rawOplogEntries;
+	private int batchMaxSizeMB;
+	private int batchMaxAgeMillis;
+	private int maxInFlightBatches;
+	private int metricsHttpPort;
+	private boolean initialCopy;
+	private int copyThreads;
+	private int copyRangeSizeMB;
+	private int copyBatchSize;
+	private boolean deferIndexBuilds;
+	private boolean shardedSource;
+	private boolean skipFromMigrate;
+	private String readerMode;
+	private int changeStreamBatchSize;
+	private int changeStreamMaxAwaitTimeMS;
+	private int oplogMaxAwaitTimeMS;
+	private int oplogPrefetchSizeMB;
+	private String spillDirectory;
+	private int spillSegmentSizeMB;
+	private boolean spillCompression;
+	private String mode;
+	private String captureDirectory;
+	private int captureFileSizeMB;
+	private int captureDurationSeconds;
+	private double replaySpeed;
 
 	private MongoClient sourceClient;
 	private MongoClient targetClient;
+	private final Map<String, MongoClient> shardClients = new HashMap<>();
+	// the options of the application a target was derived from, sharing its clients to the source
+	private ApplicationOptions application;
 
 	public ApplicationOptions() {
 		sourceCluster = "";
 		targetCluster = "";
+		sourceConnection = new ConnectionProfile();
+		targetConnection = new ConnectionProfile();
+		targets = new ArrayList<>();
 		configFilePath = "";
 		showHelp = false;
 		setBlackListFilter(new ArrayList<>());
+		whiteListFilter = new ArrayList<>();
+		oplogBufferSizeMB = 64;
+		writerThreads = 4;
+		commandThreads = 2;
+		transactionMode = "parallel";
+		namespaceLanes = new HashMap<>();
+		stateDatabase = "migrate_mongo_cluster";
+		compactBatches = false;
+		rawOplogEntries = false;
+		batchMaxSizeMB = 16;
+		batchMaxAgeMillis = 50;
+		maxInFlightBatches = 4;
+		metricsHttpPort = 0;
+		initialCopy = false;
+		copyThreads = 8;
+		copyRangeSizeMB = 64;
+		copyBatchSize = 1000;
+		deferIndexBuilds = false;
+		shardedSource = false;
+		skipFromMigrate = true;
+		readerMode = "oplog";
+		changeStreamBatchSize = 1000;
+		changeStreamMaxAwaitTimeMS = 1000;
+		oplogMaxAwaitTimeMS = 1000;
+		oplogPrefetchSizeMB = 16;
+		spillDirectory = "";
+		spillSegmentSizeMB = 64;
+		spillCompression = false;
+		mode = "migrate";
+		captureDirectory = "capture";
+		captureFileSizeMB = 256;
+		captureDurationSeconds = 0;
+		replaySpeed = 1;
 	}
 
 	@JsonProperty("sourceCluster")
@@ -46,6 +127,96 @@ public class ApplicationOptions {
 		this.targetCluster = targetCluster;
 	}
 
+	/**
+	 * Get's the settings of the connections to the source cluster and its shards
+	 *
+	 * @return the connection profile of the source
+	 */
+	@JsonProperty("sourceConnection")
+	public ConnectionProfile getSourceConnection() {
+		return sourceConnection;
+	}
+
+	public void setSourceConnection(ConnectionProfile sourceConnection) {
+		this.sourceConnection = sourceConnection;
+	}
+
+	/**
+	 * Get's the settings of the connections to the target cluster
+	 *
+	 * @return the connection profile of the target
+	 */
+	@JsonProperty("targetConnection")
+	public ConnectionProfile getTargetConnection() {
+		return targetConnection;
+	}
+
+	public void setTargetConnection(ConnectionProfile targetConnection) {
+		this.targetConnection = targetConnection;
+	}
+
+	/**
+	 * Get's the targets the oplog of the source is fanned out to, each applying it through a pipeline of its own; the
+	 * targetCluster is used when it is empty
+	 *
+	 * @return a list of targets
+	 */
+	@JsonProperty("targets")
+	public List<TargetOptions> getTargets() {
+		return targets;
+	}
+
+	public void setTargets(List<TargetOptions> targets) {
+		this.targets = targets;
+	}
+
+	/**
+	 * Indicates if the oplog of the source is fanned out to several targets
+	 *
+	 * @return a boolean representing if targets are configured or not
+	 */
+	public boolean isFanOut() {
+		return targets != null && !targets.isEmpty();
+	}
+
+	/**
+	 * Get's the options of the pipeline of a target: the options of the application, with the cluster, the connection,
+	 * the filters and the state database of the target. The clients to the source are shared with the application.
+	 *
+	 * @param target
+	 *          one of the targets
+	 * @return the options of the target
+	 */
+	public ApplicationOptions getTargetOptions(TargetOptions target) {
+		// only the settings of the config file are copied, not the derived values nor the clients
+		ObjectMapper mapper = new ObjectMapper();
+		mapper.setVisibility(PropertyAccessor.GETTER, Visibility.NONE);
+		mapper.setVisibility(PropertyAccessor.IS_GETTER, Visibility.NONE);
+		ApplicationOptions options;
+		try {
+			options = mapper.treeToValue(mapper.valueToTree(this), ApplicationOptions.class);
+		} catch (IOException e) {
+			throw new RuntimeException(String.format("error while copying the options of target: '%s'", target.getName()), e);
+		}
+		options.application = (application == null) ? this : application;
+		options.setTargets(new ArrayList<>());
+
+		options.setTargetCluster(target.getTargetCluster());
+		if (target.getTargetConnection() != null) {
+			options.setTargetConnection(target.getTargetConnection());
+		}
+		if (target.getBlackListFilter() != null) {
+			options.getBlackListFilter().addAll(target.getBlackListFilter());
+		}
+		if (target.getWhiteListFilter() != null && !target.getWhiteListFilter().isEmpty()) {
+			options.setWhiteListFilter(new ArrayList<>(target.getWhiteListFilter()));
+		}
+		if (target.getStateDatabase() != null && !target.getStateDatabase().isEmpty()) {
+			options.setStateDatabase(target.getStateDatabase());
+		}
+		return options;
+	}
+
 	@JsonProperty("configFilePath")
 	public String getConfigFilePath() {
 		return configFilePath;
@@ -72,16 +243,537 @@ public class ApplicationOptions {
 		this.blackListFilter = blackListFilter;
 	}
 
+	/**
+	 * Get's the only resources to migrate, in the same format as the black list; everything is migrated when it is empty.
+	 * The black list still applies to the white listed resources.
+	 *
+	 * @return a list of resource filters
+	 */
+	@JsonProperty("whiteListFilter")
+	public List<ResourceFilter> getWhiteListFilter() {
+		return whiteListFilter;
+	}
+
+	public void setWhiteListFilter(List<ResourceFilter> whiteListFilter) {
+		this.whiteListFilter = whiteListFilter;
+	}
+
+	/**
+	 * Get's the capacity of the buffer between the oplog reader and the oplog writer
+	 *
+	 * @return the size of the buffer in mega bytes of raw oplog entries
+	 */
+	@JsonProperty("oplogBufferSizeMB")
+	public int getOplogBufferSizeMB() {
+		return oplogBufferSizeMB;
+	}
+
+	public void setOplogBufferSizeMB(int oplogBufferSizeMB) {
+		this.oplogBufferSizeMB = oplogBufferSizeMB;
+	}
+
+	/**
+	 * Get's the number of workers applying the oplog entries on the target in parallel
+	 *
+	 * @return the number of writer threads
+	 */
+	@JsonProperty("writerThreads")
+	public int getWriterThreads() {
+		return writerThreads;
+	}
+
+	public void setWriterThreads(int writerThreads) {
+		this.writerThreads = writerThreads;
+	}
+
+	/**
+	 * Get's the number of threads running the commands of the oplog, such as index builds, on the target; the entries of
+	 * the namespaces a command touches wait for it, while the other namespaces keep being applied
+	 *
+	 * @return the number of command threads
+	 */
+	@JsonProperty("commandThreads")
+	public int getCommandThreads() {
+		return commandThreads;
+	}
+
+	public void setCommandThreads(int commandThreads) {
+		this.commandThreads = commandThreads;
+	}
+
+	/**
+	 * Get's how the transactions of the source are replayed; "parallel" applies their operations like any other entry,
+	 * "atomic" replays each of them as a transaction of the target
+	 *
+	 * @return a string representing the transaction mode
+	 */
+	@JsonProperty("transactionMode")
+	public String getTransactionMode() {
+		return transactionMode;
+	}
+
+	public void setTransactionMode(String transactionMode) {
+		this.transactionMode = transactionMode;
+	}
+
+	/**
+	 * Indicates if the transactions of the source are replayed as transactions of the target
+	 *
+	 * @return a boolean representing if the transactions are atomic or not
+	 */
+	public boolean isAtomicTransactions() {
+		return "atomic".equalsIgnoreCase(transactionMode);
+	}
+
+	/**
+	 * Get's the namespaces whose oplog entries are split into lanes by the hash of the document _id. Entries of the same
+	 * document stay in order; only enable it for namespaces without unique secondary indexes, as the relative order of
+	 * writes to different documents is not preserved.
+	 *
+	 * @return a map of namespace to the number of lanes
+	 */
+	@JsonProperty("namespaceLanes")
+	public Map<String, Integer> getNamespaceLanes() {
+		return namespaceLanes;
+	}
+
+	public void setNamespaceLanes(Map<String, Integer> namespaceLanes) {
+		this.namespaceLanes = namespaceLanes;
+	}
+
+	/**
+	 * Get's the name of the database on the target holding the state of the migration, such as the oplog checkpoints
+	 *
+	 * @return a string representing the database
+	 */
+	@JsonProperty("stateDatabase")
+	public String getStateDatabase() {
+		return stateDatabase;
+	}
+
+	public void setStateDatabase(String stateDatabase) {
+		this.stateDatabase = stateDatabase;
+	}
+
+	/**
+	 * Indicates if the write models of a namespace batch are compacted before they are written; successive updates of a
+	 * document are merged and operations made obsolete by a later delete are dropped
+	 *
+	 * @return a boolean representing if the batches are compacted or not
+	 */
+	@JsonProperty("compactBatches")
+	public boolean isCompactBatches() {
+		return compactBatches;
+	}
+
+	public void setCompactBatches(boolean compactBatches) {
+		this.compactBatches = compactBatches;
+	}
+
+	/**
+	 * Indicates if the oplog entries are passed from the reader to the target as the raw bytes read from the source.
+	 * Only the fields needed for routing are decoded; the documents are forwarded to the write models undecoded.
+	 *
+	 * @return a boolean representing if the oplog entries stay raw or not
+	 */
+	@JsonProperty("rawOplogEntries")
+	public boolean isRawOplogEntries() {
+		return rawOplogEntries;
+	}
+
+	public void setRawOplogEntries(boolean rawOplogEntries) {
+		this.rawOplogEntries = rawOplogEntries;
+	}
+
+	/**
+	 * Get's the maximum estimated size of a namespace batch sent to the target in one bulk write. It is kept below the
+	 * 48 MB message size limit of the server.
+	 *
+	 * @return an int representing the size in megabytes
+	 */
+	@JsonProperty("batchMaxSizeMB")
+	public int getBatchMaxSizeMB() {
+		return batchMaxSizeMB;
+	}
+
+	public void setBatchMaxSizeMB(int batchMaxSizeMB) {
+		this.batchMaxSizeMB = batchMaxSizeMB;
+	}
+
+	/**
+	 * Get's the longest time the first entry of a namespace batch waits before the batch is written, however busy the
+	 * other namespaces keep the writer
+	 *
+	 * @return an int representing the age in milliseconds
+	 */
+	@JsonProperty("batchMaxAgeMillis")
+	public int getBatchMaxAgeMillis() {
+		return batchMaxAgeMillis;
+	}
+
+	public void setBatchMaxAgeMillis(int batchMaxAgeMillis) {
+		this.batchMaxAgeMillis = batchMaxAgeMillis;
+	}
+
+	/**
+	 * Get's the number of bulk writes each writer keeps in flight on the target at once. Only the batches of different
+	 * namespaces, or of different lanes of a namespace, overlap; the batches of one lane are written one after the other.
+	 * 1 waits for every bulk write before the next one.
+	 *
+	 * @return an int representing the number of bulk writes per writer
+	 */
+	@JsonProperty("maxInFlightBatches")
+	public int getMaxInFlightBatches() {
+		return maxInFlightBatches;
+	}
+
+	public void setMaxInFlightBatches(int maxInFlightBatches) {
+		this.maxInFlightBatches = maxInFlightBatches;
+	}
+
+	/**
+	 * Get's the local port the metrics are served on as JSON, at /metrics. The metrics are always published through JMX;
+	 * 0 does not start the http endpoint.
+	 *
+	 * @return an int representing the port
+	 */
+	@JsonProperty("metricsHttpPort")
+	public int getMetricsHttpPort() {
+		return metricsHttpPort;
+	}
+
+	public void setMetricsHttpPort(int metricsHttpPort) {
+		this.metricsHttpPort = metricsHttpPort;
+	}
+
+	/**
+	 * Indicates if the collections are copied from the source before the oplog is tailed. The copy only runs when there
+	 * is no saved oplog position to resume from.
+	 *
+	 * @return a boolean representing if the initial copy runs or not
+	 */
+	@JsonProperty("initialCopy")
+	public boolean isInitialCopy() {
+		return initialCopy;
+	}
+
+	public void setInitialCopy(boolean initialCopy) {
+		this.initialCopy = initialCopy;
+	}
+
+	/**
+	 * Get's the number of collection ranges copied in parallel during the initial copy
+	 *
+	 * @return an int representing the number of copy threads
+	 */
+	@JsonProperty("copyThreads")
+	public int getCopyThreads() {
+		return copyThreads;
+	}
+
+	public void setCopyThreads(int copyThreads) {
+		this.copyThreads = copyThreads;
+	}
+
+	/**
+	 * Get's the size of the _id ranges the collections are split into for the initial copy
+	 *
+	 * @return an int representing the size in megabytes
+	 */
+	@JsonProperty("copyRangeSizeMB")
+	public int getCopyRangeSizeMB() {
+		return copyRangeSizeMB;
+	}
+
+	public void setCopyRangeSizeMB(int copyRangeSizeMB) {
+		this.copyRangeSizeMB = copyRangeSizeMB;
+	}
+
+	/**
+	 * Get's the number of documents inserted on the target at once during the initial copy
+	 *
+	 * @return an int representing the number of documents
+	 */
+	@JsonProperty("copyBatchSize")
+	public int getCopyBatchSize() {
+		return copyBatchSize;
+	}
+
+	public void setCopyBatchSize(int copyBatchSize) {
+		this.copyBatchSize = copyBatchSize;
+	}
+
+	/**
+	 * Indicates if the secondary indexes of the source are built on the target only once the initial copy is done,
+	 * instead of being pre-created and maintained by every copied document
+	 *
+	 * @return a boolean representing if the index builds are deferred or not
+	 */
+	@JsonProperty("deferIndexBuilds")
+	public boolean isDeferIndexBuilds() {
+		return deferIndexBuilds;
+	}
+
+	public void setDeferIndexBuilds(boolean deferIndexBuilds) {
+		this.deferIndexBuilds = deferIndexBuilds;
+	}
+
+	/**
+	 * Indicates if the source cluster is a mongos of a sharded cluster, in which case the oplog of every shard is tailed
+	 * and merged by timestamp
+	 *
+	 * @return a boolean representing if the source is sharded or not
+	 */
+	@JsonProperty("shardedSource")
+	public boolean isShardedSource() {
+		return shardedSource;
+	}
+
+	public void setShardedSource(boolean shardedSource) {
+		this.shardedSource = shardedSource;
+	}
+
+	/**
+	 * Indicates if the oplog entries written by chunk migrations between the shards of the source, flagged fromMigrate,
+	 * are skipped. Replaying them would delete the migrated documents from the target.
+	 *
+	 * @return a boolean representing if the migration entries are skipped or not
+	 */
+	@JsonProperty("skipFromMigrate")
+	public boolean isSkipFromMigrate() {
+		return skipFromMigrate;
+	}
+
+	public void setSkipFromMigrate(boolean skipFromMigrate) {
+		this.skipFromMigrate = skipFromMigrate;
+	}
+
+	/**
+	 * Get's how the changes of the source are read; "oplog" tails local.oplog.rs, "changeStream" watches a change stream
+	 * of the whole cluster
+	 *
+	 * @return a string representing the reader mode
+	 */
+	@JsonProperty("readerMode")
+	public String getReaderMode() {
+		return readerMode;
+	}
+
+	public void setReaderMode(String readerMode) {
+		this.readerMode = readerMode;
+	}
+
+	/**
+	 * Indicates if the changes of the source are read from a change stream rather than from the oplog
+	 *
+	 * @return a boolean representing if the change stream reader is used or not
+	 */
+	public boolean isChangeStreamReader() {
+		return "changeStream".equalsIgnoreCase(readerMode);
+	}
+
+	/**
+	 * Get's the number of change events returned by the source in each batch of the change stream
+	 *
+	 * @return an int representing the number of events
+	 */
+	@JsonProperty("changeStreamBatchSize")
+	public int getChangeStreamBatchSize() {
+		return changeStreamBatchSize;
+	}
+
+	public void setChangeStreamBatchSize(int changeStreamBatchSize) {
+		this.changeStreamBatchSize = changeStreamBatchSize;
+	}
+
+	/**
+	 * Get's the number of milliseconds the source waits for new change events before answering an empty batch
+	 *
+	 * @return an int representing the milliseconds
+	 */
+	@JsonProperty("changeStreamMaxAwaitTimeMS")
+	public int getChangeStreamMaxAwaitTimeMS() {
+		return changeStreamMaxAwaitTimeMS;
+	}
+
+	public void setChangeStreamMaxAwaitTimeMS(int changeStreamMaxAwaitTimeMS) {
+		this.changeStreamMaxAwaitTimeMS = changeStreamMaxAwaitTimeMS;
+	}
+
+	/**
+	 * Get's the number of milliseconds the source waits for new oplog entries before answering an empty getMore on the
+	 * tailed oplog; new entries are returned as soon as they are written either way
+	 *
+	 * @return an int representing the milliseconds
+	 */
+	@JsonProperty("oplogMaxAwaitTimeMS")
+	public int getOplogMaxAwaitTimeMS() {
+		return oplogMaxAwaitTimeMS;
+	}
+
+	public void setOplogMaxAwaitTimeMS(int oplogMaxAwaitTimeMS) {
+		this.oplogMaxAwaitTimeMS = oplogMaxAwaitTimeMS;
+	}
+
+	/**
+	 * Get's the size of the oplog entries fetched ahead from the tailed oplog while the reader publishes the current ones
+	 *
+	 * @return an int representing the size in MB
+	 */
+	@JsonProperty("oplogPrefetchSizeMB")
+	public int getOplogPrefetchSizeMB() {
+		return oplogPrefetchSizeMB;
+	}
+
+	public void setOplogPrefetchSizeMB(int oplogPrefetchSizeMB) {
+		this.oplogPrefetchSizeMB = oplogPrefetchSizeMB;
+	}
+
+	/**
+	 * Get's the local directory the oplog buffer spills to once it is full, so the reader never waits for the writer;
+	 * empty to make the reader wait instead
+	 *
+	 * @return a string representing the spill directory
+	 */
+	@JsonProperty("spillDirectory")
+	public String getSpillDirectory() {
+		return spillDirectory;
+	}
+
+	public void setSpillDirectory(String spillDirectory) {
+		this.spillDirectory = spillDirectory;
+	}
+
+	/**
+	 * Get's the size of each segment file of the spill
+	 *
+	 * @return an int representing the size in mega bytes
+	 */
+	@JsonProperty("spillSegmentSizeMB")
+	public int getSpillSegmentSizeMB() {
+		return spillSegmentSizeMB;
+	}
+
+	public void setSpillSegmentSizeMB(int spillSegmentSizeMB) {
+		this.spillSegmentSizeMB = spillSegmentSizeMB;
+	}
+
+	/**
+	 * Indicates if the batches written to the spill are deflated
+	 *
+	 * @return a boolean representing if the spill is compressed or not
+	 */
+	@JsonProperty("spillCompression")
+	public boolean isSpillCompression() {
+		return spillCompression;
+	}
+
+	public void setSpillCompression(boolean spillCompression) {
+		this.spillCompression = spillCompression;
+	}
+
+	/**
+	 * Get's what the application does; "migrate" applies the oplog of the source on the target, "capture" records the
+	 * oplog of the source into the capture directory and "replay" applies a recorded capture on the target
+	 *
+	 * @return a string representing the mode
+	 */
+	@JsonProperty("mode")
+	public String getMode() {
+		return mode;
+	}
+
+	public void setMode(String mode) {
+		this.mode = mode;
+	}
+
+	/**
+	 * Indicates if the oplog of the source is recorded into capture files instead of being applied
+	 *
+	 * @return a boolean representing if the mode is capture or not
+	 */
+	public boolean isCaptureMode() {
+		return "capture".equalsIgnoreCase(mode);
+	}
+
+	/**
+	 * Indicates if a recorded capture is applied on the target instead of the oplog of the source
+	 *
+	 * @return a boolean representing if the mode is replay or not
+	 */
+	public boolean isReplayMode() {
+		return "replay".equalsIgnoreCase(mode);
+	}
+
+	/**
+	 * Get's the local directory the capture files are written to and replayed from
+	 *
+	 * @return a string representing the capture directory
+	 */
+	@JsonProperty("captureDirectory")
+	public String getCaptureDirectory() {
+		return captureDirectory;
+	}
+
+	public void setCaptureDirectory(String captureDirectory) {
+		this.captureDirectory = captureDirectory;
+	}
+
+	/**
+	 * Get's the size of the oplog entries written to a capture file before the next one is started
+	 *
+	 * @return an int representing the size in mega bytes, before compression
+	 */
+	@JsonProperty("captureFileSizeMB")
+	public int getCaptureFileSizeMB() {
+		return captureFileSizeMB;
+	}
+
+	public void setCaptureFileSizeMB(int captureFileSizeMB) {
+		this.captureFileSizeMB = captureFileSizeMB;
+	}
+
+	/**
+	 * Get's how long the oplog is captured for; zero to capture until the application is stopped
+	 *
+	 * @return an int representing the seconds
+	 */
+	@JsonProperty("captureDurationSeconds")
+	public int getCaptureDurationSeconds() {
+		return captureDurationSeconds;
+	}
+
+	public void setCaptureDurationSeconds(int captureDurationSeconds) {
+		this.captureDurationSeconds = captureDurationSeconds;
+	}
+
+	/**
+	 * Get's how fast a capture is replayed compared to the pace it was recorded at, such as 3 for three times faster;
+	 * zero to replay it as fast as the target takes it
+	 *
+	 * @return a double representing the speed
+	 */
+	@JsonProperty("replaySpeed")
+	public double getReplaySpeed() {
+		return replaySpeed;
+	}
+
+	public void setReplaySpeed(double replaySpeed) {
+		this.replaySpeed = replaySpeed;
+	}
+
 	/**
 	 * Get's the Mongo Client pointing to the custom cluster
 	 *
 	 * @param cluster
 	 *          a string representing a mongodb servers
+	 * @param profile
+	 *          the settings of the connection
 	 * @return a MongoClient object pointing to specific cluster
 	 */
-	private MongoClient getMongoClient(String cluster) {
+	private MongoClient getMongoClient(String cluster, ConnectionProfile profile) {
 		String connectionString = String.format("mongodb://%s", cluster);
-		MongoClientURI uri = new MongoClientURI(connectionString);
+		MongoClientURI uri = new MongoClientURI(connectionString, profile.getClientOptions());
 		return new MongoClient(uri);
 	}
 
@@ -91,12 +783,58 @@ public class ApplicationOptions {
 	 * @return a MongoClient object pointing to source
 	 */
 	public MongoClient getSourceClient() {
+		if (application != null) {
+			return application.getSourceClient();
+		}
 		if (sourceClient == null) {
-			sourceClient = getMongoClient(getSourceCluster());
+			sourceClient = getMongoClient(getSourceCluster(), getSourceConnection());
 		}
 		return sourceClient;
 	}
 
+	/**
+	 * Get's the Mongo Client pointing to a shard of the source cluster; it uses the credentials and the options of the
+	 * source cluster
+	 *
+	 * @param shardHost
+	 *          the host string of the shard as listed in config.shards, such as "rs0/host1:27017,host2:27017"
+	 * @return a MongoClient object pointing to the shard
+	 */
+	public synchronized MongoClient getShardClient(String shardHost) {
+		if (application != null) {
+			return application.getShardClient(shardHost);
+		}
+		return shardClients.computeIfAbsent(shardHost, host -> getMongoClient(getShardCluster(getSourceCluster(), host), getSourceConnection()));
+	}
+
+	/**
+	 * Get's the cluster string of a shard, keeping the credentials and the options of the cluster it was discovered from
+	 *
+	 * @param cluster
+	 *          the cluster string of the mongos, such as "user:pwd@mongos:27017/?authSource=admin"
+	 * @param shardHost
+	 *          the host string of the shard, such as "rs0/host1:27017,host2:27017"
+	 * @return the cluster string of the shard, such as "user:pwd@host1:27017,host2:27017/?authSource=admin&replicaSet=rs0"
+	 */
+	static String getShardCluster(String cluster, String shardHost) {
+		int slash = shardHost.indexOf('/');
+		String hosts = (slash < 0) ? shardHost : shardHost.substring(slash + 1);
+
+		int at = cluster.indexOf('@');
+		String credentials = (at < 0) ? "" : cluster.substring(0, at + 1);
+
+		List<String> parameters = new ArrayList<>();
+		int query = cluster.indexOf('?');
+		if (query >= 0 && query < cluster.length() - 1) {
+			parameters.add(cluster.substring(query + 1));
+		}
+		if (slash > 0) {
+			parameters.add("replicaSet=" + shardHost.substring(0, slash));
+		}
+
+		return String.format("%s%s/%s%s", credentials, hosts, parameters.isEmpty() ? "" : "?", String.join("&", parameters));
+	}
+
 	/**
 	 * Get's the Mongo Client pointing to the target cluster
 	 *
@@ -104,7 +842,7 @@ public class ApplicationOptions {
 	 */
 	public MongoClient getTargetClient() {
 		if (targetClient == null) {
-			targetClient = getMongoClient(getTargetCluster());
+			targetClient = getMongoClient(getTargetCluster(), getTargetConnection());
 		}
 		return targetClient;
 	}
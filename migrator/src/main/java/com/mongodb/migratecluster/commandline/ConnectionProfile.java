@@ -0,0 +1,213 @@
+package com.mongodb.migratecluster.commandline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.MongoCompressor;
+import com.mongodb.ReadPreference;
+import com.mongodb.Tag;
+import com.mongodb.TagSet;
+
+/**
+ * File: ConnectionProfile Author: Shyam Arjarapu Date: 2/12/19 7:30 AM Description:
+ *
+ * The settings of the connection to a cluster, given as sourceConnection and targetConnection in the config file. A
+ * setting left out keeps the default of the driver, and the options of the cluster string win over the profile.
+ *
+ * { "compressors": [ "snappy", "zlib" ], "zlibCompressionLevel": 6, "minPoolSize": 4, "maxPoolSize": 64,
+ * "batchSize": 5000, "localThresholdMS": 30, "readPreference": "secondary", "readPreferenceTags": [ { "dc": "east" }, {} ] }
+ */
+public class ConnectionProfile {
+	private List<String> compressors = new ArrayList<>();
+	private Integer zlibCompressionLevel;
+	private Integer minPoolSize;
+	private Integer maxPoolSize;
+	private Integer batchSize;
+	private Integer localThresholdMS;
+	private String readPreference;
+	private List<Map<String, String>> readPreferenceTags = new ArrayList<>();
+
+	/**
+	 * Get's the wire compressors offered to the cluster, in order of preference; the cluster picks the first it supports
+	 *
+	 * @return a list of "snappy" or "zlib"
+	 */
+	@JsonProperty("compressors")
+	public List<String> getCompressors() {
+		return compressors;
+	}
+
+	public void setCompressors(List<String> compressors) {
+		this.compressors = compressors;
+	}
+
+	/**
+	 * Get's the level of the zlib compressor, from 1 for the fastest to 9 for the smallest
+	 *
+	 * @return the compression level, or null for the default
+	 */
+	@JsonProperty("zlibCompressionLevel")
+	public Integer getZlibCompressionLevel() {
+		return zlibCompressionLevel;
+	}
+
+	public void setZlibCompressionLevel(Integer zlibCompressionLevel) {
+		this.zlibCompressionLevel = zlibCompressionLevel;
+	}
+
+	/**
+	 * Get's the number of connections kept open to each server of the cluster
+	 *
+	 * @return the minimum pool size, or null for the default
+	 */
+	@JsonProperty("minPoolSize")
+	public Integer getMinPoolSize() {
+		return minPoolSize;
+	}
+
+	public void setMinPoolSize(Integer minPoolSize) {
+		this.minPoolSize = minPoolSize;
+	}
+
+	/**
+	 * Get's the maximum number of connections to each server of the cluster
+	 *
+	 * @return the maximum pool size, or null for the default
+	 */
+	@JsonProperty("maxPoolSize")
+	public Integer getMaxPoolSize() {
+		return maxPoolSize;
+	}
+
+	public void setMaxPoolSize(Integer maxPoolSize) {
+		this.maxPoolSize = maxPoolSize;
+	}
+
+	/**
+	 * Get's the number of oplog entries asked for by each getMore of the tailed oplog
+	 *
+	 * @return the batch size, or null to let the server fill batches up to 16MB
+	 */
+	@JsonProperty("batchSize")
+	public Integer getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(Integer batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Get's the latency window, in milliseconds, of the servers eligible to serve a read beyond the nearest one
+	 *
+	 * @return the local threshold, or null for the default
+	 */
+	@JsonProperty("localThresholdMS")
+	public Integer getLocalThresholdMS() {
+		return localThresholdMS;
+	}
+
+	public void setLocalThresholdMS(Integer localThresholdMS) {
+		this.localThresholdMS = localThresholdMS;
+	}
+
+	/**
+	 * Get's the read preference of the cluster, such as "secondary" or "nearest"
+	 *
+	 * @return the name of the read preference, or null for the default
+	 */
+	@JsonProperty("readPreference")
+	public String getReadPreference() {
+		return readPreference;
+	}
+
+	public void setReadPreference(String readPreference) {
+		this.readPreference = readPreference;
+	}
+
+	/**
+	 * Get's the tag sets of the read preference, tried in order; an empty tag set matches any server
+	 *
+	 * @return a list of tag sets
+	 */
+	@JsonProperty("readPreferenceTags")
+	public List<Map<String, String>> getReadPreferenceTags() {
+		return readPreferenceTags;
+	}
+
+	public void setReadPreferenceTags(List<Map<String, String>> readPreferenceTags) {
+		this.readPreferenceTags = readPreferenceTags;
+	}
+
+	/**
+	 * Get's the read preference built from readPreference and readPreferenceTags
+	 *
+	 * @return the read preference, or null when none is configured
+	 */
+	@JsonIgnore
+	public ReadPreference getReadPreferenceWithTags() {
+		if (readPreference == null || readPreference.isEmpty()) {
+			return null;
+		}
+		if (readPreferenceTags == null || readPreferenceTags.isEmpty()) {
+			return ReadPreference.valueOf(readPreference);
+		}
+
+		List<TagSet> tagSets = new ArrayList<>();
+		for (Map<String, String> tags : readPreferenceTags) {
+			List<Tag> tagList = new ArrayList<>();
+			tags.forEach((name, value) -> tagList.add(new Tag(name, value)));
+			tagSets.add(new TagSet(tagList));
+		}
+		return ReadPreference.valueOf(readPreference, tagSets);
+	}
+
+	/**
+	 * Get's the client options of the profile
+	 *
+	 * @return a builder of client options, to be completed by the options of the cluster string
+	 */
+	@JsonIgnore
+	public MongoClientOptions.Builder getClientOptions() {
+		MongoClientOptions.Builder builder = MongoClientOptions.builder();
+
+		List<MongoCompressor> compressorList = new ArrayList<>();
+		for (String compressor : (compressors == null) ? new ArrayList<String>() : compressors) {
+			switch (compressor.toLowerCase()) {
+			case "snappy":
+				compressorList.add(MongoCompressor.createSnappyCompressor());
+				break;
+			case "zlib":
+				MongoCompressor zlib = MongoCompressor.createZlibCompressor();
+				compressorList.add((zlibCompressionLevel == null) ? zlib : zlib.withProperty(MongoCompressor.LEVEL, zlibCompressionLevel));
+				break;
+			case "zstd":
+				throw new IllegalArgumentException("the zstd compressor needs the MongoDB Java driver 4.0+; use snappy or zlib");
+			default:
+				throw new IllegalArgumentException(String.format("unknown compressor: %s; supported compressors are snappy and zlib", compressor));
+			}
+		}
+		if (!compressorList.isEmpty()) {
+			builder.compressorList(compressorList);
+		}
+
+		if (minPoolSize != null) {
+			builder.minConnectionsPerHost(minPoolSize);
+		}
+		if (maxPoolSize != null) {
+			builder.connectionsPerHost(maxPoolSize);
+		}
+		if (localThresholdMS != null) {
+			builder.localThreshold(localThresholdMS);
+		}
+		ReadPreference preference = getReadPreferenceWithTags();
+		if (preference != null) {
+			builder.readPreference(preference);
+		}
+		return builder;
+	}
+}
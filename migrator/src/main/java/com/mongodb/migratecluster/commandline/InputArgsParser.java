@@ -17,6 +17,7 @@ public class InputArgsParser {
 		options = new Options();
 		options.addOption("h", "help", false, "print this message");
 		options.addOption("c", "config", true, "configuration file for migration");
+		options.addOption("m", "mode", true, "migration mode. Supported modes: migrate, capture, replay");
 	}
 
 	public void printHelp() {
@@ -36,6 +37,8 @@ public class InputArgsParser {
 		if (cmd.hasOption("config")) {
 			appOptions.setConfigFilePath(cmd.getOptionValue("c", ""));
 		}
+		// null unless given, so that it only overrides the mode of the config file when asked to
+		appOptions.setMode(cmd.getOptionValue("mode"));
 
 		return appOptions;
 	}
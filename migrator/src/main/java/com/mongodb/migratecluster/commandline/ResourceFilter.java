@@ -1,5 +1,6 @@
 package com.mongodb.migratecluster.commandline;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.mongodb.migratecluster.model.Resource;
 
@@ -18,6 +19,21 @@ public class ResourceFilter extends Resource {
 		this.filterExpression = filterExpression;
 	}
 
+	/**
+	 * Indicates if the filter matches namespaces by pattern, through a glob in its database or collection or through its
+	 * filterExpression, rather than by name
+	 *
+	 * @return a boolean representing if the filter is a pattern or not
+	 */
+	@JsonIgnore
+	public boolean isPattern() {
+		return (filterExpression != null && !filterExpression.isEmpty()) || isGlob(getDatabase()) || (!"{}".equals(getCollection()) && isGlob(getCollection()));
+	}
+
+	private static boolean isGlob(String name) {
+		return name == null || name.indexOf('*') >= 0 || name.indexOf('?') >= 0;
+	}
+
 	@Override
 	public String toString() {
 		String value = super.toString();
@@ -0,0 +1,104 @@
+package com.mongodb.migratecluster.commandline;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * File: TargetOptions Author: Shyam Arjarapu Date: 2/13/19 7:30 AM Description:
+ *
+ * One of the targets the oplog of the source is fanned out to, given in the targets of the config file. The black list
+ * of a target is added to the black list of the application, and its white list replaces the white list of the
+ * application when it is not empty. A setting left out is taken from the application.
+ *
+ * { "name": "analytics", "targetCluster": "analytics:27017", "targetConnection": { "compressors": [ "zlib" ] },
+ * "blackListFilter": [ { "database": "audit", "collection": "{}" } ], "whiteListFilter": [], "stateDatabase": null }
+ */
+public class TargetOptions {
+	private String name;
+	private String targetCluster;
+	private ConnectionProfile targetConnection;
+	private List<ResourceFilter> blackListFilter = new ArrayList<>();
+	private List<ResourceFilter> whiteListFilter = new ArrayList<>();
+	private String stateDatabase;
+
+	/**
+	 * Get's the name of the target, used in the names of its metrics and of its spill directory
+	 *
+	 * @return a string representing the target
+	 */
+	@JsonProperty("name")
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	@JsonProperty("targetCluster")
+	public String getTargetCluster() {
+		return targetCluster;
+	}
+
+	public void setTargetCluster(String targetCluster) {
+		this.targetCluster = targetCluster;
+	}
+
+	/**
+	 * Get's the settings of the connection to the target
+	 *
+	 * @return the connection profile, or null for the targetConnection of the application
+	 */
+	@JsonProperty("targetConnection")
+	public ConnectionProfile getTargetConnection() {
+		return targetConnection;
+	}
+
+	public void setTargetConnection(ConnectionProfile targetConnection) {
+		this.targetConnection = targetConnection;
+	}
+
+	/**
+	 * Get's the resources not migrated to this target, on top of the black list of the application
+	 *
+	 * @return a list of resource filters
+	 */
+	@JsonProperty("blackListFilter")
+	public List<ResourceFilter> getBlackListFilter() {
+		return blackListFilter;
+	}
+
+	public void setBlackListFilter(List<ResourceFilter> blackListFilter) {
+		this.blackListFilter = blackListFilter;
+	}
+
+	/**
+	 * Get's the only resources migrated to this target
+	 *
+	 * @return a list of resource filters, or an empty list for the white list of the application
+	 */
+	@JsonProperty("whiteListFilter")
+	public List<ResourceFilter> getWhiteListFilter() {
+		return whiteListFilter;
+	}
+
+	public void setWhiteListFilter(List<ResourceFilter> whiteListFilter) {
+		this.whiteListFilter = whiteListFilter;
+	}
+
+	/**
+	 * Get's the name of the database on this target holding the state of its migration
+	 *
+	 * @return a string representing the database, or null for the stateDatabase of the application
+	 */
+	@JsonProperty("stateDatabase")
+	public String getStateDatabase() {
+		return stateDatabase;
+	}
+
+	public void setStateDatabase(String stateDatabase) {
+		this.stateDatabase = stateDatabase;
+	}
+}
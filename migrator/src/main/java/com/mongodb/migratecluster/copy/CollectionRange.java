@@ -0,0 +1,80 @@
+package com.mongodb.migratecluster.copy;
+
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+
+import com.mongodb.migratecluster.model.Resource;
+
+/**
+ * File: CollectionRange Author: Shyam Arjarapu Date: 1/29/19 7:20 AM Description:
+ *
+ * a class representing a range of a collection in the order of its _id index. the lower bound is inclusive and the
+ * upper bound exclusive; a missing bound stands for the start or the end of the index.
+ */
+public class CollectionRange {
+	private final Resource resource;
+	private final int index;
+	private final BsonValue min;
+	private final BsonValue max;
+
+	public CollectionRange(Resource resource, int index, BsonValue min, BsonValue max) {
+		this.resource = resource;
+		this.index = index;
+		this.min = min;
+		this.max = max;
+	}
+
+	public Resource getResource() {
+		return resource;
+	}
+
+	/**
+	 * Get's the position of the range within its collection
+	 *
+	 * @return an int representing the position, starting at 0
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * Get's the inclusive lower bound of the range
+	 *
+	 * @return the _id the range starts at, or null when it starts at the beginning of the collection
+	 */
+	public BsonValue getMin() {
+		return min;
+	}
+
+	/**
+	 * Get's the exclusive upper bound of the range
+	 *
+	 * @return the _id the range stops before, or null when it runs to the end of the collection
+	 */
+	public BsonValue getMax() {
+		return max;
+	}
+
+	/**
+	 * Get's the lower bound as an index key for FindIterable.min
+	 *
+	 * @return a document of the form { _id: min }, or null
+	 */
+	public BsonDocument getMinKey() {
+		return (min == null) ? null : new BsonDocument("_id", min);
+	}
+
+	/**
+	 * Get's the upper bound as an index key for FindIterable.max
+	 *
+	 * @return a document of the form { _id: max }, or null
+	 */
+	public BsonDocument getMaxKey() {
+		return (max == null) ? null : new BsonDocument("_id", max);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("{ ns: \"%s\", index: %d, min: %s, max: %s }", resource.getNamespace(), index, min, max);
+	}
+}
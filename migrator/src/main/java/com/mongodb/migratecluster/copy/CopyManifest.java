@@ -0,0 +1,154 @@
+package com.mongodb.migratecluster.copy;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.BsonArray;
+import org.bson.BsonBoolean;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.BsonTimestamp;
+import org.bson.BsonValue;
+
+import com.mongodb.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
+import com.mongodb.migratecluster.model.Resource;
+
+/**
+ * File: CopyManifest Author: Shyam Arjarapu Date: 1/30/19 7:10 AM Description:
+ *
+ * A class to persist the plan and the progress of the initial copy on the target, in the copyManifest collection of
+ * the state database. One document holds the oplog position recorded before the copy started; every collection range
+ * has a document with its bounds, its status and the _id of the last document copied, so a restarted copy only resumes
+ * the ranges it did not finish. When the index builds are deferred, every collection also has a document with the
+ * definitions of the indexes left to build.
+ */
+public class CopyManifest {
+	public static final String PENDING = "pending";
+	public static final String IN_PROGRESS = "in-progress";
+	public static final String DONE = "done";
+
+	private static final String PLAN_ID = "plan";
+	private static final String INDEXES_PREFIX = "indexes#";
+
+	private final MongoCollection<BsonDocument> collection;
+	private final ReplaceOptions upsert = new ReplaceOptions().upsert(true);
+
+	public CopyManifest(MongoClient targetClient, String databaseName) {
+		this.collection = targetClient.getDatabase(databaseName).getCollection("copyManifest", BsonDocument.class);
+	}
+
+	/**
+	 * Get's the oplog position recorded when the copy was planned
+	 *
+	 * @return the timestamp to tail the oplog from, or null when no copy was planned yet
+	 */
+	public BsonTimestamp loadStartPosition() {
+		BsonDocument plan = collection.find(Filters.eq("_id", PLAN_ID)).first();
+		return (plan == null) ? null : plan.getTimestamp("ts");
+	}
+
+	/**
+	 * Replaces any previous manifest with the ranges of a new copy. The ranges are saved before the start position, so a
+	 * copy interrupted while it is planned is planned again.
+	 *
+	 * @param startPosition
+	 *          the oplog position recorded before the copy
+	 * @param ranges
+	 *          every range to copy
+	 * @param indexes
+	 *          the definitions of the indexes to build once the ranges are copied, by collection
+	 */
+	public void savePlan(BsonTimestamp startPosition, List<CollectionRange> ranges, Map<Resource, List<BsonDocument>> indexes) {
+		collection.deleteMany(new BsonDocument());
+
+		List<BsonDocument> documents = new ArrayList<>(ranges.size());
+		for (CollectionRange range : ranges) {
+			Resource resource = range.getResource();
+			BsonDocument document = new BsonDocument("_id", new BsonString(getKey(range))).append("database", new BsonString(resource.getDatabase()))
+					.append("collection", new BsonString(resource.getCollection())).append("index", new BsonInt32(range.getIndex()))
+					.append("status", new BsonString(PENDING));
+			if (range.getMin() != null) {
+				document.append("min", range.getMin());
+			}
+			if (range.getMax() != null) {
+				document.append("max", range.getMax());
+			}
+			documents.add(document);
+		}
+		indexes.forEach((resource, definitions) -> {
+			documents.add(new BsonDocument("_id", new BsonString(INDEXES_PREFIX + resource.getNamespace())).append("database", new BsonString(resource.getDatabase()))
+					.append("collection", new BsonString(resource.getCollection())).append("indexes", new BsonArray(definitions))
+					.append("built", BsonBoolean.FALSE));
+		});
+		if (!documents.isEmpty()) {
+			collection.insertMany(documents);
+		}
+
+		BsonDocument plan = new BsonDocument("_id", new BsonString(PLAN_ID)).append("ts", startPosition);
+		collection.replaceOne(Filters.eq("_id", PLAN_ID), plan, upsert);
+	}
+
+	/**
+	 * Get's the ranges left to copy; a range already in progress starts again at the last _id it copied
+	 *
+	 * @return the ranges not done yet, in collection and _id order
+	 */
+	public List<CollectionRange> loadUnfinishedRanges() {
+		List<CollectionRange> ranges = new ArrayList<>();
+		for (BsonDocument document : collection.find(Filters.and(Filters.exists("index"), Filters.ne("status", DONE)))
+				.sort(Sorts.ascending("database", "collection", "index"))) {
+			Resource resource = new Resource(document.getString("database").getValue(), document.getString("collection").getValue());
+			BsonValue min = document.containsKey("lastId") ? document.get("lastId") : document.get("min");
+			ranges.add(new CollectionRange(resource, document.getInt32("index").getValue(), min, document.get("max")));
+		}
+		return ranges;
+	}
+
+	/**
+	 * Records the last document copied of a range
+	 *
+	 * @param range
+	 *          the range being copied
+	 * @param lastId
+	 *          the _id of the last document written to the target
+	 */
+	public void saveProgress(CollectionRange range, BsonValue lastId) {
+		collection.updateOne(Filters.eq("_id", getKey(range)), Updates.combine(Updates.set("status", IN_PROGRESS), Updates.set("lastId", lastId)));
+	}
+
+	public void markDone(CollectionRange range) {
+		collection.updateOne(Filters.eq("_id", getKey(range)), Updates.set("status", DONE));
+	}
+
+	/**
+	 * Get's the indexes left to build
+	 *
+	 * @return the index definitions by collection
+	 */
+	public Map<Resource, List<BsonDocument>> loadPendingIndexes() {
+		Map<Resource, List<BsonDocument>> indexes = new LinkedHashMap<>();
+		for (BsonDocument document : collection.find(Filters.eq("built", false)).sort(Sorts.ascending("database", "collection"))) {
+			Resource resource = new Resource(document.getString("database").getValue(), document.getString("collection").getValue());
+			List<BsonDocument> definitions = new ArrayList<>();
+			document.getArray("indexes").forEach(index -> definitions.add(index.asDocument()));
+			indexes.put(resource, definitions);
+		}
+		return indexes;
+	}
+
+	public void markIndexesBuilt(Resource resource) {
+		collection.updateOne(Filters.eq("_id", INDEXES_PREFIX + resource.getNamespace()), Updates.set("built", true));
+	}
+
+	private String getKey(CollectionRange range) {
+		return String.format("%s#%d", range.getResource().getNamespace(), range.getIndex());
+	}
+}
@@ -0,0 +1,159 @@
+package com.mongodb.migratecluster.copy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoClient;
+import com.mongodb.migratecluster.model.Resource;
+
+/**
+ * File: IndexBuilder Author: Shyam Arjarapu Date: 1/31/19 7:40 AM Description:
+ *
+ * A class to defer the secondary indexes of the copied collections until their documents are on the target. The index
+ * definitions are read from the source with listIndexes and, once the copy is done, every collection gets all of its
+ * deferred indexes in one createIndexes command; the collections are indexed in parallel.
+ *
+ * Unique indexes are not deferred but created before the copy. Building one afterwards fails for good on a duplicate
+ * key the copy picked up from documents changed meanwhile, while with the index in place such a document is rejected
+ * and the oplog replayed after the copy brings the collection back in line.
+ */
+public class IndexBuilder {
+	private final static Logger logger = LoggerFactory.getLogger(IndexBuilder.class);
+
+	private final MongoClient sourceClient;
+	private final MongoClient targetClient;
+	private final int threads;
+
+	public IndexBuilder(MongoClient sourceClient, MongoClient targetClient, int threads) {
+		this.sourceClient = sourceClient;
+		this.targetClient = targetClient;
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Get's the definitions of the secondary indexes of a source collection
+	 *
+	 * @param resource
+	 *          the collection
+	 * @return the index definitions as listed by the source, without the _id index and the namespace
+	 */
+	public List<BsonDocument> getIndexes(Resource resource) {
+		List<BsonDocument> indexes = new ArrayList<>();
+		for (BsonDocument index : sourceClient.getDatabase(resource.getDatabase()).getCollection(resource.getCollection()).listIndexes(BsonDocument.class)) {
+			if (!index.getString("name").getValue().equals("_id_")) {
+				// the namespace of older servers would tie the definition to the source collection
+				index.remove("ns");
+				indexes.add(index);
+			}
+		}
+		return indexes;
+	}
+
+	/**
+	 * Get's whether an index definition enforces unique keys
+	 *
+	 * @param index
+	 *          the index definition
+	 * @return true when the index is unique
+	 */
+	public static boolean isUnique(BsonDocument index) {
+		// older servers may list the option as a number
+		BsonValue unique = index.get("unique");
+		if (unique == null) {
+			return false;
+		}
+		return unique.isBoolean() ? unique.asBoolean().getValue() : unique.isNumber() && unique.asNumber().doubleValue() != 0;
+	}
+
+	/**
+	 * Creates the unique indexes of a collection on the target right away, so the copy respects them
+	 *
+	 * @param resource
+	 *          the collection
+	 * @param definitions
+	 *          the secondary index definitions of the source collection
+	 * @return the definitions of the indexes to build once the copy is done
+	 */
+	public List<BsonDocument> createUniqueIndexes(Resource resource, List<BsonDocument> definitions) {
+		List<BsonDocument> unique = new ArrayList<>();
+		List<BsonDocument> deferred = new ArrayList<>();
+		for (BsonDocument definition : definitions) {
+			(isUnique(definition) ? unique : deferred).add(definition);
+		}
+
+		if (!unique.isEmpty()) {
+			logger.info("creating {} unique indexes on {} before the copy", unique.size(), resource.getNamespace());
+			createIndexes(resource, unique);
+		}
+		return deferred;
+	}
+
+	/**
+	 * Warns about the secondary indexes already on a target collection; they slow the copy down, unless they are unique
+	 *
+	 * @param resource
+	 *          the collection
+	 */
+	public void checkTarget(Resource resource) {
+		for (BsonDocument index : targetClient.getDatabase(resource.getDatabase()).getCollection(resource.getCollection()).listIndexes(BsonDocument.class)) {
+			String name = index.getString("name").getValue();
+			if (!name.equals("_id_") && !isUnique(index)) {
+				logger.warn("{} already has index {} on the target; it is maintained during the copy", resource.getNamespace(), name);
+			}
+		}
+	}
+
+	/**
+	 * Builds the indexes on the target, one collection per thread
+	 *
+	 * @param indexes
+	 *          the index definitions by collection
+	 * @param built
+	 *          called with every collection once its indexes are built
+	 */
+	public void build(Map<Resource, List<BsonDocument>> indexes, Consumer<Resource> built) {
+		AtomicInteger threadCount = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(threads, r -> new Thread(r, String.format("IndexBuilder-%d", threadCount.getAndIncrement())));
+
+		try {
+			List<Future<?>> futures = new ArrayList<>(indexes.size());
+			indexes.forEach((resource, definitions) -> futures.add(executor.submit(() -> {
+				if (!definitions.isEmpty()) {
+					logger.info("building {} indexes on {}", definitions.size(), resource.getNamespace());
+					createIndexes(resource, definitions);
+				}
+				built.accept(resource);
+			})));
+
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("index builds interrupted", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("error while building the indexes of a collection", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private void createIndexes(Resource resource, List<BsonDocument> definitions) {
+		BsonDocument command = new BsonDocument("createIndexes", new BsonString(resource.getCollection())).append("indexes", new BsonArray(definitions));
+		targetClient.getDatabase(resource.getDatabase()).runCommand(command);
+	}
+}
@@ -0,0 +1,221 @@
+package com.mongodb.migratecluster.copy;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoClient;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.migratecluster.commandline.ApplicationOptions;
+import com.mongodb.migratecluster.model.Resource;
+import com.mongodb.migratecluster.oplog.ShardDiscovery;
+import com.mongodb.migratecluster.predicates.CollectionFilterPredicate;
+import com.mongodb.migratecluster.predicates.DatabaseFilterPredicate;
+
+import io.reactivex.functions.Predicate;
+
+/**
+ * File: InitialCopier Author: Shyam Arjarapu Date: 1/29/19 9:15 AM Description:
+ *
+ * A class to copy every collection not black listed from the source to the target before the oplog is tailed. The
+ * newest source oplog position is recorded before anything is read; the tailer has to start from it, so the writes
+ * made on the source during the copy are replayed on top of the copied documents. The collections are split into _id
+ * ranges which are copied in parallel by a pool of copy threads.
+ *
+ * The plan and the progress of the copy are kept in a CopyManifest. A copy interrupted by a restart keeps the oplog
+ * position of the original run and only copies the ranges it did not finish, from the last _id each of them copied.
+ *
+ * With deferIndexBuilds, the secondary indexes of the source are recorded in the manifest when the copy is planned and
+ * only built once every range is copied, so the bulk inserts do not pay for maintaining them. The unique indexes are
+ * created on the target when the copy is planned instead, see IndexBuilder.
+ */
+public class InitialCopier {
+	private final static Logger logger = LoggerFactory.getLogger(InitialCopier.class);
+
+	private final ApplicationOptions options;
+	private final MongoClient sourceClient;
+	private final String stateDatabase;
+	private final int threads;
+	private final DatabaseFilterPredicate databasePredicate;
+	private final CollectionFilterPredicate collectionPredicate;
+	private final RangeSplitter splitter;
+	private final RangeCopier copier;
+	private final CopyManifest manifest;
+	private final IndexBuilder indexBuilder;
+	private final boolean deferIndexBuilds;
+
+	public InitialCopier(ApplicationOptions options) {
+		this.options = options;
+		this.sourceClient = options.getSourceClient();
+		this.stateDatabase = options.getStateDatabase();
+		this.threads = Math.max(1, options.getCopyThreads());
+		this.databasePredicate = new DatabaseFilterPredicate(options.getBlackListFilter(), options.getWhiteListFilter());
+		this.collectionPredicate = new CollectionFilterPredicate(options.getBlackListFilter(), options.getWhiteListFilter());
+		this.splitter = new RangeSplitter(sourceClient, options.getCopyRangeSizeMB() * 1024L * 1024L);
+		this.copier = new RangeCopier(sourceClient, options.getTargetClient(), options.getCopyBatchSize());
+		this.manifest = new CopyManifest(options.getTargetClient(), options.getStateDatabase());
+		this.indexBuilder = new IndexBuilder(sourceClient, options.getTargetClient(), threads);
+		this.deferIndexBuilds = options.isDeferIndexBuilds();
+	}
+
+	/**
+	 * Copies the collections and returns where the oplog must be tailed from
+	 *
+	 * @return the timestamp of the newest source oplog entry before the copy started
+	 */
+	public BsonTimestamp copy() {
+		BsonTimestamp startPosition = manifest.loadStartPosition();
+		List<CollectionRange> ranges;
+
+		if (startPosition == null) {
+			startPosition = getLatestOplogTsFromSource();
+			logger.info("initial copy starting; the oplog will be tailed from {}", startPosition);
+
+			ranges = new ArrayList<>();
+			Map<Resource, List<BsonDocument>> indexes = new LinkedHashMap<>();
+			for (Resource resource : getCollections()) {
+				List<CollectionRange> collectionRanges = splitter.split(resource);
+				logger.info("copying {} in {} ranges", resource.getNamespace(), collectionRanges.size());
+				ranges.addAll(collectionRanges);
+
+				if (deferIndexBuilds) {
+					indexBuilder.checkTarget(resource);
+					indexes.put(resource, indexBuilder.createUniqueIndexes(resource, indexBuilder.getIndexes(resource)));
+				}
+			}
+			manifest.savePlan(startPosition, ranges, indexes);
+		} else {
+			ranges = new ArrayList<>();
+			for (CollectionRange range : manifest.loadUnfinishedRanges()) {
+				// the black list may have changed since the copy was planned
+				if (isAllowed(range.getResource())) {
+					ranges.add(range);
+				}
+			}
+			logger.info("initial copy resuming {} unfinished ranges; the oplog will be tailed from {}", ranges.size(), startPosition);
+		}
+
+		copyRanges(ranges);
+
+		// a copy planned with deferred index builds still builds them after a restart without the option
+		Map<Resource, List<BsonDocument>> pendingIndexes = manifest.loadPendingIndexes();
+		if (!pendingIndexes.isEmpty()) {
+			logger.info("building the deferred indexes of {} collections", pendingIndexes.size());
+			indexBuilder.build(pendingIndexes, manifest::markIndexesBuilt);
+		}
+		logger.info("initial copy completed");
+		return startPosition;
+	}
+
+	private void copyRanges(List<CollectionRange> ranges) {
+		AtomicInteger threadCount = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(threads, r -> new Thread(r, String.format("Copier-%d", threadCount.getAndIncrement())));
+
+		try {
+			List<Future<Long>> futures = new ArrayList<>(ranges.size());
+			for (CollectionRange range : ranges) {
+				futures.add(executor.submit(() -> {
+					long count = copier.copy(range, lastId -> manifest.saveProgress(range, lastId));
+					manifest.markDone(range);
+					logger.info("copied {} documents of range {}", count, range);
+					return count;
+				}));
+			}
+
+			long total = 0;
+			for (Future<Long> future : futures) {
+				total += future.get();
+			}
+			logger.info("copied {} documents in {} ranges", total, ranges.size());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("initial copy interrupted", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("error while copying a collection range", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Get's the collections to copy; views, system collections and the databases internal to MongoDB or to the migration
+	 * are never copied
+	 *
+	 * @return a list of collection resources
+	 */
+	private List<Resource> getCollections() {
+		List<Resource> resources = new ArrayList<>();
+		for (String databaseName : sourceClient.listDatabaseNames()) {
+			if (databaseName.equals("admin") || databaseName.equals("local") || databaseName.equals("config") || databaseName.equals(stateDatabase)) {
+				continue;
+			}
+			if (!test(databasePredicate, new Document("name", databaseName))) {
+				continue;
+			}
+
+			for (Document collection : sourceClient.getDatabase(databaseName).listCollections().filter(Filters.eq("type", "collection"))) {
+				String collectionName = collection.getString("name");
+				Resource resource = new Resource(databaseName, collectionName);
+				if (!collectionName.startsWith("system.") && test(collectionPredicate, resource)) {
+					resources.add(resource);
+				}
+			}
+		}
+		return resources;
+	}
+
+	private boolean isAllowed(Resource resource) {
+		return test(databasePredicate, new Document("name", resource.getDatabase())) && test(collectionPredicate, resource);
+	}
+
+	private <T> boolean test(Predicate<T> predicate, T value) {
+		try {
+			return predicate.test(value);
+		} catch (Exception e) {
+			throw new RuntimeException("error while testing the resource is in black list or not", e);
+		}
+	}
+
+	/**
+	 * Get's the newest oplog position of the source; on a sharded source the oldest of the newest positions of the
+	 * shards, so that no shard misses a write made during the copy
+	 *
+	 * @return the timestamp to tail the oplog from
+	 */
+	private BsonTimestamp getLatestOplogTsFromSource() {
+		List<MongoClient> clients = new ArrayList<>();
+		if (options.isShardedSource()) {
+			ShardDiscovery.getShards(sourceClient).values().forEach(host -> clients.add(options.getShardClient(host)));
+		} else {
+			clients.add(sourceClient);
+		}
+
+		BsonTimestamp position = null;
+		for (MongoClient client : clients) {
+			RawBsonDocument document = client.getDatabase("local").getCollection("oplog.rs", RawBsonDocument.class).find()
+					.projection(Projections.include("ts")).sort(Sorts.descending("$natural")).limit(1).first();
+			if (document == null) {
+				throw new RuntimeException("the source has no oplog entry to start tailing from");
+			}
+			if (position == null || document.getTimestamp("ts").compareTo(position) < 0) {
+				position = document.getTimestamp("ts");
+			}
+		}
+		return position;
+	}
+}
@@ -0,0 +1,110 @@
+package com.mongodb.migratecluster.copy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoClient;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.migratecluster.model.Resource;
+
+/**
+ * File: RangeCopier Author: Shyam Arjarapu Date: 1/29/19 8:30 AM Description:
+ *
+ * A class to copy the documents of a collection range from the source to the target. The range is read along the _id
+ * index with min() / max() bounds, so _ids of different BSON types are covered in index order instead of being
+ * bracketed by type as a $gte / $lt filter would. The documents are written as raw BSON in unordered insertMany
+ * batches; documents already on the target are skipped. The _id of the last document of every batch is reported once
+ * the batch is written, so an interrupted range can be resumed from it.
+ */
+public class RangeCopier {
+	private final static Logger logger = LoggerFactory.getLogger(RangeCopier.class);
+
+	private static final int DUPLICATE_KEY = 11000;
+	private static final int MAX_BATCH_BYTES = 16 * 1024 * 1024;
+
+	private final MongoClient sourceClient;
+	private final MongoClient targetClient;
+	private final int batchSize;
+	private final InsertManyOptions options = new InsertManyOptions().ordered(false);
+
+	public RangeCopier(MongoClient sourceClient, MongoClient targetClient, int batchSize) {
+		this.sourceClient = sourceClient;
+		this.targetClient = targetClient;
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	/**
+	 * Copies the documents of a range
+	 *
+	 * @param range
+	 *          the range to copy
+	 * @param progress
+	 *          called with the _id of the last document of each batch written
+	 * @return the number of documents read from the source
+	 */
+	public long copy(CollectionRange range, Consumer<BsonValue> progress) {
+		Resource resource = range.getResource();
+		MongoCollection<RawBsonDocument> source = sourceClient.getDatabase(resource.getDatabase()).getCollection(resource.getCollection(),
+				RawBsonDocument.class);
+		MongoCollection<RawBsonDocument> target = targetClient.getDatabase(resource.getDatabase()).getCollection(resource.getCollection(),
+				RawBsonDocument.class);
+
+		FindIterable<RawBsonDocument> documents = source.find().hint(new BsonDocument("_id", new BsonInt32(1))).batchSize(batchSize);
+		if (range.getMinKey() != null) {
+			documents = documents.min(range.getMinKey());
+		}
+		if (range.getMaxKey() != null) {
+			documents = documents.max(range.getMaxKey());
+		}
+
+		long count = 0;
+		List<RawBsonDocument> batch = new ArrayList<>(batchSize);
+		long bytes = 0;
+		try (MongoCursor<RawBsonDocument> cursor = documents.iterator()) {
+			while (cursor.hasNext()) {
+				RawBsonDocument document = cursor.next();
+				batch.add(document);
+				bytes += document.getByteBuffer().remaining();
+				count++;
+
+				if (batch.size() >= batchSize || bytes >= MAX_BATCH_BYTES) {
+					insert(target, batch);
+					progress.accept(document.get("_id"));
+					batch = new ArrayList<>(batchSize);
+					bytes = 0;
+				}
+			}
+		}
+		if (!batch.isEmpty()) {
+			insert(target, batch);
+			progress.accept(batch.get(batch.size() - 1).get("_id"));
+		}
+		return count;
+	}
+
+	private void insert(MongoCollection<RawBsonDocument> target, List<RawBsonDocument> documents) {
+		try {
+			target.insertMany(documents, options);
+		} catch (MongoBulkWriteException e) {
+			// an unordered insert carries on past the failed documents; only report the ones that are not duplicates
+			for (BulkWriteError error : e.getWriteErrors()) {
+				if (error.getCode() != DUPLICATE_KEY) {
+					logger.warn("error while copying a document into {}: {}", target.getNamespace(), error.getMessage());
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package com.mongodb.migratecluster.copy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoClient;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.migratecluster.model.Resource;
+
+/**
+ * File: RangeSplitter Author: Shyam Arjarapu Date: 1/29/19 7:45 AM Description:
+ *
+ * A class to split a collection into ranges of its _id index of about the given size. The split points are asked from
+ * the server with splitVector; when it is not available, e.g. on a mongos or without the privilege, they are picked
+ * from a $sample of the _ids sorted by the server. Ranges smaller than the size are not split at all.
+ */
+public class RangeSplitter {
+	private final static Logger logger = LoggerFactory.getLogger(RangeSplitter.class);
+
+	// sampled _ids per range; more samples spread the ranges more evenly
+	private static final int SAMPLES_PER_RANGE = 10;
+
+	private final MongoClient sourceClient;
+	private final long rangeSizeInBytes;
+
+	public RangeSplitter(MongoClient sourceClient, long rangeSizeInBytes) {
+		this.sourceClient = sourceClient;
+		this.rangeSizeInBytes = Math.max(1, rangeSizeInBytes);
+	}
+
+	/**
+	 * Splits a collection into ranges
+	 *
+	 * @param resource
+	 *          the collection
+	 * @return the ranges in _id order, covering the whole collection
+	 */
+	public List<CollectionRange> split(Resource resource) {
+		List<BsonValue> splitPoints = getSplitPoints(resource);
+
+		List<CollectionRange> ranges = new ArrayList<>(splitPoints.size() + 1);
+		BsonValue min = null;
+		for (BsonValue point : splitPoints) {
+			ranges.add(new CollectionRange(resource, ranges.size(), min, point));
+			min = point;
+		}
+		ranges.add(new CollectionRange(resource, ranges.size(), min, null));
+		return ranges;
+	}
+
+	private List<BsonValue> getSplitPoints(Resource resource) {
+		MongoDatabase database = sourceClient.getDatabase(resource.getDatabase());
+		BsonDocument stats = database.runCommand(new BsonDocument("collStats", new BsonString(resource.getCollection())), BsonDocument.class);
+		long size = stats.getNumber("size", new BsonInt64(0)).longValue();
+		if (size <= rangeSizeInBytes) {
+			return new ArrayList<>();
+		}
+
+		try {
+			BsonDocument command = new BsonDocument("splitVector", new BsonString(resource.getNamespace()))
+					.append("keyPattern", new BsonDocument("_id", new BsonInt32(1)))
+					.append("maxChunkSizeBytes", new BsonInt64(rangeSizeInBytes));
+			BsonDocument result = database.runCommand(command, BsonDocument.class);
+
+			List<BsonValue> points = new ArrayList<>();
+			result.getArray("splitKeys").forEach(key -> points.add(key.asDocument().get("_id")));
+			return points;
+		} catch (Exception e) {
+			logger.info("splitVector is not available on {} ({}); sampling the _ids instead", resource.getNamespace(), e.getMessage());
+		}
+
+		int ranges = (int) Math.min(Integer.MAX_VALUE / SAMPLES_PER_RANGE, (size + rangeSizeInBytes - 1) / rangeSizeInBytes);
+		List<BsonDocument> pipeline = Arrays.asList(new BsonDocument("$sample", new BsonDocument("size", new BsonInt32(ranges * SAMPLES_PER_RANGE))),
+				new BsonDocument("$project", new BsonDocument("_id", new BsonInt32(1))), new BsonDocument("$sort", new BsonDocument("_id", new BsonInt32(1))));
+
+		List<BsonValue> samples = new ArrayList<>();
+		for (BsonDocument document : database.getCollection(resource.getCollection(), BsonDocument.class).aggregate(pipeline).allowDiskUse(true)) {
+			samples.add(document.get("_id"));
+		}
+
+		List<BsonValue> points = new ArrayList<>();
+		for (int i = SAMPLES_PER_RANGE; i < samples.size(); i += SAMPLES_PER_RANGE) {
+			BsonValue point = samples.get(i);
+			if (points.isEmpty() || !points.get(points.size() - 1).equals(point)) {
+				points.add(point);
+			}
+		}
+		return points;
+	}
+}
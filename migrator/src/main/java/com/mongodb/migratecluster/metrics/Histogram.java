@@ -0,0 +1,85 @@
+package com.mongodb.migratecluster.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * File: Histogram Author: Shyam Arjarapu Date: 1/28/19 7:30 AM Description:
+ *
+ * A lock free histogram of non negative values, such as latencies in microseconds. The values are counted in buckets
+ * of powers of two, so a percentile is reported as the upper bound of its bucket; at most twice the exact value.
+ */
+public class Histogram {
+	private static final int BUCKETS = 64;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Records a value
+	 *
+	 * @param value
+	 *          the value; negative values are recorded as 0
+	 */
+	public void update(long value) {
+		long v = Math.max(0, value);
+		buckets.incrementAndGet(getBucket(v));
+		count.increment();
+		sum.add(v);
+		max.accumulate(v);
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		long n = count.sum();
+		return (n == 0) ? 0 : (double) sum.sum() / n;
+	}
+
+	/**
+	 * Get's the value below which the given share of the recorded values fall
+	 *
+	 * @param quantile
+	 *          the share, between 0 and 1
+	 * @return the upper bound of the bucket holding the quantile, or 0 when nothing was recorded
+	 */
+	public long getPercentile(double quantile) {
+		long total = 0;
+		long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+
+		long rank = (long) Math.ceil(quantile * total);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank && counts[i] > 0) {
+				return Math.min(getUpperBound(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	// bucket b holds the values of b bits, from 2^(b-1) up to 2^b - 1
+	private static int getBucket(long value) {
+		return 64 - Long.numberOfLeadingZeros(value);
+	}
+
+	private static long getUpperBound(int bucket) {
+		return (1L << bucket) - 1;
+	}
+}
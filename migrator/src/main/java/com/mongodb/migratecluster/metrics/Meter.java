@@ -0,0 +1,56 @@
+package com.mongodb.migratecluster.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * File: Meter Author: Shyam Arjarapu Date: 1/28/19 7:15 AM Description:
+ *
+ * A counter of events along with their rate per second over the last tick of the metrics registry
+ */
+public class Meter {
+	private final LongAdder count = new LongAdder();
+
+	private long lastCount;
+	private long lastTick = System.nanoTime();
+	private volatile double rate;
+
+	/**
+	 * Records a number of events
+	 *
+	 * @param n
+	 *          the number of events
+	 */
+	public void mark(long n) {
+		count.add(n);
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * Get's the number of events per second over the last tick
+	 *
+	 * @return a double representing the rate
+	 */
+	public double getRate() {
+		return rate;
+	}
+
+	/**
+	 * Updates the rate; called by the single ticking thread of the registry
+	 *
+	 * @param now
+	 *          the current System.nanoTime()
+	 */
+	synchronized void tick(long now) {
+		long current = count.sum();
+		long elapsed = now - lastTick;
+		if (elapsed > 0) {
+			rate = (current - lastCount) * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+		}
+		lastCount = current;
+		lastTick = now;
+	}
+}
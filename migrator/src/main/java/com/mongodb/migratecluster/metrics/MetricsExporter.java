@@ -0,0 +1,151 @@
+package com.mongodb.migratecluster.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * File: MetricsExporter Author: Shyam Arjarapu Date: 1/28/19 8:20 AM Description:
+ *
+ * A class to publish the metrics of a registry. Every metric is an attribute of the JMX bean
+ * com.mongodb.migratecluster:type=Metrics, and when a port is configured the whole snapshot is served as JSON on
+ * http://localhost:port/metrics. The rates of the meters are updated every second on a daemon thread.
+ */
+public class MetricsExporter {
+	private final static Logger logger = LoggerFactory.getLogger(MetricsExporter.class);
+
+	private static final String OBJECT_NAME = "com.mongodb.migratecluster:type=Metrics";
+
+	private final MetricsRegistry registry;
+	private final int httpPort;
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final ScheduledExecutorService ticker;
+	private HttpServer httpServer;
+
+	/**
+	 * @param registry
+	 *          the registry to publish
+	 * @param httpPort
+	 *          the local port to serve the metrics on; 0 to not start the http endpoint
+	 */
+	public MetricsExporter(MetricsRegistry registry, int httpPort) {
+		this.registry = registry;
+		this.httpPort = httpPort;
+		this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "Metrics");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public void start() {
+		ticker.scheduleAtFixedRate(() -> registry.tick(System.nanoTime()), 1, 1, TimeUnit.SECONDS);
+
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			server.registerMBean(new MetricsBean(), new ObjectName(OBJECT_NAME));
+		} catch (Exception e) {
+			logger.error("error while registering the metrics with JMX", e);
+		}
+
+		if (httpPort > 0) {
+			try {
+				httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), httpPort), 0);
+				httpServer.createContext("/metrics", this::handleMetrics);
+				httpServer.setExecutor(ticker);
+				httpServer.start();
+				logger.info("serving metrics on http://localhost:{}/metrics", httpPort);
+			} catch (IOException e) {
+				logger.error("error while starting the metrics endpoint on port {}", httpPort, e);
+			}
+		}
+	}
+
+	private void handleMetrics(HttpExchange exchange) throws IOException {
+		byte[] body = mapper.writeValueAsString(registry.getSnapshot()).getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(200, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	/**
+	 * A read only bean with one attribute per metric; the metrics are created on the fly, so the attributes are listed
+	 * from a fresh snapshot every time
+	 */
+	private class MetricsBean implements DynamicMBean {
+
+		@Override
+		public Object getAttribute(String attribute) throws AttributeNotFoundException {
+			Map<String, Number> snapshot = registry.getSnapshot();
+			if (!snapshot.containsKey(attribute)) {
+				throw new AttributeNotFoundException(attribute);
+			}
+			return snapshot.get(attribute);
+		}
+
+		@Override
+		public AttributeList getAttributes(String[] attributes) {
+			Map<String, Number> snapshot = registry.getSnapshot();
+			AttributeList list = new AttributeList();
+			for (String attribute : attributes) {
+				if (snapshot.containsKey(attribute)) {
+					list.add(new Attribute(attribute, snapshot.get(attribute)));
+				}
+			}
+			return list;
+		}
+
+		@Override
+		public MBeanInfo getMBeanInfo() {
+			List<MBeanAttributeInfo> attributes = new ArrayList<>();
+			registry.getSnapshot().forEach((name, value) -> {
+				String type = (value == null) ? Number.class.getName() : value.getClass().getName();
+				attributes.add(new MBeanAttributeInfo(name, type, name, true, false, false));
+			});
+			return new MBeanInfo(MetricsExporter.class.getName(), "metrics of the migration", attributes.toArray(new MBeanAttributeInfo[0]), null, null,
+					null);
+		}
+
+		@Override
+		public void setAttribute(Attribute attribute) {
+			throw new UnsupportedOperationException("metrics are read only");
+		}
+
+		@Override
+		public AttributeList setAttributes(AttributeList attributes) {
+			return new AttributeList();
+		}
+
+		@Override
+		public Object invoke(String actionName, Object[] params, String[] signature) {
+			throw new UnsupportedOperationException(actionName);
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package com.mongodb.migratecluster.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * File: MetricsRegistry Author: Shyam Arjarapu Date: 1/28/19 7:50 AM Description:
+ *
+ * A registry of the named meters, histograms and gauges of the migration. Recording a metric is lock free, so it can be
+ * done on the hot path; the values are only assembled when a snapshot is taken by an exporter.
+ *
+ * A registry with a prefix shares the metrics of the registry it was made from, under names starting with the prefix,
+ * so that several pipelines can record the same metrics side by side.
+ */
+public class MetricsRegistry {
+	private final String prefix;
+	private final ConcurrentMap<String, Meter> meters;
+	private final ConcurrentMap<String, Histogram> histograms;
+	private final ConcurrentMap<String, Supplier<? extends Number>> gauges;
+
+	public MetricsRegistry() {
+		this("", new ConcurrentHashMap<>(), new ConcurrentHashMap<>(), new ConcurrentHashMap<>());
+	}
+
+	private MetricsRegistry(String prefix, ConcurrentMap<String, Meter> meters, ConcurrentMap<String, Histogram> histograms,
+			ConcurrentMap<String, Supplier<? extends Number>> gauges) {
+		this.prefix = prefix;
+		this.meters = meters;
+		this.histograms = histograms;
+		this.gauges = gauges;
+	}
+
+	/**
+	 * Get's a registry recording into this one, under names starting with the given prefix
+	 *
+	 * @param prefix
+	 *          the prefix of the names, such as "target.analytics."
+	 * @return the registry
+	 */
+	public MetricsRegistry withPrefix(String prefix) {
+		return new MetricsRegistry(this.prefix + prefix, meters, histograms, gauges);
+	}
+
+	/**
+	 * Get's the meter of the given name, creating it on first use
+	 *
+	 * @param name
+	 *          the name of the meter
+	 * @return the meter
+	 */
+	public Meter meter(String name) {
+		return meters.computeIfAbsent(prefix + name, k -> new Meter());
+	}
+
+	/**
+	 * Get's the histogram of the given name, creating it on first use
+	 *
+	 * @param name
+	 *          the name of the histogram
+	 * @return the histogram
+	 */
+	public Histogram histogram(String name) {
+		return histograms.computeIfAbsent(prefix + name, k -> new Histogram());
+	}
+
+	/**
+	 * Registers a gauge, replacing any gauge of the same name
+	 *
+	 * @param name
+	 *          the name of the gauge
+	 * @param gauge
+	 *          a supplier of the current value; it must be cheap and must not block
+	 */
+	public void gauge(String name, Supplier<? extends Number> gauge) {
+		gauges.put(prefix + name, gauge);
+	}
+
+	/**
+	 * Updates the rates of the meters
+	 *
+	 * @param now
+	 *          the current System.nanoTime()
+	 */
+	public void tick(long now) {
+		meters.values().forEach(meter -> meter.tick(now));
+	}
+
+	/**
+	 * Get's the current value of every metric, flattened into one value per name
+	 *
+	 * @return a sorted map of metric name to value
+	 */
+	public Map<String, Number> getSnapshot() {
+		Map<String, Number> snapshot = new TreeMap<>();
+		meters.forEach((name, meter) -> {
+			snapshot.put(name + ".count", meter.getCount());
+			snapshot.put(name + ".rate", meter.getRate());
+		});
+		histograms.forEach((name, histogram) -> {
+			snapshot.put(name + ".count", histogram.getCount());
+			snapshot.put(name + ".mean", histogram.getMean());
+			snapshot.put(name + ".p50", histogram.getPercentile(0.50));
+			snapshot.put(name + ".p95", histogram.getPercentile(0.95));
+			snapshot.put(name + ".p99", histogram.getPercentile(0.99));
+			snapshot.put(name + ".max", histogram.getMax());
+		});
+		gauges.forEach((name, gauge) -> snapshot.put(name, gauge.get()));
+		return snapshot;
+	}
+}
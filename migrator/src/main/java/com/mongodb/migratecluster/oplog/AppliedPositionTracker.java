@@ -0,0 +1,113 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+
+/**
+ * File: AppliedPositionTracker Author: Shyam Arjarapu Date: 1/23/19 7:30 AM Description:
+ *
+ * A class to keep track of the oplog entries handed to the apply workers but not yet acknowledged by the target. The
+ * oldest of them is the position the oplog has to be resumed from after a restart.
+ *
+ * Entries adapted from change events carry a resume token; the token of the newest entry older than every entry in
+ * flight is the one a change stream has to be resumed after.
+ */
+public class AppliedPositionTracker {
+	private final TreeMap<BsonTimestamp, Integer> inFlight = new TreeMap<>();
+	private final TreeMap<BsonTimestamp, BsonDocument> resumeTokens = new TreeMap<>();
+	private BsonTimestamp lastDispatched;
+
+	/**
+	 * Records the entries handed over to a worker
+	 *
+	 * @param entries
+	 *          a list of oplog entries
+	 */
+	public synchronized void dispatched(List<OplogEntry> entries) {
+		for (OplogEntry entry : entries) {
+			inFlight.merge(entry.getTimestamp(), 1, Integer::sum);
+			putResumeToken(entry);
+		}
+	}
+
+	/**
+	 * Records the entries acknowledged by the target
+	 *
+	 * @param timestamps
+	 *          the timestamps of the applied entries
+	 */
+	public synchronized void applied(List<BsonTimestamp> timestamps) {
+		for (BsonTimestamp ts : timestamps) {
+			inFlight.computeIfPresent(ts, (k, count) -> (count == 1) ? null : count - 1);
+		}
+	}
+
+	/**
+	 * Moves the position past every entry read so far; entries filtered out or applied by the dispatcher itself are
+	 * never in flight
+	 *
+	 * @param entry
+	 *          the last entry processed by the dispatcher
+	 */
+	public synchronized void advance(OplogEntry entry) {
+		BsonTimestamp ts = entry.getTimestamp();
+		if (lastDispatched == null || lastDispatched.compareTo(ts) < 0) {
+			lastDispatched = ts;
+		}
+		putResumeToken(entry);
+	}
+
+	private void putResumeToken(OplogEntry entry) {
+		if (entry.getResumeToken() != null) {
+			// the entries of a transaction share their timestamp; the last one read is kept
+			resumeTokens.put(entry.getTimestamp(), entry.getResumeToken());
+		}
+	}
+
+	/**
+	 * Get's the timestamp of the last entry processed by the dispatcher
+	 *
+	 * @return the timestamp, or null when nothing has been read yet
+	 */
+	public synchronized BsonTimestamp getLastDispatched() {
+		return lastDispatched;
+	}
+
+	/**
+	 * Get's the position the oplog must be resumed from; every entry older than it has been applied
+	 *
+	 * @return the timestamp to resume from, or null when nothing has been read yet
+	 */
+	public synchronized BsonTimestamp getResumePosition() {
+		if (!inFlight.isEmpty()) {
+			return inFlight.firstKey();
+		}
+		return lastDispatched;
+	}
+
+	/**
+	 * Get's the resume token a change stream must be resumed after; every entry up to it has been applied
+	 *
+	 * @return the resume token, or null when the entries carry none or nothing has been applied yet
+	 */
+	public synchronized BsonDocument getResumeToken() {
+		Map.Entry<BsonTimestamp, BsonDocument> token;
+		if (!inFlight.isEmpty()) {
+			token = resumeTokens.lowerEntry(inFlight.firstKey());
+		} else if (lastDispatched != null) {
+			token = resumeTokens.floorEntry(lastDispatched);
+		} else {
+			token = null;
+		}
+		if (token == null) {
+			return null;
+		}
+		// the older tokens are never needed again
+		resumeTokens.headMap(token.getKey()).clear();
+		return token.getValue();
+	}
+}
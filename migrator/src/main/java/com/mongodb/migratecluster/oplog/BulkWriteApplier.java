@@ -0,0 +1,170 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.bson.BsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.MongoInterruptedException;
+import com.mongodb.MongoNodeIsRecoveringException;
+import com.mongodb.MongoNotPrimaryException;
+import com.mongodb.MongoSocketException;
+import com.mongodb.MongoTimeoutException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.migratecluster.metrics.Meter;
+import com.mongodb.migratecluster.metrics.MetricsRegistry;
+
+/**
+ * File: BulkWriteApplier Author: Shyam Arjarapu Date: 1/24/19 7:10 AM Description:
+ *
+ * A class to apply an ordered list of write models on a collection. When an operation fails, an ordered bulk write
+ * stops at it; the operations before it are already applied, so the rest of the list is sent again as a new bulk
+ * starting right after the failed one. The failures are counted by their error code and published as the
+ * bulkWrite.errors.<code> gauges.
+ *
+ * A bulk write failing as a whole, on a network error, a timeout, a change of primary or an unsatisfied write concern,
+ * is sent again from the first operation not known to be applied, waiting a bit longer after each failure; the oplog
+ * operations can be applied twice. Any other failure, or a transient one lasting beyond maxAttempts, is thrown, so
+ * that the operations are never taken as applied.
+ */
+public class BulkWriteApplier {
+	private final static Logger logger = LoggerFactory.getLogger(BulkWriteApplier.class);
+
+	private static final int DUPLICATE_KEY = 11000;
+	private static final int MAX_ATTEMPTS = 5;
+	private static final long BACKOFF_MILLIS = 100;
+
+	private final BulkWriteOptions options = new BulkWriteOptions().ordered(true);
+	private final Map<Integer, LongAdder> errorCounts = new ConcurrentHashMap<>();
+	private final MetricsRegistry metrics;
+	private final Meter retriesMeter;
+	private final int maxAttempts;
+	private final long backoffMillis;
+
+	public BulkWriteApplier(MetricsRegistry metrics) {
+		this(metrics, MAX_ATTEMPTS, BACKOFF_MILLIS);
+	}
+
+	BulkWriteApplier(MetricsRegistry metrics, int maxAttempts, long backoffMillis) {
+		this.metrics = metrics;
+		this.retriesMeter = metrics.meter("bulkWrite.retries");
+		this.maxAttempts = Math.max(1, maxAttempts);
+		this.backoffMillis = backoffMillis;
+	}
+
+	/**
+	 * Applies the operations in order, skipping over the ones rejected by the target
+	 *
+	 * @param collection
+	 *          the target collection
+	 * @param operations
+	 *          the write models in oplog order
+	 * @return the number of round trips it took to apply the operations
+	 * @throws MongoException
+	 *           if the operations could not be written, or their write could not be acknowledged
+	 */
+	public int apply(MongoCollection<BsonDocument> collection, List<WriteModel<BsonDocument>> operations) {
+		int start = 0;
+		int roundTrips = 0;
+		int failures = 0;
+
+		while (start < operations.size()) {
+			List<WriteModel<BsonDocument>> remaining = operations.subList(start, operations.size());
+			roundTrips++;
+			try {
+				collection.bulkWrite(remaining, options);
+				return roundTrips;
+			} catch (MongoBulkWriteException err) {
+				if (err.getWriteConcernError() != null) {
+					// the operations were written, but not acknowledged as asked; send them again
+					failures = retry(collection, err, failures);
+					continue;
+				}
+
+				List<BulkWriteError> writeErrors = err.getWriteErrors();
+				if (writeErrors.isEmpty()) {
+					throw err;
+				}
+
+				BulkWriteError error = writeErrors.get(0);
+				countError(error.getCode());
+				if (error.getCode() != DUPLICATE_KEY) {
+					logger.warn(error.getMessage() + " " + error.getDetails());
+				}
+				start += error.getIndex() + 1;
+				failures = 0;
+			} catch (MongoException err) {
+				if (!isTransient(err)) {
+					throw err;
+				}
+				failures = retry(collection, err, failures);
+			}
+		}
+		return roundTrips;
+	}
+
+	/**
+	 * Indicates if a bulk write failed because of the state of the target rather than of its operations
+	 *
+	 * @param err
+	 *          the failure of the bulk write
+	 * @return a boolean representing if the bulk write may succeed when sent again
+	 */
+	static boolean isTransient(MongoException err) {
+		return err instanceof MongoSocketException || err instanceof MongoTimeoutException || err instanceof MongoNotPrimaryException
+				|| err instanceof MongoNodeIsRecoveringException;
+	}
+
+	/**
+	 * Waits before a bulk write is sent again, throwing the failure once maxAttempts is reached
+	 *
+	 * @return the number of failures in a row so far
+	 */
+	private int retry(MongoCollection<BsonDocument> collection, MongoException err, int failures) {
+		failures++;
+		if (failures >= maxAttempts) {
+			logger.error("bulk write on {} failed {} times in a row; giving up", collection.getNamespace(), failures);
+			throw err;
+		}
+
+		long backoff = backoffMillis << (failures - 1);
+		logger.warn("bulk write on {} failed; retrying in {} ms: {}", collection.getNamespace(), backoff, err.getMessage());
+		retriesMeter.mark(1);
+		try {
+			Thread.sleep(backoff);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MongoInterruptedException("interrupted while waiting to retry a bulk write", e);
+		}
+		return failures;
+	}
+
+	private void countError(int code) {
+		errorCounts.computeIfAbsent(code, k -> {
+			LongAdder count = new LongAdder();
+			metrics.gauge("bulkWrite.errors." + k, count::sum);
+			return count;
+		}).increment();
+	}
+
+	/**
+	 * Get's the number of operations rejected by the target so far
+	 *
+	 * @return a map of error code to the number of failed operations
+	 */
+	public Map<Integer, Long> getErrorCounts() {
+		Map<Integer, Long> counts = new TreeMap<>();
+		errorCounts.forEach((code, count) -> counts.put(code, count.sum()));
+		return counts;
+	}
+}
@@ -0,0 +1,114 @@
+package com.mongodb.migratecluster.oplog;
+
+import org.bson.BsonArray;
+import org.bson.BsonBoolean;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * File: ChangeEventAdapter Author: Shyam Arjarapu Date: 2/4/19 7:30 AM Description:
+ *
+ * A class to turn the events of a change stream into oplog entries, so that the writer builds the same write models it
+ * builds for the entries of the oplog. The cluster time of an event becomes the ts of the entry and its _id the resume
+ * token of the entry.
+ *
+ * - insert becomes an i entry of the full document
+ * - update becomes a u entry of the $set and $unset of its updateDescription, filtered by its documentKey
+ * - replace becomes a u entry of the full document, filtered by its documentKey; like any u entry without update
+ *   operators it is applied as an upsert replacing the whole document
+ * - delete becomes a d entry of its documentKey
+ * - drop, rename and dropDatabase become c entries of the matching command
+ *
+ * An invalidate event ends the stream and can't be adapted.
+ */
+public class ChangeEventAdapter {
+	private final static Logger logger = LoggerFactory.getLogger(ChangeEventAdapter.class);
+
+	private ChangeEventAdapter() {
+	}
+
+	/**
+	 * Get's the oplog entry of a change event
+	 *
+	 * @param event
+	 *          a change event
+	 * @param sizeInBytes
+	 *          the size of the event on the wire
+	 * @return the oplog entry, or null when the event changes nothing the writer applies
+	 */
+	public static OplogEntry toOplogEntry(BsonDocument event, int sizeInBytes) {
+		String operationType = event.getString("operationType").getValue();
+		BsonDocument ns = event.getDocument("ns", null);
+
+		BsonDocument entry = new BsonDocument("ts", event.getTimestamp("clusterTime"));
+		switch (operationType) {
+		case "insert":
+			entry.append("op", new BsonString("i")).append("ns", getNamespace(ns)).append("o", event.getDocument("fullDocument"));
+			break;
+		case "update":
+			BsonDocument update = getUpdate(event.getDocument("updateDescription"));
+			if (update.isEmpty()) {
+				return null;
+			}
+			entry.append("op", new BsonString("u")).append("ns", getNamespace(ns)).append("o", update).append("o2", event.getDocument("documentKey"));
+			break;
+		case "replace":
+			entry.append("op", new BsonString("u")).append("ns", getNamespace(ns)).append("o", event.getDocument("fullDocument")).append("o2",
+					event.getDocument("documentKey"));
+			break;
+		case "delete":
+			entry.append("op", new BsonString("d")).append("ns", getNamespace(ns)).append("o", event.getDocument("documentKey"));
+			break;
+		case "drop":
+			entry.append("op", new BsonString("c")).append("ns", getCommandNamespace(ns)).append("o", new BsonDocument("drop", ns.getString("coll")));
+			break;
+		case "rename":
+			BsonDocument rename = new BsonDocument("renameCollection", getNamespace(ns)).append("to", getNamespace(event.getDocument("to")));
+			entry.append("op", new BsonString("c")).append("ns", new BsonString("admin.$cmd")).append("o", rename);
+			break;
+		case "dropDatabase":
+			entry.append("op", new BsonString("c")).append("ns", getCommandNamespace(ns)).append("o", new BsonDocument("dropDatabase", new BsonInt32(1)));
+			break;
+		case "invalidate":
+			String message = String.format("the change stream was invalidated; event: %s", event.toJson());
+			logger.error(message);
+			throw new RuntimeException(message);
+		default:
+			logger.warn("skipping unsupported change event {}", event.toJson());
+			return null;
+		}
+
+		return new OplogEntry(entry, sizeInBytes, event.getDocument("_id"));
+	}
+
+	private static BsonString getNamespace(BsonDocument ns) {
+		return new BsonString(String.format("%s.%s", ns.getString("db").getValue(), ns.getString("coll").getValue()));
+	}
+
+	private static BsonString getCommandNamespace(BsonDocument ns) {
+		return new BsonString(String.format("%s.$cmd", ns.getString("db").getValue()));
+	}
+
+	private static BsonDocument getUpdate(BsonDocument updateDescription) {
+		BsonDocument update = new BsonDocument();
+
+		BsonDocument updatedFields = updateDescription.getDocument("updatedFields", new BsonDocument());
+		if (!updatedFields.isEmpty()) {
+			update.append("$set", updatedFields);
+		}
+
+		BsonArray removedFields = updateDescription.getArray("removedFields", new BsonArray());
+		if (!removedFields.isEmpty()) {
+			BsonDocument unset = new BsonDocument();
+			for (BsonValue field : removedFields) {
+				unset.append(field.asString().getValue(), BsonBoolean.TRUE);
+			}
+			update.append("$unset", unset);
+		}
+		return update;
+	}
+}
@@ -0,0 +1,126 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.Codec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.migratecluster.commandline.ApplicationOptions;
+import com.mongodb.migratecluster.metrics.Meter;
+import com.mongodb.migratecluster.metrics.MetricsRegistry;
+
+/**
+ * File: ChangeStreamReader Author: Shyam Arjarapu Date: 2/4/19 8:10 AM Description:
+ *
+ * A class to read the changes of the source from a change stream of the whole cluster instead of tailing its oplog,
+ * used when the readerMode is changeStream. The events are adapted to oplog entries by ChangeEventAdapter and published
+ * to the oplog buffer in batches, so the writer applies them just like the entries of the oplog.
+ *
+ * The black list is compiled into the $match of the stream, see OplogQuery. The stream is resumed after the resume token
+ * saved with the checkpoint, or from the resume position when there is no token, such as after an initial copy. On a
+ * sharded source the stream is opened on the mongos, which merges the changes of the shards itself.
+ *
+ * As for the oplog, a CursorPrefetcher reads the stream on a thread of its own: a getMore waits up to
+ * changeStreamMaxAwaitTimeMS for new events, and the events already returned are published without waiting for it.
+ */
+public class ChangeStreamReader implements Runnable {
+	private final int MAX_BATCH_COUNT = 10000;
+	private final int MAX_BATCH_BYTES = 16 * 1024 * 1024;
+
+	final static Logger logger = LoggerFactory.getLogger(ChangeStreamReader.class);
+
+	private final ApplicationOptions options;
+	private final OplogBuffer<OplogEntry> buffer;
+	private final BsonTimestamp resumePosition;
+	private final BsonDocument resumeToken;
+	private final Codec<BsonDocument> documentCodec = new BsonDocumentCodec();
+	private final Meter readMeter;
+	private final Meter readBytesMeter;
+
+	public ChangeStreamReader(ApplicationOptions options, OplogBuffer<OplogEntry> buffer, BsonTimestamp resumePosition, BsonDocument resumeToken,
+			MetricsRegistry metrics) {
+		this.options = options;
+		this.buffer = buffer;
+		this.resumePosition = resumePosition;
+		this.resumeToken = resumeToken;
+		this.readMeter = metrics.meter("oplog.read");
+		this.readBytesMeter = metrics.meter("oplog.readBytes");
+	}
+
+	private ChangeStreamIterable<BsonDocument> getChangeStream() {
+		OplogQuery query = new OplogQuery(options.getBlackListFilter(), true, true);
+		ChangeStreamIterable<BsonDocument> stream = options.getSourceClient().watch(query.getChangeStreamPipeline(), BsonDocument.class)
+				.batchSize(options.getChangeStreamBatchSize()).maxAwaitTime(options.getChangeStreamMaxAwaitTimeMS(), TimeUnit.MILLISECONDS);
+
+		if (resumeToken != null) {
+			logger.info("Resuming the change stream after token: {}", resumeToken.toJson());
+			return stream.resumeAfter(resumeToken);
+		}
+		if (resumePosition != null) {
+			logger.info("Resuming the change stream from checkpoint: {}", resumePosition);
+			return stream.startAtOperationTime(resumePosition);
+		}
+		logger.info("Starting the change stream from the current time");
+		return stream;
+	}
+
+	@Override
+	public void run() {
+		MongoCursor<RawBsonDocument> cursor = getChangeStream().withDocumentClass(RawBsonDocument.class).iterator();
+
+		CursorPrefetcher prefetcher = new CursorPrefetcher(cursor, Math.max(1, options.getOplogPrefetchSizeMB()) * 1024L * 1024L);
+		Thread fetcher = new Thread(prefetcher, Thread.currentThread().getName() + "-Fetcher");
+		fetcher.setDaemon(true);
+		fetcher.start();
+
+		List<RawBsonDocument> events = new ArrayList<>();
+		try {
+			while (true) {
+				// block for the first event, then take whatever was fetched meanwhile
+				events.clear();
+				prefetcher.drainTo(events);
+
+				List<OplogEntry> batch = new ArrayList<>();
+				long bytes = 0;
+				for (RawBsonDocument event : events) {
+					int size = event.getByteBuffer().remaining();
+					bytes += size;
+					OplogEntry entry = ChangeEventAdapter.toOplogEntry(options.isRawOplogEntries() ? event : event.decode(documentCodec), size);
+					if (entry != null) {
+						batch.add(entry);
+					}
+
+					if (batch.size() >= MAX_BATCH_COUNT || bytes >= MAX_BATCH_BYTES) {
+						publish(batch, bytes);
+						batch = new ArrayList<>();
+						bytes = 0;
+					}
+				}
+				publish(batch, bytes);
+			}
+		} catch (InterruptedException e) {
+			logger.info("change stream reader interrupted; stopping");
+			Thread.currentThread().interrupt();
+		} finally {
+			fetcher.interrupt();
+			cursor.close();
+		}
+	}
+
+	private void publish(List<OplogEntry> batch, long bytes) throws InterruptedException {
+		if (!batch.isEmpty()) {
+			buffer.put(batch, bytes);
+		}
+		readMeter.mark(batch.size());
+		readBytesMeter.mark(bytes);
+	}
+}
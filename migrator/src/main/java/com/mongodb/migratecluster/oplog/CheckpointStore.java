@@ -0,0 +1,176 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * File: CheckpointStore Author: Shyam Arjarapu Date: 1/23/19 8:05 AM Description:
+ *
+ * A class to persist the applied oplog positions on the target. It keeps one document with the position the oplog
+ * must be resumed from, and one document per namespace lane with the timestamp of its last acknowledged batch, so that
+ * the entries between the two are skipped rather than applied twice. When reading from a change stream, the resume
+ * token matching the resume position is kept in the same document.
+ *
+ * The positions of the namespace lanes are recorded in memory by the apply workers, keeping the newest one of every
+ * lane, and saved together by the periodic checkpoint; an acknowledged batch never waits for its checkpoint.
+ */
+public class CheckpointStore {
+	private final static Logger logger = LoggerFactory.getLogger(CheckpointStore.class);
+
+	private static final String RESUME_POSITION_ID = "resumePosition";
+
+	private final MongoCollection<Document> collection;
+	private final ReplaceOptions upsert = new ReplaceOptions().upsert(true);
+	private final ConcurrentMap<String, Document> recordedPositions = new ConcurrentHashMap<>();
+	private final Map<String, BsonTimestamp> savedPositions = new HashMap<>();
+
+	public CheckpointStore(MongoClient targetClient, String databaseName) {
+		this.collection = targetClient.getDatabase(databaseName).getCollection("checkpoints");
+	}
+
+	/**
+	 * Get's the position the oplog must be resumed from
+	 *
+	 * @return the timestamp saved by the previous run, or null if there is none
+	 */
+	public BsonTimestamp loadResumePosition() {
+		Document document = collection.find(Filters.eq("_id", RESUME_POSITION_ID)).first();
+		if (document == null) {
+			return null;
+		}
+		return document.get("ts", BsonTimestamp.class);
+	}
+
+	/**
+	 * Get's the resume token of the change stream saved along with the resume position
+	 *
+	 * @return the resume token saved by the previous run, or null if there is none
+	 */
+	public BsonDocument loadResumeToken() {
+		BsonDocument document = collection.withDocumentClass(BsonDocument.class).find(Filters.eq("_id", RESUME_POSITION_ID)).first();
+		if (document == null) {
+			return null;
+		}
+		return document.getDocument("resumeToken", null);
+	}
+
+	public void saveResumePosition(BsonTimestamp ts) {
+		saveResumePosition(ts, null);
+	}
+
+	public void saveResumePosition(BsonTimestamp ts, BsonDocument resumeToken) {
+		Document document = new Document("_id", RESUME_POSITION_ID).append("ts", ts);
+		if (resumeToken != null) {
+			document.append("resumeToken", resumeToken);
+		}
+		collection.replaceOne(Filters.eq("_id", RESUME_POSITION_ID), document, upsert);
+	}
+
+	/**
+	 * Get's the timestamp of the last acknowledged batch of every namespace lane. When the number of lanes of a
+	 * namespace changed since the positions were saved, every lane falls back to the oldest position of the namespace.
+	 *
+	 * @param partitioner
+	 *          the partitioner deciding the lanes of the current run
+	 * @return a map of "namespace#lane" to the timestamp of the last applied entry
+	 */
+	public Map<String, BsonTimestamp> loadNamespacePositions(OplogPartitioner partitioner) {
+		Map<String, List<Document>> documentsByNamespace = new HashMap<>();
+		for (Document document : collection.find(Filters.exists("ns"))) {
+			documentsByNamespace.computeIfAbsent(document.getString("ns"), k -> new ArrayList<>()).add(document);
+		}
+
+		Map<String, BsonTimestamp> positions = new HashMap<>();
+		documentsByNamespace.forEach((ns, documents) -> {
+			int lanes = partitioner.getLanes(ns);
+			boolean sameLanes = documents.stream().allMatch(d -> d.getInteger("lanes", 1) == lanes);
+			if (sameLanes) {
+				documents.forEach(d -> positions.put(getKey(ns, d.getInteger("lane", 0)), d.get("ts", BsonTimestamp.class)));
+			} else {
+				BsonTimestamp oldest = documents.stream().map(d -> d.get("ts", BsonTimestamp.class)).min(BsonTimestamp::compareTo).get();
+				logger.info("lanes of namespace {} changed to {}; resuming every lane from {}", ns, lanes, oldest);
+				for (int lane = 0; lane < lanes; lane++) {
+					positions.put(getKey(ns, lane), oldest);
+				}
+			}
+		});
+		return positions;
+	}
+
+	public void saveNamespacePosition(String ns, int lane, int lanes, BsonTimestamp ts) {
+		Document document = getNamespaceDocument(ns, lane, lanes, ts);
+		collection.replaceOne(Filters.eq("_id", document.getString("_id")), document, upsert);
+	}
+
+	/**
+	 * Records the timestamp of the last acknowledged batch of a namespace lane, to be saved by saveNamespacePositions; a
+	 * timestamp older than the one already recorded for the lane is ignored
+	 *
+	 * @param ns
+	 *          the namespace
+	 * @param lane
+	 *          the lane of the namespace
+	 * @param lanes
+	 *          the number of lanes of the namespace
+	 * @param ts
+	 *          the timestamp of the last applied entry
+	 */
+	public void recordNamespacePosition(String ns, int lane, int lanes, BsonTimestamp ts) {
+		recordedPositions.merge(getKey(ns, lane), getNamespaceDocument(ns, lane, lanes, ts),
+				(recorded, document) -> (getTimestamp(document).compareTo(getTimestamp(recorded)) > 0) ? document : recorded);
+	}
+
+	/**
+	 * Saves the namespace positions recorded since the last call in a single round trip. Must only be called by one
+	 * thread at a time.
+	 *
+	 * @return the number of positions saved
+	 */
+	public int saveNamespacePositions() {
+		List<WriteModel<Document>> writes = new ArrayList<>();
+		Map<String, BsonTimestamp> written = new HashMap<>();
+		recordedPositions.forEach((id, document) -> {
+			BsonTimestamp ts = getTimestamp(document);
+			BsonTimestamp saved = savedPositions.get(id);
+			if (saved == null || ts.compareTo(saved) > 0) {
+				writes.add(new ReplaceOneModel<>(Filters.eq("_id", id), document, upsert));
+				written.put(id, ts);
+			}
+		});
+		if (!writes.isEmpty()) {
+			collection.bulkWrite(writes, new BulkWriteOptions().ordered(false));
+			savedPositions.putAll(written);
+		}
+		return writes.size();
+	}
+
+	private static Document getNamespaceDocument(String ns, int lane, int lanes, BsonTimestamp ts) {
+		return new Document("_id", getKey(ns, lane)).append("ns", ns).append("lane", lane).append("lanes", lanes).append("ts", ts);
+	}
+
+	private static BsonTimestamp getTimestamp(Document document) {
+		return document.get("ts", BsonTimestamp.class);
+	}
+
+	public static String getKey(String ns, int lane) {
+		return String.format("%s#%d", ns, lane);
+	}
+}
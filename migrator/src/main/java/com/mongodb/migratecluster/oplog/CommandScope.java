@@ -0,0 +1,164 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+
+/**
+ * File: CommandScope Author: Shyam Arjarapu Date: 2/9/19 7:30 AM Description:
+ *
+ * The namespaces a command of the oplog touches, so that it only holds back the entries of those namespaces while it
+ * runs. A command naming a collection, such as createIndexes or drop, touches that collection; renameCollection
+ * touches both of its namespaces and dropDatabase every namespace of its database. Any other command, such as applyOps,
+ * may touch anything and is global.
+ */
+public class CommandScope {
+	private static final Set<String> COLLECTION_COMMANDS = new HashSet<>(Arrays.asList("create", "drop", "collMod", "createIndexes", "dropIndexes",
+			"deleteIndexes", "convertToCapped", "emptycapped"));
+
+	private final String commandNamespace;
+	private final String commandName;
+	private final List<String> namespaces;
+	private final String databaseName;
+
+	private CommandScope(String commandNamespace, String commandName, List<String> namespaces, String databaseName) {
+		this.commandNamespace = commandNamespace;
+		this.commandName = commandName;
+		this.namespaces = namespaces;
+		this.databaseName = databaseName;
+	}
+
+	/**
+	 * Get's the scope of a command entry of the oplog
+	 *
+	 * @param entry
+	 *          an oplog entry of op "c"
+	 * @return the scope of the command
+	 */
+	public static CommandScope of(OplogEntry entry) {
+		BsonDocument command = entry.getObject();
+		String ns = entry.getNamespace();
+		String databaseName = ns.substring(0, Math.max(0, ns.indexOf('.')));
+		String commandName = command.isEmpty() ? "" : command.getFirstKey();
+
+		if (COLLECTION_COMMANDS.contains(commandName) && command.get(commandName).isString()) {
+			return new CommandScope(ns, commandName, Collections.singletonList(databaseName + "." + command.getString(commandName).getValue()), null);
+		}
+		if ("renameCollection".equals(commandName)) {
+			BsonValue to = command.get("to");
+			if (command.get(commandName).isString() && to != null && to.isString()) {
+				return new CommandScope(ns, commandName, Arrays.asList(command.getString(commandName).getValue(), to.asString().getValue()), null);
+			}
+		}
+		if ("dropDatabase".equals(commandName)) {
+			return new CommandScope(ns, commandName, Collections.emptyList(), databaseName);
+		}
+		return new CommandScope(ns, commandName, Collections.emptyList(), null);
+	}
+
+	/**
+	 * Get's the scope of a command touching the given namespaces, such as a transaction
+	 *
+	 * @param commandNamespace
+	 *          the namespace of the command entry
+	 * @param commandName
+	 *          the name of the command
+	 * @param namespaces
+	 *          the namespaces the command touches
+	 * @return the scope of the command
+	 */
+	static CommandScope of(String commandNamespace, String commandName, List<String> namespaces) {
+		return new CommandScope(commandNamespace, commandName, namespaces, null);
+	}
+
+	/**
+	 * Get's the name of the command
+	 *
+	 * @return the first field of the command document
+	 */
+	public String getCommandName() {
+		return commandName;
+	}
+
+	/**
+	 * Get's the namespace the position of the command is saved under. Commands touching different collections run at
+	 * the same time, so each collection keeps the position of its own commands; the others keep the one of db.$cmd.
+	 *
+	 * @return a namespace such as "db.collection.$cmd" or "db.$cmd"
+	 */
+	public String getCheckpointNamespace() {
+		return namespaces.isEmpty() ? commandNamespace : namespaces.get(0) + ".$cmd";
+	}
+
+	/**
+	 * Get's the namespaces the command touches
+	 *
+	 * @return a list of namespaces, empty for a database wide or global command
+	 */
+	public List<String> getNamespaces() {
+		return namespaces;
+	}
+
+	/**
+	 * Get's the database whose every namespace the command touches
+	 *
+	 * @return the name of the database, or null
+	 */
+	public String getDatabaseName() {
+		return databaseName;
+	}
+
+	/**
+	 * Indicates if the command may touch any namespace, so every entry before it must be applied first
+	 *
+	 * @return true for a global command
+	 */
+	public boolean isGlobal() {
+		return namespaces.isEmpty() && databaseName == null;
+	}
+
+	/**
+	 * Indicates if the command drops its namespaces, so the writes to them still buffered are useless
+	 *
+	 * @return true for drop and dropDatabase
+	 */
+	public boolean isDrop() {
+		return "drop".equals(commandName) || "dropDatabase".equals(commandName);
+	}
+
+	/**
+	 * Checks if the command touches a namespace
+	 *
+	 * @param namespace
+	 *          a namespace resolved by the NamespaceFilter
+	 * @return true if the namespace must wait for the command
+	 */
+	public boolean touches(Namespace namespace) {
+		return namespace.getDatabaseName().equals(databaseName) || namespaces.contains(namespace.getName());
+	}
+
+	/**
+	 * Checks if two commands touch a namespace in common, so the later one must wait for the other
+	 *
+	 * @param other
+	 *          the scope of another command
+	 * @return true if the scopes overlap
+	 */
+	public boolean overlaps(CommandScope other) {
+		if (isGlobal() || other.isGlobal()) {
+			return true;
+		}
+		if (databaseName != null && (databaseName.equals(other.databaseName) || other.namespaces.stream().anyMatch(ns -> ns.startsWith(databaseName + ".")))) {
+			return true;
+		}
+		if (other.databaseName != null && namespaces.stream().anyMatch(ns -> ns.startsWith(other.databaseName + "."))) {
+			return true;
+		}
+		return namespaces.stream().anyMatch(other.namespaces::contains);
+	}
+}
@@ -0,0 +1,72 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.RawBsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.client.MongoCursor;
+
+/**
+ * File: CursorPrefetcher Author: Shyam Arjarapu Date: 2/11/19 7:30 AM Description:
+ *
+ * A class to keep reading a tailable await cursor on a thread of its own, so that the getMore of the next batch is in
+ * flight while the reader decodes and publishes the current one. The documents are staged in an OplogBuffer of
+ * prefetchSizeInBytes as soon as the driver hands them out; the reader drains whatever is staged at once.
+ *
+ * The driver only tells the documents already fetched apart from the next getMore by blocking on it, up to the
+ * maxAwaitTime of the cursor; with the fetching on another thread, the reader never waits for more than what arrived.
+ */
+public class CursorPrefetcher implements Runnable {
+	private final static Logger logger = LoggerFactory.getLogger(CursorPrefetcher.class);
+
+	private final MongoCursor<RawBsonDocument> cursor;
+	private final OplogBuffer<RawBsonDocument> staging;
+	private volatile RuntimeException failure;
+
+	public CursorPrefetcher(MongoCursor<RawBsonDocument> cursor, long prefetchSizeInBytes) {
+		this.cursor = cursor;
+		this.staging = new OplogBuffer<>(prefetchSizeInBytes);
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (true) {
+				RawBsonDocument document = cursor.next();
+				staging.put(Collections.singletonList(document), document.getByteBuffer().remaining());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (RuntimeException e) {
+			if (!Thread.currentThread().isInterrupted()) {
+				logger.error("error while fetching the oplog", e);
+			}
+			failure = e;
+		}
+	}
+
+	/**
+	 * Moves every staged document into the target, waiting for the first one
+	 *
+	 * @param target
+	 *          a collection to receive the documents in cursor order
+	 * @return the number of documents moved into the target
+	 * @throws InterruptedException
+	 *           if interrupted while waiting
+	 */
+	public int drainTo(Collection<? super RawBsonDocument> target) throws InterruptedException {
+		while (true) {
+			int count = staging.drainTo(target, 100, TimeUnit.MILLISECONDS);
+			if (count > 0) {
+				return count;
+			}
+			if (failure != null) {
+				throw new IllegalStateException("the oplog cursor failed", failure);
+			}
+		}
+	}
+}
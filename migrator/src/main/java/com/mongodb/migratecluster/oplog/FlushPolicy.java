@@ -0,0 +1,86 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * File: FlushPolicy Author: Shyam Arjarapu Date: 1/27/19 7:30 AM Description:
+ *
+ * A class to decide when a writer flushes a namespace batch. A batch is flushed once it holds the target number of
+ * operations, once its estimated size reaches the byte limit, or once its first entry has waited for the maximum age.
+ *
+ * The target number of operations adapts to the latency of the bulk writes: it doubles while full batches are written
+ * well within the target latency and halves when a bulk write takes much longer than it. Every writer owns its own
+ * policy, so it is not thread safe.
+ */
+public class FlushPolicy {
+	// the server rejects messages above 48 MB; leave room for the command around the documents
+	public static final long MAX_BATCH_BYTES = 46L * 1024 * 1024;
+
+	static final int MIN_BATCH_COUNT = 100;
+	static final int MAX_BATCH_COUNT = 10000;
+	static final int INITIAL_BATCH_COUNT = 1000;
+	static final long TARGET_LATENCY_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private final long maxBatchBytes;
+	private final long maxAgeNanos;
+	private int batchCount;
+
+	/**
+	 * @param maxBatchBytes
+	 *          the estimated size at which a batch is flushed; capped at MAX_BATCH_BYTES
+	 * @param maxAgeMillis
+	 *          the longest time a batch is held before it is flushed
+	 */
+	public FlushPolicy(long maxBatchBytes, long maxAgeMillis) {
+		this.maxBatchBytes = Math.max(1, Math.min(maxBatchBytes, MAX_BATCH_BYTES));
+		this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxAgeMillis));
+		this.batchCount = INITIAL_BATCH_COUNT;
+	}
+
+	/**
+	 * Indicates if a batch is big enough to be flushed
+	 *
+	 * @param count
+	 *          the number of operations in the batch
+	 * @param bytes
+	 *          the estimated size of the batch in bytes
+	 * @return a boolean representing if the batch is to be flushed or not
+	 */
+	public boolean isFull(int count, long bytes) {
+		return count >= batchCount || bytes >= maxBatchBytes;
+	}
+
+	/**
+	 * Indicates if a batch has been held for too long
+	 *
+	 * @param startedAt
+	 *          the System.nanoTime() at which the first entry of the batch was buffered
+	 * @param now
+	 *          the current System.nanoTime()
+	 * @return a boolean representing if the batch is to be flushed or not
+	 */
+	public boolean isExpired(long startedAt, long now) {
+		return now - startedAt >= maxAgeNanos;
+	}
+
+	/**
+	 * Adapts the target number of operations of a batch to the latency of a bulk write
+	 *
+	 * @param count
+	 *          the number of operations written
+	 * @param latencyNanos
+	 *          the time it took to write them
+	 */
+	public void recordLatency(int count, long latencyNanos) {
+		if (latencyNanos > 2 * TARGET_LATENCY_NANOS) {
+			batchCount = Math.max(MIN_BATCH_COUNT, batchCount / 2);
+		} else if (count >= batchCount && latencyNanos < TARGET_LATENCY_NANOS / 2) {
+			// only a full batch tells if a bigger one would still be fast enough
+			batchCount = Math.min(MAX_BATCH_COUNT, batchCount * 2);
+		}
+	}
+
+	public int getBatchCount() {
+		return batchCount;
+	}
+}
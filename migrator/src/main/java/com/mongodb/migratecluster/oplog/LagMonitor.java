@@ -0,0 +1,116 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonTimestamp;
+import org.bson.RawBsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoClient;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.migratecluster.metrics.MetricsRegistry;
+
+/**
+ * File: LagMonitor Author: Shyam Arjarapu Date: 1/28/19 9:10 AM Description:
+ *
+ * A class to measure how far the target is behind the source. It is run periodically on its own thread, so the query
+ * for the newest source oplog entry never stalls the apply loop. The lag is published as the lag.read and lag.applied
+ * gauges, in seconds, and logged along with the write errors seen so far. On a sharded source the newest entry among
+ * the oplogs of all shards is used.
+ *
+ * A change stream may be read from a mongos, which has no oplog. In that mode the source position is the cluster time
+ * the source reports with every command, the same clock the clusterTime of the change events is taken from.
+ */
+public class LagMonitor implements Runnable {
+	private final static Logger logger = LoggerFactory.getLogger(LagMonitor.class);
+
+	private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSXXX")
+			.withZone(ZoneId.of("America/Montreal"));
+
+	private final List<MongoClient> sourceClients;
+	private final boolean clusterTime;
+	private final AppliedPositionTracker tracker;
+	private final BulkWriteApplier bulkWriteApplier;
+
+	private volatile long readLag;
+	private volatile long appliedLag;
+
+	public LagMonitor(List<MongoClient> sourceClients, boolean clusterTime, AppliedPositionTracker tracker, BulkWriteApplier bulkWriteApplier,
+			MetricsRegistry metrics) {
+		this.sourceClients = sourceClients;
+		this.clusterTime = clusterTime;
+		this.tracker = tracker;
+		this.bulkWriteApplier = bulkWriteApplier;
+
+		metrics.gauge("lag.read", () -> readLag);
+		metrics.gauge("lag.applied", () -> appliedLag);
+	}
+
+	@Override
+	public void run() {
+		try {
+			BsonTimestamp read = tracker.getLastDispatched();
+			BsonTimestamp applied = tracker.getResumePosition();
+			if (read == null || applied == null) {
+				return;
+			}
+
+			BsonTimestamp source = clusterTime ? getClusterTimeFromSource() : getLatestOplogTsFromSource();
+			if (source == null) {
+				return;
+			}
+			readLag = Math.max(0, source.getTime() - read.getTime());
+			appliedLag = Math.max(0, source.getTime() - applied.getTime());
+
+			logger.info("Target is behind by {} seconds\nSource: {}\nTarget: {}", appliedLag, format(source), format(applied));
+
+			Map<Integer, Long> errorCounts = bulkWriteApplier.getErrorCounts();
+			if (!errorCounts.isEmpty()) {
+				logger.info("Write errors by code: {}", errorCounts);
+			}
+		} catch (Exception e) {
+			logger.error("error while measuring the lag of the target", e);
+		}
+	}
+
+	private BsonTimestamp getLatestOplogTsFromSource() {
+		BsonTimestamp latest = null;
+		for (MongoClient sourceClient : sourceClients) {
+			RawBsonDocument document = sourceClient.getDatabase("local").getCollection("oplog.rs", RawBsonDocument.class).find()
+					.projection(Projections.include("ts")).sort(Sorts.descending("$natural")).limit(1).first();
+			if (document != null && (latest == null || latest.compareTo(document.getTimestamp("ts")) < 0)) {
+				latest = document.getTimestamp("ts");
+			}
+		}
+		return latest;
+	}
+
+	private BsonTimestamp getClusterTimeFromSource() {
+		BsonTimestamp latest = null;
+		for (MongoClient sourceClient : sourceClients) {
+			BsonDocument result = sourceClient.getDatabase("admin").runCommand(new BsonDocument("ping", new BsonInt32(1)), BsonDocument.class);
+			BsonTimestamp ts = null;
+			if (result.isDocument("$clusterTime")) {
+				ts = result.getDocument("$clusterTime").getTimestamp("clusterTime");
+			} else if (result.isTimestamp("operationTime")) {
+				ts = result.getTimestamp("operationTime");
+			}
+			if (ts != null && (latest == null || latest.compareTo(ts) < 0)) {
+				latest = ts;
+			}
+		}
+		return latest;
+	}
+
+	private String format(BsonTimestamp ts) {
+		return FORMATTER.format(Instant.ofEpochSecond(ts.getTime()));
+	}
+}
@@ -0,0 +1,161 @@
+package com.mongodb.migratecluster.oplog;
+
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+
+import com.mongodb.MongoClient;
+import com.mongodb.client.MongoCollection;
+
+/**
+ * File: Namespace Author: Shyam Arjarapu Date: 2/8/19 8:10 AM Description:
+ *
+ * A namespace resolved once by the NamespaceFilter; it carries the database and collection names, whether its entries
+ * are applied, and the target collection they are applied to. There is a single instance per namespace, so it can be
+ * compared by reference.
+ *
+ * The handle also counts the entries of the namespace handed to the workers and not yet written, so that a command
+ * touching the namespace can wait for them alone, and remembers the last time it was dropped, so that the writes still
+ * buffered before the drop are discarded rather than applied.
+ */
+public class Namespace {
+	private final String name;
+	private final String databaseName;
+	private final String collectionName;
+	private final boolean allowed;
+	private final MongoClient targetClient;
+
+	private volatile MongoCollection<BsonDocument> targetCollection;
+	private volatile BsonTimestamp droppedAt;
+	private long inFlightCount;
+
+	Namespace(String name, boolean allowed, MongoClient targetClient) {
+		int dot = name.indexOf('.');
+		this.name = name;
+		this.databaseName = (dot < 0) ? name : name.substring(0, dot);
+		this.collectionName = (dot < 0) ? "" : name.substring(dot + 1);
+		this.allowed = allowed;
+		this.targetClient = targetClient;
+	}
+
+	/**
+	 * Get's the full name of the namespace
+	 *
+	 * @return a string such as "db.collection"
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Get's the name of the database of the namespace
+	 *
+	 * @return a string representing the database
+	 */
+	public String getDatabaseName() {
+		return databaseName;
+	}
+
+	/**
+	 * Get's the name of the collection of the namespace; $cmd for the commands of a database
+	 *
+	 * @return a string representing the collection
+	 */
+	public String getCollectionName() {
+		return collectionName;
+	}
+
+	/**
+	 * Indicates if the entries of the namespace are applied
+	 *
+	 * @return false when the namespace is black listed or not white listed
+	 */
+	public boolean isAllowed() {
+		return allowed;
+	}
+
+	/**
+	 * Indicates if the namespace holds the commands of a database
+	 *
+	 * @return true for db.$cmd
+	 */
+	public boolean isCommand() {
+		return "$cmd".equals(collectionName);
+	}
+
+	/**
+	 * Get's the collection of the target the entries are applied to
+	 *
+	 * @return the target collection
+	 */
+	public MongoCollection<BsonDocument> getTargetCollection() {
+		MongoCollection<BsonDocument> collection = targetCollection;
+		if (collection == null) {
+			// a race only builds the same collection twice
+			collection = targetClient.getDatabase(databaseName).getCollection(collectionName, BsonDocument.class);
+			targetCollection = collection;
+		}
+		return collection;
+	}
+
+	/**
+	 * Counts entries of the namespace handed to a worker
+	 *
+	 * @param count
+	 *          the number of entries
+	 */
+	synchronized void dispatched(int count) {
+		inFlightCount += count;
+	}
+
+	/**
+	 * Counts entries of the namespace written to the target, or discarded
+	 *
+	 * @param count
+	 *          the number of entries
+	 */
+	synchronized void applied(int count) {
+		inFlightCount -= count;
+		if (inFlightCount <= 0) {
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Waits until every entry of the namespace handed to the workers has been written
+	 *
+	 * @throws InterruptedException
+	 *           if interrupted while waiting
+	 */
+	synchronized void awaitApplied() throws InterruptedException {
+		while (inFlightCount > 0) {
+			wait();
+		}
+	}
+
+	/**
+	 * Marks the namespace as dropped by the oplog entry of the given timestamp
+	 *
+	 * @param ts
+	 *          the timestamp of the drop
+	 */
+	void dropped(BsonTimestamp ts) {
+		droppedAt = ts;
+	}
+
+	/**
+	 * Checks if an entry of the namespace is followed by a drop of it, so writing it is useless
+	 *
+	 * @param ts
+	 *          the timestamp of an entry
+	 * @return true if the namespace is dropped after the entry
+	 */
+	boolean isDroppedAfter(BsonTimestamp ts) {
+		BsonTimestamp dropped = droppedAt;
+		return dropped != null && ts.compareTo(dropped) < 0;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
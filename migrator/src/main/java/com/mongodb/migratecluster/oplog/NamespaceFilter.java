@@ -0,0 +1,90 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoClient;
+import com.mongodb.migratecluster.commandline.ResourceFilter;
+import com.mongodb.migratecluster.predicates.NamespaceMatcher;
+
+/**
+ * File: NamespaceFilter Author: Shyam Arjarapu Date: 2/7/19 7:30 AM Description:
+ *
+ * A class to resolve the namespaces of the oplog entries into Namespace handles. The black list and the white list are
+ * compiled once into a NamespaceMatcher each, and every namespace is resolved once; the handle carries the decision and
+ * the target collection, so nothing is matched, split or looked up again for the following entries.
+ *
+ * A namespace is applied unless it matches the black list, and, when the white list is not empty, only if it matches
+ * the white list. The commands of a database, db.$cmd, are applied unless the entire database is black listed and as
+ * long as the white list may match a namespace of the database.
+ */
+public class NamespaceFilter {
+	private final static Logger logger = LoggerFactory.getLogger(NamespaceFilter.class);
+
+	private final NamespaceMatcher blackList;
+	private final NamespaceMatcher whiteList;
+	private final MongoClient targetClient;
+	private final ConcurrentHashMap<String, Namespace> namespaces = new ConcurrentHashMap<>();
+
+	public NamespaceFilter(List<ResourceFilter> blackListFilter, List<ResourceFilter> whiteListFilter, MongoClient targetClient) {
+		this.blackList = new NamespaceMatcher(blackListFilter);
+		this.whiteList = new NamespaceMatcher(whiteListFilter);
+		this.targetClient = targetClient;
+	}
+
+	/**
+	 * Get's the handle of a namespace, resolving it on first use
+	 *
+	 * @param namespace
+	 *          the namespace of an oplog entry
+	 * @return the single handle of the namespace
+	 */
+	public Namespace resolve(String namespace) {
+		Namespace handle = namespaces.get(namespace);
+		if (handle == null) {
+			handle = namespaces.computeIfAbsent(namespace, ns -> {
+				boolean allowed = checkIfNamespaceIsAllowed(ns);
+				if (!allowed) {
+					logger.info("Skipping namespace: {}; As it is filtered out in configuration", ns);
+				}
+				return new Namespace(ns, allowed, targetClient);
+			});
+		}
+		return handle;
+	}
+
+	/**
+	 * Checks if the entries of a namespace are applied
+	 *
+	 * @param namespace
+	 *          the namespace of an oplog entry
+	 * @return true unless the namespace is filtered out
+	 */
+	public boolean isAllowed(String namespace) {
+		return resolve(namespace).isAllowed();
+	}
+
+	/**
+	 * Get's the handles resolved so far of the namespaces of a database
+	 *
+	 * @param databaseName
+	 *          the name of a database
+	 * @return the handles of its namespaces
+	 */
+	public List<Namespace> getNamespaces(String databaseName) {
+		return namespaces.values().stream().filter(ns -> ns.getDatabaseName().equals(databaseName)).collect(Collectors.toList());
+	}
+
+	boolean checkIfNamespaceIsAllowed(String namespace) {
+		int dot = namespace.indexOf('.');
+		if (dot >= 0 && namespace.startsWith("$cmd", dot + 1) && namespace.length() == dot + 5) {
+			String databaseName = namespace.substring(0, dot);
+			return !blackList.matchesEntireDatabase(databaseName) && (whiteList.isEmpty() || whiteList.mayMatchDatabase(databaseName));
+		}
+		return !blackList.matches(namespace) && (whiteList.isEmpty() || whiteList.matches(namespace));
+	}
+}
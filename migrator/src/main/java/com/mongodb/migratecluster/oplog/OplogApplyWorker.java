@@ -0,0 +1,449 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.migratecluster.metrics.Histogram;
+import com.mongodb.migratecluster.metrics.Meter;
+import com.mongodb.migratecluster.metrics.MetricsRegistry;
+
+/**
+ * File: OplogApplyWorker Author: Shyam Arjarapu Date: 1/22/19 8:15 AM Description:
+ *
+ * A class to apply the oplog entries routed to it on the target. Every worker owns its own per namespace buffers, so
+ * the entries of a namespace are applied in order while the other workers write to the target at the same time.
+ *
+ * Flushed batches are written asynchronously, keeping up to maxInFlight bulk writes of the worker in flight. The batches
+ * of a namespace lane are written one after another in oplog order, since writes to different documents may still
+ * collide on a unique index; only the batches of different namespaces are written at the same time. Completions are
+ * processed in the order the batches were flushed, so the checkpoint of a namespace never moves past a batch still in
+ * flight. The positions are recorded in memory and saved by the periodic checkpoint of the OplogWriter. A batch the
+ * BulkWriteApplier could not write stops the worker before its position is recorded.
+ */
+public class OplogApplyWorker implements Runnable {
+	private final static Logger logger = LoggerFactory.getLogger(OplogApplyWorker.class);
+
+	private static final ReplaceOptions UPSERT = new ReplaceOptions().upsert(true);
+
+	private final int index;
+	private final String name;
+	private final NamespaceFilter namespaces;
+	private final OplogBuffer<OplogEntry> buffer;
+	private final OplogPartitioner partitioner;
+	private final AppliedPositionTracker tracker;
+	private final CheckpointStore checkpointStore;
+	private final BulkWriteApplier bulkWriteApplier;
+	private final WriteModelCompactor compactor;
+	private final FlushPolicy flushPolicy;
+	private final Map<String, NamespaceBatch> namespaceBatches = new HashMap<>();
+	private final int maxInFlight;
+	private final ExecutorService bulkWriteExecutor;
+	private final Deque<PendingWrite> window = new ArrayDeque<>();
+	private final MetricsRegistry metrics;
+	private final Meter appliedMeter;
+	private final Meter discardedMeter;
+	private final Histogram latencyHistogram;
+
+	private final Object progressLock = new Object();
+	private long appliedCount;
+	private long submittedCount;
+	private volatile Throwable failure;
+
+	public OplogApplyWorker(int index, NamespaceFilter namespaces, long bufferSizeInBytes, OplogPartitioner partitioner, AppliedPositionTracker tracker,
+			CheckpointStore checkpointStore, BulkWriteApplier bulkWriteApplier, WriteModelCompactor compactor, FlushPolicy flushPolicy, int maxInFlight, MetricsRegistry metrics) {
+		this.index = index;
+		this.name = String.format("Writer-%d", index);
+		this.namespaces = namespaces;
+		this.buffer = new OplogBuffer<>(bufferSizeInBytes);
+		this.partitioner = partitioner;
+		this.tracker = tracker;
+		this.checkpointStore = checkpointStore;
+		this.bulkWriteApplier = bulkWriteApplier;
+		this.compactor = compactor;
+		this.flushPolicy = flushPolicy;
+		this.maxInFlight = Math.max(1, maxInFlight);
+		this.metrics = metrics;
+		this.appliedMeter = metrics.meter("oplog.applied");
+		this.discardedMeter = metrics.meter("oplog.discarded");
+		this.latencyHistogram = metrics.histogram("bulkWrite.latencyMicros");
+
+		AtomicInteger threadCount = new AtomicInteger();
+		this.bulkWriteExecutor = Executors.newFixedThreadPool(this.maxInFlight, r -> {
+			Thread thread = new Thread(r, String.format("%s-%d", name, threadCount.getAndIncrement()));
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Get's the number of entries handed over to the worker but not yet taken from its buffer
+	 *
+	 * @return a long representing the number of entries
+	 */
+	public long getQueuedCount() {
+		return buffer.getCount();
+	}
+
+	/**
+	 * Get's the size of the entries handed over to the worker but not yet taken from its buffer
+	 *
+	 * @return a long representing the size in bytes
+	 */
+	public long getQueuedBytes() {
+		return buffer.getSizeInBytes();
+	}
+
+	/**
+	 * Hands a batch of oplog entries over to the worker, blocking while the worker's buffer is full. Must only be called
+	 * by the single dispatching thread.
+	 *
+	 * @param entries
+	 *          a list of oplog entries in oplog order
+	 * @param bytes
+	 *          the size of the entries in bytes
+	 * @throws InterruptedException
+	 *           if interrupted while waiting for room
+	 */
+	public void submit(List<OplogEntry> entries, long bytes) throws InterruptedException {
+		checkFailure();
+		submittedCount += entries.size();
+		tracker.dispatched(entries);
+		buffer.put(entries, bytes);
+	}
+
+	/**
+	 * Blocks until every entry submitted so far has been written to the target. Must only be called by the single
+	 * dispatching thread.
+	 *
+	 * @throws InterruptedException
+	 *           if interrupted while waiting
+	 */
+	public void awaitApplied() throws InterruptedException {
+		synchronized (progressLock) {
+			while (appliedCount < submittedCount && failure == null) {
+				progressLock.wait();
+			}
+		}
+		checkFailure();
+	}
+
+	@Override
+	public void run() {
+		List<OplogEntry> entries = new ArrayList<>();
+		long consumed = 0;
+
+		try {
+			while (true) {
+				entries.clear();
+
+				if (buffer.drainTo(entries, 0, TimeUnit.MILLISECONDS) == 0) {
+					flushAll();
+					awaitInFlight();
+					markApplied(consumed);
+
+					// park until the dispatcher hands over the next batch
+					buffer.drainTo(entries, -1, TimeUnit.MILLISECONDS);
+				}
+
+				for (OplogEntry entry : entries) {
+					applyOperation(entry);
+				}
+				consumed += entries.size();
+
+				// a busy namespace must not hold back the batches of the quiet ones
+				flushExpired();
+				completeWrites();
+			}
+		} catch (InterruptedException e) {
+			logger.info("{} interrupted; stopping", name);
+			Thread.currentThread().interrupt();
+		} catch (Throwable e) {
+			logger.error("{} failed while applying oplog entries", name, e);
+			bulkWriteExecutor.shutdownNow();
+			synchronized (progressLock) {
+				failure = e;
+				progressLock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Throws the error that stopped the worker, if any
+	 */
+	void checkFailure() {
+		if (failure != null) {
+			throw new RuntimeException(String.format("%s failed while applying oplog entries", name), failure);
+		}
+	}
+
+	private void markApplied(long consumed) {
+		synchronized (progressLock) {
+			appliedCount = consumed;
+			progressLock.notifyAll();
+		}
+	}
+
+	private void flushAll() {
+		namespaceBatches.forEach((ns, batch) -> {
+			if (batch.timestamps.size() > 0) {
+				logger.info("draining buffer {} for {} docs", ns, batch.timestamps.size());
+				flush(ns, batch);
+			}
+		});
+	}
+
+	private void flushExpired() {
+		long now = System.nanoTime();
+		namespaceBatches.forEach((ns, batch) -> {
+			if (batch.timestamps.size() > 0 && flushPolicy.isExpired(batch.startedAt, now)) {
+				flush(ns, batch);
+			}
+		});
+	}
+
+	private void flush(String ns, NamespaceBatch batch) {
+		PendingWrite write = new PendingWrite(batch);
+		List<WriteModel<BsonDocument>> models = batch.models;
+		batch.reset();
+
+		while (window.size() >= maxInFlight) {
+			window.peekFirst().future.join();
+			completeWrites();
+		}
+
+		// the write starts once the previous batch of the namespace is acknowledged
+		PendingWrite previous = batch.inFlight.peekLast();
+		CompletableFuture<Void> after = (previous == null) ? CompletableFuture.completedFuture(null) : previous.future;
+
+		if (!models.isEmpty() && batch.namespace.isDroppedAfter(write.timestamps.get(write.timestamps.size() - 1))) {
+			// the namespace is dropped later in the oplog; writing the batch is useless
+			discardedMeter.mark(models.size());
+			write.future = after;
+		} else if (models.isEmpty()) {
+			write.future = after;
+		} else {
+			MongoCollection<BsonDocument> collection = batch.namespace.getTargetCollection();
+			write.future = after.thenRunAsync(() -> {
+				List<WriteModel<BsonDocument>> compacted = (compactor == null) ? models : compactor.compact(models);
+				long start = System.nanoTime();
+				bulkWriteApplier.apply(collection, compacted);
+				write.latencyNanos = System.nanoTime() - start;
+			}, bulkWriteExecutor);
+		}
+		batch.inFlight.add(write);
+		window.add(write);
+		completeWrites();
+	}
+
+	/**
+	 * Blocks until every flushed batch has been written and its position recorded
+	 */
+	private void awaitInFlight() {
+		for (PendingWrite write : window) {
+			write.future.join();
+		}
+		completeWrites();
+	}
+
+	/**
+	 * Records the positions of the batches written so far, namespace by namespace in flush order; a batch that completed
+	 * ahead of an earlier batch of its namespace waits for it
+	 */
+	private void completeWrites() {
+		namespaceBatches.forEach((ns, batch) -> {
+			BsonTimestamp last = null;
+			boolean endsInTransaction = false;
+			int completed = 0;
+			while (!batch.inFlight.isEmpty() && batch.inFlight.peekFirst().future.isDone()) {
+				PendingWrite write = batch.inFlight.pollFirst();
+				write.future.join();
+				window.remove(write);
+
+				if (write.models > 0 && write.latencyNanos > 0) {
+					// a discarded batch was not written
+					flushPolicy.recordLatency(write.models, write.latencyNanos);
+					latencyHistogram.update(TimeUnit.NANOSECONDS.toMicros(write.latencyNanos));
+				}
+				tracker.applied(write.timestamps);
+				completed += write.timestamps.size();
+				appliedMeter.mark(write.timestamps.size());
+				last = write.timestamps.get(write.timestamps.size() - 1);
+				endsInTransaction = write.endsInTransaction;
+			}
+			if (last != null) {
+				// the rest of a transaction may still be ahead, with the same timestamp; resume right before it
+				BsonTimestamp position = endsInTransaction ? new BsonTimestamp(last.getTime(), last.getInc() - 1) : last;
+				checkpointStore.recordNamespacePosition(ns, batch.lane, batch.lanes, position);
+				batch.lag = Math.max(0, System.currentTimeMillis() / 1000 - last.getTime());
+				// only now may a command touching the namespace run, and save positions of its own
+				batch.namespace.applied(completed);
+			}
+		});
+	}
+
+	private void applyOperation(OplogEntry entry) {
+		String ns = entry.getNamespace();
+
+		NamespaceBatch batch = namespaceBatches.get(ns);
+		if (batch == null) {
+			batch = new NamespaceBatch(namespaces.resolve(ns), partitioner.getLane(ns, index), partitioner.getLanes(ns));
+			namespaceBatches.put(ns, batch);
+
+			NamespaceBatch created = batch;
+			metrics.gauge("lag.namespace." + CheckpointStore.getKey(ns, batch.lane), () -> created.lag);
+		}
+
+		if (batch.timestamps.isEmpty()) {
+			batch.startedAt = System.nanoTime();
+		}
+
+		WriteModel<BsonDocument> model = getWriteModelForOperation(entry);
+		if (model != null) {
+			batch.models.add(model);
+			batch.bytes += entry.getSizeInBytes();
+		}
+		batch.timestamps.add(entry.getTimestamp());
+		batch.endsInTransaction = entry.isTransactionOperation();
+
+		if (flushPolicy.isFull(batch.models.size(), batch.bytes)) {
+			flush(ns, batch);
+		}
+	}
+
+	/**
+	 * Get's a WriteModel for the given oplog operation
+	 *
+	 * @param entry
+	 *          an oplog operation
+	 * @return a WriteModel of a bulk operation
+	 */
+	static WriteModel<BsonDocument> getWriteModelForOperation(OplogEntry entry) {
+		String message;
+		WriteModel<BsonDocument> model = null;
+		switch (entry.getOperation()) {
+		case "i":
+			model = getInsertWriteModel(entry);
+			break;
+		case "u":
+			model = getUpdateWriteModel(entry);
+			break;
+		case "d":
+			model = getDeleteWriteModel(entry);
+			break;
+		case "n":
+			break;
+		default:
+			message = String.format("unsupported operation %s; op: %s", entry.getOperation(), entry.getDocument().toJson());
+			logger.error(message);
+			throw new RuntimeException(message);
+		}
+		return model;
+	}
+
+	private static WriteModel<BsonDocument> getInsertWriteModel(OplogEntry entry) {
+		return new InsertOneModel<>(entry.getObject());
+	}
+
+	private static WriteModel<BsonDocument> getUpdateWriteModel(OplogEntry entry) {
+		BsonDocument find = entry.getObject2();
+		BsonDocument operation = entry.getObject();
+
+		// copy the top level fields only when $v has to be dropped; the values themselves are never decoded
+		List<String> names = OplogEntry.getFieldNames(operation);
+		BsonDocument update = operation;
+		if (names.contains("$v")) {
+			update = new BsonDocument();
+			for (String name : names) {
+				if (!name.equals("$v")) {
+					update.append(name, operation.get(name));
+				}
+			}
+		}
+
+		boolean hasOperators = names.stream().anyMatch(name -> name.startsWith("$") && !name.equals("$v"));
+		if (!hasOperators) {
+			// a replacement of the whole document; the fields it leaves out must go too
+			return new ReplaceOneModel<>(find, update, UPSERT);
+		}
+
+		return new UpdateOneModel<>(find, update);
+	}
+
+	private static WriteModel<BsonDocument> getDeleteWriteModel(OplogEntry entry) {
+		return new DeleteOneModel<>(entry.getObject());
+	}
+
+	/**
+	 * The write models buffered for a namespace along with the timestamps of the entries they came from, their estimated
+	 * size and when the first of them was buffered. It also holds the flushed batches of the
+	 * namespace still in flight, in flush order.
+	 */
+	private class NamespaceBatch {
+		private final Namespace namespace;
+		private final int lane;
+		private final int lanes;
+		private final Deque<PendingWrite> inFlight = new ArrayDeque<>();
+		private List<WriteModel<BsonDocument>> models = new ArrayList<>();
+		private List<BsonTimestamp> timestamps = new ArrayList<>();
+		private boolean endsInTransaction;
+		private long bytes;
+		private long startedAt;
+		// seconds between the last applied entry was written on the source and on the target
+		private volatile long lag;
+
+		NamespaceBatch(Namespace namespace, int lane, int lanes) {
+			this.namespace = namespace;
+			this.lane = lane;
+			this.lanes = lanes;
+		}
+
+		private void reset() {
+			models = new ArrayList<>();
+			timestamps = new ArrayList<>();
+			endsInTransaction = false;
+			bytes = 0;
+		}
+	}
+
+	/**
+	 * A flushed batch on its way to the target
+	 */
+	private static class PendingWrite {
+		private final int models;
+		private final List<BsonTimestamp> timestamps;
+		private final boolean endsInTransaction;
+		private CompletableFuture<Void> future;
+		private volatile long latencyNanos;
+
+		PendingWrite(NamespaceBatch batch) {
+			this.models = batch.models.size();
+			this.timestamps = batch.timestamps;
+			this.endsInTransaction = batch.endsInTransaction;
+		}
+	}
+}
@@ -0,0 +1,246 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * File: OplogBuffer Author: Shyam Arjarapu Date: 1/21/19 8:10 AM Description:
+ *
+ * A bounded hand-off between the oplog reader and the oplog writer. The capacity is expressed in bytes, the producer
+ * publishes whole batches and the consumer drains everything available at once. Both sides park on a condition instead
+ * of spinning or sleeping while the buffer is full or empty.
+ *
+ * When the buffer is given an OplogSpill, a batch that does not fit is appended to the spill instead of blocking the
+ * producer, and so is every following batch until the consumer has read the spill back; the entries are consumed in
+ * publish order either way. The spill is written and read back outside the lock of the buffer, so the consumer keeps
+ * draining while a batch is encoded to disk and the producer keeps publishing while one is decoded.
+ *
+ * A producer with an end, such as the replay of a capture, closes the buffer after its last batch; the consumer then
+ * drains what is left without waiting and sees the buffer finished.
+ */
+public class OplogBuffer<T> {
+	private final long capacityInBytes;
+	private final OplogSpill<T> spill;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+
+	private final ArrayDeque<List<T>> batches = new ArrayDeque<>();
+	private long sizeInBytes;
+	private long count;
+
+	private boolean spilling;
+	// the batches being appended to the spill; the buffer keeps spilling until they are read back
+	private int appending;
+	private boolean closed;
+
+	public OplogBuffer(long capacityInBytes) {
+		this(capacityInBytes, null);
+	}
+
+	public OplogBuffer(long capacityInBytes, OplogSpill<T> spill) {
+		if (capacityInBytes <= 0) {
+			throw new IllegalArgumentException("capacityInBytes must be greater than zero");
+		}
+		this.capacityInBytes = capacityInBytes;
+		this.spill = spill;
+	}
+
+	/**
+	 * Publishes a batch of entries, blocking while the buffer does not have room for it. A batch larger than the whole
+	 * capacity is accepted once the buffer is empty, so that a single oversized batch can never dead lock the reader.
+	 * With a spill, the batch is appended to the spill rather than waiting for room.
+	 *
+	 * @param items
+	 *          the entries of the batch, in order
+	 * @param bytes
+	 *          the size of the batch in bytes
+	 * @throws InterruptedException
+	 *           if interrupted while waiting for room
+	 */
+	public void put(List<T> items, long bytes) throws InterruptedException {
+		offer(items, bytes, -1, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Publishes a batch of entries like put, waiting up to the given time for room
+	 *
+	 * @param items
+	 *          the entries of the batch, in order
+	 * @param bytes
+	 *          the size of the batch in bytes
+	 * @param timeout
+	 *          how long to wait for room; zero returns immediately and a negative value waits forever
+	 * @param unit
+	 *          the unit of the timeout
+	 * @return true if the batch was published, false if the buffer had no room for it in time
+	 * @throws InterruptedException
+	 *           if interrupted while waiting for room
+	 */
+	public boolean offer(List<T> items, long bytes, long timeout, TimeUnit unit) throws InterruptedException {
+		if (items.isEmpty()) {
+			return true;
+		}
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			if (spill == null || !(spilling || (sizeInBytes > 0 && sizeInBytes + bytes > capacityInBytes))) {
+				while (sizeInBytes > 0 && sizeInBytes + bytes > capacityInBytes) {
+					if (timeout < 0) {
+						notFull.await();
+					} else if (nanos <= 0) {
+						return false;
+					} else {
+						nanos = notFull.awaitNanos(nanos);
+					}
+				}
+				batches.addLast(items);
+				sizeInBytes += bytes;
+				count += items.size();
+				notEmpty.signal();
+				return true;
+			}
+			// once spilling, everything goes to the spill until it is read back, so that the order is kept
+			spilling = true;
+			appending++;
+		} finally {
+			lock.unlock();
+		}
+
+		try {
+			spill.append(items);
+		} finally {
+			lock.lock();
+			try {
+				appending--;
+				notEmpty.signal();
+			} finally {
+				lock.unlock();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Moves every buffered entry into the target collection, waiting up to the given time for the first batch. Once the
+	 * memory is drained, the spilled batches are read back, up to the capacity of the buffer at a time.
+	 *
+	 * @param target
+	 *          a collection to receive the entries in publish order
+	 * @param timeout
+	 *          how long to wait for an entry; zero returns immediately and a negative value waits forever, or until the
+	 *          buffer is closed
+	 * @param unit
+	 *          the unit of the timeout
+	 * @return the number of entries moved into the target
+	 * @throws InterruptedException
+	 *           if interrupted while waiting
+	 */
+	public int drainTo(Collection<? super T> target, long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			while (batches.isEmpty() && (spill == null || spill.getCount() == 0)) {
+				if (closed && appending == 0) {
+					return 0;
+				} else if (timeout < 0) {
+					notEmpty.await();
+				} else if (nanos <= 0) {
+					return 0;
+				} else {
+					nanos = notEmpty.awaitNanos(nanos);
+				}
+			}
+
+			if (!batches.isEmpty()) {
+				int drained = 0;
+				List<T> batch;
+				while ((batch = batches.pollFirst()) != null) {
+					target.addAll(batch);
+					drained += batch.size();
+				}
+				sizeInBytes = 0;
+				count = 0;
+				notFull.signalAll();
+				return drained;
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		int read = spill.read(target, capacityInBytes);
+		lock.lock();
+		try {
+			if (spill.getCount() == 0 && appending == 0) {
+				spilling = false;
+			}
+		} finally {
+			lock.unlock();
+		}
+		return read;
+	}
+
+	/**
+	 * Marks the end of the entries, once the last batch is published; a consumer waiting for entries returns at once
+	 */
+	public void close() {
+		lock.lock();
+		try {
+			closed = true;
+			notEmpty.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Tells whether the buffer was closed and every entry published has been drained
+	 *
+	 * @return true when no entry will ever be drained again
+	 */
+	public boolean isFinished() {
+		lock.lock();
+		try {
+			return closed && appending == 0 && batches.isEmpty() && (spill == null || spill.getCount() == 0);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Get's the number of bytes currently held by the buffer
+	 *
+	 * @return the size of the buffered entries in bytes
+	 */
+	public long getSizeInBytes() {
+		lock.lock();
+		try {
+			return sizeInBytes;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Get's the number of entries currently held by the buffer
+	 *
+	 * @return the count of buffered entries
+	 */
+	public long getCount() {
+		lock.lock();
+		try {
+			return count;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getCapacityInBytes() {
+		return capacityInBytes;
+	}
+}
@@ -0,0 +1,178 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.bson.BsonType;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.io.ByteBufferBsonInput;
+
+/**
+ * File: OplogEntry Author: Shyam Arjarapu Date: 1/22/19 7:40 AM Description:
+ *
+ * A class representing a single oplog entry read from the source along with the number of bytes it occupied on the wire.
+ * The entry is either fully decoded or kept as the raw bytes read from the source; for a raw entry only the fields
+ * needed to route it are decoded, on first use, while o and o2 stay slices of the original bytes.
+ */
+public class OplogEntry {
+	private final BsonDocument document;
+	private final int sizeInBytes;
+	private final BsonDocument resumeToken;
+	private final boolean transactionOperation;
+
+	private String namespace;
+	private String operation;
+	private BsonTimestamp timestamp;
+
+	public OplogEntry(BsonDocument document, int sizeInBytes) {
+		this(document, sizeInBytes, null);
+	}
+
+	public OplogEntry(BsonDocument document, int sizeInBytes, BsonDocument resumeToken) {
+		this(document, sizeInBytes, resumeToken, false);
+	}
+
+	OplogEntry(BsonDocument document, int sizeInBytes, BsonDocument resumeToken, boolean transactionOperation) {
+		this.document = document;
+		this.sizeInBytes = sizeInBytes;
+		this.resumeToken = resumeToken;
+		this.transactionOperation = transactionOperation;
+	}
+
+	/**
+	 * Get's the oplog entry as a document
+	 *
+	 * @return a document of the oplog entry; a RawBsonDocument when the entry was not decoded
+	 */
+	public BsonDocument getDocument() {
+		return document;
+	}
+
+	/**
+	 * Get's the size of the raw oplog entry
+	 *
+	 * @return the size of the entry in bytes
+	 */
+	public int getSizeInBytes() {
+		return sizeInBytes;
+	}
+
+	/**
+	 * Get's the resume token of the change event the entry was adapted from
+	 *
+	 * @return the resume token, or null when the entry was read from the oplog
+	 */
+	public BsonDocument getResumeToken() {
+		return resumeToken;
+	}
+
+	/**
+	 * Indicates if the entry is an operation unpacked from a transaction; the operations of a transaction share the
+	 * timestamp of its commit
+	 *
+	 * @return true for an operation of a transaction
+	 */
+	public boolean isTransactionOperation() {
+		return transactionOperation;
+	}
+
+	/**
+	 * Get's the namespace the oplog entry applies to
+	 *
+	 * @return a string representing the namespace
+	 */
+	public String getNamespace() {
+		if (namespace == null) {
+			namespace = document.getString("ns").getValue();
+		}
+		return namespace;
+	}
+
+	/**
+	 * Get's the type of the operation; i, u, d, c or n
+	 *
+	 * @return a string representing the operation
+	 */
+	public String getOperation() {
+		if (operation == null) {
+			operation = document.getString("op").getValue();
+		}
+		return operation;
+	}
+
+	/**
+	 * Get's the timestamp of the oplog entry
+	 *
+	 * @return the timestamp of the entry
+	 */
+	public BsonTimestamp getTimestamp() {
+		if (timestamp == null) {
+			timestamp = document.getTimestamp("ts");
+		}
+		return timestamp;
+	}
+
+	/**
+	 * Get's the o field; the inserted document, the update, the delete filter or the command
+	 *
+	 * @return a document of the operation, or null if absent
+	 */
+	public BsonDocument getObject() {
+		return document.getDocument("o", null);
+	}
+
+	/**
+	 * Get's the o2 field; the filter of an update
+	 *
+	 * @return a document of the update filter, or null if absent
+	 */
+	public BsonDocument getObject2() {
+		return document.getDocument("o2", null);
+	}
+
+	/**
+	 * Get's the _id of the document the entry modifies; taken from o2 for updates and from o otherwise
+	 *
+	 * @return the _id of the document, or null when the entry does not target a single document
+	 */
+	public BsonValue getDocumentId() {
+		String operation = getOperation();
+		BsonDocument document;
+		if ("u".equals(operation)) {
+			document = getObject2();
+		} else if ("i".equals(operation) || "d".equals(operation)) {
+			document = getObject();
+		} else {
+			return null;
+		}
+		return (document == null) ? null : document.get("_id");
+	}
+
+	/**
+	 * Get's the top level field names of a document; walks the bytes of a raw document without decoding its values
+	 *
+	 * @param document
+	 *          a document
+	 * @return a list of the field names in order
+	 */
+	public static List<String> getFieldNames(BsonDocument document) {
+		if (!(document instanceof RawBsonDocument)) {
+			return new ArrayList<>(document.keySet());
+		}
+
+		List<String> names = new ArrayList<>();
+		ByteBufferBsonInput input = new ByteBufferBsonInput(((RawBsonDocument) document).getByteBuffer());
+		try (BsonBinaryReader reader = new BsonBinaryReader(input)) {
+			reader.readStartDocument();
+			while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+				names.add(reader.readName());
+				reader.skipValue();
+			}
+		}
+		return names;
+	}
+}
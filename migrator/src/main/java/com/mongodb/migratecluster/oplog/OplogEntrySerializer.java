@@ -0,0 +1,84 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.bson.BsonDocument;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.Codec;
+
+/**
+ * File: OplogEntrySerializer Author: Shyam Arjarapu Date: 2/6/19 7:30 AM Description:
+ *
+ * A class to write oplog entries to a stream and read them back, used by the spill of the oplog buffer and by the
+ * capture files. An entry is written as its size as read from the source, its BSON document, and the BSON document of
+ * its resume token when it has one.
+ */
+public class OplogEntrySerializer {
+	private static final Codec<BsonDocument> DOCUMENT_CODEC = new BsonDocumentCodec();
+
+	private OplogEntrySerializer() {
+	}
+
+	/**
+	 * Writes an oplog entry to a stream
+	 *
+	 * @param output
+	 *          the stream to write to
+	 * @param entry
+	 *          an oplog entry
+	 * @throws IOException
+	 *           if the stream can't be written
+	 */
+	public static void write(DataOutputStream output, OplogEntry entry) throws IOException {
+		output.writeInt(entry.getSizeInBytes());
+		write(output, entry.getDocument());
+		output.writeBoolean(entry.getResumeToken() != null);
+		if (entry.getResumeToken() != null) {
+			write(output, entry.getResumeToken());
+		}
+	}
+
+	/**
+	 * Reads the next oplog entry of a stream
+	 *
+	 * @param input
+	 *          the stream to read from
+	 * @param rawEntries
+	 *          true to keep the entry as a raw document instead of decoding it
+	 * @return the oplog entry, or null at the end of the stream
+	 * @throws IOException
+	 *           if the stream can't be read or ends in the middle of an entry
+	 */
+	public static OplogEntry read(DataInputStream input, boolean rawEntries) throws IOException {
+		int first = input.read();
+		if (first < 0) {
+			return null;
+		}
+		int size = (first << 24) | (input.readUnsignedByte() << 16) | (input.readUnsignedByte() << 8) | input.readUnsignedByte();
+
+		RawBsonDocument document = readDocument(input);
+		BsonDocument resumeToken = input.readBoolean() ? readDocument(input) : null;
+		return new OplogEntry(rawEntries ? document : document.decode(DOCUMENT_CODEC), size, resumeToken);
+	}
+
+	private static void write(DataOutputStream output, BsonDocument document) throws IOException {
+		RawBsonDocument raw = (document instanceof RawBsonDocument) ? (RawBsonDocument) document : new RawBsonDocument(document, DOCUMENT_CODEC);
+		ByteBuffer buffer = raw.getByteBuffer().asNIO();
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		output.write(bytes);
+	}
+
+	private static RawBsonDocument readDocument(DataInputStream input) throws IOException {
+		// the length of a BSON document is its first int32, little endian, and counts itself
+		int length = Integer.reverseBytes(input.readInt());
+		byte[] bytes = new byte[length];
+		ByteBuffer.wrap(bytes, 0, 4).putInt(Integer.reverseBytes(length));
+		input.readFully(bytes, 4, length - 4);
+		return new RawBsonDocument(bytes);
+	}
+}
@@ -0,0 +1,135 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonTimestamp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * File: OplogFanOut Author: Shyam Arjarapu Date: 2/13/19 8:10 AM Description:
+ *
+ * A class to hand the oplog entries read once from the source to the buffers of several targets, each drained by an
+ * OplogWriter of its own. The entries are decoded once and shared by the targets, which only read them.
+ *
+ * The targets resume from different positions; the reader starts from the oldest of them, and the entries older than
+ * the start position of a target are not handed to it, since they were applied there already.
+ *
+ * Each target is handed its entries by a publisher thread of its own, through a staging buffer as large as the input,
+ * so a target whose buffer is full only blocks its own publisher. The others keep going until that target falls a
+ * whole staging buffer behind; a target buffer with a spill always has room. A publisher that fails stops the fan out
+ * with its failure. Once the input is closed and drained, such as at the end of a replay, the buffers of the targets
+ * are closed in turn.
+ */
+public class OplogFanOut implements Runnable {
+	private final static Logger logger = LoggerFactory.getLogger(OplogFanOut.class);
+
+	private final OplogBuffer<OplogEntry> input;
+	private final List<OplogBuffer<OplogEntry>> outputs;
+	private final BsonTimestamp[] startPositions;
+	private volatile RuntimeException failure;
+
+	/**
+	 * @param input
+	 *          the buffer the reader publishes to
+	 * @param outputs
+	 *          the buffers of the targets
+	 * @param startPositions
+	 *          the position each target resumes from, or null to hand it every entry
+	 */
+	public OplogFanOut(OplogBuffer<OplogEntry> input, List<OplogBuffer<OplogEntry>> outputs, List<BsonTimestamp> startPositions) {
+		this.input = input;
+		this.outputs = outputs;
+		this.startPositions = startPositions.toArray(new BsonTimestamp[0]);
+	}
+
+	@Override
+	public void run() {
+		Thread fanOut = Thread.currentThread();
+		List<OplogBuffer<OplogEntry>> stagings = new ArrayList<>();
+		List<Thread> publishers = new ArrayList<>();
+		for (int i = 0; i < outputs.size(); i++) {
+			OplogBuffer<OplogEntry> staging = new OplogBuffer<>(input.getCapacityInBytes());
+			stagings.add(staging);
+
+			int output = i;
+			Thread publisher = new Thread(() -> publish(output, staging, fanOut), String.format("%s-%d", fanOut.getName(), i));
+			publisher.setDaemon(true);
+			publisher.start();
+			publishers.add(publisher);
+		}
+
+		try {
+			while (true) {
+				// the targets share the batch, which they only read
+				List<OplogEntry> entries = new ArrayList<>();
+				if (input.drainTo(entries, -1, TimeUnit.MILLISECONDS) == 0 && input.isFinished()) {
+					break;
+				}
+				long bytes = 0;
+				for (OplogEntry entry : entries) {
+					bytes += entry.getSizeInBytes();
+				}
+				for (OplogBuffer<OplogEntry> staging : stagings) {
+					staging.put(entries, bytes);
+				}
+			}
+
+			// the source has an end; hand it on to every target
+			stagings.forEach(OplogBuffer::close);
+			for (Thread publisher : publishers) {
+				publisher.join();
+			}
+		} catch (InterruptedException e) {
+			if (failure != null) {
+				throw new IllegalStateException("handing the oplog to a target failed", failure);
+			}
+			logger.info("oplog fan out interrupted; stopping");
+			Thread.currentThread().interrupt();
+		} finally {
+			publishers.forEach(Thread::interrupt);
+		}
+	}
+
+	/**
+	 * Hands the entries staged for a target to its buffer, until interrupted or until the staging buffer finished
+	 */
+	private void publish(int i, OplogBuffer<OplogEntry> staging, Thread fanOut) {
+		try {
+			List<OplogEntry> entries = new ArrayList<>();
+			while (true) {
+				entries.clear();
+				if (staging.drainTo(entries, -1, TimeUnit.MILLISECONDS) == 0 && staging.isFinished()) {
+					outputs.get(i).close();
+					return;
+				}
+				publish(i, entries);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (RuntimeException e) {
+			logger.error("handing the oplog to target {} failed", i, e);
+			failure = e;
+			fanOut.interrupt();
+		}
+	}
+
+	private void publish(int i, List<OplogEntry> entries) throws InterruptedException {
+		List<OplogEntry> batch = new ArrayList<>(entries.size());
+		long bytes = 0;
+		for (OplogEntry entry : entries) {
+			if (startPositions[i] != null && entry.getTimestamp().compareTo(startPositions[i]) < 0) {
+				continue;
+			}
+			batch.add(entry);
+			bytes += entry.getSizeInBytes();
+		}
+		if (!batch.isEmpty()) {
+			// past the start position, every following entry is handed over
+			startPositions[i] = null;
+			outputs.get(i).put(batch, bytes);
+		}
+	}
+}
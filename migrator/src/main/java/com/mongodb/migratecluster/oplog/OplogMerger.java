@@ -0,0 +1,123 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * File: OplogMerger Author: Shyam Arjarapu Date: 2/1/19 8:10 AM Description:
+ *
+ * A class to merge the oplog entries of several shards into one stream ordered by ts. Every shard is tailed into its
+ * own buffer; the merger keeps the entries taken from each of them and publishes the oldest head among the shards,
+ * a k-way merge. An entry is only published once every shard has an entry to compare it with, so a shard without
+ * writes holds the merge back until its periodic no-op entry arrives.
+ *
+ * A shard whose tailer failed never sends another entry, so the tailer reports its failure here instead; the merger
+ * throws it as soon as it waits for the entries of a shard, rather than waiting forever.
+ */
+public class OplogMerger implements Runnable {
+	private final static Logger logger = LoggerFactory.getLogger(OplogMerger.class);
+
+	private final List<OplogBuffer<OplogEntry>> inputs;
+	private final OplogBuffer<OplogEntry> output;
+	private final int maxBatchCount;
+
+	private final List<ArrayDeque<OplogEntry>> pending;
+	private List<OplogEntry> batch = new ArrayList<>();
+	private long batchBytes;
+	private volatile RuntimeException failure;
+
+	/**
+	 * @param inputs
+	 *          the buffers of the shards, each in ts order
+	 * @param output
+	 *          the buffer to publish the merged entries to
+	 * @param maxBatchCount
+	 *          the most entries published at once
+	 */
+	public OplogMerger(List<OplogBuffer<OplogEntry>> inputs, OplogBuffer<OplogEntry> output, int maxBatchCount) {
+		this.inputs = inputs;
+		this.output = output;
+		this.maxBatchCount = Math.max(1, maxBatchCount);
+		this.pending = new ArrayList<>(inputs.size());
+		for (int i = 0; i < inputs.size(); i++) {
+			pending.add(new ArrayDeque<>());
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			merge();
+		} catch (InterruptedException e) {
+			logger.info("oplog merger interrupted; stopping");
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Stops the merge for the failure of a shard tailer
+	 *
+	 * @param failure
+	 *          the failure of the tailer
+	 */
+	public void fail(RuntimeException failure) {
+		this.failure = failure;
+	}
+
+	private void merge() throws InterruptedException {
+		// the shard with the oldest head comes first; ties go to the lower shard index
+		Comparator<Integer> byHead = Comparator.comparing((Integer i) -> pending.get(i).peekFirst().getTimestamp()).thenComparing(i -> i);
+		PriorityQueue<Integer> heads = new PriorityQueue<>(byHead);
+
+		for (int i = 0; i < inputs.size(); i++) {
+			fill(i);
+			heads.add(i);
+		}
+
+		while (true) {
+			int i = heads.poll();
+			OplogEntry entry = pending.get(i).pollFirst();
+			batch.add(entry);
+			batchBytes += entry.getSizeInBytes();
+
+			if (pending.get(i).isEmpty()) {
+				fill(i);
+			}
+			heads.add(i);
+
+			if (batch.size() >= maxBatchCount) {
+				publish();
+			}
+		}
+	}
+
+	/**
+	 * Takes the next entries of a shard, publishing what is merged so far before waiting for them
+	 */
+	private void fill(int i) throws InterruptedException {
+		ArrayDeque<OplogEntry> entries = pending.get(i);
+		if (inputs.get(i).drainTo(entries, 0, TimeUnit.MILLISECONDS) == 0) {
+			publish();
+			while (inputs.get(i).drainTo(entries, 100, TimeUnit.MILLISECONDS) == 0) {
+				if (failure != null) {
+					throw new IllegalStateException("the tailer of a shard failed", failure);
+				}
+			}
+		}
+	}
+
+	private void publish() throws InterruptedException {
+		if (!batch.isEmpty()) {
+			output.put(batch, batchBytes);
+			batch = new ArrayList<>();
+			batchBytes = 0;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.Map;
+
+/**
+ * File: OplogPartitioner Author: Shyam Arjarapu Date: 1/23/19 6:55 AM Description:
+ *
+ * A class deciding which apply worker, and which lane of a namespace, an oplog entry belongs to. A namespace is pinned
+ * to one worker by the hash of its name, unless it is configured with lanes; then the entries are spread over
+ * consecutive workers by the hash of the document _id.
+ */
+public class OplogPartitioner {
+	private final int workerCount;
+	private final Map<String, Integer> namespaceLanes;
+
+	public OplogPartitioner(int workerCount, Map<String, Integer> namespaceLanes) {
+		this.workerCount = workerCount;
+		this.namespaceLanes = namespaceLanes;
+	}
+
+	public int getWorkerCount() {
+		return workerCount;
+	}
+
+	/**
+	 * Get's the number of lanes a namespace is split into, capped at the number of workers so that every worker holds
+	 * at most one lane of a namespace
+	 *
+	 * @param namespace
+	 *          the namespace of the oplog entries
+	 * @return the number of lanes; 1 when the namespace is not partitioned
+	 */
+	public int getLanes(String namespace) {
+		Integer lanes = namespaceLanes.get(namespace);
+		if (lanes == null || lanes <= 1) {
+			return 1;
+		}
+		return Math.min(lanes, workerCount);
+	}
+
+	/**
+	 * Get's the index of the worker an oplog entry is routed to
+	 *
+	 * @param entry
+	 *          an oplog entry
+	 * @return the index of the worker, or -1 when the entry belongs to a partitioned namespace but has no _id
+	 */
+	public int getWorkerIndex(OplogEntry entry) {
+		String namespace = entry.getNamespace();
+		int lanes = getLanes(namespace);
+		if (lanes == 1) {
+			return getDefaultWorkerIndex(namespace);
+		}
+
+		Object id = entry.getDocumentId();
+		if (id == null) {
+			return -1;
+		}
+		int lane = Math.floorMod(id.hashCode(), lanes);
+		return Math.floorMod(namespace.hashCode() + lane, workerCount);
+	}
+
+	/**
+	 * Get's the index of the worker holding the first lane of a namespace
+	 *
+	 * @param namespace
+	 *          the namespace of the oplog entries
+	 * @return the index of the worker
+	 */
+	public int getDefaultWorkerIndex(String namespace) {
+		return Math.floorMod(namespace.hashCode(), workerCount);
+	}
+
+	/**
+	 * Get's the lane of a namespace held by the given worker
+	 *
+	 * @param namespace
+	 *          the namespace of the oplog entries
+	 * @param workerIndex
+	 *          the index of the worker
+	 * @return the lane of the namespace
+	 */
+	public int getLane(String namespace, int workerIndex) {
+		if (getLanes(namespace) == 1) {
+			return 0;
+		}
+		return Math.floorMod(workerIndex - namespace.hashCode(), workerCount);
+	}
+}
@@ -0,0 +1,124 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.bson.BsonRegularExpression;
+import org.bson.BsonTimestamp;
+import org.bson.conversions.Bson;
+
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.migratecluster.commandline.ResourceFilter;
+
+/**
+ * File: OplogQuery Author: Shyam Arjarapu Date: 2/2/19 7:20 AM Description:
+ *
+ * A class to build the query tailing the source oplog, so that the entries the writer would throw away are not sent
+ * over the wire at all. The black listed databases become a regex on ns and the black listed collections a $nin, the
+ * no-op entries and the entries of chunk migrations can be skipped, and the entries are projected down to the fields
+ * the writer reads. The same black list is turned into the $match of a change stream. Only the filters naming their
+ * database and collection are sent to the source; the glob and filterExpression filters, and the white list, are
+ * applied by the writer.
+ *
+ * Transactions are written to admin.$cmd whatever namespaces they touch, so admin.$cmd is tailed even when admin is
+ * black listed; the writer filters the operations they carry.
+ */
+public class OplogQuery {
+	static final List<String> FIELDS = Arrays.asList("ts", "op", "ns", "o", "o2", "prevOpTime");
+
+	private final List<ResourceFilter> blackListFilter;
+	private final boolean skipNoops;
+	private final boolean skipFromMigrate;
+
+	/**
+	 * @param blackListFilter
+	 *          the resources not to migrate
+	 * @param skipNoops
+	 *          true to skip the no-op entries; they must be kept when the entries of several oplogs are merged
+	 * @param skipFromMigrate
+	 *          true to skip the entries written by chunk migrations
+	 */
+	public OplogQuery(List<ResourceFilter> blackListFilter, boolean skipNoops, boolean skipFromMigrate) {
+		// the pattern filters are left to the writer
+		this.blackListFilter = blackListFilter.stream().filter(filter -> !filter.isPattern()).collect(Collectors.toList());
+		this.skipNoops = skipNoops;
+		this.skipFromMigrate = skipFromMigrate;
+	}
+
+	/**
+	 * Get's the filter of the entries to tail
+	 *
+	 * @param start
+	 *          the timestamp of the first entry to read
+	 * @return the filter
+	 */
+	public Bson getFilter(BsonTimestamp start) {
+		List<Bson> filters = new ArrayList<>();
+		filters.add(Filters.gte("ts", start));
+		if (skipNoops) {
+			filters.add(Filters.ne("op", "n"));
+		}
+		if (skipFromMigrate) {
+			filters.add(Filters.ne("fromMigrate", true));
+		}
+
+		List<String> databases = blackListFilter.stream().filter(ResourceFilter::isEntireDatabase).map(ResourceFilter::getDatabase).distinct()
+				.collect(Collectors.toList());
+		if (!databases.isEmpty()) {
+			// covers the commands of the database as well, db.$cmd; servers before 4.0.7 only take a regex object in $not
+			String alternatives = databases.stream().map(Pattern::quote).collect(Collectors.joining("|"));
+			Bson notBlackListed = Filters.not(Filters.eq("ns", new BsonRegularExpression(String.format("^(?:%s)\\.", alternatives))));
+			filters.add(databases.contains("admin") ? Filters.or(notBlackListed, Filters.eq("ns", "admin.$cmd")) : notBlackListed);
+		}
+
+		List<String> namespaces = blackListFilter.stream().filter(filter -> !filter.isEntireDatabase()).map(ResourceFilter::getNamespace).distinct()
+				.collect(Collectors.toList());
+		if (!namespaces.isEmpty()) {
+			filters.add(Filters.nin("ns", namespaces));
+		}
+
+		return Filters.and(filters);
+	}
+
+	/**
+	 * Get's the pipeline of a change stream of the whole cluster; the black list is compiled into a $match on the ns of
+	 * the change events
+	 *
+	 * @return the stages of the pipeline, empty when nothing is black listed
+	 */
+	public List<Bson> getChangeStreamPipeline() {
+		List<Bson> filters = new ArrayList<>();
+
+		List<String> databases = blackListFilter.stream().filter(ResourceFilter::isEntireDatabase).map(ResourceFilter::getDatabase).distinct()
+				.collect(Collectors.toList());
+		if (!databases.isEmpty()) {
+			filters.add(Filters.nin("ns.db", databases));
+		}
+
+		List<Bson> collections = blackListFilter.stream().filter(filter -> !filter.isEntireDatabase())
+				.map(filter -> Filters.and(Filters.eq("ns.db", filter.getDatabase()), Filters.eq("ns.coll", filter.getCollection())))
+				.collect(Collectors.toList());
+		if (!collections.isEmpty()) {
+			filters.add(Filters.nor(collections));
+		}
+
+		if (filters.isEmpty()) {
+			return new ArrayList<>();
+		}
+		return Arrays.asList(Aggregates.match(Filters.and(filters)));
+	}
+
+	/**
+	 * Get's the projection of the tailed entries down to the fields the writer reads
+	 *
+	 * @return the projection
+	 */
+	public Bson getProjection() {
+		return Projections.include(FIELDS);
+	}
+}
@@ -2,46 +2,79 @@ package com.mongodb.migratecluster.oplog;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.TimeZone;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 
+import org.bson.BsonDocument;
 import org.bson.BsonTimestamp;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.Codec;
 import org.bson.conversions.Bson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.mongodb.CursorType;
+import com.mongodb.MongoClient;
 import com.mongodb.ReadPreference;
+import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.Sorts;
 import com.mongodb.migratecluster.commandline.ApplicationOptions;
+import com.mongodb.migratecluster.commandline.ConnectionProfile;
+import com.mongodb.migratecluster.metrics.Meter;
+import com.mongodb.migratecluster.metrics.MetricsRegistry;
 
 /**
  * File: OplogBufferedReader Author: Shyam Arjarapu Date: 1/14/19 9:50 AM Description:
  *
- * A class to help read the oplog entries and notify the consumers of documents read either in bulk or timer based mode.
+ * A class to help read the oplog entries and publish them to the oplog buffer in batches. The entries are fetched as raw
+ * BSON and either decoded here or passed on as they are when rawOplogEntries is enabled.
+ *
+ * With shardedSource, the shards are discovered from config.shards of the source and the oplog of every shard is
+ * tailed on its own thread into its own buffer; an OplogMerger merges them by ts into the oplog buffer. The entries
+ * written by chunk migrations are skipped when skipFromMigrate is enabled. A shard tailer that fails hands its failure
+ * to the merger, which throws it out of the reader; the merged order cannot go on without that shard.
+ *
+ * The black list and the no-op entries are filtered out by the source, see OplogQuery. The no-op entries of a sharded
+ * source are still read; they let the merge move on while a shard has no writes.
+ *
+ * The oplog is tailed with an await cursor, so the source answers a getMore as soon as new entries are written, or
+ * after oplogMaxAwaitTimeMS without any; a CursorPrefetcher keeps the next getMore in flight while the current entries
+ * are decoded and published. The oplog is read from a secondary unless the sourceConnection gives a read preference,
+ * and the sourceConnection may set the batchSize of the getMores.
  */
 public class OplogReader implements Runnable {
-	private final int BUFFER_SIZE = 1000000;
-
-	public final ConcurrentLinkedQueue<Document> queue = new ConcurrentLinkedQueue<Document>();
+	private final int MAX_BATCH_COUNT = 10000;
+	private final int MAX_BATCH_BYTES = 16 * 1024 * 1024;
 
 	final static Logger logger = LoggerFactory.getLogger(OplogReader.class);
 
-	private ApplicationOptions options;
+	private final ApplicationOptions options;
+	private final OplogBuffer<OplogEntry> buffer;
+	private final BsonTimestamp resumePosition;
+	private final Codec<BsonDocument> documentCodec = new BsonDocumentCodec();
+	private final Meter readMeter;
+	private final Meter readBytesMeter;
 
-	public OplogReader(ApplicationOptions options) {
+	public OplogReader(ApplicationOptions options, OplogBuffer<OplogEntry> buffer, BsonTimestamp resumePosition, MetricsRegistry metrics) {
 		this.options = options;
-
+		this.buffer = buffer;
+		this.resumePosition = resumePosition;
+		this.readMeter = metrics.meter("oplog.read");
+		this.readBytesMeter = metrics.meter("oplog.readBytes");
 	}
 
-	private BsonTimestamp getLatestOplogTsFromTarget() {
-		MongoCollection<Document> collection = options.getTargetClient().getDatabase("local").getCollection("oplog.rs");
+	private static BsonTimestamp getLatestOplogTsFromTarget(MongoClient targetClient) {
+		MongoCollection<Document> collection = targetClient.getDatabase("local").getCollection("oplog.rs");
 
 		Bson filter = Filters.and(Filters.eq("op", "i"), Filters.not(Filters.regex("ns", ".*system.*")));
 
@@ -52,55 +85,151 @@ public class OplogReader implements Runnable {
 		return doc.get("ts", BsonTimestamp.class);
 	}
 
-	@Override
-	public void run() {
-		BsonTimestamp ts = getLatestOplogTsFromTarget();
+	private static DateFormat getDateFormat() {
+		TimeZone tz = TimeZone.getTimeZone("America/Montreal");
+		DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
+		df.setTimeZone(tz);
+		return df;
+	}
+
+	private BsonTimestamp getStartPosition() {
+		if (resumePosition != null) {
+			logger.info("Resuming from checkpoint: " + getDateFormat().format(new Date(resumePosition.getTime() * 1000L)));
+			return resumePosition;
+		}
+		return guessStartPosition(options.getTargetClient());
+	}
+
+	/**
+	 * Get's the position to start reading the oplog from for a target without a checkpoint: 5 minutes before the latest
+	 * insert in the oplog of the target
+	 *
+	 * @param targetClient
+	 *          a client connected to the target
+	 * @return the guessed start position
+	 */
+	public static BsonTimestamp guessStartPosition(MongoClient targetClient) {
+		BsonTimestamp ts = getLatestOplogTsFromTarget(targetClient);
 
 		// 5 minutes earlier
 		BsonTimestamp newTs = new BsonTimestamp(ts.getTime() - 5 * 60, 0);
 
-		TimeZone tz = TimeZone.getTimeZone("America/Montreal");
-		DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
-		df.setTimeZone(tz);
 		long t = newTs.getTime();
 		Date td = new Date(t * 1000);
-		logger.info("Guessed start time: " + df.format(td));
-
-		MongoDatabase db = options.getSourceClient().getDatabase("local");
-		MongoCollection<Document> collection = db.withReadPreference(ReadPreference.secondary()).getCollection("oplog.rs");
+		logger.info("Guessed start time: " + getDateFormat().format(td));
+		return newTs;
+	}
 
-		MongoCursor<Document> cursor = collection.find(Filters.gte("ts", newTs)).cursorType(CursorType.Tailable).noCursorTimeout(true).iterator();
+	@Override
+	public void run() {
+		BsonTimestamp newTs = getStartPosition();
 
-		int count = 0;
+		if (!options.isShardedSource()) {
+			tail(options.getSourceClient(), newTs, buffer);
+			return;
+		}
 
-		while (true) {
+		Map<String, String> shards = ShardDiscovery.getShards(options.getSourceClient());
+		logger.info("tailing the oplogs of {} shards: {}", shards.size(), shards.keySet());
 
-			Document document = cursor.next();
-			while (document == null) {
-				document = cursor.next();
-				logger.info("end of oplog");
+		long shardBufferSize = Math.max(1, buffer.getCapacityInBytes() / shards.size());
+		List<OplogBuffer<OplogEntry>> shardBuffers = new ArrayList<>();
+		for (int i = 0; i < shards.size(); i++) {
+			shardBuffers.add(new OplogBuffer<>(shardBufferSize));
+		}
+		OplogMerger merger = new OplogMerger(shardBuffers, buffer, MAX_BATCH_COUNT);
 
+		List<Thread> tailers = new ArrayList<>();
+		shards.forEach((shard, host) -> {
+			OplogBuffer<OplogEntry> shardBuffer = shardBuffers.get(tailers.size());
+			MongoClient shardClient = options.getShardClient(host);
+			Thread thread = new Thread(() -> {
 				try {
-					Thread.sleep(1000);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
+					tail(shardClient, newTs, shardBuffer);
+				} catch (RuntimeException e) {
+					logger.error("tailing the oplog of shard {} failed", shard, e);
+					merger.fail(e);
 				}
-			}
-
-			while (queue.size() >= BUFFER_SIZE) {
-				logger.info("queue full");
-				Thread.yield();
-			}
-
-			queue.add(document);
-			count++;
+			}, String.format("Reader-%s", shard));
+			thread.setDaemon(true);
+			thread.start();
+			tailers.add(thread);
+		});
+
+		try {
+			merger.run();
+		} finally {
+			tailers.forEach(Thread::interrupt);
+		}
+	}
 
-			if (count >= BUFFER_SIZE) {
-				count = 0;
-				logger.info("queue size: {}", queue.size());
+	/**
+	 * Tails the oplog of a replica set into a buffer
+	 *
+	 * @param client
+	 *          a client connected to the replica set
+	 * @param newTs
+	 *          the timestamp to start from
+	 * @param buffer
+	 *          the buffer to publish the entries to
+	 */
+	private void tail(MongoClient client, BsonTimestamp newTs, OplogBuffer<OplogEntry> buffer) {
+		MongoDatabase db = client.getDatabase("local");
+		ConnectionProfile profile = options.getSourceConnection();
+		ReadPreference readPreference = profile.getReadPreferenceWithTags();
+		MongoCollection<RawBsonDocument> collection = db.withReadPreference((readPreference == null) ? ReadPreference.secondary() : readPreference)
+				.getCollection("oplog.rs", RawBsonDocument.class);
+
+		OplogQuery query = new OplogQuery(options.getBlackListFilter(), !options.isShardedSource(), options.isSkipFromMigrate());
+		FindIterable<RawBsonDocument> find = collection.find(query.getFilter(newTs)).projection(query.getProjection()).cursorType(CursorType.TailableAwait)
+				.maxAwaitTime(options.getOplogMaxAwaitTimeMS(), TimeUnit.MILLISECONDS).oplogReplay(true).noCursorTimeout(true);
+		if (profile.getBatchSize() != null) {
+			find.batchSize(profile.getBatchSize());
+		}
+		MongoCursor<RawBsonDocument> cursor = find.iterator();
+
+		CursorPrefetcher prefetcher = new CursorPrefetcher(cursor, Math.max(1, options.getOplogPrefetchSizeMB()) * 1024L * 1024L);
+		Thread fetcher = new Thread(prefetcher, Thread.currentThread().getName() + "-Fetcher");
+		fetcher.setDaemon(true);
+		fetcher.start();
+
+		List<RawBsonDocument> documents = new ArrayList<>();
+		try {
+			while (true) {
+				// block for the first entry, then take whatever was fetched meanwhile
+				documents.clear();
+				prefetcher.drainTo(documents);
+
+				List<OplogEntry> batch = new ArrayList<>();
+				long bytes = 0;
+				for (RawBsonDocument document : documents) {
+					int size = document.getByteBuffer().remaining();
+					bytes += size;
+					batch.add(new OplogEntry(options.isRawOplogEntries() ? document : document.decode(documentCodec), size));
+
+					if (batch.size() >= MAX_BATCH_COUNT || bytes >= MAX_BATCH_BYTES) {
+						publish(buffer, batch, bytes);
+						batch = new ArrayList<>();
+						bytes = 0;
+					}
+				}
+				if (!batch.isEmpty()) {
+					publish(buffer, batch, bytes);
+				}
 			}
-
+		} catch (InterruptedException e) {
+			logger.info("oplog reader interrupted; stopping");
+			Thread.currentThread().interrupt();
+		} finally {
+			fetcher.interrupt();
+			cursor.close();
 		}
 	}
 
+	private void publish(OplogBuffer<OplogEntry> buffer, List<OplogEntry> batch, long bytes) throws InterruptedException {
+		buffer.put(batch, bytes);
+		readMeter.mark(batch.size());
+		readBytesMeter.mark(bytes);
+	}
+
 }
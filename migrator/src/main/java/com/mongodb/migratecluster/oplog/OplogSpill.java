@@ -0,0 +1,46 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * File: OplogSpill Author: Shyam Arjarapu Date: 2/5/19 7:20 AM Description:
+ *
+ * An overflow of an OplogBuffer; the batches that do not fit in memory are appended to it and read back in order once
+ * the buffer is drained. It is called outside the lock of the buffer: the producer may append while the consumer reads.
+ */
+public interface OplogSpill<T> {
+
+	/**
+	 * Appends a batch of entries after every batch appended so far
+	 *
+	 * @param items
+	 *          the entries of the batch, in order
+	 */
+	void append(List<T> items);
+
+	/**
+	 * Moves the oldest batches into the target collection
+	 *
+	 * @param target
+	 *          a collection to receive the entries in append order
+	 * @param maxBytes
+	 *          the number of bytes after which no further batch is read
+	 * @return the number of entries moved into the target
+	 */
+	int read(Collection<? super T> target, long maxBytes);
+
+	/**
+	 * Get's the number of entries appended but not read yet
+	 *
+	 * @return the count of spilled entries
+	 */
+	long getCount();
+
+	/**
+	 * Get's the size of the entries appended but not read yet, as read from the source
+	 *
+	 * @return the size of the spilled entries in bytes
+	 */
+	long getSizeInBytes();
+}
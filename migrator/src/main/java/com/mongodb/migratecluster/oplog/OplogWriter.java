@@ -1,294 +1,523 @@
 package com.mongodb.migratecluster.oplog;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.time.Duration;
-import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.Date;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.TimeZone;
-import java.util.concurrent.ConcurrentLinkedQueue;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.bson.BsonDocument;
 import org.bson.BsonTimestamp;
-import org.bson.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.mongodb.MongoBulkWriteException;
 import com.mongodb.MongoClient;
-import com.mongodb.bulk.BulkWriteError;
-import com.mongodb.bulk.BulkWriteResult;
-import com.mongodb.client.MongoCollection;
-import com.mongodb.client.model.BulkWriteOptions;
-import com.mongodb.client.model.DeleteOneModel;
-import com.mongodb.client.model.InsertOneModel;
-import com.mongodb.client.model.Sorts;
-import com.mongodb.client.model.UpdateOneModel;
-import com.mongodb.client.model.WriteModel;
 import com.mongodb.migratecluster.commandline.ApplicationOptions;
-import com.mongodb.migratecluster.model.Resource;
-import com.mongodb.migratecluster.predicates.CollectionFilterPredicate;
-import com.mongodb.migratecluster.predicates.DatabaseFilterPredicate;
+import com.mongodb.migratecluster.metrics.MetricsRegistry;
 
 /**
  * File: OplogWriter Author: Shyam Arjarapu Date: 1/14/19 7:20 AM Description:
  *
- * A class to help write the apply the oplog entries on the target
+ * A class to help write the apply the oplog entries on the target. The entries are routed to a pool of apply workers by
+ * the hash of their namespace, so every namespace keeps its order while different namespaces are written in parallel.
+ * Namespaces configured with lanes are further split by the hash of the document _id, keeping the order per document.
+ *
+ * A command only holds back the namespaces it touches, as told by its CommandScope: it runs on a command thread once
+ * the entries of those namespaces handed to the workers are written, while the following entries of those namespaces
+ * wait for it and the other namespaces keep being applied. A drop discards the writes to its namespaces still buffered
+ * by the workers. Commands of an unknown scope still wait for every worker and run alone.
+ *
+ * The applyOps entries of transactions are unpacked by the TransactionUnpacker, and the operations of a committed
+ * transaction are filtered and routed like any other entry. With atomic transactions, they are rather replayed as one
+ * transaction of the target by the TransactionApplier on a command thread, holding back the namespaces they touch.
  */
 public class OplogWriter {
-	private final HashMap<String, Boolean> allowedNamespaces = new HashMap<>();
 
 	private final MongoClient targetClient;
 	private MongoClient sourceClient;
 
 	private final static Logger logger = LoggerFactory.getLogger(OplogWriter.class);
-	private final DatabaseFilterPredicate databasePredicate;
-	private final CollectionFilterPredicate collectionPredicate;
-
-	private final int BATCH_SIZE = 1000;
-
-	private LocalDateTime last = LocalDateTime.now();
-
-	public OplogWriter(ApplicationOptions options) {
+	private final NamespaceFilter namespaceFilter;
+
+	private final OplogApplyWorker[] workers;
+	private final OplogPartitioner partitioner;
+	private final AppliedPositionTracker tracker = new AppliedPositionTracker();
+	private final CheckpointStore checkpointStore;
+	private final BulkWriteApplier bulkWriteApplier;
+	private final ScheduledExecutorService checkpointer;
+	private final ScheduledExecutorService lagMonitor;
+	private final LagMonitor monitor;
+	private final ExecutorService commandExecutor;
+	private final TransactionUnpacker transactions = new TransactionUnpacker();
+	private final TransactionApplier transactionApplier;
+	private final boolean atomicTransactions;
+
+	private final List<List<OplogEntry>> pending;
+	private final long[] pendingBytes;
+	// the commands running on the command threads, and the entries waiting for them in oplog order
+	private final List<CommandBarrier> barriers = new ArrayList<>();
+	private final List<OplogEntry> held = new ArrayList<>();
+	private final List<CommandScope> heldCommands = new ArrayList<>();
+
+	private Map<String, BsonTimestamp> appliedPositions;
+	private BsonTimestamp newestAppliedPosition;
+	private BsonTimestamp savedResumePosition;
+	private BsonDocument savedResumeToken;
+
+	public OplogWriter(ApplicationOptions options, CheckpointStore checkpointStore, MetricsRegistry metrics) {
 		targetClient = options.getTargetClient();
-		sourceClient = options.getSourceClient();
-
-		databasePredicate = new DatabaseFilterPredicate(options.getBlackListFilter());
-		collectionPredicate = new CollectionFilterPredicate(options.getBlackListFilter());
+		sourceClient = options.isReplayMode() ? null : options.getSourceClient();
+		this.checkpointStore = checkpointStore;
+		this.bulkWriteApplier = new BulkWriteApplier(metrics);
+
+		namespaceFilter = new NamespaceFilter(options.getBlackListFilter(), options.getWhiteListFilter(), targetClient);
+
+		int workerCount = Math.max(1, options.getWriterThreads());
+		partitioner = new OplogPartitioner(workerCount, options.getNamespaceLanes());
+
+		WriteModelCompactor compactor = options.isCompactBatches() ? new WriteModelCompactor() : null;
+		long workerBufferSize = Math.max(1, options.getOplogBufferSizeMB() * 1024L * 1024L / workerCount);
+		long batchMaxBytes = options.getBatchMaxSizeMB() * 1024L * 1024L;
+		workers = new OplogApplyWorker[workerCount];
+		for (int i = 0; i < workerCount; i++) {
+			FlushPolicy flushPolicy = new FlushPolicy(batchMaxBytes, options.getBatchMaxAgeMillis());
+			workers[i] = new OplogApplyWorker(i, namespaceFilter, workerBufferSize, partitioner, tracker, checkpointStore, bulkWriteApplier, compactor,
+					flushPolicy, options.getMaxInFlightBatches(), metrics);
+		}
+		pending = new ArrayList<>(workerCount);
+		pendingBytes = new long[workerCount];
+		for (int i = 0; i < workerCount; i++) {
+			pending.add(new ArrayList<>());
+		}
+		metrics.gauge("writer.queue.entries", () -> Arrays.stream(workers).mapToLong(OplogApplyWorker::getQueuedCount).sum());
+		metrics.gauge("writer.queue.bytes", () -> Arrays.stream(workers).mapToLong(OplogApplyWorker::getQueuedBytes).sum());
+
+		appliedPositions = checkpointStore.loadNamespacePositions(partitioner);
+		newestAppliedPosition = appliedPositions.values().stream().max(BsonTimestamp::compareTo).orElse(null);
+
+		checkpointer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "Checkpointer");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		List<MongoClient> sourceClients = new ArrayList<>();
+		if (options.isReplayMode()) {
+			// a replayed capture has no source to measure the lag against
+		} else if (options.isShardedSource()) {
+			ShardDiscovery.getShards(sourceClient).values().forEach(host -> sourceClients.add(options.getShardClient(host)));
+		} else {
+			sourceClients.add(sourceClient);
+		}
+		// a change stream may be read from a mongos, whose cluster time stands in for the oplog it does not have
+		boolean clusterTime = options.isChangeStreamReader() && !options.isShardedSource();
+		monitor = new LagMonitor(sourceClients, clusterTime, tracker, bulkWriteApplier, metrics);
+		lagMonitor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "LagMonitor");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		AtomicInteger threadCount = new AtomicInteger();
+		commandExecutor = Executors.newFixedThreadPool(Math.max(1, options.getCommandThreads()), r -> {
+			Thread thread = new Thread(r, String.format("Command-%d", threadCount.getAndIncrement()));
+			thread.setDaemon(true);
+			return thread;
+		});
+		metrics.gauge("writer.commands.running", barriers::size);
+		metrics.gauge("writer.commands.heldEntries", held::size);
+
+		atomicTransactions = options.isAtomicTransactions();
+		transactionApplier = new TransactionApplier(targetClient, namespaceFilter, bulkWriteApplier, metrics);
+		metrics.gauge("transactions.open", transactions::getOpenCount);
 	}
 
 	/**
-	 * Applies the oplog documents on the oplog store
+	 * Applies the oplog documents on the oplog store, until interrupted or until the buffer is closed and finished. The
+	 * failure of a worker is thrown as soon as it is noticed, even while the reader publishes nothing.
 	 *
-	 * @param operations
-	 *          a list of oplog operation documents
+	 * @param buffer
+	 *          a buffer of oplog entries published by the reader
 	 */
-	public void applyOperations(ConcurrentLinkedQueue<Document> queue) {
-		Map<String, List<WriteModel<Document>>> namespaceModels = new HashMap<String, List<WriteModel<Document>>>();
-
-		while (true) {
-			Document doc = queue.poll();
-
-			while (doc == null) {
-				logger.info(String.format("queue empty"));
-
-				namespaceModels.forEach((ns, models) -> {
-					if (models.size() > 0) {
-						applyBulkWriteModelsOnCollection(ns, models);
-						logger.info("draining buffer {} for {} docs", ns, models.size());
-						models.clear();
-					}
-				});
-
-				try {
-					Thread.sleep(1000);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
+	public void applyOperations(OplogBuffer<OplogEntry> buffer) {
+		for (OplogApplyWorker worker : workers) {
+			// a failed worker is rethrown by the dispatcher; the workers left must not keep the process up
+			Thread thread = new Thread(worker, worker.getName());
+			thread.setDaemon(true);
+			thread.start();
+		}
+		checkpointer.scheduleWithFixedDelay(this::saveResumePosition, 1, 1, TimeUnit.SECONDS);
+		lagMonitor.scheduleWithFixedDelay(monitor, 5, 5, TimeUnit.SECONDS);
+
+		List<OplogEntry> entries = new ArrayList<>();
+		try {
+			while (true) {
+				entries.clear();
+				// keep an eye on the workers, and on the running commands to release the entries waiting for them
+				buffer.drainTo(entries, barriers.isEmpty() ? 100 : 10, TimeUnit.MILLISECONDS);
+				checkWorkers();
+
+				for (OplogEntry entry : entries) {
+					dispatch(entry);
+				}
+				releaseCompletedBarriers();
+
+				submitPending();
+				if (!entries.isEmpty()) {
+					tracker.advance(entries.get(entries.size() - 1));
+				} else if (buffer.isFinished()) {
+					finish();
+					return;
 				}
-				doc = queue.poll();
 			}
+		} catch (InterruptedException e) {
+			logger.info("oplog writer interrupted; stopping");
+			Thread.currentThread().interrupt();
+		} finally {
+			checkpointer.shutdown();
+			lagMonitor.shutdown();
+			commandExecutor.shutdownNow();
+		}
+	}
 
-			logGapStats(doc);
+	private void dispatch(OplogEntry entry) throws InterruptedException {
+		if (TransactionUnpacker.isTransaction(entry)) {
+			// written to admin.$cmd whatever they touch; their operations are filtered one by one
+			dispatchTransaction(entry);
+			return;
+		}
 
-			String ns = doc.getString("ns");
-			if (!isNamespaceAllowed(ns)) {
-				continue;
-			}
+		Namespace namespace = namespaceFilter.resolve(entry.getNamespace());
+		if (!namespace.isAllowed()) {
+			return;
+		}
 
-			List<WriteModel<Document>> models = namespaceModels.get(ns);
-			if (models == null) {
-				models = new ArrayList<WriteModel<Document>>(BATCH_SIZE);
-				namespaceModels.put(ns, models);
+		switch (entry.getOperation()) {
+		case "n":
+			break;
+		case "c":
+			dispatchCommand(entry);
+			break;
+		default:
+			if (isHeld(namespace)) {
+				hold(entry);
+				break;
 			}
-
-			WriteModel<Document> model = getWriteModelForOperation(doc);
-			if (model != null) {
-				models.add(model);
+			int index = partitioner.getWorkerIndex(entry);
+			if (index < 0) {
+				index = partitioner.getDefaultWorkerIndex(entry.getNamespace());
+				if (isAlreadyApplied(entry, index)) {
+					break;
+				}
+				// an entry of a partitioned namespace without an _id; drain every lane before and after it
+				submitPending();
+				awaitWorkers();
+				route(entry, namespace, index);
+				submitPending();
+				workers[index].awaitApplied();
+			} else if (!isAlreadyApplied(entry, index)) {
+				route(entry, namespace, index);
 			}
+			break;
+		}
+	}
 
-			if (models.size() == BATCH_SIZE) {
-				applyBulkWriteModelsOnCollection(ns, models);
-				models.clear();
-			}
+	private void dispatchCommand(OplogEntry entry) throws InterruptedException {
+		CommandScope scope = CommandScope.of(entry);
+		if (isAlreadyApplied(entry, scope.getCheckpointNamespace(), 0)) {
+			return;
+		}
 
+		if (scope.isGlobal()) {
+			// the command may touch any namespace; let the running commands and the workers catch up before running it
+			awaitBarriers();
+			submitPending();
+			awaitWorkers();
+			performRunCommand(entry);
+			checkpointStore.saveNamespacePosition(scope.getCheckpointNamespace(), 0, 1, entry.getTimestamp());
+			return;
 		}
-	}
 
-	private Document getLatestOplogEntryFromSource() {
-		MongoCollection<Document> collection = sourceClient.getDatabase("local").getCollection("oplog.rs");
-		return collection.find().sort(Sorts.descending("$natural")).limit(1).first();
-	}
+		boolean blocked = barriers.stream().anyMatch(barrier -> barrier.scope.overlaps(scope)) || heldCommands.stream().anyMatch(scope::overlaps);
+		if (blocked) {
+			// an earlier command touches the same namespaces; it must complete first
+			hold(entry);
+			heldCommands.add(scope);
+			return;
+		}
 
-	private boolean isNamespaceAllowed(String namespace) {
-		if (!allowedNamespaces.containsKey(namespace)) {
-			boolean allow = checkIfNamespaceIsAllowed(namespace);
-			allowedNamespaces.put(namespace, allow);
+		List<Namespace> touched = (scope.getDatabaseName() != null) ? namespaceFilter.getNamespaces(scope.getDatabaseName())
+				: scope.getNamespaces().stream().map(namespaceFilter::resolve).collect(Collectors.toList());
+		if (scope.isDrop()) {
+			touched.forEach(namespace -> namespace.dropped(entry.getTimestamp()));
 		}
-		// return cached value
-		return allowedNamespaces.get(namespace);
-	}
 
-	private boolean checkIfNamespaceIsAllowed(String namespace) {
-		String databaseName = namespace.split("\\.")[0];
-		try {
-			Document dbDocument = new Document("name", databaseName);
-			boolean isNotBlacklistedDB = databasePredicate.test(dbDocument);
-			if (isNotBlacklistedDB) {
-				// check for collection as well
-				String collectionName = namespace.substring(databaseName.length() + 1);
-				Resource resource = new Resource(databaseName, collectionName);
-				return collectionPredicate.test(resource);
-			} else {
-				return false;
+		// hand the entries of the touched namespaces to the workers; the command waits for them alone
+		submitPending();
+		tracker.dispatched(Collections.singletonList(entry));
+		CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
+			try {
+				for (Namespace namespace : touched) {
+					namespace.awaitApplied();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(String.format("interrupted while waiting to run the command %s", entry.getObject().toJson()), e);
 			}
-		} catch (Exception e) {
-			logger.error("error while testing the namespace is in black list or not");
-			return false;
-		}
+			performRunCommand(entry);
+			checkpointStore.saveNamespacePosition(scope.getCheckpointNamespace(), 0, 1, entry.getTimestamp());
+			tracker.applied(Collections.singletonList(entry.getTimestamp()));
+		}, commandExecutor);
+		barriers.add(new CommandBarrier(scope, future));
 	}
 
-	private BulkWriteResult applyBulkWriteModelsOnCollection(String namespace, List<WriteModel<Document>> operations) {
+	private void dispatchTransaction(OplogEntry entry) throws InterruptedException {
+		TransactionUnpacker.Transaction transaction = transactions.unpack(entry);
+		if (transaction == null) {
+			// the operations are only applied once the transaction commits; until then it holds back the resume position
+			tracker.dispatched(Collections.singletonList(entry));
+			return;
+		}
 
-		MongoCollection<Document> collection = getCollectionByNamespace(this.targetClient, namespace);
-		try {
-			List<WriteModel<Document>> bulkOp = new ArrayList<WriteModel<Document>>();
-			for (WriteModel<Document> op : operations) {
-				bulkOp.add(op);
+		List<OplogEntry> operations = transaction.getOperations();
+		boolean crudOnly = operations.stream().allMatch(operation -> !"c".equals(operation.getOperation()));
+		if (atomicTransactions && crudOnly) {
+			dispatchAtomically(operations);
+		} else {
+			for (OplogEntry operation : operations) {
+				dispatch(operation);
 			}
+		}
 
-			BulkWriteOptions options = new BulkWriteOptions();
-			options.ordered(true);
+		if (!transaction.getEarlierTimestamps().isEmpty()) {
+			submitPending();
+			tracker.applied(transaction.getEarlierTimestamps());
+		}
+	}
 
-			return collection.bulkWrite(bulkOp, options);
+	private void dispatchAtomically(List<OplogEntry> operations) throws InterruptedException {
+		List<OplogEntry> remaining = new ArrayList<>();
+		for (OplogEntry operation : operations) {
+			if (!namespaceFilter.isAllowed(operation.getNamespace())) {
+				continue;
+			}
+			int index = partitioner.getWorkerIndex(operation);
+			if (!isAlreadyApplied(operation, (index < 0) ? partitioner.getDefaultWorkerIndex(operation.getNamespace()) : index)) {
+				remaining.add(operation);
+			}
+		}
+		if (remaining.isEmpty()) {
+			return;
+		}
 
-		} catch (MongoBulkWriteException err) {
+		List<String> names = remaining.stream().map(OplogEntry::getNamespace).distinct().collect(Collectors.toList());
+		CommandScope scope = CommandScope.of("admin.$cmd", "applyOps", names);
+		if (barriers.stream().anyMatch(barrier -> barrier.scope.overlaps(scope)) || heldCommands.stream().anyMatch(scope::overlaps)) {
+			// rare enough to simply let every running command complete first
+			awaitBarriers();
+		}
 
-			for (WriteModel<Document> op : operations) {
-				try {
-					List<WriteModel<Document>> bulkOp = new ArrayList<WriteModel<Document>>();
-					bulkOp.add(op);
-					collection.bulkWrite(bulkOp);
-				} catch (MongoBulkWriteException err2) {
-					for (BulkWriteError bulkWriteError : err2.getWriteErrors()) {
-						if (bulkWriteError.getCode() != 11000) {
-							logger.warn(bulkWriteError.getMessage() + " " + bulkWriteError.getDetails());
-						}
-					}
+		List<Namespace> touched = names.stream().map(namespaceFilter::resolve).collect(Collectors.toList());
+		BsonTimestamp ts = remaining.get(0).getTimestamp();
+		submitPending();
+		tracker.dispatched(remaining);
+		CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
+			try {
+				for (Namespace namespace : touched) {
+					namespace.awaitApplied();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(String.format("interrupted while waiting to apply the transaction at %s", ts), e);
+			}
+			transactionApplier.apply(remaining);
+			// every lane of the namespaces is caught up to the transaction and the following entries wait for it
+			for (String ns : names) {
+				int lanes = partitioner.getLanes(ns);
+				for (int lane = 0; lane < lanes; lane++) {
+					checkpointStore.recordNamespacePosition(ns, lane, lanes, ts);
 				}
 			}
+			tracker.applied(remaining.stream().map(OplogEntry::getTimestamp).collect(Collectors.toList()));
+		}, commandExecutor);
+		barriers.add(new CommandBarrier(scope, future));
+	}
 
-		} catch (Exception e) {
-			logger.error("Unplanned", e);
+	private boolean isHeld(Namespace namespace) {
+		for (CommandBarrier barrier : barriers) {
+			if (barrier.scope.touches(namespace)) {
+				return true;
+			}
 		}
-		return null;
+		for (CommandScope scope : heldCommands) {
+			if (scope.touches(namespace)) {
+				return true;
+			}
+		}
+		return false;
 	}
 
-	private void logGapStats(Document lastOplogProcessed) {
-		LocalDateTime now = LocalDateTime.now();
-
-		Duration diff = Duration.between(last, now);
-		if (diff.getSeconds() > 5) {
-
-			Document latestOplogEntryFromSource = getLatestOplogEntryFromSource();
-
-			BsonTimestamp sourceOpTime = latestOplogEntryFromSource.get("ts", BsonTimestamp.class);
-			BsonTimestamp targetOpTime = lastOplogProcessed.get("ts", BsonTimestamp.class);
-
-			int gapInSeconds = sourceOpTime.getTime() - targetOpTime.getTime();
+	/**
+	 * Keeps an entry back until the commands it waits for complete; it counts as in flight meanwhile, so the resume
+	 * position never moves past it
+	 */
+	private void hold(OplogEntry entry) {
+		tracker.dispatched(Collections.singletonList(entry));
+		held.add(entry);
+	}
 
-			long s = sourceOpTime.getTime();
-			Date sd = new Date(s * 1000);
-			long t = targetOpTime.getTime();
-			Date td = new Date(t * 1000);
+	/**
+	 * Dispatches the entries held back once a command completes, in oplog order; those still waiting for a command are
+	 * held back again
+	 */
+	private void releaseCompletedBarriers() throws InterruptedException {
+		boolean released = false;
+		Iterator<CommandBarrier> iterator = barriers.iterator();
+		while (iterator.hasNext()) {
+			CommandBarrier barrier = iterator.next();
+			if (barrier.future.isDone()) {
+				// rethrows the failure of the command
+				barrier.future.join();
+				iterator.remove();
+				released = true;
+			}
+		}
+		if (!released || held.isEmpty()) {
+			return;
+		}
 
-			TimeZone tz = TimeZone.getTimeZone("America/Montreal");
-			DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
-			df.setTimeZone(tz);
+		List<OplogEntry> waiting = new ArrayList<>(held);
+		held.clear();
+		heldCommands.clear();
+		for (OplogEntry entry : waiting) {
+			dispatch(entry);
+		}
+		submitPending();
+		tracker.applied(waiting.stream().map(OplogEntry::getTimestamp).collect(Collectors.toList()));
+	}
 
-			String message = String.format("Target is behind by %d seconds\nSource: %s\nTarget: %s", gapInSeconds, df.format(sd), df.format(td));
-			logger.info(message);
+	private void awaitBarriers() throws InterruptedException {
+		while (!barriers.isEmpty()) {
+			for (CommandBarrier barrier : barriers) {
+				barrier.future.join();
+			}
+			releaseCompletedBarriers();
+		}
+	}
 
-			last = now;
+	private void checkWorkers() {
+		for (OplogApplyWorker worker : workers) {
+			worker.checkFailure();
 		}
+	}
 
+	private void route(OplogEntry entry, Namespace namespace, int index) {
+		pending.get(index).add(entry);
+		pendingBytes[index] += entry.getSizeInBytes();
+		namespace.dispatched(1);
 	}
 
 	/**
-	 * Get's a WriteModel for the given oplog operation
+	 * Checks if an entry was acknowledged by the target before the last restart; the oplog is resumed from the oldest
+	 * position still in flight, so the namespaces that were ahead of it must skip what they already applied.
 	 *
-	 * @param operation
-	 *          an oplog operation
-	 * @return a WriteModel of a bulk operation
+	 * @param entry
+	 *          an oplog entry
+	 * @param workerIndex
+	 *          the index of the worker the entry is routed to
+	 * @return true if the entry must be skipped
 	 */
-	private WriteModel<Document> getWriteModelForOperation(Document operation) {
-		String message;
-		WriteModel<Document> model = null;
-		switch (operation.getString("op")) {
-		case "i":
-			model = getInsertWriteModel(operation);
-			break;
-		case "u":
-			model = getUpdateWriteModel(operation);
-			break;
-		case "d":
-			model = getDeleteWriteModel(operation);
-			break;
-		case "c":
-			// might have to be individual operation
-			performRunCommand(operation);
-			break;
-		case "n":
-			break;
-		default:
-			message = String.format("unsupported operation %s; op: %s", operation.getString("op"), operation.toJson());
-			logger.error(message);
-			throw new RuntimeException(message);
-		}
-		return model;
+	private boolean isAlreadyApplied(OplogEntry entry, int workerIndex) {
+		return isAlreadyApplied(entry, entry.getNamespace(), workerIndex);
 	}
 
-	private WriteModel<Document> getInsertWriteModel(Document operation) {
-		Document document = operation.get("o", Document.class);
-		return new InsertOneModel<>(document);
+	private boolean isAlreadyApplied(OplogEntry entry, String ns, int workerIndex) {
+		if (appliedPositions == null) {
+			return false;
+		}
+		BsonTimestamp ts = entry.getTimestamp();
+		if (newestAppliedPosition == null || ts.compareTo(newestAppliedPosition) > 0) {
+			// past every saved position; nothing left to skip
+			appliedPositions = null;
+			return false;
+		}
+
+		BsonTimestamp applied = appliedPositions.get(CheckpointStore.getKey(ns, partitioner.getLane(ns, workerIndex)));
+		return applied != null && ts.compareTo(applied) <= 0;
 	}
 
-	private WriteModel<Document> getUpdateWriteModel(Document operation) {
-		Document find = operation.get("o2", Document.class);
-		Document update = operation.get("o", Document.class);
-		update.remove("$v");
+	private void saveResumePosition() {
+		try {
+			checkpointStore.saveNamespacePositions();
+			BsonTimestamp position = tracker.getResumePosition();
+			BsonDocument resumeToken = tracker.getResumeToken();
+			if (position != null && (!position.equals(savedResumePosition) || (resumeToken != null && !resumeToken.equals(savedResumeToken)))) {
+				checkpointStore.saveResumePosition(position, resumeToken);
+				savedResumePosition = position;
+				savedResumeToken = resumeToken;
+			}
+		} catch (Exception e) {
+			logger.error("error while saving the resume position", e);
+		}
+	}
 
-		if (!update.containsKey("$set")) {
-			Document doc = new Document();
-			doc.append("$set", update);
-			update = doc;
+	private void submitPending() throws InterruptedException {
+		for (int i = 0; i < workers.length; i++) {
+			List<OplogEntry> batch = pending.get(i);
+			if (!batch.isEmpty()) {
+				workers[i].submit(batch, pendingBytes[i]);
+				pending.set(i, new ArrayList<>());
+				pendingBytes[i] = 0;
+			}
 		}
+	}
 
-		return new UpdateOneModel<>(find, update);
+	/**
+	 * Waits for every entry dispatched so far to be applied and saves the resume position, once the buffer finished
+	 */
+	private void finish() throws InterruptedException {
+		awaitBarriers();
+		submitPending();
+		awaitWorkers();
+		saveResumePosition();
+		logger.info("every oplog entry is applied; resume position: {}", savedResumePosition);
 	}
 
-	private WriteModel<Document> getDeleteWriteModel(Document operation) {
-		Document find = operation.get("o", Document.class);
-		return new DeleteOneModel<>(find);
+	private void awaitWorkers() throws InterruptedException {
+		for (OplogApplyWorker worker : workers) {
+			worker.awaitApplied();
+		}
 	}
 
-	private void performRunCommand(Document operation) {
-		Document document = operation.get("o", Document.class);
-		String databaseName = operation.getString("ns").replace(".$cmd", "");
+	private void performRunCommand(OplogEntry operation) {
+		BsonDocument document = operation.getObject();
+		String databaseName = namespaceFilter.resolve(operation.getNamespace()).getDatabaseName();
 		this.targetClient.getDatabase(databaseName).runCommand(document);
 
-		String message = String.format("completed runCommand op on database: %s; document: %s", databaseName, operation.toJson());
-		logger.debug(message);
+		if (logger.isDebugEnabled()) {
+			String message = String.format("completed runCommand op on database: %s; document: %s", databaseName, operation.getDocument().toJson());
+			logger.debug(message);
+		}
 	}
 
-	private MongoCollection<Document> getCollectionByNamespace(MongoClient client, String ns) {
-		String[] parts = ns.split("\\.");
-		String databaseName = parts[0];
-		String collectionName = ns.substring(databaseName.length() + 1);
+	/**
+	 * A command running on a command thread, holding back the entries of the namespaces it touches
+	 */
+	private static class CommandBarrier {
+		private final CommandScope scope;
+		private final CompletableFuture<Void> future;
 
-		return client.getDatabase(databaseName).getCollection(collectionName);
+		CommandBarrier(CommandScope scope, CompletableFuture<Void> future) {
+			this.scope = scope;
+			this.future = future;
+		}
 	}
-
 }
@@ -0,0 +1,35 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.bson.Document;
+
+import com.mongodb.MongoClient;
+import com.mongodb.client.model.Sorts;
+
+/**
+ * File: ShardDiscovery Author: Shyam Arjarapu Date: 2/1/19 7:30 AM Description:
+ *
+ * A class to list the shards of a sharded cluster from the config.shards collection, read through a mongos
+ */
+public class ShardDiscovery {
+
+	/**
+	 * Get's the shards of a sharded cluster
+	 *
+	 * @param mongosClient
+	 *          a client connected to a mongos of the cluster
+	 * @return a map of shard name to its host string, such as "rs0/host1:27017,host2:27017", sorted by name
+	 */
+	public static Map<String, String> getShards(MongoClient mongosClient) {
+		Map<String, String> shards = new LinkedHashMap<>();
+		for (Document shard : mongosClient.getDatabase("config").getCollection("shards").find().sort(Sorts.ascending("_id"))) {
+			shards.put(shard.getString("_id"), shard.getString("host"));
+		}
+		if (shards.isEmpty()) {
+			throw new RuntimeException("no shard found in config.shards; is the source cluster a mongos?");
+		}
+		return shards;
+	}
+}
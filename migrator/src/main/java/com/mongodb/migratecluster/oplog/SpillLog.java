@@ -0,0 +1,338 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * File: SpillLog Author: Shyam Arjarapu Date: 2/5/19 7:40 AM Description:
+ *
+ * A segmented, append-only log of oplog entries on the local disk, used as the spill of the oplog buffer. Each segment
+ * is a file of segmentSizeInBytes mapped in memory; a batch is appended as one record of the BSON bytes of its entries,
+ * deflated when compression is enabled, and a segment is deleted as soon as every record of it has been read.
+ *
+ * A record is made of its stored length, its raw length, a compression flag and the entries, as written by
+ * OplogEntrySerializer. The spill only lives for the current run; the segments found at start up are deleted, since
+ * the oplog is read again from the saved checkpoint.
+ *
+ * The producer appends while the consumer reads: the entries are encoded, deflated, inflated and decoded outside the
+ * lock of the log, which is only held to copy a record in or out of its segment. A segment is unmapped as soon as it is
+ * deleted rather than whenever its buffer is garbage collected, which could keep gigabytes of deleted segments mapped.
+ */
+public class SpillLog implements OplogSpill<OplogEntry> {
+	private final static Logger logger = LoggerFactory.getLogger(SpillLog.class);
+
+	private static final int HEADER_BYTES = 9;
+	private static final Unmapper UNMAPPER = getUnmapper();
+
+	private final Path directory;
+	private final long segmentSizeInBytes;
+	private final boolean compress;
+	private final boolean rawEntries;
+
+	private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+	private long nextSegmentId;
+	// written under the lock of the log, read by the metrics as well
+	private volatile long count;
+	private volatile long sizeInBytes;
+	private volatile int segmentCount;
+
+	/**
+	 * @param directory
+	 *          the directory of the segment files
+	 * @param segmentSizeInBytes
+	 *          the size of a segment file; a record larger than it gets a segment of its own
+	 * @param compress
+	 *          true to deflate the records
+	 * @param rawEntries
+	 *          true to read the entries back as raw documents instead of decoding them
+	 */
+	public SpillLog(Path directory, long segmentSizeInBytes, boolean compress, boolean rawEntries) {
+		this.directory = directory;
+		this.segmentSizeInBytes = segmentSizeInBytes;
+		this.compress = compress;
+		this.rawEntries = rawEntries;
+
+		try {
+			Files.createDirectories(directory);
+			try (DirectoryStream<Path> stale = Files.newDirectoryStream(directory, "spill-*.log")) {
+				for (Path path : stale) {
+					Files.delete(path);
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(String.format("unable to prepare the spill directory %s", directory), e);
+		}
+	}
+
+	@Override
+	public void append(List<OplogEntry> items) {
+		byte[] raw = encode(items);
+		byte[] stored = compress ? deflate(raw) : raw;
+		long bytes = 0;
+		for (OplogEntry entry : items) {
+			bytes += entry.getSizeInBytes();
+		}
+
+		synchronized (this) {
+			Segment segment = segments.peekLast();
+			if (segment == null || segment.buffer.remaining() < HEADER_BYTES + stored.length) {
+				segment = newSegment(Math.max(segmentSizeInBytes, HEADER_BYTES + stored.length));
+			}
+
+			segment.buffer.putInt(stored.length);
+			segment.buffer.putInt(raw.length);
+			segment.buffer.put((byte) (compress ? 1 : 0));
+			segment.buffer.put(stored);
+
+			sizeInBytes += bytes;
+			count += items.size();
+		}
+	}
+
+	@Override
+	public int read(Collection<? super OplogEntry> target, long maxBytes) {
+		int read = 0;
+		long bytes = 0;
+		Record record;
+		while (bytes < maxBytes && (record = next()) != null) {
+			for (OplogEntry entry : decode(record.compressed ? inflate(record.stored, record.rawLength) : record.stored)) {
+				target.add(entry);
+				bytes += entry.getSizeInBytes();
+				read++;
+			}
+		}
+
+		synchronized (this) {
+			count -= read;
+			sizeInBytes -= bytes;
+		}
+		return read;
+	}
+
+	/**
+	 * Takes the oldest record not read yet, deleting the segments read entirely on the way
+	 *
+	 * @return the record, or null when every record has been read
+	 */
+	private synchronized Record next() {
+		while (true) {
+			Segment segment = segments.peekFirst();
+			if (segment == null) {
+				return null;
+			}
+			if (segment.readIndex == segment.buffer.position()) {
+				if (segment == segments.peekLast()) {
+					// every record has been read; the segment is reused by the next append
+					return null;
+				}
+				segments.pollFirst();
+				segmentCount = segments.size();
+				delete(segment);
+				continue;
+			}
+
+			ByteBuffer buffer = segment.buffer.duplicate();
+			buffer.position(segment.readIndex);
+			Record record = new Record();
+			record.stored = new byte[buffer.getInt()];
+			record.rawLength = buffer.getInt();
+			record.compressed = buffer.get() == 1;
+			buffer.get(record.stored);
+			segment.readIndex = buffer.position();
+			return record;
+		}
+	}
+
+	@Override
+	public long getCount() {
+		return count;
+	}
+
+	@Override
+	public long getSizeInBytes() {
+		return sizeInBytes;
+	}
+
+	/**
+	 * Get's the number of segment files currently on disk
+	 *
+	 * @return the count of segments
+	 */
+	public int getSegmentCount() {
+		return segmentCount;
+	}
+
+	private Segment newSegment(long size) {
+		Path path = directory.resolve(String.format("spill-%010d.log", nextSegmentId++));
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			// the mapping stays valid once the channel is closed
+			Segment segment = new Segment(path, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+			segments.addLast(segment);
+			segmentCount = segments.size();
+			logger.debug("spilling the oplog buffer to {}", path);
+			return segment;
+		} catch (IOException e) {
+			throw new UncheckedIOException(String.format("unable to create the spill segment %s", path), e);
+		}
+	}
+
+	private void delete(Segment segment) {
+		UNMAPPER.unmap(segment.buffer);
+		try {
+			Files.deleteIfExists(segment.path);
+		} catch (IOException e) {
+			logger.warn("unable to delete the spill segment {}", segment.path, e);
+		}
+	}
+
+	private byte[] encode(List<OplogEntry> items) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream output = new DataOutputStream(bytes)) {
+			for (OplogEntry entry : items) {
+				OplogEntrySerializer.write(output, entry);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	private List<OplogEntry> decode(byte[] bytes) {
+		List<OplogEntry> entries = new ArrayList<>();
+		try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes))) {
+			OplogEntry entry;
+			while ((entry = OplogEntrySerializer.read(input, rawEntries)) != null) {
+				entries.add(entry);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("a spilled record is corrupted", e);
+		}
+		return entries;
+	}
+
+	private byte[] deflate(byte[] raw) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(raw);
+			deflater.finish();
+			ByteArrayOutputStream output = new ByteArrayOutputStream(raw.length / 2 + 64);
+			byte[] chunk = new byte[64 * 1024];
+			while (!deflater.finished()) {
+				output.write(chunk, 0, deflater.deflate(chunk));
+			}
+			return output.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private byte[] inflate(byte[] stored, int rawLength) {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(stored);
+			byte[] raw = new byte[rawLength];
+			int offset = 0;
+			while (offset < rawLength) {
+				int inflated = inflater.inflate(raw, offset, rawLength - offset);
+				if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+					throw new IllegalStateException("a spilled record is truncated");
+				}
+				offset += inflated;
+			}
+			return raw;
+		} catch (DataFormatException e) {
+			throw new IllegalStateException("a spilled record is corrupted", e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Get's a way to release the mapping of a segment right away, through the cleaner of the buffer: Unsafe.invokeCleaner
+	 * since Java 9, DirectBuffer.cleaner before. When neither is reachable, the mapping is left to the garbage collector.
+	 *
+	 * @return the unmapper of the running JVM
+	 */
+	private static Unmapper getUnmapper() {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field field = unsafeClass.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			Object unsafe = field.get(null);
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			return buffer -> invokeCleaner.invoke(unsafe, buffer);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			logger.debug("Unsafe.invokeCleaner is not available; trying DirectBuffer.cleaner", e);
+		}
+		try {
+			Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+			Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+			return buffer -> clean.invoke(cleaner.invoke(buffer));
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			logger.warn("unable to unmap the spill segments; they are released when garbage collected", e);
+			return buffer -> {
+			};
+		}
+	}
+
+	/**
+	 * Releases the mapping of a buffer; the buffer must never be accessed again
+	 */
+	private interface Unmapper {
+		void release(MappedByteBuffer buffer) throws ReflectiveOperationException;
+
+		default void unmap(MappedByteBuffer buffer) {
+			try {
+				release(buffer);
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				logger.warn("unable to unmap a spill segment; it is released when garbage collected", e);
+			}
+		}
+	}
+
+	/**
+	 * A record taken out of a segment, decoded outside the lock of the log
+	 */
+	private static class Record {
+		private byte[] stored;
+		private int rawLength;
+		private boolean compressed;
+	}
+
+	/**
+	 * A segment file mapped in memory; records are appended at the position of its buffer and read from its readIndex
+	 */
+	private static class Segment {
+		private final Path path;
+		private final MappedByteBuffer buffer;
+		private int readIndex;
+
+		private Segment(Path path, MappedByteBuffer buffer) {
+			this.path = path;
+			this.buffer = buffer;
+		}
+	}
+}
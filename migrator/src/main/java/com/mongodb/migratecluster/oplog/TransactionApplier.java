@@ -0,0 +1,107 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.BsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoClient;
+import com.mongodb.MongoException;
+import com.mongodb.client.ClientSession;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.migratecluster.metrics.Meter;
+import com.mongodb.migratecluster.metrics.MetricsRegistry;
+
+/**
+ * File: TransactionApplier Author: Shyam Arjarapu Date: 2/10/19 8:10 AM Description:
+ *
+ * A class to replay a transaction of the source as a transaction of the target (MongoDB 4.0+ replica set), so that
+ * its operations become visible all at once. The operations are grouped per namespace into one ordered bulk write
+ * each; a transaction failing with a transient error is retried a few times.
+ *
+ * A transaction rejected for a duplicate key was already committed before a restart; its operations are then applied
+ * namespace by namespace by the BulkWriteApplier, which skips over what is already there.
+ */
+public class TransactionApplier {
+	private final static Logger logger = LoggerFactory.getLogger(TransactionApplier.class);
+
+	private static final int MAX_ATTEMPTS = 3;
+	private static final int DUPLICATE_KEY = 11000;
+
+	private final MongoClient targetClient;
+	private final NamespaceFilter namespaces;
+	private final BulkWriteApplier bulkWriteApplier;
+	private final BulkWriteOptions options = new BulkWriteOptions().ordered(true);
+	private final Meter committedMeter;
+
+	public TransactionApplier(MongoClient targetClient, NamespaceFilter namespaces, BulkWriteApplier bulkWriteApplier, MetricsRegistry metrics) {
+		this.targetClient = targetClient;
+		this.namespaces = namespaces;
+		this.bulkWriteApplier = bulkWriteApplier;
+		this.committedMeter = metrics.meter("transactions.committed");
+	}
+
+	/**
+	 * Applies the operations of a transaction in a single transaction of the target
+	 *
+	 * @param operations
+	 *          the insert, update and delete entries of the transaction, in order
+	 */
+	public void apply(List<OplogEntry> operations) {
+		Map<Namespace, List<WriteModel<BsonDocument>>> writes = new LinkedHashMap<>();
+		for (OplogEntry operation : operations) {
+			WriteModel<BsonDocument> model = OplogApplyWorker.getWriteModelForOperation(operation);
+			if (model != null) {
+				writes.computeIfAbsent(namespaces.resolve(operation.getNamespace()), ns -> new ArrayList<>()).add(model);
+			}
+		}
+		if (writes.isEmpty()) {
+			return;
+		}
+
+		for (int attempt = 1;; attempt++) {
+			try (ClientSession session = targetClient.startSession()) {
+				session.startTransaction();
+				try {
+					for (Map.Entry<Namespace, List<WriteModel<BsonDocument>>> write : writes.entrySet()) {
+						write.getKey().getTargetCollection().bulkWrite(session, write.getValue(), options);
+					}
+					session.commitTransaction();
+					committedMeter.mark(1);
+					return;
+				} catch (MongoBulkWriteException e) {
+					abort(session);
+					if (e.getWriteErrors().stream().anyMatch(error -> error.getCode() == DUPLICATE_KEY)) {
+						logger.info("transaction of {} operations at {} was already applied; applying it again without a transaction", operations.size(),
+								operations.get(0).getTimestamp());
+						writes.forEach((namespace, models) -> bulkWriteApplier.apply(namespace.getTargetCollection(), models));
+						return;
+					}
+					throw e;
+				} catch (MongoException e) {
+					abort(session);
+					if (!e.hasErrorLabel(MongoException.TRANSIENT_TRANSACTION_ERROR_LABEL) || attempt >= MAX_ATTEMPTS) {
+						throw e;
+					}
+					logger.warn("transaction at {} failed with a transient error; retrying", operations.get(0).getTimestamp(), e);
+				}
+			}
+		}
+	}
+
+	private void abort(ClientSession session) {
+		if (session.hasActiveTransaction()) {
+			try {
+				session.abortTransaction();
+			} catch (MongoException e) {
+				logger.warn("unable to abort a transaction on the target", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,186 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.bson.BsonValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * File: TransactionUnpacker Author: Shyam Arjarapu Date: 2/10/19 7:30 AM Description:
+ *
+ * A class to unpack the applyOps entries of the oplog into the operations they carry, so that those are filtered,
+ * batched and applied like any other entry. A transaction is written to the oplog as a single applyOps entry, or, when
+ * large or prepared (MongoDB 4.2+), as a chain of applyOps entries marked partialTxn or prepare, each pointing to the
+ * previous one by its prevOpTime, and completed by the last applyOps of the chain or a commitTransaction entry. The
+ * operations of a transaction are only handed out once it is committed, with the timestamp of its commit; an aborted
+ * transaction hands out nothing.
+ *
+ * { "ts": Timestamp(10, 1), "op": "c", "ns": "admin.$cmd", "o": { "applyOps": [ { "op": "i", "ns": "shop.orders",
+ * "o": {...} } ], "partialTxn": true }, "prevOpTime": { "ts": Timestamp(0, 0), "t": -1 } }
+ */
+public class TransactionUnpacker {
+	private final static Logger logger = LoggerFactory.getLogger(TransactionUnpacker.class);
+
+	// the operations of the open transactions, by the timestamp of their latest entry
+	private final Map<BsonTimestamp, OpenTransaction> openTransactions = new HashMap<>();
+
+	/**
+	 * Checks if an entry belongs to a transaction or carries applyOps
+	 *
+	 * @param entry
+	 *          an oplog entry
+	 * @return true for applyOps, commitTransaction and abortTransaction entries
+	 */
+	public static boolean isTransaction(OplogEntry entry) {
+		if (!"c".equals(entry.getOperation())) {
+			return false;
+		}
+		BsonDocument command = entry.getObject();
+		if (command == null || command.isEmpty()) {
+			return false;
+		}
+		String name = command.getFirstKey();
+		return "applyOps".equals(name) || "commitTransaction".equals(name) || "abortTransaction".equals(name);
+	}
+
+	/**
+	 * Get's the number of transactions whose entries were read but that are not yet committed or aborted
+	 *
+	 * @return the count of open transactions
+	 */
+	public int getOpenCount() {
+		return openTransactions.size();
+	}
+
+	/**
+	 * Unpacks an entry of a transaction
+	 *
+	 * @param entry
+	 *          an entry for which isTransaction is true
+	 * @return the transaction completed by the entry, or null while it is still open
+	 */
+	public Transaction unpack(OplogEntry entry) {
+		BsonDocument command = entry.getObject();
+		String name = command.getFirstKey();
+		OpenTransaction previous = getPrevious(entry);
+
+		if ("applyOps".equals(name)) {
+			OpenTransaction transaction = (previous == null) ? new OpenTransaction() : previous;
+			transaction.add(entry, command.getArray("applyOps", new BsonArray()));
+			if (isTrue(command.get("partialTxn")) || isTrue(command.get("prepare"))) {
+				openTransactions.put(entry.getTimestamp(), transaction);
+				return null;
+			}
+			return transaction.complete(entry, true);
+		}
+
+		if (previous == null) {
+			// the transaction started before the position the oplog was resumed from
+			logger.warn("skipping {} at {}; the entries of its transaction were not read", name, entry.getTimestamp());
+			return new Transaction(Collections.emptyList(), Collections.emptyList(), false);
+		}
+		return previous.complete(entry, "commitTransaction".equals(name));
+	}
+
+	private OpenTransaction getPrevious(OplogEntry entry) {
+		BsonValue prevOpTime = entry.getDocument().get("prevOpTime");
+		if (prevOpTime == null || !prevOpTime.isDocument()) {
+			return null;
+		}
+		BsonValue ts = prevOpTime.asDocument().get("ts");
+		return (ts == null || !ts.isTimestamp()) ? null : openTransactions.remove(ts.asTimestamp());
+	}
+
+	private static boolean isTrue(BsonValue value) {
+		return value != null && value.isBoolean() && value.asBoolean().getValue();
+	}
+
+	/**
+	 * The entries read so far of a transaction still open
+	 */
+	private static class OpenTransaction {
+		private final List<BsonDocument> operations = new ArrayList<>();
+		private final List<BsonTimestamp> timestamps = new ArrayList<>();
+		private long sizeInBytes;
+
+		private void add(OplogEntry entry, BsonArray applyOps) {
+			for (BsonValue operation : applyOps) {
+				operations.add(operation.asDocument());
+			}
+			timestamps.add(entry.getTimestamp());
+			sizeInBytes += entry.getSizeInBytes();
+		}
+
+		private Transaction complete(OplogEntry entry, boolean committed) {
+			// the last entry is the one completing the transaction; the caller tracks it like any other
+			List<BsonTimestamp> earlier = new ArrayList<>(timestamps);
+			earlier.remove(entry.getTimestamp());
+			if (!committed) {
+				return new Transaction(Collections.emptyList(), earlier, false);
+			}
+
+			List<OplogEntry> entries = new ArrayList<>(operations.size());
+			int size = (int) Math.max(1, sizeInBytes / Math.max(1, operations.size()));
+			for (BsonDocument operation : operations) {
+				BsonDocument document = new BsonDocument("ts", entry.getTimestamp());
+				for (String field : OplogQuery.FIELDS) {
+					if (!"ts".equals(field) && operation.containsKey(field)) {
+						document.put(field, operation.get(field));
+					}
+				}
+				entries.add(new OplogEntry(document, size, null, true));
+			}
+			return new Transaction(entries, earlier, true);
+		}
+	}
+
+	/**
+	 * A transaction completed by an entry of the oplog
+	 */
+	public static class Transaction {
+		private final List<OplogEntry> operations;
+		private final List<BsonTimestamp> earlierTimestamps;
+		private final boolean committed;
+
+		Transaction(List<OplogEntry> operations, List<BsonTimestamp> earlierTimestamps, boolean committed) {
+			this.operations = operations;
+			this.earlierTimestamps = earlierTimestamps;
+			this.committed = committed;
+		}
+
+		/**
+		 * Get's the operations of the transaction, in order, with the timestamp of the entry completing it
+		 *
+		 * @return a list of oplog entries, empty when the transaction was aborted
+		 */
+		public List<OplogEntry> getOperations() {
+			return operations;
+		}
+
+		/**
+		 * Get's the timestamps of the entries of the transaction before the one completing it
+		 *
+		 * @return a list of timestamps, empty for a transaction of a single entry
+		 */
+		public List<BsonTimestamp> getEarlierTimestamps() {
+			return earlierTimestamps;
+		}
+
+		/**
+		 * Indicates if the transaction was committed
+		 *
+		 * @return false when it was aborted
+		 */
+		public boolean isCommitted() {
+			return committed;
+		}
+	}
+}
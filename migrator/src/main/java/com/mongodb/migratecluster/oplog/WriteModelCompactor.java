@@ -0,0 +1,212 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.conversions.Bson;
+
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * File: WriteModelCompactor Author: Shyam Arjarapu Date: 1/25/19 6:45 AM Description:
+ *
+ * A class to shrink an ordered batch of write models of one namespace before it is sent to the target, leaving every
+ * document in the state an ordered replay would have left it in:
+ *
+ * - successive $set / $unset updates of a document are merged into one update, unless their paths overlap
+ * - updates following a replacement are folded into the replacement document, keeping the filter of the replacement;
+ *   updates following an insert are only merged among themselves, since an upsert filtered by _id alone is rejected
+ *   by a target sharded on another key, and the insert is skipped as a duplicate when it was applied before a restart
+ * - a delete drops every earlier operation of its document in the batch, so an insert followed by a delete shrinks to
+ *   the delete alone, which is a no-op when the document never reached the target
+ *
+ * Operations of different documents may move relative to each other, which only matters for unique secondary indexes.
+ */
+public class WriteModelCompactor {
+	private static final String SET = "$set";
+	private static final String UNSET = "$unset";
+
+	/**
+	 * Compacts an ordered batch of write models
+	 *
+	 * @param models
+	 *          the write models in oplog order
+	 * @return a new list with the compacted write models
+	 */
+	public List<WriteModel<BsonDocument>> compact(List<WriteModel<BsonDocument>> models) {
+		List<WriteModel<BsonDocument>> slots = new ArrayList<>(models.size());
+		Map<BsonValue, List<Integer>> slotsById = new HashMap<>();
+
+		for (WriteModel<BsonDocument> model : models) {
+			BsonValue id = getDocumentId(model);
+			if (id == null) {
+				slots.add(model);
+				continue;
+			}
+
+			List<Integer> idSlots = slotsById.computeIfAbsent(id, k -> new ArrayList<>());
+			Integer lastSlot = idSlots.isEmpty() ? null : idSlots.get(idSlots.size() - 1);
+			WriteModel<BsonDocument> previous = (lastSlot == null) ? null : slots.get(lastSlot);
+
+			if (model instanceof DeleteOneModel) {
+				// the delete leaves the document absent whatever happened to it before
+				for (Integer slot : idSlots) {
+					slots.set(slot, null);
+				}
+				idSlots.clear();
+			} else if (model instanceof UpdateOneModel && previous != null) {
+				BsonDocument update = getUpdate((UpdateOneModel<BsonDocument>) model);
+				WriteModel<BsonDocument> merged = null;
+				if (update != null) {
+					if (previous instanceof ReplaceOneModel) {
+						merged = fold((ReplaceOneModel<BsonDocument>) previous, update);
+					} else if (previous instanceof UpdateOneModel) {
+						merged = merge((UpdateOneModel<BsonDocument>) previous, update);
+					}
+				}
+				if (merged != null) {
+					slots.set(lastSlot, merged);
+					continue;
+				}
+			}
+
+			idSlots.add(slots.size());
+			slots.add(model);
+		}
+
+		List<WriteModel<BsonDocument>> compacted = new ArrayList<>(slots.size());
+		for (WriteModel<BsonDocument> slot : slots) {
+			if (slot != null) {
+				compacted.add(slot);
+			}
+		}
+		return compacted;
+	}
+
+	/**
+	 * Applies an update on a copy of the document of a replacement
+	 *
+	 * @return a replacement of the updated document with the filter and options of the previous one, or null when the
+	 *         update cannot be applied locally
+	 */
+	private WriteModel<BsonDocument> fold(ReplaceOneModel<BsonDocument> previous, BsonDocument update) {
+		BsonDocument set = update.getDocument(SET, null);
+		BsonDocument unset = update.getDocument(UNSET, null);
+		if (hasDottedPath(set) || hasDottedPath(unset)) {
+			return null;
+		}
+
+		BsonDocument replacement = new BsonDocument();
+		replacement.putAll(previous.getReplacement());
+		if (set != null) {
+			replacement.putAll(set);
+		}
+		if (unset != null) {
+			unset.keySet().forEach(replacement::remove);
+		}
+		return new ReplaceOneModel<>(previous.getFilter(), replacement, previous.getReplaceOptions());
+	}
+
+	/**
+	 * Merges a later update into an earlier one of the same document
+	 *
+	 * @return the merged update, or null when the paths of the two updates overlap
+	 */
+	private WriteModel<BsonDocument> merge(UpdateOneModel<BsonDocument> previous, BsonDocument update) {
+		BsonDocument previousUpdate = getUpdate(previous);
+		if (previousUpdate == null) {
+			return null;
+		}
+
+		BsonDocument set = copy(previousUpdate.getDocument(SET, null));
+		BsonDocument unset = copy(previousUpdate.getDocument(UNSET, null));
+		BsonDocument nextSet = update.getDocument(SET, new BsonDocument());
+		BsonDocument nextUnset = update.getDocument(UNSET, new BsonDocument());
+
+		List<String> previousPaths = new ArrayList<>(set.keySet());
+		previousPaths.addAll(unset.keySet());
+		List<String> nextPaths = new ArrayList<>(nextSet.keySet());
+		nextPaths.addAll(nextUnset.keySet());
+		for (String next : nextPaths) {
+			for (String path : previousPaths) {
+				if (!next.equals(path) && (next.startsWith(path + ".") || path.startsWith(next + "."))) {
+					return null;
+				}
+			}
+		}
+
+		nextSet.forEach((key, value) -> {
+			unset.remove(key);
+			set.put(key, value);
+		});
+		nextUnset.forEach((key, value) -> {
+			set.remove(key);
+			unset.put(key, value);
+		});
+
+		BsonDocument merged = new BsonDocument();
+		if (!set.isEmpty()) {
+			merged.append(SET, set);
+		}
+		if (!unset.isEmpty()) {
+			merged.append(UNSET, unset);
+		}
+		return new UpdateOneModel<>(previous.getFilter(), merged, previous.getOptions());
+	}
+
+	/**
+	 * Get's the update document of an update made only of $set and $unset operators
+	 *
+	 * @return the update document, or null if it uses any other operator
+	 */
+	private BsonDocument getUpdate(UpdateOneModel<BsonDocument> model) {
+		Bson update = model.getUpdate();
+		if (!(update instanceof BsonDocument)) {
+			return null;
+		}
+		BsonDocument document = (BsonDocument) update;
+		for (String key : OplogEntry.getFieldNames(document)) {
+			boolean supported = key.equals(SET) || key.equals(UNSET);
+			if (!supported || !document.get(key).isDocument()) {
+				return null;
+			}
+		}
+		return document;
+	}
+
+	private BsonDocument copy(BsonDocument fields) {
+		BsonDocument copy = new BsonDocument();
+		if (fields != null) {
+			copy.putAll(fields);
+		}
+		return copy;
+	}
+
+	private boolean hasDottedPath(BsonDocument fields) {
+		return fields != null && fields.keySet().stream().anyMatch(key -> key.indexOf('.') >= 0);
+	}
+
+	private BsonValue getDocumentId(WriteModel<BsonDocument> model) {
+		if (model instanceof InsertOneModel) {
+			return ((InsertOneModel<BsonDocument>) model).getDocument().get("_id");
+		}
+
+		Bson filter = null;
+		if (model instanceof UpdateOneModel) {
+			filter = ((UpdateOneModel<BsonDocument>) model).getFilter();
+		} else if (model instanceof DeleteOneModel) {
+			filter = ((DeleteOneModel<BsonDocument>) model).getFilter();
+		} else if (model instanceof ReplaceOneModel) {
+			filter = ((ReplaceOneModel<BsonDocument>) model).getFilter();
+		}
+		return (filter instanceof BsonDocument) ? ((BsonDocument) filter).get("_id") : null;
+	}
+}
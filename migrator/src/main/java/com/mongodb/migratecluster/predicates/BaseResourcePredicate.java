@@ -1,40 +1,43 @@
 package com.mongodb.migratecluster.predicates;
 
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
 
 import com.mongodb.migratecluster.commandline.ResourceFilter;
 import com.mongodb.migratecluster.model.Resource;
 
 /**
  * File: BaseResourcePredicate Author: shyam.arjarapu Date: 4/27/17 9:34 PM Description:
+ *
+ * The black list and the white list are compiled once into a NamespaceMatcher each; an empty white list lets every
+ * resource through.
  */
 abstract class BaseResourcePredicate {
-	private final Map<String, List<ResourceFilter>> blacklistResources;
+	private final NamespaceMatcher blackList;
+	private final NamespaceMatcher whiteList;
 
 	BaseResourcePredicate(List<ResourceFilter> filters) {
-		this.blacklistResources = filters.stream().collect(Collectors.groupingBy(ResourceFilter::getDatabase));
+		this(filters, Collections.emptyList());
+	}
+
+	BaseResourcePredicate(List<ResourceFilter> blackListFilters, List<ResourceFilter> whiteListFilters) {
+		this.blackList = new NamespaceMatcher(blackListFilters);
+		this.whiteList = new NamespaceMatcher(whiteListFilters);
 	}
 
 	boolean isDatabaseInBlackList(String databaseName) {
-		if (this.blacklistResources.containsKey(databaseName)) {
-			List<ResourceFilter> filters = this.blacklistResources.get(databaseName);
-			if (filters != null && filters.size() > 0) {
-				return filters.get(0).isEntireDatabase();
-			}
-		}
-		return false;
+		return blackList.matchesEntireDatabase(databaseName);
+	}
+
+	boolean isDatabaseOutOfWhiteList(String databaseName) {
+		return !whiteList.isEmpty() && !whiteList.mayMatchDatabase(databaseName);
 	}
 
 	boolean isResourceInBlackList(Resource resource) {
-		String databaseName = resource.getDatabase();
-		if (this.blacklistResources.containsKey(databaseName)) {
-			List<ResourceFilter> filters = this.blacklistResources.get(databaseName);
-			if (filters != null && filters.size() > 0) {
-				return filters.stream().anyMatch(r -> r.getCollection().equals(resource.getCollection()));
-			}
-		}
-		return false;
+		return blackList.matches(resource.getNamespace());
+	}
+
+	boolean isResourceOutOfWhiteList(Resource resource) {
+		return !whiteList.isEmpty() && !whiteList.matches(resource.getNamespace());
 	}
 }
@@ -20,12 +20,20 @@ public class CollectionFilterPredicate extends BaseResourcePredicate implements
 		super(filters);
 	}
 
+	public CollectionFilterPredicate(List<ResourceFilter> blackListFilters, List<ResourceFilter> whiteListFilters) {
+		super(blackListFilters, whiteListFilters);
+	}
+
 	@Override
 	public boolean test(Resource resource) throws Exception {
 		boolean blacklisted = isResourceInBlackList(resource);
 		if (blacklisted) {
 			logger.info("Skipping collection: {}; As it is marked as black listed in configuration", resource.getNamespace());
 		}
+		if (!blacklisted && isResourceOutOfWhiteList(resource)) {
+			logger.info("Skipping collection: {}; As it is not marked as white listed in configuration", resource.getNamespace());
+			return false;
+		}
 		return !blacklisted;
 	}
 
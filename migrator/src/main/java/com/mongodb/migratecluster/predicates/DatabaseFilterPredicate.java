@@ -20,6 +20,10 @@ public class DatabaseFilterPredicate extends BaseResourcePredicate implements Pr
 		super(filters);
 	}
 
+	public DatabaseFilterPredicate(List<ResourceFilter> blackListFilters, List<ResourceFilter> whiteListFilters) {
+		super(blackListFilters, whiteListFilters);
+	}
+
 	@Override
 	public boolean test(Document dbDocument) throws Exception {
 		String databaseName = dbDocument.getString("name");
@@ -27,6 +31,10 @@ public class DatabaseFilterPredicate extends BaseResourcePredicate implements Pr
 		if (blacklisted) {
 			logger.info("Skipping database: {}; As it is marked as black listed in configuration", databaseName);
 		}
+		if (!blacklisted && isDatabaseOutOfWhiteList(databaseName)) {
+			logger.info("Skipping database: {}; As it is not marked as white listed in configuration", databaseName);
+			return false;
+		}
 		return !blacklisted;
 	}
 
@@ -0,0 +1,145 @@
+package com.mongodb.migratecluster.predicates;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import com.mongodb.migratecluster.commandline.ResourceFilter;
+
+/**
+ * File: NamespaceMatcher Author: Shyam Arjarapu Date: 2/8/19 7:30 AM Description:
+ *
+ * A class to match namespaces against a list of resource filters, compiled once into a single regular expression. The
+ * database and the collection of a filter may be glob patterns, where * matches any run of characters and ? a single
+ * one; a collection of "{}" stands for the entire database. The filterExpression of a filter is a regular expression
+ * the whole namespace must match, on top of its database and collection when they are given.
+ *
+ * { "database": "tenant_*", "collection": "{}" }
+ * { "database": "app", "collection": "audit_20??" }
+ * { "filterExpression": "^reporting\\.(daily|weekly)_.*$" }
+ */
+public class NamespaceMatcher {
+	private final Pattern namespacePattern;
+	private final Pattern entireDatabasePattern;
+	private final Pattern databasePattern;
+
+	public NamespaceMatcher(List<ResourceFilter> filters) {
+		List<String> namespaces = new ArrayList<>();
+		List<String> entireDatabases = new ArrayList<>();
+		List<String> databases = new ArrayList<>();
+
+		if (filters != null) {
+			for (ResourceFilter filter : filters) {
+				String database = (filter.getDatabase() == null) ? null : getGlobRegex(filter.getDatabase(), "[^.]*");
+				String expression = filter.getFilterExpression();
+				boolean entireDatabase = database != null && filter.getCollection() != null && filter.isEntireDatabase();
+
+				String namespace = null;
+				if (database != null) {
+					String collection = (filter.getCollection() == null || entireDatabase) ? ".*" : getGlobRegex(filter.getCollection(), ".*");
+					namespace = String.format("%s\\.%s", database, collection);
+				}
+
+				if (expression == null || expression.isEmpty()) {
+					if (namespace != null) {
+						namespaces.add(namespace);
+						databases.add(database);
+						if (entireDatabase) {
+							entireDatabases.add(database);
+						}
+					}
+				} else {
+					// the expression is checked on top of the database and collection, if any
+					namespaces.add((namespace == null) ? expression : String.format("(?=%s$)(?:%s)", namespace, expression));
+					databases.add((database == null) ? "[^.]*" : database);
+				}
+			}
+		}
+
+		this.namespacePattern = compile(namespaces);
+		this.entireDatabasePattern = compile(entireDatabases);
+		this.databasePattern = compile(databases);
+	}
+
+	/**
+	 * Get's the regular expression of a glob pattern
+	 *
+	 * @param glob
+	 *          a name where * matches any run of characters and ? a single one
+	 * @param any
+	 *          the regular expression * stands for
+	 * @return the regular expression
+	 */
+	static String getGlobRegex(String glob, String any) {
+		StringBuilder regex = new StringBuilder();
+		StringBuilder literal = new StringBuilder();
+		for (char c : glob.toCharArray()) {
+			if (c == '*' || c == '?') {
+				if (literal.length() > 0) {
+					regex.append(Pattern.quote(literal.toString()));
+					literal.setLength(0);
+				}
+				regex.append((c == '*') ? any : "[^.]");
+			} else {
+				literal.append(c);
+			}
+		}
+		if (literal.length() > 0) {
+			regex.append(Pattern.quote(literal.toString()));
+		}
+		return regex.toString();
+	}
+
+	private static Pattern compile(List<String> alternatives) {
+		if (alternatives.isEmpty()) {
+			return null;
+		}
+		StringBuilder regex = new StringBuilder();
+		for (String alternative : alternatives) {
+			regex.append((regex.length() == 0) ? "" : "|").append("(?:").append(alternative).append(")");
+		}
+		return Pattern.compile(regex.toString());
+	}
+
+	/**
+	 * Indicates if there are no filters to match against
+	 *
+	 * @return true when nothing matches
+	 */
+	public boolean isEmpty() {
+		return namespacePattern == null;
+	}
+
+	/**
+	 * Checks if a namespace matches any of the filters
+	 *
+	 * @param namespace
+	 *          a namespace, such as "db.collection"
+	 * @return true if the namespace matches
+	 */
+	public boolean matches(String namespace) {
+		return namespacePattern != null && namespacePattern.matcher(namespace).matches();
+	}
+
+	/**
+	 * Checks if a database matches one of the filters standing for entire databases
+	 *
+	 * @param databaseName
+	 *          the name of a database
+	 * @return true if every namespace of the database matches
+	 */
+	public boolean matchesEntireDatabase(String databaseName) {
+		return entireDatabasePattern != null && entireDatabasePattern.matcher(databaseName).matches();
+	}
+
+	/**
+	 * Checks if some namespaces of a database may match the filters
+	 *
+	 * @param databaseName
+	 *          the name of a database
+	 * @return true if the database of any filter matches
+	 */
+	public boolean mayMatchDatabase(String databaseName) {
+		return databasePattern != null && databasePattern.matcher(databaseName).matches();
+	}
+}
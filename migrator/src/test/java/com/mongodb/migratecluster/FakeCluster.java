@@ -0,0 +1,765 @@
+package com.mongodb.migratecluster;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import org.bson.BsonBoolean;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWrapper;
+import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+
+import com.mongodb.Block;
+import com.mongodb.MongoClient;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoInterruptedException;
+import com.mongodb.MongoNamespace;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.AggregateIterable;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.ListIndexesIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.DeleteManyModel;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateManyModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+
+/**
+ * File: FakeCluster Author: Shyam Arjarapu Date: 2/15/19 7:50 AM Description:
+ *
+ * A cluster that only exists in memory, so the tests run without a server. Its collections hold their documents in
+ * natural order; the finds, aggregations and writes understand the operators the application uses and reject any other
+ * with an UnsupportedOperationException. collStats and createIndexes are answered by the cluster itself, every other
+ * command by the command handler, which rejects them like a server not knowing them unless a test sets its own. Every
+ * write is shown to the write listener before it is applied, so a test can record, hold back or fail it.
+ *
+ * A cursor handed out all its documents either throws the given failure or waits like an await cursor on a collection
+ * without writes, until its thread is interrupted. $sample takes the first documents in natural order.
+ */
+public class FakeCluster {
+	private static final CodecRegistry REGISTRY = MongoClient.getDefaultCodecRegistry();
+
+	private final Map<String, List<BsonDocument>> collections = new HashMap<>();
+	private final Map<String, List<BsonDocument>> indexes = new HashMap<>();
+	private final List<String> commands = new ArrayList<>();
+	private volatile CommandHandler commandHandler = FakeCluster::rejectCommand;
+	private volatile WriteListener writeListener = (namespace, models) -> {
+	};
+	private volatile RuntimeException failure;
+
+	/**
+	 * Runs the commands the cluster does not answer itself
+	 */
+	public interface CommandHandler {
+		BsonDocument run(String databaseName, BsonDocument command);
+	}
+
+	/**
+	 * Is shown every write before it is applied; what it throws is thrown by the write
+	 */
+	public interface WriteListener {
+		void writing(String namespace, List<? extends WriteModel<?>> models) throws Exception;
+	}
+
+	/**
+	 * Get's a client of a cluster holding the given documents
+	 *
+	 * @param collections
+	 *          the documents of every namespace, in natural order
+	 * @param failure
+	 *          the failure thrown by a cursor past its last document, or null to wait
+	 * @return a client that never connects to a server
+	 */
+	public static MongoClient getClient(Map<String, ? extends List<?>> collections, RuntimeException failure) {
+		FakeCluster cluster = new FakeCluster();
+		collections.forEach(cluster::addDocuments);
+		cluster.setFailure(failure);
+		return cluster.getClient();
+	}
+
+	/**
+	 * Get's a client of the cluster; it must be closed, as it keeps trying to reach a server that is not there
+	 *
+	 * @return a client that never connects to a server
+	 */
+	public MongoClient getClient() {
+		return new MongoClient(new ServerAddress("localhost", 1)) {
+			@Override
+			public MongoDatabase getDatabase(String databaseName) {
+				return getFakeDatabase(databaseName);
+			}
+		};
+	}
+
+	public synchronized void addDocuments(String namespace, List<?> documents) {
+		documents.forEach(document -> getCollection(namespace).add(toBsonDocument(document)));
+	}
+
+	public synchronized void addIndexes(String namespace, List<BsonDocument> definitions) {
+		definitions.forEach(definition -> getIndexes(namespace).add(definition.clone()));
+	}
+
+	public void setFailure(RuntimeException failure) {
+		this.failure = failure;
+	}
+
+	public void setCommandHandler(CommandHandler commandHandler) {
+		this.commandHandler = commandHandler;
+	}
+
+	public void setWriteListener(WriteListener writeListener) {
+		this.writeListener = writeListener;
+	}
+
+	/**
+	 * Get's the documents of a collection
+	 *
+	 * @param namespace
+	 *          the namespace of the collection
+	 * @return a copy of the documents, in natural order
+	 */
+	public synchronized List<BsonDocument> getDocuments(String namespace) {
+		return new ArrayList<>(getCollection(namespace));
+	}
+
+	/**
+	 * Get's the secondary indexes of a collection
+	 *
+	 * @param namespace
+	 *          the namespace of the collection
+	 * @return a copy of the index definitions, in the order they were created
+	 */
+	public synchronized List<BsonDocument> getSecondaryIndexes(String namespace) {
+		return new ArrayList<>(getIndexes(namespace));
+	}
+
+	/**
+	 * Get's the names of the commands run so far, the ones of the command handler included
+	 *
+	 * @return a copy of the names, in the order the commands were run
+	 */
+	public synchronized List<String> getCommands() {
+		return new ArrayList<>(commands);
+	}
+
+	private List<BsonDocument> getCollection(String namespace) {
+		return collections.computeIfAbsent(namespace, ns -> new ArrayList<>());
+	}
+
+	private List<BsonDocument> getIndexes(String namespace) {
+		return indexes.computeIfAbsent(namespace, ns -> new ArrayList<>());
+	}
+
+	private static BsonDocument rejectCommand(String databaseName, BsonDocument command) {
+		BsonDocument response = new BsonDocument("ok", new BsonDouble(0)).append("errmsg", new BsonString("no such command: " + command.getFirstKey()))
+				.append("code", new BsonInt32(59));
+		throw new MongoCommandException(response, new ServerAddress());
+	}
+
+	private static <T> T getProxy(Class<T> type, InvocationHandler handler) {
+		return type.cast(Proxy.newProxyInstance(FakeCluster.class.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+			if (method.getDeclaringClass() == Object.class) {
+				switch (method.getName()) {
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				default:
+					return "Fake" + type.getSimpleName();
+				}
+			}
+			return handler.invoke(proxy, method, (args == null) ? new Object[0] : args);
+		}));
+	}
+
+	private static UnsupportedOperationException unsupported(Method method) {
+		return new UnsupportedOperationException(String.format("%s.%s", method.getDeclaringClass().getSimpleName(), method.getName()));
+	}
+
+	private MongoDatabase getFakeDatabase(String databaseName) {
+		return getProxy(MongoDatabase.class, (database, method, args) -> {
+			switch (method.getName()) {
+			case "getName":
+				return databaseName;
+			case "withReadPreference":
+			case "withReadConcern":
+			case "withWriteConcern":
+				return database;
+			case "getCollection":
+				Class<?> documentClass = (args.length > 1) ? (Class<?>) args[1] : Document.class;
+				return getFakeCollection(new MongoNamespace(databaseName, (String) args[0]), documentClass);
+			case "runCommand":
+				BsonDocument result = runCommand(databaseName, toBsonDocument(args[0]));
+				Object last = args[args.length - 1];
+				return decode(result, (last instanceof Class) ? (Class<?>) last : Document.class);
+			default:
+				throw unsupported(method);
+			}
+		});
+	}
+
+	private BsonDocument runCommand(String databaseName, BsonDocument command) {
+		String name = command.getFirstKey();
+		synchronized (this) {
+			commands.add(name);
+			switch (name) {
+			case "collStats":
+				String namespace = databaseName + "." + command.getString(name).getValue();
+				long size = getCollection(namespace).stream().mapToLong(FakeCluster::getSize).sum();
+				return new BsonDocument("ok", new BsonDouble(1)).append("count", new BsonInt64(getCollection(namespace).size())).append("size",
+						new BsonInt64(size));
+			case "createIndexes":
+				List<BsonDocument> definitions = getIndexes(databaseName + "." + command.getString(name).getValue());
+				for (BsonValue index : command.getArray("indexes")) {
+					String indexName = index.asDocument().getString("name").getValue();
+					if (definitions.stream().noneMatch(definition -> definition.getString("name").getValue().equals(indexName))) {
+						definitions.add(index.asDocument().clone());
+					}
+				}
+				return new BsonDocument("ok", new BsonDouble(1));
+			default:
+				break;
+			}
+		}
+		return commandHandler.run(databaseName, command);
+	}
+
+	@SuppressWarnings("unchecked")
+	private MongoCollection<?> getFakeCollection(MongoNamespace namespace, Class<?> documentClass) {
+		String ns = namespace.getFullName();
+		return getProxy(MongoCollection.class, (collection, method, args) -> {
+			switch (method.getName()) {
+			case "getNamespace":
+				return namespace;
+			case "getDocumentClass":
+				return documentClass;
+			case "withDocumentClass":
+				return getFakeCollection(namespace, (Class<?>) args[0]);
+			case "withReadPreference":
+			case "withReadConcern":
+			case "withWriteConcern":
+				return collection;
+			case "find":
+				BsonDocument filter = new BsonDocument();
+				Class<?> resultClass = documentClass;
+				for (Object arg : args) {
+					if (arg instanceof Class) {
+						resultClass = (Class<?>) arg;
+					} else if (arg instanceof Bson) {
+						filter = toBsonDocument(arg);
+					}
+				}
+				BsonDocument query = filter;
+				return getIterable(FindIterable.class, (sort, limit) -> find(ns, query, sort, limit), resultClass);
+			case "aggregate":
+				List<BsonDocument> pipeline = new ArrayList<>();
+				((List<?>) args[0]).forEach(stage -> pipeline.add(toBsonDocument(stage)));
+				return getIterable(AggregateIterable.class, (sort, limit) -> aggregate(ns, pipeline), (args.length > 1) ? (Class<?>) args[1] : documentClass);
+			case "listIndexes":
+				return getIterable(ListIndexesIterable.class, (sort, limit) -> listIndexes(ns), (args.length > 0) ? (Class<?>) args[0] : Document.class);
+			case "insertOne":
+				write(ns, Collections.singletonList(new InsertOneModel<>(args[0])));
+				return null;
+			case "insertMany":
+				List<WriteModel<Object>> inserts = new ArrayList<>();
+				((List<Object>) args[0]).forEach(document -> inserts.add(new InsertOneModel<>(document)));
+				write(ns, inserts);
+				return null;
+			case "replaceOne":
+				ReplaceOptions replaceOptions = new ReplaceOptions();
+				if (args.length > 2) {
+					replaceOptions = (args[2] instanceof ReplaceOptions) ? (ReplaceOptions) args[2] : replaceOptions.upsert(((UpdateOptions) args[2]).isUpsert());
+				}
+				int[] replaced = write(ns, Collections.singletonList(new ReplaceOneModel<>((Bson) args[0], args[1], replaceOptions)));
+				return UpdateResult.acknowledged(replaced[1], (long) replaced[1], null);
+			case "updateOne":
+			case "updateMany":
+				UpdateOptions updateOptions = (args.length > 2) ? (UpdateOptions) args[2] : new UpdateOptions();
+				WriteModel<Object> update = method.getName().equals("updateOne") ? new UpdateOneModel<>((Bson) args[0], (Bson) args[1], updateOptions)
+						: new UpdateManyModel<>((Bson) args[0], (Bson) args[1], updateOptions);
+				int[] updated = write(ns, Collections.singletonList(update));
+				return UpdateResult.acknowledged(updated[1], (long) updated[1], null);
+			case "deleteOne":
+			case "deleteMany":
+				WriteModel<Object> delete = method.getName().equals("deleteOne") ? new DeleteOneModel<>((Bson) args[0]) : new DeleteManyModel<>((Bson) args[0]);
+				return DeleteResult.acknowledged(write(ns, Collections.singletonList(delete))[2]);
+			case "bulkWrite":
+				int[] counts = write(ns, (List<? extends WriteModel<?>>) args[0]);
+				return BulkWriteResult.acknowledged(counts[0], counts[1], counts[2], counts[1], Collections.<BulkWriteUpsert> emptyList());
+			default:
+				throw unsupported(method);
+			}
+		});
+	}
+
+	/**
+	 * Get's an iterable of the given type; its options are ignored, but for the sort and the limit of a find
+	 */
+	@SuppressWarnings("unchecked")
+	private Object getIterable(Class<?> type, Query query, Class<?> resultClass) {
+		BsonDocument[] sort = { null };
+		int[] limit = { 0 };
+		return getProxy(type, (iterable, method, args) -> {
+			switch (method.getName()) {
+			case "sort":
+				sort[0] = (args[0] == null) ? null : toBsonDocument(args[0]);
+				return iterable;
+			case "limit":
+				limit[0] = (Integer) args[0];
+				return iterable;
+			case "first":
+				List<BsonDocument> found = query.run(sort[0], limit[0]);
+				return found.isEmpty() ? null : decode(found.get(0), resultClass);
+			case "iterator":
+			case "cursor":
+				return getCursor(decode(query.run(sort[0], limit[0]), resultClass).iterator());
+			case "forEach":
+				for (Object document : decode(query.run(sort[0], limit[0]), resultClass)) {
+					if (args[0] instanceof Consumer) {
+						((Consumer<Object>) args[0]).accept(document);
+					} else {
+						((Block<Object>) args[0]).apply(document);
+					}
+				}
+				return null;
+			default:
+				if (method.getReturnType().isAssignableFrom(type) && !method.getName().equals("map")) {
+					// projection, batchSize, cursorType, allowDiskUse and the like
+					return iterable;
+				}
+				throw unsupported(method);
+			}
+		});
+	}
+
+	/**
+	 * The documents an iterable goes over, found once it is iterated
+	 */
+	private interface Query {
+		List<BsonDocument> run(BsonDocument sort, int limit);
+	}
+
+	private MongoCursor<?> getCursor(Iterator<?> documents) {
+		return getProxy(MongoCursor.class, (cursor, method, args) -> {
+			switch (method.getName()) {
+			case "hasNext":
+				return documents.hasNext();
+			case "tryNext":
+				return documents.hasNext() ? documents.next() : null;
+			case "next":
+				if (documents.hasNext()) {
+					return documents.next();
+				}
+				if (failure != null) {
+					throw failure;
+				}
+				try {
+					Thread.sleep(Long.MAX_VALUE);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new MongoInterruptedException("interrupted while waiting for documents", e);
+				}
+				return null;
+			case "close":
+				return null;
+			default:
+				throw unsupported(method);
+			}
+		});
+	}
+
+	private synchronized List<BsonDocument> find(String namespace, BsonDocument filter, BsonDocument sort, int limit) {
+		List<BsonDocument> found = new ArrayList<>();
+		for (BsonDocument document : getCollection(namespace)) {
+			if (matches(document, filter)) {
+				found.add(document);
+			}
+		}
+		found = sort(found, sort);
+		return (limit > 0 && limit < found.size()) ? new ArrayList<>(found.subList(0, limit)) : found;
+	}
+
+	private synchronized List<BsonDocument> aggregate(String namespace, List<BsonDocument> pipeline) {
+		List<BsonDocument> documents = new ArrayList<>(getCollection(namespace));
+		for (BsonDocument stage : pipeline) {
+			String name = stage.getFirstKey();
+			BsonValue spec = stage.get(name);
+			switch (name) {
+			case "$match":
+				documents.removeIf(document -> !matches(document, spec.asDocument()));
+				break;
+			case "$sample":
+				int size = spec.asDocument().getNumber("size").intValue();
+				documents = new ArrayList<>(documents.subList(0, Math.min(size, documents.size())));
+				break;
+			case "$limit":
+				documents = new ArrayList<>(documents.subList(0, Math.min(spec.asNumber().intValue(), documents.size())));
+				break;
+			case "$sort":
+				documents = sort(documents, spec.asDocument());
+				break;
+			case "$project":
+				List<BsonDocument> projected = new ArrayList<>();
+				for (BsonDocument document : documents) {
+					BsonDocument projection = new BsonDocument();
+					if (!spec.asDocument().containsKey("_id") && document.containsKey("_id")) {
+						projection.put("_id", document.get("_id"));
+					}
+					spec.asDocument().forEach((field, include) -> {
+						if (document.containsKey(field) && !(include.isNumber() && include.asNumber().intValue() == 0) && !include.equals(BsonBoolean.FALSE)) {
+							projection.put(field, document.get(field));
+						}
+					});
+					projected.add(projection);
+				}
+				documents = projected;
+				break;
+			default:
+				throw new UnsupportedOperationException(name);
+			}
+		}
+		return documents;
+	}
+
+	private synchronized List<BsonDocument> listIndexes(String namespace) {
+		List<BsonDocument> definitions = new ArrayList<>();
+		definitions.add(new BsonDocument("v", new BsonInt32(2)).append("key", new BsonDocument("_id", new BsonInt32(1))).append("name",
+				new BsonString("_id_")));
+		getIndexes(namespace).forEach(definition -> definitions.add(definition.clone()));
+		return definitions;
+	}
+
+	/**
+	 * Shows the models to the write listener, then applies them
+	 *
+	 * @return the number of documents inserted, matched and deleted
+	 */
+	private int[] write(String namespace, List<? extends WriteModel<?>> models) {
+		try {
+			writeListener.writing(namespace, models);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MongoInterruptedException("interrupted while writing", e);
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+
+		int[] counts = new int[3];
+		synchronized (this) {
+			List<BsonDocument> documents = getCollection(namespace);
+			for (WriteModel<?> model : models) {
+				if (model instanceof InsertOneModel) {
+					documents.add(toBsonDocument(((InsertOneModel<?>) model).getDocument()));
+					counts[0]++;
+				} else if (model instanceof ReplaceOneModel) {
+					ReplaceOneModel<?> replace = (ReplaceOneModel<?>) model;
+					BsonDocument filter = toBsonDocument(replace.getFilter());
+					BsonDocument replacement = toBsonDocument(replace.getReplacement());
+					counts[1] += update(documents, filter, false, replace.getReplaceOptions().isUpsert(), document -> {
+						BsonValue id = document.get("_id");
+						document.clear();
+						if (id != null) {
+							document.put("_id", id);
+						}
+						document.putAll(replacement);
+					});
+				} else if (model instanceof UpdateOneModel || model instanceof UpdateManyModel) {
+					boolean many = model instanceof UpdateManyModel;
+					Bson filter = many ? ((UpdateManyModel<?>) model).getFilter() : ((UpdateOneModel<?>) model).getFilter();
+					Bson update = many ? ((UpdateManyModel<?>) model).getUpdate() : ((UpdateOneModel<?>) model).getUpdate();
+					UpdateOptions options = many ? ((UpdateManyModel<?>) model).getOptions() : ((UpdateOneModel<?>) model).getOptions();
+					BsonDocument operators = toBsonDocument(update);
+					counts[1] += update(documents, toBsonDocument(filter), many, options.isUpsert(), document -> applyUpdate(document, operators));
+				} else if (model instanceof DeleteOneModel || model instanceof DeleteManyModel) {
+					boolean many = model instanceof DeleteManyModel;
+					BsonDocument filter = toBsonDocument(many ? ((DeleteManyModel<?>) model).getFilter() : ((DeleteOneModel<?>) model).getFilter());
+					Iterator<BsonDocument> iterator = documents.iterator();
+					while (iterator.hasNext()) {
+						if (matches(iterator.next(), filter)) {
+							iterator.remove();
+							counts[2]++;
+							if (!many) {
+								break;
+							}
+						}
+					}
+				} else {
+					throw new UnsupportedOperationException(model.getClass().getSimpleName());
+				}
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Applies a change to the documents matching a filter, or to a new document made of the equalities of the filter
+	 *
+	 * @return the number of documents matched
+	 */
+	private static int update(List<BsonDocument> documents, BsonDocument filter, boolean many, boolean upsert, Consumer<BsonDocument> change) {
+		int matched = 0;
+		for (BsonDocument document : documents) {
+			if (matches(document, filter)) {
+				change.accept(document);
+				matched++;
+				if (!many) {
+					return matched;
+				}
+			}
+		}
+		if (matched == 0 && upsert) {
+			BsonDocument document = new BsonDocument();
+			filter.forEach((field, value) -> {
+				if (!field.startsWith("$") && !isOperator(value)) {
+					document.put(field, value);
+				}
+			});
+			change.accept(document);
+			documents.add(document);
+		}
+		return matched;
+	}
+
+	private static void applyUpdate(BsonDocument document, BsonDocument update) {
+		update.forEach((operator, fields) -> {
+			switch (operator) {
+			case "$set":
+				document.putAll(fields.asDocument());
+				break;
+			case "$unset":
+				fields.asDocument().keySet().forEach(document::remove);
+				break;
+			default:
+				throw new UnsupportedOperationException(operator);
+			}
+		});
+	}
+
+	private static boolean isOperator(BsonValue value) {
+		return value.isDocument() && !value.asDocument().isEmpty() && value.asDocument().getFirstKey().startsWith("$");
+	}
+
+	private static BsonValue getField(BsonDocument document, String path) {
+		BsonValue value = document;
+		for (String field : path.split("\\.")) {
+			if (value == null || !value.isDocument()) {
+				return null;
+			}
+			value = value.asDocument().get(field);
+		}
+		return value;
+	}
+
+	/**
+	 * Indicates if a document matches a query filter
+	 *
+	 * @param document
+	 *          a document
+	 * @param filter
+	 *          a filter of equalities and of the comparison, $exists, $in, $not, $and, $or and $nor operators
+	 * @return a boolean representing if the document matches
+	 */
+	public static boolean matches(BsonDocument document, BsonDocument filter) {
+		for (Map.Entry<String, BsonValue> condition : filter.entrySet()) {
+			String key = condition.getKey();
+			switch (key) {
+			case "$and":
+			case "$or":
+			case "$nor":
+				int matching = 0;
+				for (BsonValue clause : condition.getValue().asArray()) {
+					matching += matches(document, clause.asDocument()) ? 1 : 0;
+				}
+				int clauses = condition.getValue().asArray().size();
+				boolean matched = key.equals("$and") ? matching == clauses : key.equals("$or") ? matching > 0 : matching == 0;
+				if (!matched) {
+					return false;
+				}
+				break;
+			default:
+				if (key.startsWith("$")) {
+					throw new UnsupportedOperationException(key);
+				}
+				if (!matches(getField(document, key), condition.getValue())) {
+					return false;
+				}
+				break;
+			}
+		}
+		return true;
+	}
+
+	private static boolean matches(BsonValue value, BsonValue condition) {
+		if (!isOperator(condition)) {
+			return isEqual(value, condition);
+		}
+		for (Map.Entry<String, BsonValue> operator : condition.asDocument().entrySet()) {
+			BsonValue operand = operator.getValue();
+			boolean matched;
+			switch (operator.getKey()) {
+			case "$eq":
+				matched = isEqual(value, operand);
+				break;
+			case "$ne":
+				matched = !isEqual(value, operand);
+				break;
+			case "$gt":
+				matched = value != null && compare(value, operand) > 0;
+				break;
+			case "$gte":
+				matched = value != null && compare(value, operand) >= 0;
+				break;
+			case "$lt":
+				matched = value != null && compare(value, operand) < 0;
+				break;
+			case "$lte":
+				matched = value != null && compare(value, operand) <= 0;
+				break;
+			case "$in":
+				matched = operand.asArray().stream().anyMatch(candidate -> isEqual(value, candidate));
+				break;
+			case "$nin":
+				matched = operand.asArray().stream().noneMatch(candidate -> isEqual(value, candidate));
+				break;
+			case "$exists":
+				matched = (value != null) == (operand.isBoolean() ? operand.asBoolean().getValue() : operand.asNumber().intValue() != 0);
+				break;
+			case "$not":
+				matched = !matches(value, operand);
+				break;
+			default:
+				throw new UnsupportedOperationException(operator.getKey());
+			}
+			if (!matched) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isEqual(BsonValue value, BsonValue expected) {
+		if (expected.isRegularExpression()) {
+			return value != null && value.isString()
+					&& Pattern.compile(expected.asRegularExpression().getPattern()).matcher(value.asString().getValue()).find();
+		}
+		if (value == null) {
+			return expected.isNull();
+		}
+		return compare(value, expected) == 0 && (value.isNumber() || value.equals(expected));
+	}
+
+	/**
+	 * Compares two values; the values of different types are ordered by type, though not in the order of the server
+	 */
+	public static int compare(BsonValue a, BsonValue b) {
+		if (a == null || b == null) {
+			return (a == null) ? ((b == null) ? 0 : -1) : 1;
+		}
+		if (a.isNumber() && b.isNumber()) {
+			return Double.compare(a.asNumber().doubleValue(), b.asNumber().doubleValue());
+		}
+		if (a.getBsonType() != b.getBsonType()) {
+			return Integer.compare(a.getBsonType().getValue(), b.getBsonType().getValue());
+		}
+		switch (a.getBsonType()) {
+		case STRING:
+			return a.asString().getValue().compareTo(b.asString().getValue());
+		case TIMESTAMP:
+			return a.asTimestamp().compareTo(b.asTimestamp());
+		case BOOLEAN:
+			return Boolean.compare(a.asBoolean().getValue(), b.asBoolean().getValue());
+		case OBJECT_ID:
+			return a.asObjectId().getValue().compareTo(b.asObjectId().getValue());
+		case DATE_TIME:
+			return Long.compare(a.asDateTime().getValue(), b.asDateTime().getValue());
+		default:
+			return a.equals(b) ? 0 : a.toString().compareTo(b.toString());
+		}
+	}
+
+	private static List<BsonDocument> sort(List<BsonDocument> documents, BsonDocument sort) {
+		List<BsonDocument> sorted = new ArrayList<>(documents);
+		if (sort == null) {
+			return sorted;
+		}
+		Comparator<BsonDocument> comparator = (a, b) -> 0;
+		for (Map.Entry<String, BsonValue> key : sort.entrySet()) {
+			int direction = key.getValue().asNumber().intValue();
+			if (key.getKey().equals("$natural")) {
+				comparator = comparator.thenComparing((a, b) -> direction * Integer.compare(documents.indexOf(a), documents.indexOf(b)));
+			} else {
+				comparator = comparator.thenComparing((a, b) -> direction * compare(getField(a, key.getKey()), getField(b, key.getKey())));
+			}
+		}
+		sorted.sort(comparator);
+		return sorted;
+	}
+
+	private static long getSize(BsonDocument document) {
+		return new RawBsonDocument(document, new BsonDocumentCodec()).getByteBuffer().remaining();
+	}
+
+	/**
+	 * Get's a copy of a document, of any class the default codecs know, that the cluster can change
+	 */
+	private static BsonDocument toBsonDocument(Object document) {
+		BsonDocument source;
+		if (document instanceof BsonDocument) {
+			source = (BsonDocument) document;
+		} else if (document instanceof Bson) {
+			// a Document, or a filter, an update or a sort of the builders
+			source = ((Bson) document).toBsonDocument(BsonDocument.class, REGISTRY);
+		} else {
+			source = BsonDocumentWrapper.asBsonDocument(document, REGISTRY);
+		}
+		BsonDocument copy = new BsonDocument();
+		source.forEach((field, value) -> copy.put(field, value.isDocument() ? toBsonDocument(value.asDocument()) : value));
+		return copy;
+	}
+
+	private static Object decode(BsonDocument document, Class<?> documentClass) {
+		if (documentClass == BsonDocument.class) {
+			return toBsonDocument(document);
+		}
+		return REGISTRY.get(documentClass).decode(new BsonDocumentReader(document), DecoderContext.builder().build());
+	}
+
+	private static List<Object> decode(List<BsonDocument> documents, Class<?> documentClass) {
+		List<Object> decoded = new ArrayList<>(documents.size());
+		documents.forEach(document -> decoded.add(decode(document, documentClass)));
+		return decoded;
+	}
+}
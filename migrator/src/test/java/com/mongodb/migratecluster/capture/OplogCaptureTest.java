@@ -0,0 +1,69 @@
+package com.mongodb.migratecluster.capture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.BsonTimestamp;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.mongodb.migratecluster.commandline.ApplicationOptions;
+import com.mongodb.migratecluster.metrics.MetricsRegistry;
+import com.mongodb.migratecluster.oplog.OplogBuffer;
+import com.mongodb.migratecluster.oplog.OplogEntry;
+
+/**
+ * File: OplogCaptureTest Author: Shyam Arjarapu Date: 2/6/19 9:30 AM Description:
+ */
+public class OplogCaptureTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private List<OplogEntry> getEntries(int from, int to) {
+		List<OplogEntry> entries = new ArrayList<>();
+		for (int i = from; i < to; i++) {
+			BsonDocument document = new BsonDocument("ts", new BsonTimestamp(100 + i / 2, i)).append("op", new BsonString("i")).append("ns",
+					new BsonString("app.users")).append("o", new BsonDocument("_id", new BsonInt32(i)));
+			entries.add(new OplogEntry(document, 60));
+		}
+		return entries;
+	}
+
+	@Test
+	public void capturedEntriesAreReplayedInOrder() throws InterruptedException {
+		ApplicationOptions options = new ApplicationOptions();
+		options.setCaptureDirectory(folder.getRoot().getPath());
+		options.setCaptureDurationSeconds(1);
+		// a new file after every entry or so
+		options.setCaptureFileSizeMB(0);
+		options.setReplaySpeed(0);
+
+		OplogBuffer<OplogEntry> captured = new OplogBuffer<>(1024 * 1024);
+		captured.put(getEntries(0, 3), 180);
+		captured.put(getEntries(3, 6), 180);
+		new OplogCapture(options, new MetricsRegistry()).capture(captured);
+		Assert.assertEquals(6, OplogReplay.getFiles(folder.getRoot().toPath()).size());
+
+		OplogBuffer<OplogEntry> replayed = new OplogBuffer<>(1024 * 1024);
+		new OplogReplay(options, replayed, new BsonTimestamp(101, 0), new MetricsRegistry()).run();
+
+		List<OplogEntry> entries = new ArrayList<>();
+		Assert.assertFalse(replayed.isFinished());
+		replayed.drainTo(entries, 0, TimeUnit.MILLISECONDS);
+		// the replay closed the buffer behind its last entry, so the writer knows when to stop
+		Assert.assertTrue(replayed.isFinished());
+		// the entries older than the resume position are skipped
+		Assert.assertEquals(4, entries.size());
+		for (int i = 0; i < entries.size(); i++) {
+			Assert.assertEquals(new BsonInt32(i + 2), entries.get(i).getDocumentId());
+			Assert.assertEquals(60, entries.get(i).getSizeInBytes());
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package com.mongodb.migratecluster.commandline;
+
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * File: ApplicationOptionsTest Author: Shyam Arjarapu Date: 2/1/19 9:30 AM Description:
+ */
+public class ApplicationOptionsTest {
+
+	@Test
+	public void shardClusterUsesTheHostsAndReplicaSetOfTheShard() {
+		Assert.assertEquals("host1:27017,host2:27017/?replicaSet=rs0", ApplicationOptions.getShardCluster("mongos:27017", "rs0/host1:27017,host2:27017"));
+	}
+
+	@Test
+	public void shardClusterKeepsCredentialsAndOptions() {
+		String cluster = ApplicationOptions.getShardCluster("user:pwd@mongos:27017/?authSource=admin", "rs1/host3:27017");
+		Assert.assertEquals("user:pwd@host3:27017/?authSource=admin&replicaSet=rs1", cluster);
+	}
+
+	@Test
+	public void standaloneShardHasNoReplicaSet() {
+		Assert.assertEquals("host4:27017/", ApplicationOptions.getShardCluster("mongos:27017", "host4:27017"));
+	}
+
+	@Test
+	public void targetOptionsOverrideTheTargetAndAddToTheFilters() throws IOException {
+		ApplicationOptions options = new ObjectMapper().readValue("{ \"sourceCluster\": \"source:27017\", \"targetCluster\": \"target:27017\", "
+				+ "\"writerThreads\": 8, \"blackListFilter\": [ { \"database\": \"admin\", \"collection\": \"{}\" } ], "
+				+ "\"targets\": [ { \"name\": \"analytics\", \"targetCluster\": \"analytics:27017\", \"targetConnection\": { \"maxPoolSize\": 8 }, "
+				+ "\"blackListFilter\": [ { \"database\": \"audit\", \"collection\": \"{}\" } ], "
+				+ "\"whiteListFilter\": [ { \"database\": \"sales\", \"collection\": \"{}\" } ] } ] }", ApplicationOptions.class);
+		Assert.assertTrue(options.isFanOut());
+
+		ApplicationOptions target = options.getTargetOptions(options.getTargets().get(0));
+		Assert.assertEquals("analytics:27017", target.getTargetCluster());
+		Assert.assertEquals(Integer.valueOf(8), target.getTargetConnection().getMaxPoolSize());
+		Assert.assertEquals("source:27017", target.getSourceCluster());
+		Assert.assertEquals(8, target.getWriterThreads());
+		Assert.assertEquals("migrate_mongo_cluster", target.getStateDatabase());
+		Assert.assertEquals(2, target.getBlackListFilter().size());
+		Assert.assertEquals("sales", target.getWhiteListFilter().get(0).getDatabase());
+		Assert.assertFalse(target.isFanOut());
+
+		// the filters of the application are left as they are
+		Assert.assertEquals(1, options.getBlackListFilter().size());
+		Assert.assertTrue(options.getWhiteListFilter().isEmpty());
+	}
+}
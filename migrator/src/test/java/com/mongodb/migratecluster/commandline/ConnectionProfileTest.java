@@ -0,0 +1,50 @@
+package com.mongodb.migratecluster.commandline;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.MongoCompressor;
+import com.mongodb.ReadPreference;
+import com.mongodb.Tag;
+import com.mongodb.TagSet;
+
+/**
+ * File: ConnectionProfileTest Author: Shyam Arjarapu Date: 2/12/19 8:30 AM Description:
+ */
+public class ConnectionProfileTest {
+
+	@Test
+	public void profileIsTurnedIntoClientOptions() throws IOException {
+		ConnectionProfile profile = new ObjectMapper().readValue("{ \"compressors\": [ \"snappy\", \"zlib\" ], \"zlibCompressionLevel\": 6, "
+				+ "\"minPoolSize\": 4, \"maxPoolSize\": 64, \"batchSize\": 5000, \"localThresholdMS\": 30, \"readPreference\": \"secondary\", "
+				+ "\"readPreferenceTags\": [ { \"dc\": \"east\" }, {} ] }", ConnectionProfile.class);
+		MongoClientOptions options = profile.getClientOptions().build();
+
+		Assert.assertEquals(2, options.getCompressorList().size());
+		Assert.assertEquals("snappy", options.getCompressorList().get(0).getName());
+		Assert.assertEquals(Integer.valueOf(6), options.getCompressorList().get(1).getProperty(MongoCompressor.LEVEL, 0));
+		Assert.assertEquals(4, options.getMinConnectionsPerHost());
+		Assert.assertEquals(64, options.getConnectionsPerHost());
+		Assert.assertEquals(30, options.getLocalThreshold());
+		Assert.assertEquals(Integer.valueOf(5000), profile.getBatchSize());
+		Assert.assertEquals(ReadPreference.secondary(Arrays.asList(new TagSet(new Tag("dc", "east")), new TagSet())), options.getReadPreference());
+	}
+
+	@Test
+	public void emptyProfileKeepsTheDriverDefaults() {
+		MongoClientOptions options = new ConnectionProfile().getClientOptions().build();
+		Assert.assertEquals(MongoClientOptions.builder().build(), options);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void zstdIsRejected() {
+		ConnectionProfile profile = new ConnectionProfile();
+		profile.setCompressors(Arrays.asList("zstd"));
+		profile.getClientOptions();
+	}
+}
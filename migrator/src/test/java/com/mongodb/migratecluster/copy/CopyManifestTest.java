@@ -0,0 +1,124 @@
+package com.mongodb.migratecluster.copy;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.bson.BsonArray;
+import org.bson.BsonBoolean;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.BsonTimestamp;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mongodb.MongoClient;
+import com.mongodb.migratecluster.FakeCluster;
+import com.mongodb.migratecluster.model.Resource;
+
+/**
+ * File: CopyManifestTest Author: Shyam Arjarapu Date: 2/15/19 9:40 AM Description:
+ */
+public class CopyManifestTest {
+
+	private final Resource users = new Resource("app", "users");
+	private final Resource orders = new Resource("app", "orders");
+	private final FakeCluster target = new FakeCluster();
+	private final MongoClient client = target.getClient();
+
+	@After
+	public void tearDown() {
+		client.close();
+	}
+
+	private List<CollectionRange> getRanges() {
+		return Arrays.asList(new CollectionRange(users, 0, null, new BsonString("b")), new CollectionRange(users, 1, new BsonString("b"), new BsonString("d")),
+				new CollectionRange(users, 2, new BsonString("d"), null), new CollectionRange(orders, 0, null, null));
+	}
+
+	private List<String> describe(List<CollectionRange> ranges) {
+		return ranges.stream().map(range -> String.format("%s#%d %s..%s", range.getResource().getNamespace(), range.getIndex(),
+				(range.getMin() == null) ? null : range.getMin().asString().getValue(), (range.getMax() == null) ? null : range.getMax().asString().getValue()))
+				.collect(Collectors.toList());
+	}
+
+	@Test
+	public void nothingIsResumedWithoutAPlan() {
+		CopyManifest manifest = new CopyManifest(client, "state");
+
+		Assert.assertNull(manifest.loadStartPosition());
+		Assert.assertTrue(manifest.loadUnfinishedRanges().isEmpty());
+		Assert.assertTrue(manifest.loadPendingIndexes().isEmpty());
+	}
+
+	@Test
+	public void plannedRangesAreLoadedBackInOrder() {
+		CopyManifest manifest = new CopyManifest(client, "state");
+		manifest.savePlan(new BsonTimestamp(5, 1), getRanges(), Collections.emptyMap());
+
+		Assert.assertEquals(new BsonTimestamp(5, 1), manifest.loadStartPosition());
+		Assert.assertEquals(Arrays.asList("app.orders#0 null..null", "app.users#0 null..b", "app.users#1 b..d", "app.users#2 d..null"),
+				describe(manifest.loadUnfinishedRanges()));
+	}
+
+	@Test
+	public void aRangeInProgressResumesAfterItsLastIdAndADoneRangeIsSkipped() {
+		CopyManifest manifest = new CopyManifest(client, "state");
+		List<CollectionRange> ranges = getRanges();
+		manifest.savePlan(new BsonTimestamp(5, 1), ranges, Collections.emptyMap());
+
+		manifest.saveProgress(ranges.get(0), new BsonString("a7"));
+		manifest.saveProgress(ranges.get(1), new BsonString("c"));
+		manifest.markDone(ranges.get(1));
+		manifest.markDone(ranges.get(3));
+
+		List<CollectionRange> unfinished = manifest.loadUnfinishedRanges();
+		Assert.assertEquals(Arrays.asList("app.users#0 a7..b", "app.users#2 d..null"), describe(unfinished));
+		// the resumed range keeps its key, so its progress is still recorded
+		manifest.saveProgress(unfinished.get(0), new BsonString("a9"));
+		Assert.assertEquals(new BsonString("a9"), manifest.loadUnfinishedRanges().get(0).getMin());
+	}
+
+	@Test
+	public void aNewPlanReplacesThePreviousOne() {
+		CopyManifest manifest = new CopyManifest(client, "state");
+		List<CollectionRange> ranges = getRanges();
+		manifest.savePlan(new BsonTimestamp(5, 1), ranges, Collections.emptyMap());
+		manifest.saveProgress(ranges.get(0), new BsonString("a7"));
+
+		manifest.savePlan(new BsonTimestamp(9, 1), Collections.singletonList(new CollectionRange(users, 0, null, null)), Collections.emptyMap());
+
+		Assert.assertEquals(new BsonTimestamp(9, 1), manifest.loadStartPosition());
+		Assert.assertEquals(Collections.singletonList("app.users#0 null..null"), describe(manifest.loadUnfinishedRanges()));
+		Assert.assertEquals(2, target.getDocuments("state.copyManifest").size());
+	}
+
+	@Test
+	public void deferredIndexesArePendingUntilBuilt() {
+		CopyManifest manifest = new CopyManifest(client, "state");
+		Map<Resource, List<BsonDocument>> indexes = new LinkedHashMap<>();
+		indexes.put(users, Collections.singletonList(new BsonDocument("key", new BsonDocument("email", new BsonInt32(1))).append("name", new BsonString("email_1"))
+				.append("sparse", BsonBoolean.TRUE)));
+		indexes.put(orders, Arrays.asList(new BsonDocument("key", new BsonDocument("user", new BsonInt32(1))).append("name", new BsonString("user_1")),
+				new BsonDocument("key", new BsonDocument("ts", new BsonInt32(-1))).append("name", new BsonString("ts_-1"))));
+		manifest.savePlan(new BsonTimestamp(5, 1), getRanges(), indexes);
+
+		// the index documents are not ranges
+		Assert.assertEquals(4, manifest.loadUnfinishedRanges().size());
+
+		Map<Resource, List<BsonDocument>> pending = manifest.loadPendingIndexes();
+		Assert.assertEquals(Arrays.asList("app.orders", "app.users"), pending.keySet().stream().map(Resource::getNamespace).collect(Collectors.toList()));
+		List<BsonDocument> definitions = pending.values().iterator().next();
+		Assert.assertEquals(Arrays.asList("user_1", "ts_-1"), definitions.stream().map(index -> index.getString("name").getValue()).collect(Collectors.toList()));
+
+		manifest.markIndexesBuilt(orders);
+		pending = manifest.loadPendingIndexes();
+		Assert.assertEquals(Collections.singletonList("app.users"), pending.keySet().stream().map(Resource::getNamespace).collect(Collectors.toList()));
+		Assert.assertEquals(new BsonArray(indexes.get(users)), new BsonArray(pending.values().iterator().next()));
+	}
+}
@@ -0,0 +1,69 @@
+package com.mongodb.migratecluster.copy;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.bson.BsonBoolean;
+import org.bson.BsonDocument;
+import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mongodb.MongoClient;
+import com.mongodb.migratecluster.FakeCluster;
+import com.mongodb.migratecluster.model.Resource;
+
+/**
+ * File: IndexBuilderTest Author: Shyam Arjarapu Date: 2/16/19 9:20 AM Description:
+ */
+public class IndexBuilderTest {
+
+	private final Resource users = new Resource("app", "users");
+	private final FakeCluster source = new FakeCluster();
+	private final FakeCluster target = new FakeCluster();
+	private final MongoClient sourceClient = source.getClient();
+	private final MongoClient targetClient = target.getClient();
+
+	@After
+	public void tearDown() {
+		sourceClient.close();
+		targetClient.close();
+	}
+
+	private BsonDocument getIndex(String field) {
+		return new BsonDocument("key", new BsonDocument(field, new BsonInt32(1))).append("name", new BsonString(field + "_1"));
+	}
+
+	private List<String> getNames(List<BsonDocument> definitions) {
+		return definitions.stream().map(definition -> definition.getString("name").getValue()).collect(Collectors.toList());
+	}
+
+	@Test
+	public void uniqueIndexesAreCreatedBeforeTheCopyAndTheOthersDeferred() {
+		source.addIndexes(users.getNamespace(), Arrays.asList(getIndex("email").append("unique", BsonBoolean.TRUE), getIndex("age"),
+				getIndex("login").append("unique", new BsonDouble(1)), getIndex("city").append("unique", BsonBoolean.FALSE)));
+		IndexBuilder builder = new IndexBuilder(sourceClient, targetClient, 1);
+
+		List<BsonDocument> deferred = builder.createUniqueIndexes(users, builder.getIndexes(users));
+
+		Assert.assertEquals(Arrays.asList("age_1", "city_1"), getNames(deferred));
+		Assert.assertEquals(Arrays.asList("email_1", "login_1"), getNames(target.getSecondaryIndexes(users.getNamespace())));
+
+		builder.build(Collections.singletonMap(users, deferred), resource -> Assert.assertSame(users, resource));
+		Assert.assertEquals(Arrays.asList("email_1", "login_1", "age_1", "city_1"), getNames(target.getSecondaryIndexes(users.getNamespace())));
+	}
+
+	@Test
+	public void aCollectionWithoutUniqueIndexesRunsNoCommandBeforeTheCopy() {
+		source.addIndexes(users.getNamespace(), Collections.singletonList(getIndex("age")));
+		IndexBuilder builder = new IndexBuilder(sourceClient, targetClient, 1);
+
+		Assert.assertEquals(Collections.singletonList("age_1"), getNames(builder.createUniqueIndexes(users, builder.getIndexes(users))));
+		Assert.assertTrue(target.getCommands().isEmpty());
+	}
+}
@@ -0,0 +1,114 @@
+package com.mongodb.migratecluster.copy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mongodb.MongoClient;
+import com.mongodb.migratecluster.FakeCluster;
+import com.mongodb.migratecluster.model.Resource;
+
+/**
+ * File: RangeSplitterTest Author: Shyam Arjarapu Date: 2/15/19 9:10 AM Description:
+ */
+public class RangeSplitterTest {
+
+	private final Resource resource = new Resource("app", "users");
+	private final FakeCluster source = new FakeCluster();
+	private final MongoClient client = source.getClient();
+
+	@After
+	public void tearDown() {
+		client.close();
+	}
+
+	private void addDocuments(BsonValue... ids) {
+		List<BsonDocument> documents = new ArrayList<>();
+		for (BsonValue id : ids) {
+			documents.add(new BsonDocument("_id", id));
+		}
+		source.addDocuments(resource.getNamespace(), documents);
+	}
+
+	/**
+	 * Answers splitVector with the given keys, as the server would for the documents of the collection
+	 */
+	private void setSplitKeys(BsonValue... keys) {
+		source.setCommandHandler((databaseName, command) -> {
+			Assert.assertEquals(resource.getNamespace(), command.getString("splitVector").getValue());
+			BsonArray splitKeys = new BsonArray();
+			for (BsonValue key : keys) {
+				splitKeys.add(new BsonDocument("_id", key));
+			}
+			return new BsonDocument("splitKeys", splitKeys);
+		});
+	}
+
+	private void assertRange(CollectionRange range, int index, BsonValue min, BsonValue max) {
+		Assert.assertEquals(index, range.getIndex());
+		Assert.assertEquals(min, range.getMin());
+		Assert.assertEquals(max, range.getMax());
+		Assert.assertSame(resource, range.getResource());
+	}
+
+	@Test
+	public void anEmptyCollectionIsOneUnboundedRange() {
+		List<CollectionRange> ranges = new RangeSplitter(client, 1).split(resource);
+
+		Assert.assertEquals(1, ranges.size());
+		assertRange(ranges.get(0), 0, null, null);
+		// the collection is not even split
+		Assert.assertEquals(Collections.singletonList("collStats"), source.getCommands());
+	}
+
+	@Test
+	public void aCollectionOfASingleKeyIsNotSplit() {
+		addDocuments(new BsonString("a"));
+		setSplitKeys();
+		List<CollectionRange> ranges = new RangeSplitter(client, 1).split(resource);
+
+		Assert.assertEquals(1, ranges.size());
+		assertRange(ranges.get(0), 0, null, null);
+	}
+
+	@Test
+	public void splitKeysOfAnyTypeBoundTheRanges() {
+		addDocuments(new BsonString("a"), new BsonString("b"), new BsonString("c"), new BsonString("d"), new BsonString("e"));
+		setSplitKeys(new BsonString("b"), new BsonString("d"));
+		List<CollectionRange> ranges = new RangeSplitter(client, 1).split(resource);
+
+		Assert.assertEquals(3, ranges.size());
+		assertRange(ranges.get(0), 0, null, new BsonString("b"));
+		assertRange(ranges.get(1), 1, new BsonString("b"), new BsonString("d"));
+		assertRange(ranges.get(2), 2, new BsonString("d"), null);
+	}
+
+	@Test
+	public void sampledIdsAreUsedWithoutSplitVector() {
+		// every 10th of the sorted samples is a split point; a random cursor may return a document more than once, so
+		// the last _id is sampled 20 times and is a split point only once
+		List<BsonValue> ids = new ArrayList<>();
+		for (int i = 0; i < 40; i++) {
+			ids.add(new BsonInt32(Math.min(i, 20)));
+		}
+		addDocuments(ids.toArray(new BsonValue[0]));
+		List<CollectionRange> ranges = new RangeSplitter(client, 1).split(resource);
+
+		// the cluster does not know splitVector
+		Assert.assertEquals(Arrays.asList("collStats", "splitVector"), source.getCommands());
+		Assert.assertEquals(3, ranges.size());
+		assertRange(ranges.get(0), 0, null, new BsonInt32(10));
+		assertRange(ranges.get(1), 1, new BsonInt32(10), new BsonInt32(20));
+		assertRange(ranges.get(2), 2, new BsonInt32(20), null);
+	}
+}
@@ -0,0 +1,76 @@
+package com.mongodb.migratecluster.metrics;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * File: MetricsRegistryTest Author: Shyam Arjarapu Date: 1/28/19 10:05 AM Description:
+ */
+public class MetricsRegistryTest {
+
+	@Test
+	public void histogramPercentilesAreBoundedByTheirBucket() {
+		Histogram histogram = new Histogram();
+		for (int i = 1; i <= 100; i++) {
+			histogram.update(i);
+		}
+
+		Assert.assertEquals(100, histogram.getCount());
+		Assert.assertEquals(50.5, histogram.getMean(), 0.001);
+		Assert.assertEquals(63, histogram.getPercentile(0.50));
+		Assert.assertEquals(100, histogram.getPercentile(0.99));
+		Assert.assertEquals(100, histogram.getMax());
+	}
+
+	@Test
+	public void emptyHistogramReportsZero() {
+		Histogram histogram = new Histogram();
+		Assert.assertEquals(0, histogram.getPercentile(0.99));
+		Assert.assertEquals(0, histogram.getMean(), 0);
+	}
+
+	@Test
+	public void meterRateIsUpdatedOnTick() {
+		MetricsRegistry registry = new MetricsRegistry();
+		Meter meter = registry.meter("oplog.read");
+		long start = System.nanoTime();
+		registry.tick(start);
+
+		meter.mark(500);
+		registry.tick(start + TimeUnit.MILLISECONDS.toNanos(500));
+
+		Assert.assertEquals(500, meter.getCount());
+		Assert.assertEquals(1000, meter.getRate(), 0.001);
+	}
+
+	@Test
+	public void snapshotFlattensEveryMetric() {
+		MetricsRegistry registry = new MetricsRegistry();
+		registry.meter("oplog.read").mark(3);
+		registry.histogram("bulkWrite.latencyMicros").update(10);
+		registry.gauge("lag.read", () -> 7L);
+
+		Map<String, Number> snapshot = registry.getSnapshot();
+		Assert.assertEquals(3L, snapshot.get("oplog.read.count"));
+		Assert.assertEquals(10L, snapshot.get("bulkWrite.latencyMicros.p99"));
+		Assert.assertEquals(7L, snapshot.get("lag.read"));
+		Assert.assertTrue(snapshot.containsKey("bulkWrite.latencyMicros.max"));
+	}
+
+	@Test
+	public void prefixedRegistryRecordsIntoItsParent() {
+		MetricsRegistry registry = new MetricsRegistry();
+		MetricsRegistry target = registry.withPrefix("target.analytics.");
+		registry.meter("oplog.applied").mark(1);
+		target.meter("oplog.applied").mark(2);
+		target.withPrefix("reader.").gauge("queue.entries", () -> 5L);
+
+		Map<String, Number> snapshot = registry.getSnapshot();
+		Assert.assertEquals(1L, snapshot.get("oplog.applied.count"));
+		Assert.assertEquals(2L, snapshot.get("target.analytics.oplog.applied.count"));
+		Assert.assertEquals(5L, snapshot.get("target.analytics.reader.queue.entries"));
+	}
+}
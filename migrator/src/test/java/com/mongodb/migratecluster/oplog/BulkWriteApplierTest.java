@@ -0,0 +1,134 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.MongoNamespace;
+import com.mongodb.MongoSocketReadException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.WriteConcernError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.migratecluster.metrics.MetricsRegistry;
+
+/**
+ * File: BulkWriteApplierTest Author: Shyam Arjarapu Date: 2/14/19 8:30 AM Description:
+ */
+public class BulkWriteApplierTest {
+
+	private final List<List<Integer>> sent = new ArrayList<>();
+
+	private List<WriteModel<BsonDocument>> getInserts(int... ids) {
+		List<WriteModel<BsonDocument>> models = new ArrayList<>();
+		for (int id : ids) {
+			models.add(new InsertOneModel<>(new BsonDocument("_id", new BsonInt32(id))));
+		}
+		return models;
+	}
+
+	/**
+	 * Get's a collection recording the _ids of every bulk write sent to it, answering the n-th one with the given
+	 * failure, or success when it gives null
+	 */
+	@SuppressWarnings("unchecked")
+	private MongoCollection<BsonDocument> getCollection(Function<Integer, RuntimeException> failures) {
+		return (MongoCollection<BsonDocument>) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { MongoCollection.class },
+				(proxy, method, args) -> {
+					switch (method.getName()) {
+					case "getNamespace":
+						return new MongoNamespace("db.coll");
+					case "bulkWrite":
+						List<Integer> ids = new ArrayList<>();
+						for (WriteModel<BsonDocument> model : (List<WriteModel<BsonDocument>>) args[0]) {
+							ids.add(((InsertOneModel<BsonDocument>) model).getDocument().getInt32("_id").getValue());
+						}
+						sent.add(ids);
+						RuntimeException failure = failures.apply(sent.size());
+						if (failure != null) {
+							throw failure;
+						}
+						return BulkWriteResult.acknowledged(ids.size(), 0, 0, 0, Collections.emptyList());
+					default:
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+	}
+
+	private MongoBulkWriteException getWriteError(int code, int index) {
+		return new MongoBulkWriteException(BulkWriteResult.acknowledged(index, 0, 0, 0, Collections.emptyList()),
+				Arrays.asList(new BulkWriteError(code, "failed", new BsonDocument(), index)), null, new ServerAddress());
+	}
+
+	@Test
+	public void bulkIsResumedRightAfterTheFailedOperation() {
+		BulkWriteApplier applier = new BulkWriteApplier(new MetricsRegistry(), 3, 1);
+		MongoCollection<BsonDocument> collection = getCollection(n -> (n == 1) ? getWriteError(11000, 1) : null);
+
+		Assert.assertEquals(2, applier.apply(collection, getInserts(1, 2, 3, 4)));
+		Assert.assertEquals(Arrays.asList(Arrays.asList(1, 2, 3, 4), Arrays.asList(3, 4)), sent);
+		Assert.assertEquals(Long.valueOf(1), applier.getErrorCounts().get(11000));
+	}
+
+	@Test
+	public void transientFailuresAreRetriedFromTheFirstUnappliedOperation() {
+		BulkWriteApplier applier = new BulkWriteApplier(new MetricsRegistry(), 3, 1);
+		WriteConcernError writeConcernError = new WriteConcernError(64, "WriteConcernFailed", "waiting for replication timed out", new BsonDocument());
+		MongoCollection<BsonDocument> collection = getCollection(n -> {
+			switch (n) {
+			case 1:
+				return getWriteError(11000, 0);
+			case 2:
+				return new MongoSocketReadException("connection reset", new ServerAddress());
+			case 3:
+				return new MongoBulkWriteException(BulkWriteResult.acknowledged(2, 0, 0, 0, Collections.emptyList()), Collections.emptyList(),
+						writeConcernError, new ServerAddress());
+			default:
+				return null;
+			}
+		});
+
+		Assert.assertEquals(4, applier.apply(collection, getInserts(1, 2, 3)));
+		Assert.assertEquals(Arrays.asList(Arrays.asList(1, 2, 3), Arrays.asList(2, 3), Arrays.asList(2, 3), Arrays.asList(2, 3)), sent);
+	}
+
+	@Test
+	public void lastingTransientFailureIsThrown() {
+		BulkWriteApplier applier = new BulkWriteApplier(new MetricsRegistry(), 3, 1);
+		MongoCollection<BsonDocument> collection = getCollection(n -> new MongoSocketReadException("connection reset", new ServerAddress()));
+
+		try {
+			applier.apply(collection, getInserts(1, 2));
+			Assert.fail("the failure must be thrown once the attempts are used up");
+		} catch (MongoSocketReadException e) {
+			Assert.assertEquals(3, sent.size());
+		}
+	}
+
+	@Test
+	public void otherFailuresAreThrownRightAway() {
+		BulkWriteApplier applier = new BulkWriteApplier(new MetricsRegistry(), 3, 1);
+		MongoCollection<BsonDocument> collection = getCollection(n -> new MongoException(13, "not authorized"));
+
+		try {
+			applier.apply(collection, getInserts(1));
+			Assert.fail("the failure must be thrown");
+		} catch (MongoException e) {
+			Assert.assertEquals(13, e.getCode());
+			Assert.assertEquals(1, sent.size());
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package com.mongodb.migratecluster.oplog;
+
+import org.bson.BsonDocument;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * File: ChangeEventAdapterTest Author: Shyam Arjarapu Date: 2/4/19 9:00 AM Description:
+ */
+public class ChangeEventAdapterTest {
+
+	private OplogEntry adapt(String event) {
+		return ChangeEventAdapter.toOplogEntry(BsonDocument.parse(event), 100);
+	}
+
+	@Test
+	public void insertBecomesAnInsertEntry() {
+		OplogEntry entry = adapt("{ _id: { _data: 'a' }, operationType: 'insert', clusterTime: Timestamp(10, 2), ns: { db: 'app', coll: 'users' }, "
+				+ "documentKey: { _id: 1 }, fullDocument: { _id: 1, name: 'x' } }");
+
+		Assert.assertEquals(BsonDocument.parse("{ ts: Timestamp(10, 2), op: 'i', ns: 'app.users', o: { _id: 1, name: 'x' } }"), entry.getDocument());
+		Assert.assertEquals(BsonDocument.parse("{ _data: 'a' }"), entry.getResumeToken());
+	}
+
+	@Test
+	public void updateDescriptionBecomesSetAndUnset() {
+		OplogEntry entry = adapt("{ _id: { _data: 'b' }, operationType: 'update', clusterTime: Timestamp(10, 3), ns: { db: 'app', coll: 'users' }, "
+				+ "documentKey: { _id: 1 }, updateDescription: { updatedFields: { 'a.b': 2 }, removedFields: [ 'c' ] } }");
+
+		Assert.assertEquals("u", entry.getOperation());
+		Assert.assertEquals(BsonDocument.parse("{ $set: { 'a.b': 2 }, $unset: { c: true } }"), entry.getObject());
+		Assert.assertEquals(BsonDocument.parse("{ _id: 1 }"), entry.getObject2());
+	}
+
+	@Test
+	public void replaceIsAppliedAsAnUpsertOfTheWholeDocument() {
+		OplogEntry entry = adapt("{ _id: { _data: 'e' }, operationType: 'replace', clusterTime: Timestamp(10, 6), ns: { db: 'app', coll: 'users' }, "
+				+ "documentKey: { _id: 1 }, fullDocument: { _id: 1, name: 'y' } }");
+
+		WriteModel<BsonDocument> model = OplogApplyWorker.getWriteModelForOperation(entry);
+		Assert.assertTrue(model instanceof ReplaceOneModel);
+		ReplaceOneModel<BsonDocument> replace = (ReplaceOneModel<BsonDocument>) model;
+		Assert.assertEquals(BsonDocument.parse("{ _id: 1 }"), replace.getFilter());
+		Assert.assertEquals(BsonDocument.parse("{ _id: 1, name: 'y' }"), replace.getReplacement());
+		Assert.assertTrue(replace.getReplaceOptions().isUpsert());
+	}
+
+	@Test
+	public void dropAndRenameBecomeCommands() {
+		OplogEntry drop = adapt("{ _id: { _data: 'c' }, operationType: 'drop', clusterTime: Timestamp(10, 4), ns: { db: 'app', coll: 'users' } }");
+		Assert.assertEquals("app.$cmd", drop.getNamespace());
+		Assert.assertEquals(BsonDocument.parse("{ drop: 'users' }"), drop.getObject());
+
+		OplogEntry rename = adapt("{ _id: { _data: 'd' }, operationType: 'rename', clusterTime: Timestamp(10, 5), ns: { db: 'app', coll: 'a' }, "
+				+ "to: { db: 'app', coll: 'b' } }");
+		Assert.assertEquals("admin.$cmd", rename.getNamespace());
+		Assert.assertEquals(BsonDocument.parse("{ renameCollection: 'app.a', to: 'app.b' }"), rename.getObject());
+	}
+}
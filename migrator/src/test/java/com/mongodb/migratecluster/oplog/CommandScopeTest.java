@@ -0,0 +1,58 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.bson.BsonDocument;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * File: CommandScopeTest Author: Shyam Arjarapu Date: 2/9/19 8:30 AM Description:
+ */
+public class CommandScopeTest {
+
+	private CommandScope getScope(String ns, String command) {
+		BsonDocument document = BsonDocument.parse(String.format("{ op: 'c', ns: '%s', o: %s }", ns, command));
+		return CommandScope.of(new OplogEntry(document, 0));
+	}
+
+	@Test
+	public void collectionCommandsTouchTheirCollection() {
+		CommandScope createIndexes = getScope("app.$cmd", "{ createIndexes: 'orders', indexes: [] }");
+		Assert.assertFalse(createIndexes.isGlobal());
+		Assert.assertFalse(createIndexes.isDrop());
+		Assert.assertEquals(Collections.singletonList("app.orders"), createIndexes.getNamespaces());
+		Assert.assertEquals("app.orders.$cmd", createIndexes.getCheckpointNamespace());
+
+		CommandScope drop = getScope("app.$cmd", "{ drop: 'orders' }");
+		Assert.assertTrue(drop.isDrop());
+		Assert.assertTrue(drop.touches(new Namespace("app.orders", true, null)));
+		Assert.assertFalse(drop.touches(new Namespace("app.users", true, null)));
+		Assert.assertTrue(drop.overlaps(createIndexes));
+
+		CommandScope rename = getScope("admin.$cmd", "{ renameCollection: 'app.orders', to: 'archive.orders' }");
+		Assert.assertEquals(Arrays.asList("app.orders", "archive.orders"), rename.getNamespaces());
+		Assert.assertTrue(rename.overlaps(drop));
+		Assert.assertFalse(rename.overlaps(getScope("app.$cmd", "{ create: 'users' }")));
+	}
+
+	@Test
+	public void dropDatabaseTouchesEveryNamespaceOfItsDatabase() {
+		CommandScope dropDatabase = getScope("app.$cmd", "{ dropDatabase: 1 }");
+		Assert.assertFalse(dropDatabase.isGlobal());
+		Assert.assertTrue(dropDatabase.isDrop());
+		Assert.assertEquals("app.$cmd", dropDatabase.getCheckpointNamespace());
+		Assert.assertTrue(dropDatabase.touches(new Namespace("app.orders", true, null)));
+		Assert.assertFalse(dropDatabase.touches(new Namespace("application.orders", true, null)));
+		Assert.assertTrue(dropDatabase.overlaps(getScope("app.$cmd", "{ drop: 'orders' }")));
+		Assert.assertFalse(dropDatabase.overlaps(getScope("other.$cmd", "{ drop: 'orders' }")));
+	}
+
+	@Test
+	public void otherCommandsAreGlobal() {
+		CommandScope applyOps = getScope("admin.$cmd", "{ applyOps: [] }");
+		Assert.assertTrue(applyOps.isGlobal());
+		Assert.assertTrue(applyOps.overlaps(getScope("app.$cmd", "{ drop: 'orders' }")));
+	}
+}
@@ -0,0 +1,84 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.ServerCursor;
+import com.mongodb.client.MongoCursor;
+
+/**
+ * File: CursorPrefetcherTest Author: Shyam Arjarapu Date: 2/11/19 8:30 AM Description:
+ */
+public class CursorPrefetcherTest {
+
+	private RawBsonDocument getDocument(int id) {
+		return new RawBsonDocument(new BsonDocument("_id", new BsonInt32(id)), new BsonDocumentCodec());
+	}
+
+	private MongoCursor<RawBsonDocument> getCursor(List<RawBsonDocument> documents) {
+		Iterator<RawBsonDocument> iterator = documents.iterator();
+		return new MongoCursor<RawBsonDocument>() {
+			@Override
+			public RawBsonDocument next() {
+				if (!iterator.hasNext()) {
+					throw new IllegalStateException("cursor killed");
+				}
+				return iterator.next();
+			}
+
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+
+			@Override
+			public RawBsonDocument tryNext() {
+				return iterator.hasNext() ? iterator.next() : null;
+			}
+
+			@Override
+			public void close() {
+			}
+
+			@Override
+			public ServerCursor getServerCursor() {
+				return null;
+			}
+
+			@Override
+			public ServerAddress getServerAddress() {
+				return null;
+			}
+		};
+	}
+
+	@Test
+	public void fetchedDocumentsAreDrainedInOrderThenTheFailureIsRaised() throws InterruptedException {
+		List<RawBsonDocument> documents = Arrays.asList(getDocument(1), getDocument(2), getDocument(3));
+		CursorPrefetcher prefetcher = new CursorPrefetcher(getCursor(documents), 1024 * 1024);
+		Thread thread = new Thread(prefetcher);
+		thread.start();
+		thread.join();
+
+		List<RawBsonDocument> drained = new ArrayList<>();
+		Assert.assertEquals(3, prefetcher.drainTo(drained));
+		Assert.assertEquals(documents, drained);
+
+		try {
+			prefetcher.drainTo(drained);
+			Assert.fail("the failure of the cursor must be raised");
+		} catch (IllegalStateException e) {
+			Assert.assertEquals("cursor killed", e.getCause().getMessage());
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * File: FlushPolicyTest Author: Shyam Arjarapu Date: 1/27/19 8:05 AM Description:
+ */
+public class FlushPolicyTest {
+
+	@Test
+	public void batchIsFullByCountOrBytes() {
+		FlushPolicy policy = new FlushPolicy(1024, 50);
+
+		Assert.assertFalse(policy.isFull(1, 100));
+		Assert.assertTrue(policy.isFull(1, 1024));
+		Assert.assertTrue(policy.isFull(FlushPolicy.INITIAL_BATCH_COUNT, 100));
+	}
+
+	@Test
+	public void byteLimitIsCappedBelowTheMessageSize() {
+		FlushPolicy policy = new FlushPolicy(64L * 1024 * 1024, 50);
+		Assert.assertTrue(policy.isFull(1, FlushPolicy.MAX_BATCH_BYTES));
+	}
+
+	@Test
+	public void batchExpiresAfterMaxAge() {
+		FlushPolicy policy = new FlushPolicy(1024, 50);
+
+		Assert.assertFalse(policy.isExpired(0, TimeUnit.MILLISECONDS.toNanos(49)));
+		Assert.assertTrue(policy.isExpired(0, TimeUnit.MILLISECONDS.toNanos(50)));
+	}
+
+	@Test
+	public void batchCountFollowsLatency() {
+		FlushPolicy policy = new FlushPolicy(1024, 50);
+		long fast = TimeUnit.MILLISECONDS.toNanos(10);
+		long slow = TimeUnit.SECONDS.toNanos(1);
+
+		policy.recordLatency(10, fast);
+		Assert.assertEquals(FlushPolicy.INITIAL_BATCH_COUNT, policy.getBatchCount());
+
+		for (int i = 0; i < 10; i++) {
+			policy.recordLatency(policy.getBatchCount(), fast);
+		}
+		Assert.assertEquals(FlushPolicy.MAX_BATCH_COUNT, policy.getBatchCount());
+
+		for (int i = 0; i < 10; i++) {
+			policy.recordLatency(policy.getBatchCount(), slow);
+		}
+		Assert.assertEquals(FlushPolicy.MIN_BATCH_COUNT, policy.getBatchCount());
+	}
+}
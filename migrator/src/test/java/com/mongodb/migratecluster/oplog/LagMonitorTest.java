@@ -0,0 +1,63 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.Collections;
+
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mongodb.MongoClient;
+import com.mongodb.MongoCommandException;
+import com.mongodb.ServerAddress;
+import com.mongodb.migratecluster.FakeCluster;
+import com.mongodb.migratecluster.metrics.MetricsRegistry;
+
+/**
+ * File: LagMonitorTest Author: Shyam Arjarapu Date: 2/16/19 10:05 AM Description:
+ */
+public class LagMonitorTest {
+
+	private final FakeCluster source = new FakeCluster();
+	private final MongoClient client = source.getClient();
+	private final MetricsRegistry metrics = new MetricsRegistry();
+	private final AppliedPositionTracker tracker = new AppliedPositionTracker();
+
+	@After
+	public void tearDown() {
+		client.close();
+	}
+
+	private LagMonitor getMonitor(boolean clusterTime) {
+		tracker.advance(new OplogEntry(new BsonDocument("ts", new BsonTimestamp(100, 1)), 0));
+		return new LagMonitor(Collections.singletonList(client), clusterTime, tracker, new BulkWriteApplier(metrics), metrics);
+	}
+
+	@Test
+	public void theLagOfAChangeStreamIsMeasuredAgainstTheClusterTime() {
+		// a mongos has no oplog; it only knows the cluster time
+		source.setCommandHandler((databaseName, command) -> {
+			if (!command.containsKey("ping")) {
+				throw new MongoCommandException(new BsonDocument(), new ServerAddress());
+			}
+			return new BsonDocument("$clusterTime", new BsonDocument("clusterTime", new BsonTimestamp(130, 4)));
+		});
+
+		getMonitor(true).run();
+
+		Assert.assertEquals(30L, metrics.getSnapshot().get("lag.read"));
+		Assert.assertEquals(30L, metrics.getSnapshot().get("lag.applied"));
+		Assert.assertEquals(Collections.singletonList("ping"), source.getCommands());
+	}
+
+	@Test
+	public void theLagOfTheOplogIsMeasuredAgainstItsNewestEntry() {
+		source.addDocuments("local.oplog.rs", Collections.singletonList(new BsonDocument("ts", new BsonTimestamp(112, 1))));
+
+		getMonitor(false).run();
+
+		Assert.assertEquals(12L, metrics.getSnapshot().get("lag.read"));
+		Assert.assertTrue(source.getCommands().isEmpty());
+	}
+}
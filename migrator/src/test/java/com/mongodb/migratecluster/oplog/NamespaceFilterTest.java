@@ -0,0 +1,67 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.migratecluster.commandline.ResourceFilter;
+
+/**
+ * File: NamespaceFilterTest Author: Shyam Arjarapu Date: 2/8/19 9:00 AM Description:
+ */
+public class NamespaceFilterTest {
+
+	private List<ResourceFilter> getFilters(String... filters) throws IOException {
+		ObjectMapper mapper = new ObjectMapper();
+		List<ResourceFilter> list = new ArrayList<>();
+		for (String filter : filters) {
+			list.add(mapper.readValue(filter, ResourceFilter.class));
+		}
+		return list;
+	}
+
+	@Test
+	public void blackListMatchesNamesGlobsAndExpressions() throws IOException {
+		NamespaceFilter filter = new NamespaceFilter(getFilters("{ \"database\": \"local\", \"collection\": \"{}\" }",
+				"{ \"database\": \"tenant_*\", \"collection\": \"audit_20??\" }", "{ \"filterExpression\": \"^reporting\\\\.(daily|weekly)_.*$\" }"),
+				new ArrayList<>(), null);
+
+		Assert.assertFalse(filter.isAllowed("local.oplog.rs"));
+		Assert.assertFalse(filter.isAllowed("local.$cmd"));
+		Assert.assertFalse(filter.isAllowed("tenant_42.audit_2019"));
+		Assert.assertTrue(filter.isAllowed("tenant_42.audit_201"));
+		Assert.assertTrue(filter.isAllowed("tenant_42.orders"));
+		Assert.assertTrue(filter.isAllowed("tenant_42.$cmd"));
+		Assert.assertFalse(filter.isAllowed("reporting.daily_sales"));
+		Assert.assertTrue(filter.isAllowed("reporting.monthly_sales"));
+	}
+
+	@Test
+	public void whiteListKeepsOnlyMatchingNamespacesAndTheirCommands() throws IOException {
+		NamespaceFilter filter = new NamespaceFilter(getFilters("{ \"database\": \"tenant_*\", \"collection\": \"tmp.*\" }"),
+				getFilters("{ \"database\": \"tenant_*\", \"collection\": \"{}\" }", "{ \"database\": \"app\", \"collection\": \"users\" }"), null);
+
+		Assert.assertTrue(filter.isAllowed("tenant_1.orders"));
+		Assert.assertFalse(filter.isAllowed("tenant_1.tmp.orders"));
+		Assert.assertTrue(filter.isAllowed("app.users"));
+		Assert.assertFalse(filter.isAllowed("app.sessions"));
+		Assert.assertTrue(filter.isAllowed("app.$cmd"));
+		Assert.assertFalse(filter.isAllowed("other.users"));
+		Assert.assertFalse(filter.isAllowed("other.$cmd"));
+	}
+
+	@Test
+	public void namespacesAreResolvedOnce() throws IOException {
+		NamespaceFilter filter = new NamespaceFilter(new ArrayList<>(), new ArrayList<>(), null);
+		Namespace namespace = filter.resolve("app.system.profile");
+
+		Assert.assertSame(namespace, filter.resolve(new String("app.system.profile")));
+		Assert.assertEquals("app", namespace.getDatabaseName());
+		Assert.assertEquals("system.profile", namespace.getCollectionName());
+		Assert.assertTrue(filter.resolve("app.$cmd").isCommand());
+	}
+}
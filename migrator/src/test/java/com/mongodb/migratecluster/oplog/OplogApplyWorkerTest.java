@@ -0,0 +1,107 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.BsonTimestamp;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mongodb.MongoClient;
+import com.mongodb.migratecluster.FakeCluster;
+import com.mongodb.migratecluster.metrics.MetricsRegistry;
+
+/**
+ * File: OplogApplyWorkerTest Author: Shyam Arjarapu Date: 2/14/19 9:10 AM Description:
+ */
+public class OplogApplyWorkerTest {
+
+	// the namespace and the operation of every bulk write sent to the target, in the order they were sent
+	private final List<String> sent = Collections.synchronizedList(new ArrayList<>());
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	private final FakeCluster target = new FakeCluster();
+	private final MongoClient client = target.getClient();
+
+	/**
+	 * Records the bulk writes sent to the target; the first write of db.coll waits for the release
+	 */
+	@Before
+	public void setUp() {
+		target.setWriteListener((ns, models) -> {
+			if (ns.endsWith(".checkpoints")) {
+				return;
+			}
+			boolean first = sent.stream().noneMatch(write -> write.startsWith(ns));
+			sent.add(ns + " " + models.get(0).getClass().getSimpleName());
+			if (first && ns.equals("db.coll") && !release.await(5, TimeUnit.SECONDS)) {
+				throw new IllegalStateException("never released");
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		client.close();
+	}
+
+	private OplogEntry getEntry(int time, String op, String ns, int id) {
+		BsonDocument document = new BsonDocument("ts", new BsonTimestamp(time, 0)).append("op", new BsonString(op)).append("ns", new BsonString(ns))
+				.append("o", new BsonDocument("_id", new BsonInt32(id)).append("email", new BsonString("x")));
+		return new OplogEntry(document, 10);
+	}
+
+	private void awaitSent(String write) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!sent.contains(write)) {
+			Assert.assertTrue("the write was never sent: " + write, System.currentTimeMillis() < deadline);
+			Thread.sleep(5);
+		}
+	}
+
+	@Test
+	public void batchesOfANamespaceAreWrittenInOrderAndOtherNamespacesKeepGoing() throws InterruptedException {
+		MetricsRegistry metrics = new MetricsRegistry();
+		CheckpointStore checkpointStore = new CheckpointStore(client, "state");
+		// every entry is a batch of its own
+		OplogApplyWorker worker = new OplogApplyWorker(0, new NamespaceFilter(new ArrayList<>(), new ArrayList<>(), client), 1024 * 1024,
+				new OplogPartitioner(1, new HashMap<>()), new AppliedPositionTracker(), checkpointStore, new BulkWriteApplier(metrics), null,
+				new FlushPolicy(1, 0), 4, metrics);
+		Thread thread = new Thread(worker);
+		thread.setDaemon(true);
+		thread.start();
+
+		// an insert of another _id may collide with the deleted document on a unique index
+		worker.submit(Arrays.asList(getEntry(1, "d", "db.coll", 1), getEntry(2, "i", "db.coll", 2), getEntry(3, "i", "db.other", 3)), 30);
+
+		// the namespaces are written concurrently, in no particular order between them
+		awaitSent("db.other InsertOneModel");
+		awaitSent("db.coll DeleteOneModel");
+		Thread.sleep(50);
+		Assert.assertEquals(2, sent.size());
+
+		release.countDown();
+		worker.awaitApplied();
+		thread.interrupt();
+		Assert.assertEquals(3, sent.size());
+		Assert.assertEquals("db.coll InsertOneModel", sent.get(2));
+
+		// the positions are only saved by the periodic checkpoint, all at once
+		Assert.assertTrue(target.getDocuments("state.checkpoints").isEmpty());
+		Assert.assertEquals(2, checkpointStore.saveNamespacePositions());
+		BsonDocument coll = target.getDocuments("state.checkpoints").stream().filter(document -> document.getString("_id").getValue().equals("db.coll#0"))
+				.findFirst().get();
+		Assert.assertEquals(new BsonTimestamp(2, 0), coll.get("ts"));
+		Assert.assertEquals(0, checkpointStore.saveNamespacePositions());
+	}
+}
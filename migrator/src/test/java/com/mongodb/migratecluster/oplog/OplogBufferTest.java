@@ -0,0 +1,98 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * File: OplogBufferTest Author: Shyam Arjarapu Date: 1/21/19 9:05 AM Description:
+ */
+public class OplogBufferTest {
+
+	@Test
+	public void drainOnEmptyBufferReturnsZeroAfterTimeout() throws InterruptedException {
+		OplogBuffer<Integer> buffer = new OplogBuffer<>(100);
+		List<Integer> items = new ArrayList<>();
+
+		int drained = buffer.drainTo(items, 10, TimeUnit.MILLISECONDS);
+		Assert.assertEquals(0, drained);
+		Assert.assertTrue(items.isEmpty());
+	}
+
+	@Test
+	public void drainReturnsAllBatchesInPublishOrder() throws InterruptedException {
+		OplogBuffer<Integer> buffer = new OplogBuffer<>(100);
+		buffer.put(Arrays.asList(1, 2, 3), 30);
+		buffer.put(Arrays.asList(4, 5), 20);
+		Assert.assertEquals(50, buffer.getSizeInBytes());
+		Assert.assertEquals(5, buffer.getCount());
+
+		List<Integer> items = new ArrayList<>();
+		int drained = buffer.drainTo(items, 0, TimeUnit.MILLISECONDS);
+		Assert.assertEquals(5, drained);
+		Assert.assertArrayEquals(new Integer[] { 1, 2, 3, 4, 5 }, items.toArray());
+		Assert.assertEquals(0, buffer.getSizeInBytes());
+	}
+
+	@Test
+	public void oversizedBatchIsAcceptedWhenBufferIsEmpty() throws InterruptedException {
+		OplogBuffer<Integer> buffer = new OplogBuffer<>(10);
+		buffer.put(Arrays.asList(1, 2), 50);
+		Assert.assertEquals(50, buffer.getSizeInBytes());
+	}
+
+	@Test
+	public void putBlocksUntilConsumerDrains() throws InterruptedException {
+		OplogBuffer<Integer> buffer = new OplogBuffer<>(10);
+		buffer.put(Arrays.asList(1), 8);
+
+		Thread producer = new Thread(() -> {
+			try {
+				buffer.put(Arrays.asList(2), 8);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		producer.start();
+		producer.join(100);
+		Assert.assertTrue(producer.isAlive());
+
+		List<Integer> items = new ArrayList<>();
+		buffer.drainTo(items, 0, TimeUnit.MILLISECONDS);
+		producer.join(1000);
+		Assert.assertFalse(producer.isAlive());
+
+		buffer.drainTo(items, 0, TimeUnit.MILLISECONDS);
+		Assert.assertArrayEquals(new Integer[] { 1, 2 }, items.toArray());
+	}
+
+	@Test
+	public void offerGivesUpWhenThereIsNoRoomInTime() throws InterruptedException {
+		OplogBuffer<Integer> buffer = new OplogBuffer<>(10);
+		Assert.assertTrue(buffer.offer(Arrays.asList(1), 8, 0, TimeUnit.MILLISECONDS));
+
+		Assert.assertFalse(buffer.offer(Arrays.asList(2), 8, 10, TimeUnit.MILLISECONDS));
+		Assert.assertEquals(1, buffer.getCount());
+
+		buffer.drainTo(new ArrayList<>(), 0, TimeUnit.MILLISECONDS);
+		Assert.assertTrue(buffer.offer(Arrays.asList(2), 8, 0, TimeUnit.MILLISECONDS));
+	}
+
+	@Test(timeout = 10000)
+	public void closeWakesTheConsumerOnceEveryEntryIsDrained() throws InterruptedException {
+		OplogBuffer<Integer> buffer = new OplogBuffer<>(100);
+		buffer.put(Arrays.asList(1, 2), 20);
+		buffer.close();
+		Assert.assertFalse(buffer.isFinished());
+
+		List<Integer> items = new ArrayList<>();
+		Assert.assertEquals(2, buffer.drainTo(items, -1, TimeUnit.MILLISECONDS));
+		Assert.assertTrue(buffer.isFinished());
+		// a closed and drained buffer never makes its consumer wait
+		Assert.assertEquals(0, buffer.drainTo(items, -1, TimeUnit.MILLISECONDS));
+	}
+}
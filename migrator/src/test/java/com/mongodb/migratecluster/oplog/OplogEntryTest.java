@@ -0,0 +1,45 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.Arrays;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonTimestamp;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * File: OplogEntryTest Author: Shyam Arjarapu Date: 1/26/19 10:15 AM Description:
+ */
+public class OplogEntryTest {
+
+	private OplogEntry getRawEntry(String json) {
+		RawBsonDocument raw = new RawBsonDocument(BsonDocument.parse(json), new BsonDocumentCodec());
+		return new OplogEntry(raw, raw.getByteBuffer().remaining());
+	}
+
+	@Test
+	public void routingFieldsAreReadFromRawEntry() {
+		OplogEntry entry = getRawEntry("{ ts: Timestamp(10, 2), op: 'u', ns: 'app.events', o2: { _id: 7 }, o: { $v: 1, $set: { a: 1 } } }");
+
+		Assert.assertEquals("app.events", entry.getNamespace());
+		Assert.assertEquals("u", entry.getOperation());
+		Assert.assertEquals(new BsonTimestamp(10, 2), entry.getTimestamp());
+		Assert.assertEquals(new BsonInt32(7), entry.getDocumentId());
+		Assert.assertTrue(entry.getObject() instanceof RawBsonDocument);
+	}
+
+	@Test
+	public void fieldNamesOfRawDocumentAreInOrder() {
+		OplogEntry entry = getRawEntry("{ ts: Timestamp(10, 2), op: 'u', ns: 'app.events', o2: { _id: 7 }, o: { $v: 1, $set: { a: 1 }, $unset: { b: true } } }");
+		Assert.assertEquals(Arrays.asList("$v", "$set", "$unset"), OplogEntry.getFieldNames(entry.getObject()));
+	}
+
+	@Test
+	public void commandHasNoDocumentId() {
+		OplogEntry entry = getRawEntry("{ ts: Timestamp(10, 2), op: 'c', ns: 'app.$cmd', o: { drop: 'events' } }");
+		Assert.assertNull(entry.getDocumentId());
+	}
+}
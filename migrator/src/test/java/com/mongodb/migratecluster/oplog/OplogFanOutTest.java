@@ -0,0 +1,188 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * File: OplogFanOutTest Author: Shyam Arjarapu Date: 2/13/19 9:05 AM Description:
+ */
+public class OplogFanOutTest {
+
+	private List<OplogEntry> getEntries(int... times) {
+		List<OplogEntry> entries = new ArrayList<>();
+		for (int time : times) {
+			entries.add(new OplogEntry(new BsonDocument("ts", new BsonTimestamp(time, 0)), 10));
+		}
+		return entries;
+	}
+
+	private List<Integer> getTimes(List<OplogEntry> entries) {
+		List<Integer> times = new ArrayList<>();
+		entries.forEach(entry -> times.add(entry.getTimestamp().getTime()));
+		return times;
+	}
+
+	private List<OplogEntry> drain(OplogBuffer<OplogEntry> buffer, int count) throws InterruptedException {
+		List<OplogEntry> entries = new ArrayList<>();
+		while (entries.size() < count) {
+			if (buffer.drainTo(entries, 5, TimeUnit.SECONDS) == 0) {
+				Assert.fail("the entries were not fanned out");
+			}
+		}
+		return entries;
+	}
+
+	private OplogSpill<OplogEntry> getSpill() {
+		ArrayDeque<OplogEntry> spilled = new ArrayDeque<>();
+		return new OplogSpill<OplogEntry>() {
+			@Override
+			public synchronized void append(List<OplogEntry> items) {
+				spilled.addAll(items);
+			}
+
+			@Override
+			public synchronized int read(Collection<? super OplogEntry> target, long maxBytes) {
+				int count = spilled.size();
+				target.addAll(spilled);
+				spilled.clear();
+				return count;
+			}
+
+			@Override
+			public synchronized long getCount() {
+				return spilled.size();
+			}
+
+			@Override
+			public synchronized long getSizeInBytes() {
+				return spilled.size() * 10L;
+			}
+		};
+	}
+
+	private Thread start(OplogFanOut fanOut) {
+		Thread thread = new Thread(fanOut);
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	@Test
+	public void entriesOlderThanTheStartOfATargetAreSkipped() throws InterruptedException {
+		OplogBuffer<OplogEntry> input = new OplogBuffer<>(1024);
+		OplogBuffer<OplogEntry> first = new OplogBuffer<>(1024);
+		OplogBuffer<OplogEntry> second = new OplogBuffer<>(1024);
+		input.put(getEntries(1, 2, 3), 30);
+		input.put(getEntries(4, 5), 20);
+
+		Thread thread = start(new OplogFanOut(input, Arrays.asList(first, second), Arrays.asList(null, new BsonTimestamp(3, 0))));
+		List<OplogEntry> firstEntries = drain(first, 5);
+		List<OplogEntry> secondEntries = drain(second, 3);
+		thread.interrupt();
+
+		Assert.assertEquals(Arrays.asList(1, 2, 3, 4, 5), getTimes(firstEntries));
+		Assert.assertEquals(Arrays.asList(3, 4, 5), getTimes(secondEntries));
+		// the targets share the decoded entries
+		Assert.assertSame(firstEntries.get(2), secondEntries.get(0));
+	}
+
+	@Test
+	public void aTargetWithASpillDoesNotHoldBackTheOthers() throws InterruptedException {
+		OplogBuffer<OplogEntry> input = new OplogBuffer<>(1024);
+		OplogBuffer<OplogEntry> fast = new OplogBuffer<>(20);
+		OplogBuffer<OplogEntry> slow = new OplogBuffer<>(20, getSpill());
+		Thread thread = start(new OplogFanOut(input, Arrays.asList(fast, slow), Arrays.asList(null, null)));
+
+		// the slow target is never drained while the fast one takes ten times its capacity
+		for (int i = 0; i < 10; i++) {
+			input.put(getEntries(2 * i + 1, 2 * i + 2), 20);
+			Assert.assertEquals(2, drain(fast, 2).size());
+		}
+
+		Assert.assertEquals(20, drain(slow, 20).size());
+		thread.interrupt();
+	}
+
+	@Test
+	public void aFullTargetWithoutASpillDoesNotHoldBackTheOthers() throws InterruptedException {
+		OplogBuffer<OplogEntry> input = new OplogBuffer<>(1024);
+		OplogBuffer<OplogEntry> fast = new OplogBuffer<>(20);
+		OplogBuffer<OplogEntry> full = new OplogBuffer<>(20);
+		Thread thread = start(new OplogFanOut(input, Arrays.asList(full, fast), Arrays.asList(null, null)));
+
+		// the full target takes the first batch and is never drained while the fast one takes ten times its capacity
+		for (int i = 0; i < 10; i++) {
+			input.put(getEntries(2 * i + 1, 2 * i + 2), 20);
+			Assert.assertEquals(Arrays.asList(2 * i + 1, 2 * i + 2), getTimes(drain(fast, 2)));
+		}
+		// the publisher of the full target may have drained the first two batches at once; an empty buffer takes them both
+		long count = full.getCount();
+		Assert.assertTrue("the full target holds " + count + " entries", count >= 2 && count <= 4);
+
+		Assert.assertEquals(20, drain(full, 20).size());
+		thread.interrupt();
+	}
+
+	@Test(timeout = 10000)
+	public void theFailureOfATargetStopsTheFanOut() throws InterruptedException {
+		OplogBuffer<OplogEntry> input = new OplogBuffer<>(1024);
+		OplogSpill<OplogEntry> brokenSpill = new OplogSpill<OplogEntry>() {
+			@Override
+			public void append(List<OplogEntry> items) {
+				throw new IllegalStateException("no space left on device");
+			}
+
+			@Override
+			public int read(Collection<? super OplogEntry> target, long maxBytes) {
+				return 0;
+			}
+
+			@Override
+			public long getCount() {
+				return 0;
+			}
+
+			@Override
+			public long getSizeInBytes() {
+				return 0;
+			}
+		};
+		OplogBuffer<OplogEntry> broken = new OplogBuffer<>(20, brokenSpill);
+		// the target is full, so the next batch goes to its spill
+		broken.put(getEntries(1, 2), 20);
+		input.put(getEntries(3, 4), 20);
+
+		try {
+			new OplogFanOut(input, Arrays.asList(new OplogBuffer<>(1024), broken), Arrays.asList(null, null)).run();
+			Assert.fail("the failure of the target must stop the fan out");
+		} catch (IllegalStateException e) {
+			Assert.assertEquals("no space left on device", e.getCause().getMessage());
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void theEndOfTheInputIsHandedOnToEveryTarget() throws InterruptedException {
+		OplogBuffer<OplogEntry> input = new OplogBuffer<>(1024);
+		OplogBuffer<OplogEntry> first = new OplogBuffer<>(1024);
+		OplogBuffer<OplogEntry> second = new OplogBuffer<>(1024);
+		input.put(getEntries(1, 2), 20);
+		input.close();
+
+		Thread thread = start(new OplogFanOut(input, Arrays.asList(first, second), Arrays.asList(null, null)));
+		thread.join();
+
+		Assert.assertEquals(Arrays.asList(1, 2), getTimes(drain(first, 2)));
+		Assert.assertEquals(Arrays.asList(1, 2), getTimes(drain(second, 2)));
+		Assert.assertTrue(first.isFinished());
+		Assert.assertTrue(second.isFinished());
+	}
+}
@@ -0,0 +1,78 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * File: OplogMergerTest Author: Shyam Arjarapu Date: 2/1/19 9:05 AM Description:
+ */
+public class OplogMergerTest {
+
+	private List<OplogEntry> getEntries(int... times) {
+		List<OplogEntry> entries = new ArrayList<>();
+		for (int time : times) {
+			entries.add(new OplogEntry(new BsonDocument("ts", new BsonTimestamp(time, 0)), 10));
+		}
+		return entries;
+	}
+
+	private List<Integer> getTimes(List<OplogEntry> entries) {
+		List<Integer> times = new ArrayList<>();
+		entries.forEach(entry -> times.add(entry.getTimestamp().getTime()));
+		return times;
+	}
+
+	@Test
+	public void shardsAreMergedInTimestampOrder() throws InterruptedException {
+		OplogBuffer<OplogEntry> shard0 = new OplogBuffer<>(1024);
+		OplogBuffer<OplogEntry> shard1 = new OplogBuffer<>(1024);
+		OplogBuffer<OplogEntry> output = new OplogBuffer<>(1024);
+		shard0.put(getEntries(1, 4, 5), 30);
+		shard1.put(getEntries(2, 3, 6), 30);
+
+		Thread merger = new Thread(new OplogMerger(Arrays.asList(shard0, shard1), output, 100));
+		merger.setDaemon(true);
+		merger.start();
+
+		List<OplogEntry> merged = new ArrayList<>();
+		while (merged.size() < 5) {
+			output.drainTo(merged, 5, TimeUnit.SECONDS);
+		}
+		merger.interrupt();
+
+		// 6 is held back until shard 0 proves it has nothing older
+		Assert.assertEquals(Arrays.asList(1, 2, 3, 4, 5), getTimes(merged));
+		Assert.assertEquals(0, output.getCount());
+	}
+
+	@Test(timeout = 10000)
+	public void theFailureOfAShardIsThrownInsteadOfWaitingForIt() throws InterruptedException {
+		OplogBuffer<OplogEntry> shard0 = new OplogBuffer<>(1024);
+		OplogBuffer<OplogEntry> shard1 = new OplogBuffer<>(1024);
+		OplogBuffer<OplogEntry> output = new OplogBuffer<>(1024);
+		shard0.put(getEntries(1, 3), 20);
+		shard1.put(getEntries(2), 10);
+
+		OplogMerger merger = new OplogMerger(Arrays.asList(shard0, shard1), output, 100);
+		RuntimeException failure = new IllegalStateException("the oplog cursor failed");
+		merger.fail(failure);
+		try {
+			merger.run();
+			Assert.fail("the merger must stop once a shard failed");
+		} catch (IllegalStateException e) {
+			Assert.assertSame(failure, e.getCause());
+		}
+
+		// what was merged before waiting on the failed shard is still published
+		List<OplogEntry> merged = new ArrayList<>();
+		output.drainTo(merged, 0, TimeUnit.MILLISECONDS);
+		Assert.assertEquals(Arrays.asList(1, 2), getTimes(merged));
+	}
+}
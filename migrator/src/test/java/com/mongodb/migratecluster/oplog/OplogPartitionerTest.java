@@ -0,0 +1,71 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * File: OplogPartitionerTest Author: Shyam Arjarapu Date: 1/23/19 9:40 AM Description:
+ */
+public class OplogPartitionerTest {
+
+	private OplogEntry getInsert(String ns, int id) {
+		BsonDocument document = new BsonDocument("op", new BsonString("i")).append("ns", new BsonString(ns)).append("o", new BsonDocument("_id", new BsonInt32(id)));
+		return new OplogEntry(document, 0);
+	}
+
+	@Test
+	public void namespaceWithoutLanesIsPinnedToOneWorker() {
+		OplogPartitioner partitioner = new OplogPartitioner(8, new HashMap<>());
+
+		Set<Integer> workers = new HashSet<>();
+		for (int i = 0; i < 100; i++) {
+			workers.add(partitioner.getWorkerIndex(getInsert("app.orders", i)));
+		}
+		Assert.assertEquals(1, workers.size());
+		Assert.assertEquals(0, partitioner.getLane("app.orders", workers.iterator().next()));
+	}
+
+	@Test
+	public void lanesAreSpreadOverDistinctWorkersAndCanBeResolvedBack() {
+		Map<String, Integer> lanes = new HashMap<>();
+		lanes.put("app.events", 4);
+		OplogPartitioner partitioner = new OplogPartitioner(8, lanes);
+
+		Set<Integer> workers = new HashSet<>();
+		Set<Integer> resolvedLanes = new HashSet<>();
+		for (int i = 0; i < 100; i++) {
+			int worker = partitioner.getWorkerIndex(getInsert("app.events", i));
+			workers.add(worker);
+			resolvedLanes.add(partitioner.getLane("app.events", worker));
+		}
+		Assert.assertEquals(4, workers.size());
+		Assert.assertEquals(4, resolvedLanes.size());
+		Assert.assertEquals(partitioner.getDefaultWorkerIndex("app.events"), partitioner.getWorkerIndex(getInsert("app.events", 0)));
+	}
+
+	@Test
+	public void lanesAreCappedAtTheNumberOfWorkers() {
+		Map<String, Integer> lanes = new HashMap<>();
+		lanes.put("app.events", 16);
+		OplogPartitioner partitioner = new OplogPartitioner(4, lanes);
+		Assert.assertEquals(4, partitioner.getLanes("app.events"));
+	}
+
+	@Test
+	public void entryWithoutIdOfPartitionedNamespaceIsNotRouted() {
+		Map<String, Integer> lanes = new HashMap<>();
+		lanes.put("app.events", 4);
+		OplogPartitioner partitioner = new OplogPartitioner(8, lanes);
+
+		BsonDocument document = BsonDocument.parse("{ op: 'u', ns: 'app.events', o2: { user: 1 } }");
+		Assert.assertEquals(-1, partitioner.getWorkerIndex(new OplogEntry(document, 0)));
+	}
+}
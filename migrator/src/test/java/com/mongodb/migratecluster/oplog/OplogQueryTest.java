@@ -0,0 +1,69 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonRegularExpression;
+import org.bson.BsonString;
+import org.bson.BsonTimestamp;
+import org.bson.conversions.Bson;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.MongoClient;
+import com.mongodb.migratecluster.commandline.ResourceFilter;
+
+/**
+ * File: OplogQueryTest Author: Shyam Arjarapu Date: 2/2/19 8:00 AM Description:
+ */
+public class OplogQueryTest {
+
+	private BsonDocument render(Bson bson) {
+		return bson.toBsonDocument(BsonDocument.class, MongoClient.getDefaultCodecRegistry());
+	}
+
+	private List<ResourceFilter> getBlackList() throws IOException {
+		ObjectMapper mapper = new ObjectMapper();
+		return Arrays.asList(mapper.readValue("{ \"database\": \"analytics\", \"collection\": \"{}\" }", ResourceFilter.class),
+				mapper.readValue("{ \"database\": \"app\", \"collection\": \"audit\" }", ResourceFilter.class));
+	}
+
+	@Test
+	public void blackListIsCompiledIntoTheFilter() throws IOException {
+		OplogQuery query = new OplogQuery(getBlackList(), true, true);
+		BsonDocument filter = render(query.getFilter(new BsonTimestamp(100, 1)));
+
+		BsonDocument expected = BsonDocument.parse("{ ts: { $gte: Timestamp(100, 1) }, op: { $ne: 'n' }, fromMigrate: { $ne: true } }");
+		BsonDocument ns = new BsonDocument("$not", new BsonRegularExpression("^(?:\\Qanalytics\\E)\\."));
+		ns.append("$nin", new BsonArray(Arrays.asList(new BsonString("app.audit"))));
+		expected.append("ns", ns);
+		Assert.assertEquals(expected, filter);
+	}
+
+	@Test
+	public void transactionsAreTailedWhenAdminIsBlackListed() throws IOException {
+		ResourceFilter admin = new ObjectMapper().readValue("{ \"database\": \"admin\", \"collection\": \"{}\" }", ResourceFilter.class);
+		BsonDocument filter = render(new OplogQuery(Arrays.asList(admin), false, false).getFilter(new BsonTimestamp(100, 1)));
+
+		BsonDocument notAdmin = new BsonDocument("ns", new BsonDocument("$not", new BsonRegularExpression("^(?:\\Qadmin\\E)\\.")));
+		BsonDocument expected = BsonDocument.parse("{ ts: { $gte: Timestamp(100, 1) } }");
+		expected.append("$or", new BsonArray(Arrays.asList(notAdmin, BsonDocument.parse("{ ns: 'admin.$cmd' }"))));
+		Assert.assertEquals(expected, filter);
+	}
+
+	@Test
+	public void noopsAreKeptWhenAsked() {
+		OplogQuery query = new OplogQuery(Arrays.asList(), false, false);
+		BsonDocument filter = render(query.getFilter(new BsonTimestamp(100, 1)));
+		Assert.assertEquals(BsonDocument.parse("{ ts: { $gte: Timestamp(100, 1) } }"), filter);
+	}
+
+	@Test
+	public void projectionKeepsTheFieldsOfTheWriter() {
+		Assert.assertEquals(BsonDocument.parse("{ ts: 1, op: 1, ns: 1, o: 1, o2: 1, prevOpTime: 1 }"), render(new OplogQuery(Arrays.asList(), true, true).getProjection()));
+	}
+}
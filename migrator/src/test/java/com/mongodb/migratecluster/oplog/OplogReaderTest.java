@@ -0,0 +1,113 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mongodb.MongoClient;
+import com.mongodb.MongoSocketReadException;
+import com.mongodb.ServerAddress;
+import com.mongodb.migratecluster.FakeCluster;
+import com.mongodb.migratecluster.commandline.ApplicationOptions;
+import com.mongodb.migratecluster.metrics.MetricsRegistry;
+
+/**
+ * File: OplogReaderTest Author: Shyam Arjarapu Date: 2/15/19 8:30 AM Description:
+ */
+public class OplogReaderTest {
+
+	private final List<MongoClient> clients = new ArrayList<>();
+
+	@After
+	public void tearDown() {
+		clients.forEach(MongoClient::close);
+	}
+
+	private List<RawBsonDocument> getOplog(int... times) {
+		List<RawBsonDocument> entries = new ArrayList<>();
+		for (int time : times) {
+			entries.add(RawBsonDocument.parse(String.format("{ ts: Timestamp(%d, 0), op: 'i', ns: 'db.coll', o: { _id: %d } }", time, time)));
+		}
+		return entries;
+	}
+
+	private MongoClient getClient(Map<String, List<?>> collections, RuntimeException failure) {
+		MongoClient client = FakeCluster.getClient(collections, failure);
+		clients.add(client);
+		return client;
+	}
+
+	/**
+	 * Get's the options of a sharded source of two shards, the second one failing past its oplog when failure is given
+	 */
+	private ApplicationOptions getShardedSource(List<RawBsonDocument> oplog0, List<RawBsonDocument> oplog1, RuntimeException failure) {
+		MongoClient mongos = getClient(Collections.singletonMap("config.shards",
+				Arrays.asList(new Document("_id", "rs0").append("host", "rs0/h0:27017"), new Document("_id", "rs1").append("host", "rs1/h1:27017"))), null);
+		Map<String, MongoClient> shards = new HashMap<>();
+		shards.put("rs0/h0:27017", getClient(Collections.singletonMap("local.oplog.rs", oplog0), null));
+		shards.put("rs1/h1:27017", getClient(Collections.singletonMap("local.oplog.rs", oplog1), failure));
+
+		ApplicationOptions options = new ApplicationOptions() {
+			@Override
+			public MongoClient getSourceClient() {
+				return mongos;
+			}
+
+			@Override
+			public synchronized MongoClient getShardClient(String shardHost) {
+				return shards.get(shardHost);
+			}
+		};
+		options.setShardedSource(true);
+		return options;
+	}
+
+	@Test
+	public void theOplogsOfTheShardsAreMerged() throws InterruptedException {
+		OplogBuffer<OplogEntry> buffer = new OplogBuffer<>(1024 * 1024);
+		ApplicationOptions options = getShardedSource(getOplog(1, 3), getOplog(2, 4), null);
+		Thread reader = new Thread(new OplogReader(options, buffer, new BsonTimestamp(1, 0), new MetricsRegistry()));
+		reader.setDaemon(true);
+		reader.start();
+
+		List<OplogEntry> merged = new ArrayList<>();
+		while (merged.size() < 3) {
+			Assert.assertTrue("the oplogs were not merged", buffer.drainTo(merged, 5, TimeUnit.SECONDS) > 0);
+		}
+		reader.interrupt();
+
+		List<Integer> times = new ArrayList<>();
+		merged.forEach(entry -> times.add(entry.getTimestamp().getTime()));
+		// 4 waits for shard rs0 to prove it has nothing older
+		Assert.assertEquals(Arrays.asList(1, 2, 3), times);
+	}
+
+	@Test(timeout = 10000)
+	public void aFailingShardStopsTheReader() {
+		OplogBuffer<OplogEntry> buffer = new OplogBuffer<>(1024 * 1024);
+		RuntimeException failure = new MongoSocketReadException("connection reset", new ServerAddress());
+		ApplicationOptions options = getShardedSource(getOplog(1, 3), getOplog(2), failure);
+
+		try {
+			new OplogReader(options, buffer, new BsonTimestamp(1, 0), new MetricsRegistry()).run();
+			Assert.fail("the failure of the shard must stop the reader");
+		} catch (IllegalStateException e) {
+			Throwable cause = e;
+			while (cause.getCause() != null) {
+				cause = cause.getCause();
+			}
+			Assert.assertSame(failure, cause);
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.BsonTimestamp;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mongodb.MongoClient;
+import com.mongodb.MongoException;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.migratecluster.FakeCluster;
+import com.mongodb.migratecluster.commandline.ApplicationOptions;
+import com.mongodb.migratecluster.metrics.MetricsRegistry;
+
+/**
+ * File: OplogWriterTest Author: Shyam Arjarapu Date: 2/15/19 10:20 AM Description:
+ */
+public class OplogWriterTest {
+
+	// every write sent to the target, as the namespace and the _id or the filter, in the order they were sent
+	private final List<String> sent = Collections.synchronizedList(new ArrayList<>());
+	private final CountDownLatch release = new CountDownLatch(1);
+	// the write waiting for the release, and the one rejected by the target
+	private volatile String blocked;
+	private volatile String rejected;
+	// what stopped the writer
+	private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+	private final FakeCluster target = new FakeCluster();
+	private final MongoClient client = target.getClient();
+
+	/**
+	 * Records the writes sent to the target; the blocked write waits for the release and the rejected one fails
+	 */
+	@Before
+	@SuppressWarnings("unchecked")
+	public void setUp() {
+		target.setWriteListener((ns, models) -> {
+			if (ns.endsWith(".checkpoints")) {
+				return;
+			}
+			for (WriteModel<?> model : models) {
+				String write = describe(ns, (WriteModel<BsonDocument>) model);
+				sent.add(write);
+				if (write.equals(blocked) && !release.await(5, TimeUnit.SECONDS)) {
+					throw new IllegalStateException("never released");
+				}
+				if (write.equals(rejected)) {
+					throw new MongoException(13, "not authorized");
+				}
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		client.close();
+	}
+
+	private static String describe(String ns, WriteModel<BsonDocument> model) {
+		if (model instanceof InsertOneModel) {
+			return ns + " " + ((InsertOneModel<BsonDocument>) model).getDocument().get("_id");
+		}
+		BsonDocument filter = ((DeleteOneModel<BsonDocument>) model).getFilter().toBsonDocument(BsonDocument.class, MongoClient.getDefaultCodecRegistry());
+		return ns + " " + filter.toJson();
+	}
+
+	private static String describe(String ns, int id) {
+		return ns + " " + new BsonInt32(id);
+	}
+
+	private OplogEntry getEntry(int time, String op, String ns, BsonDocument object) {
+		BsonDocument document = new BsonDocument("ts", new BsonTimestamp(time, 0)).append("op", new BsonString(op)).append("ns", new BsonString(ns))
+				.append("o", object);
+		return new OplogEntry(document, 10);
+	}
+
+	private OplogEntry getInsert(int time, String ns, int id) {
+		return getEntry(time, "i", ns, new BsonDocument("_id", new BsonInt32(id)));
+	}
+
+	private ApplicationOptions getOptions() {
+		ApplicationOptions options = new ApplicationOptions() {
+			@Override
+			public MongoClient getTargetClient() {
+				return client;
+			}
+		};
+		// a replay has no source to measure the lag against; every entry is a batch of its own
+		options.setMode("replay");
+		options.setWriterThreads(4);
+		options.setBatchMaxSizeMB(0);
+		options.setBatchMaxAgeMillis(0);
+		return options;
+	}
+
+	/**
+	 * Get's a thread applying the given entries, returning once they are all written
+	 */
+	private Thread getWriter(ApplicationOptions options, List<OplogEntry> entries) throws InterruptedException {
+		return getWriter(options, entries, true);
+	}
+
+	/**
+	 * Get's a thread applying the given entries; when the buffer is left open, it only returns when it fails
+	 */
+	private Thread getWriter(ApplicationOptions options, List<OplogEntry> entries, boolean close) throws InterruptedException {
+		OplogBuffer<OplogEntry> buffer = new OplogBuffer<>(1024 * 1024);
+		buffer.put(entries, entries.size() * 10);
+		if (close) {
+			buffer.close();
+		}
+
+		OplogWriter writer = new OplogWriter(options, new CheckpointStore(client, "state"), new MetricsRegistry());
+		Thread thread = new Thread(() -> writer.applyOperations(buffer), "Writer");
+		thread.setDaemon(true);
+		thread.setUncaughtExceptionHandler((failed, e) -> failure.set(e));
+		thread.start();
+		return thread;
+	}
+
+	private void awaitSent(String... writes) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!sent.containsAll(Arrays.asList(writes))) {
+			Assert.assertTrue("the writes were never sent: " + Arrays.toString(writes), System.currentTimeMillis() < deadline);
+			Thread.sleep(5);
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void aSlowNamespaceDoesNotHoldBackTheNamespacesOfOtherWorkers() throws InterruptedException {
+		OplogPartitioner partitioner = new OplogPartitioner(4, new HashMap<>());
+		String slow = "app.slow";
+		String fast = "app.fast";
+		for (int i = 0; partitioner.getDefaultWorkerIndex(fast) == partitioner.getDefaultWorkerIndex(slow); i++) {
+			fast = "app.fast" + i;
+		}
+		blocked = describe(slow, 1);
+
+		Thread writer = getWriter(getOptions(), Arrays.asList(getInsert(1, slow, 1), getInsert(2, fast, 1), getInsert(3, slow, 2), getInsert(4, fast, 2),
+				getInsert(5, fast, 3)));
+
+		// the other namespace is written by its own worker while the slow one waits
+		awaitSent(describe(fast, 1), describe(fast, 2), describe(fast, 3));
+		Thread.sleep(50);
+		Assert.assertFalse(sent.contains(describe(slow, 2)));
+
+		release.countDown();
+		writer.join();
+		// every namespace keeps its order
+		Assert.assertTrue(sent.indexOf(describe(slow, 1)) < sent.indexOf(describe(slow, 2)));
+		Assert.assertEquals(5, sent.size());
+		Assert.assertEquals(2, target.getDocuments(slow).size());
+		Assert.assertEquals(3, target.getDocuments(fast).size());
+	}
+
+	@Test(timeout = 10000)
+	public void anEntryWithoutIdOfAHotNamespaceWaitsForEveryLane() throws InterruptedException {
+		String events = "app.events";
+		ApplicationOptions options = getOptions();
+		options.getNamespaceLanes().put(events, 4);
+		// the lane of a document is the hash of its _id: 0 and 4 share a lane, the others are spread over the other lanes
+		blocked = describe(events, 0);
+		List<OplogEntry> entries = new ArrayList<>();
+		for (int id = 0; id < 8; id++) {
+			entries.add(getInsert(id + 1, events, id));
+		}
+		entries.add(getEntry(9, "d", events, new BsonDocument("user", new BsonInt32(1))));
+		entries.add(getInsert(10, events, 8));
+		String barrier = events + " " + new BsonDocument("user", new BsonInt32(1)).toJson();
+
+		Thread writer = getWriter(options, entries);
+
+		// the other lanes keep going, while the documents of the held lane and the barrier wait
+		awaitSent(describe(events, 1), describe(events, 2), describe(events, 3), describe(events, 5), describe(events, 6), describe(events, 7));
+		Thread.sleep(50);
+		Assert.assertFalse(sent.contains(describe(events, 4)));
+		Assert.assertFalse(sent.contains(barrier));
+
+		release.countDown();
+		writer.join();
+		Assert.assertEquals(10, sent.size());
+		Assert.assertTrue(sent.indexOf(describe(events, 0)) < sent.indexOf(describe(events, 4)));
+		// the barrier is written after every lane is drained, and before anything that follows it
+		Assert.assertEquals(barrier, sent.get(8));
+		Assert.assertEquals(describe(events, 8), sent.get(9));
+	}
+
+	@Test(timeout = 10000)
+	public void theFailureOfAWorkerStopsTheWriterWhileTheReaderIsIdle() throws InterruptedException {
+		rejected = describe("app.users", 1);
+
+		// the buffer stays open and nothing follows the rejected entry
+		Thread writer = getWriter(getOptions(), Collections.singletonList(getInsert(1, "app.users", 1)), false);
+		writer.join();
+
+		Throwable cause = failure.get();
+		Assert.assertNotNull("the writer returned without failing", cause);
+		while (cause != null && !(cause instanceof MongoException)) {
+			cause = cause.getCause();
+		}
+		Assert.assertEquals(13, ((MongoException) cause).getCode());
+	}
+}
@@ -0,0 +1,50 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mongodb.MongoClient;
+import com.mongodb.migratecluster.FakeCluster;
+
+/**
+ * File: ShardDiscoveryTest Author: Shyam Arjarapu Date: 2/15/19 8:10 AM Description:
+ */
+public class ShardDiscoveryTest {
+
+	private MongoClient getMongos(List<Document> shards) {
+		return FakeCluster.getClient(Collections.singletonMap("config.shards", shards), null);
+	}
+
+	@Test
+	public void shardsAreListedWithTheirHosts() {
+		MongoClient mongos = getMongos(Arrays.asList(new Document("_id", "rs0").append("host", "rs0/h0:27017,h1:27017"),
+				new Document("_id", "rs1").append("host", "rs1/h2:27017")));
+		try {
+			Map<String, String> shards = ShardDiscovery.getShards(mongos);
+			Assert.assertEquals(Arrays.asList("rs0", "rs1"), Arrays.asList(shards.keySet().toArray()));
+			Assert.assertEquals("rs0/h0:27017,h1:27017", shards.get("rs0"));
+			Assert.assertEquals("rs1/h2:27017", shards.get("rs1"));
+		} finally {
+			mongos.close();
+		}
+	}
+
+	@Test
+	public void aClusterWithoutShardsIsRejected() {
+		MongoClient mongos = getMongos(Collections.emptyList());
+		try {
+			ShardDiscovery.getShards(mongos);
+			Assert.fail("a source without shards must be rejected");
+		} catch (RuntimeException e) {
+			Assert.assertTrue(e.getMessage().contains("config.shards"));
+		} finally {
+			mongos.close();
+		}
+	}
+}
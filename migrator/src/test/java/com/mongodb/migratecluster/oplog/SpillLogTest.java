@@ -0,0 +1,171 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.BsonTimestamp;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * File: SpillLogTest Author: Shyam Arjarapu Date: 2/5/19 9:10 AM Description:
+ */
+public class SpillLogTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private List<OplogEntry> getEntries(int from, int to) {
+		List<OplogEntry> entries = new ArrayList<>();
+		for (int i = from; i < to; i++) {
+			BsonDocument document = new BsonDocument("ts", new BsonTimestamp(i, 0)).append("op", new BsonString("i")).append("o",
+					new BsonDocument("_id", new BsonInt32(i)));
+			entries.add(new OplogEntry(document, 50, (i % 2 == 0) ? new BsonDocument("_data", new BsonInt32(i)) : null));
+		}
+		return entries;
+	}
+
+	private void assertEntries(int from, List<OplogEntry> entries) {
+		for (int i = 0; i < entries.size(); i++) {
+			Assert.assertEquals(from + i, entries.get(i).getTimestamp().getTime());
+			Assert.assertEquals(50, entries.get(i).getSizeInBytes());
+			Assert.assertEquals(((from + i) % 2 == 0) ? new BsonDocument("_data", new BsonInt32(from + i)) : null, entries.get(i).getResumeToken());
+		}
+	}
+
+	@Test
+	public void batchesAreReadBackInOrderAcrossSegments() {
+		SpillLog spill = new SpillLog(folder.getRoot().toPath(), 256, false, false);
+		spill.append(getEntries(0, 3));
+		spill.append(getEntries(3, 6));
+		spill.append(getEntries(6, 9));
+		Assert.assertEquals(9, spill.getCount());
+		Assert.assertEquals(450, spill.getSizeInBytes());
+		Assert.assertTrue(spill.getSegmentCount() > 1);
+
+		List<OplogEntry> entries = new ArrayList<>();
+		Assert.assertEquals(9, spill.read(entries, Long.MAX_VALUE));
+		assertEntries(0, entries);
+		Assert.assertEquals(0, spill.getCount());
+		Assert.assertEquals(1, spill.getSegmentCount());
+		Assert.assertEquals(1, folder.getRoot().list().length);
+	}
+
+	@Test
+	public void compressedRecordsAreReadBackAsRawDocuments() {
+		SpillLog spill = new SpillLog(folder.getRoot().toPath(), 1024, true, true);
+		spill.append(getEntries(0, 4));
+
+		List<OplogEntry> entries = new ArrayList<>();
+		spill.read(entries, Long.MAX_VALUE);
+		assertEntries(0, entries);
+		Assert.assertEquals(new BsonDocument("_id", new BsonInt32(2)), entries.get(2).getObject());
+	}
+
+	@Test
+	public void fullBufferSpillsInsteadOfBlocking() throws InterruptedException {
+		OplogBuffer<OplogEntry> buffer = new OplogBuffer<>(200, new SpillLog(folder.getRoot().toPath(), 512, false, false));
+		buffer.put(getEntries(0, 4), 200);
+		// neither of these fit in memory; the second must follow the first to the spill even after a drain
+		buffer.put(getEntries(4, 6), 100);
+
+		List<OplogEntry> entries = new ArrayList<>();
+		buffer.drainTo(entries, 0, TimeUnit.MILLISECONDS);
+		buffer.put(getEntries(6, 8), 100);
+		while (entries.size() < 8) {
+			buffer.drainTo(entries, 0, TimeUnit.MILLISECONDS);
+		}
+		assertEntries(0, entries);
+
+		// the spill was read back; memory is used again
+		buffer.put(getEntries(8, 9), 50);
+		Assert.assertEquals(1, buffer.getCount());
+	}
+
+	@Test(timeout = 10000)
+	public void theConsumerDrainsWhileABatchIsWrittenToTheSpill() throws InterruptedException {
+		SpillLog log = new SpillLog(folder.getRoot().toPath(), 512, false, false);
+		CountDownLatch release = new CountDownLatch(1);
+		OplogSpill<OplogEntry> slowSpill = new OplogSpill<OplogEntry>() {
+			@Override
+			public void append(List<OplogEntry> items) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				log.append(items);
+			}
+
+			@Override
+			public int read(Collection<? super OplogEntry> target, long maxBytes) {
+				return log.read(target, maxBytes);
+			}
+
+			@Override
+			public long getCount() {
+				return log.getCount();
+			}
+
+			@Override
+			public long getSizeInBytes() {
+				return log.getSizeInBytes();
+			}
+		};
+		OplogBuffer<OplogEntry> buffer = new OplogBuffer<>(100, slowSpill);
+		buffer.put(getEntries(0, 2), 100);
+
+		Thread producer = new Thread(() -> {
+			try {
+				buffer.put(getEntries(2, 4), 100);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		producer.start();
+
+		// the batch in memory is drained while the next one is still being spilled
+		List<OplogEntry> entries = new ArrayList<>();
+		Assert.assertEquals(2, buffer.drainTo(entries, 5, TimeUnit.SECONDS));
+		release.countDown();
+		while (entries.size() < 4) {
+			buffer.drainTo(entries, 5, TimeUnit.SECONDS);
+		}
+		producer.join();
+		assertEntries(0, entries);
+	}
+
+	@Test(timeout = 30000)
+	public void concurrentAppendsAndReadsKeepTheOrder() throws InterruptedException {
+		SpillLog spill = new SpillLog(folder.getRoot().toPath(), 512, true, false);
+		OplogBuffer<OplogEntry> buffer = new OplogBuffer<>(100, spill);
+		Thread producer = new Thread(() -> {
+			try {
+				for (int i = 0; i < 2000; i += 2) {
+					buffer.put(getEntries(i, i + 2), 100);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		producer.start();
+
+		List<OplogEntry> entries = new ArrayList<>();
+		while (entries.size() < 2000) {
+			buffer.drainTo(entries, 5, TimeUnit.SECONDS);
+		}
+		producer.join();
+		assertEntries(0, entries);
+		// the segments read are unmapped and deleted along the way
+		Assert.assertEquals(0, spill.getCount());
+		Assert.assertTrue(folder.getRoot().list().length <= 1);
+	}
+}
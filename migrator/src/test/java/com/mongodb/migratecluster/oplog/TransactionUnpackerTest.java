@@ -0,0 +1,65 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * File: TransactionUnpackerTest Author: Shyam Arjarapu Date: 2/10/19 9:00 AM Description:
+ */
+public class TransactionUnpackerTest {
+
+	private OplogEntry getEntry(int inc, int prevInc, String command) {
+		return new OplogEntry(BsonDocument.parse(String.format(
+				"{ ts: Timestamp(10, %d), op: 'c', ns: 'admin.$cmd', o: %s, prevOpTime: { ts: Timestamp(10, %d), t: 1 } }", inc, command, prevInc)), 100);
+	}
+
+	@Test
+	public void applyOpsIsUnpackedIntoItsOperations() {
+		TransactionUnpacker unpacker = new TransactionUnpacker();
+		OplogEntry entry = getEntry(1, 0, "{ applyOps: [ { op: 'i', ns: 'shop.orders', ui: 1, o: { _id: 1 } }, "
+				+ "{ op: 'u', ns: 'shop.stock', o: { $set: { n: 1 } }, o2: { _id: 7 } } ] }");
+		Assert.assertTrue(TransactionUnpacker.isTransaction(entry));
+
+		TransactionUnpacker.Transaction transaction = unpacker.unpack(entry);
+		Assert.assertTrue(transaction.isCommitted());
+		Assert.assertTrue(transaction.getEarlierTimestamps().isEmpty());
+		Assert.assertEquals(2, transaction.getOperations().size());
+
+		OplogEntry insert = transaction.getOperations().get(0);
+		Assert.assertEquals(BsonDocument.parse("{ ts: Timestamp(10, 1), op: 'i', ns: 'shop.orders', o: { _id: 1 } }"), insert.getDocument());
+		Assert.assertTrue(insert.isTransactionOperation());
+		Assert.assertEquals("shop.stock", transaction.getOperations().get(1).getNamespace());
+		Assert.assertEquals(new BsonTimestamp(10, 1), transaction.getOperations().get(1).getTimestamp());
+	}
+
+	@Test
+	public void partialTransactionsAreCollectedUntilCommitted() {
+		TransactionUnpacker unpacker = new TransactionUnpacker();
+		Assert.assertNull(unpacker.unpack(getEntry(1, 0, "{ applyOps: [ { op: 'i', ns: 'shop.orders', o: { _id: 1 } } ], partialTxn: true }")));
+		Assert.assertNull(unpacker.unpack(getEntry(2, 1, "{ applyOps: [ { op: 'i', ns: 'shop.orders', o: { _id: 2 } } ], prepare: true }")));
+		Assert.assertEquals(1, unpacker.getOpenCount());
+
+		TransactionUnpacker.Transaction transaction = unpacker.unpack(getEntry(5, 2, "{ commitTransaction: 1, commitTimestamp: Timestamp(10, 4) }"));
+		Assert.assertEquals(0, unpacker.getOpenCount());
+		Assert.assertEquals(Arrays.asList(new BsonTimestamp(10, 1), new BsonTimestamp(10, 2)), transaction.getEarlierTimestamps());
+		Assert.assertEquals(2, transaction.getOperations().size());
+		Assert.assertEquals(new BsonTimestamp(10, 5), transaction.getOperations().get(1).getTimestamp());
+	}
+
+	@Test
+	public void abortedTransactionsHandOutNothing() {
+		TransactionUnpacker unpacker = new TransactionUnpacker();
+		Assert.assertNull(unpacker.unpack(getEntry(1, 0, "{ applyOps: [ { op: 'i', ns: 'shop.orders', o: { _id: 1 } } ], prepare: true }")));
+
+		TransactionUnpacker.Transaction transaction = unpacker.unpack(getEntry(3, 1, "{ abortTransaction: 1 }"));
+		Assert.assertFalse(transaction.isCommitted());
+		Assert.assertEquals(Collections.emptyList(), transaction.getOperations());
+		Assert.assertEquals(Collections.singletonList(new BsonTimestamp(10, 1)), transaction.getEarlierTimestamps());
+		Assert.assertFalse(TransactionUnpacker.isTransaction(getEntry(4, 0, "{ drop: 'orders' }")));
+	}
+}
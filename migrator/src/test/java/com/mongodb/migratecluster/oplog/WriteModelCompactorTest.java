@@ -0,0 +1,116 @@
+package com.mongodb.migratecluster.oplog;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.BsonDocument;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * File: WriteModelCompactorTest Author: Shyam Arjarapu Date: 1/25/19 8:20 AM Description:
+ */
+public class WriteModelCompactorTest {
+	private final WriteModelCompactor compactor = new WriteModelCompactor();
+
+	private WriteModel<BsonDocument> insert(int id, String key, int value) {
+		return new InsertOneModel<>(BsonDocument.parse(String.format("{ _id: %d, '%s': %d }", id, key, value)));
+	}
+
+	private WriteModel<BsonDocument> set(int id, String key, String value) {
+		return new UpdateOneModel<>(BsonDocument.parse(String.format("{ _id: %d }", id)), BsonDocument.parse(String.format("{ $set: { '%s': %s } }", key, value)));
+	}
+
+	private WriteModel<BsonDocument> delete(int id) {
+		return new DeleteOneModel<>(BsonDocument.parse(String.format("{ _id: %d }", id)));
+	}
+
+	@Test
+	public void successiveSetsOfADocumentAreMerged() {
+		List<WriteModel<BsonDocument>> models = new ArrayList<>();
+		models.add(set(1, "a", "1"));
+		models.add(set(1, "b", "2"));
+		models.add(set(1, "a", "3"));
+
+		List<WriteModel<BsonDocument>> compacted = compactor.compact(models);
+		Assert.assertEquals(1, compacted.size());
+		BsonDocument update = (BsonDocument) ((UpdateOneModel<BsonDocument>) compacted.get(0)).getUpdate();
+		Assert.assertEquals(BsonDocument.parse("{ $set: { a: 3, b: 2 } }"), update);
+	}
+
+	@Test
+	public void overlappingPathsAreNotMerged() {
+		List<WriteModel<BsonDocument>> models = new ArrayList<>();
+		models.add(set(1, "a", "{ b: 1 }"));
+		models.add(set(1, "a.b", "2"));
+
+		Assert.assertEquals(2, compactor.compact(models).size());
+	}
+
+	@Test
+	public void updatesFollowingAnInsertAreMergedWithoutTheInsert() {
+		List<WriteModel<BsonDocument>> models = new ArrayList<>();
+		models.add(insert(1, "a", 1));
+		models.add(set(1, "b", "2"));
+		models.add(new UpdateOneModel<>(BsonDocument.parse("{ _id: 1 }"), BsonDocument.parse("{ $unset: { a: true } }")));
+
+		// no upsert by _id, which a target sharded on another key rejects
+		List<WriteModel<BsonDocument>> compacted = compactor.compact(models);
+		Assert.assertEquals(2, compacted.size());
+		Assert.assertEquals(BsonDocument.parse("{ _id: 1, a: 1 }"), ((InsertOneModel<BsonDocument>) compacted.get(0)).getDocument());
+		UpdateOneModel<BsonDocument> update = (UpdateOneModel<BsonDocument>) compacted.get(1);
+		Assert.assertEquals(BsonDocument.parse("{ _id: 1 }"), update.getFilter());
+		Assert.assertEquals(BsonDocument.parse("{ $set: { b: 2 }, $unset: { a: true } }"), update.getUpdate());
+	}
+
+	@Test
+	public void updatesAreFoldedIntoAReplacementKeepingItsFilter() {
+		List<WriteModel<BsonDocument>> models = new ArrayList<>();
+		models.add(new ReplaceOneModel<>(BsonDocument.parse("{ _id: 1, region: 'eu' }"), BsonDocument.parse("{ _id: 1, region: 'eu', a: 1 }"),
+				new ReplaceOptions().upsert(true)));
+		models.add(set(1, "b", "2"));
+
+		List<WriteModel<BsonDocument>> compacted = compactor.compact(models);
+		Assert.assertEquals(1, compacted.size());
+		ReplaceOneModel<BsonDocument> replace = (ReplaceOneModel<BsonDocument>) compacted.get(0);
+		Assert.assertEquals(BsonDocument.parse("{ _id: 1, region: 'eu' }"), replace.getFilter());
+		Assert.assertEquals(BsonDocument.parse("{ _id: 1, region: 'eu', a: 1, b: 2 }"), replace.getReplacement());
+		Assert.assertTrue(replace.getReplaceOptions().isUpsert());
+	}
+
+	@Test
+	public void deleteDropsEarlierOperationsOfTheDocumentOnly() {
+		List<WriteModel<BsonDocument>> models = new ArrayList<>();
+		models.add(insert(1, "a", 1));
+		models.add(insert(2, "a", 1));
+		models.add(set(1, "b", "2"));
+		models.add(delete(1));
+		models.add(delete(1));
+
+		List<WriteModel<BsonDocument>> compacted = compactor.compact(models);
+		Assert.assertEquals(2, compacted.size());
+		Assert.assertTrue(compacted.get(0) instanceof InsertOneModel);
+		Assert.assertTrue(compacted.get(1) instanceof DeleteOneModel);
+	}
+
+	@Test
+	public void insertAfterDeleteIsKept() {
+		List<WriteModel<BsonDocument>> models = new ArrayList<>();
+		models.add(delete(1));
+		models.add(insert(1, "a", 1));
+		models.add(set(1, "a", "2"));
+
+		List<WriteModel<BsonDocument>> compacted = compactor.compact(models);
+		Assert.assertEquals(3, compacted.size());
+		Assert.assertTrue(compacted.get(0) instanceof DeleteOneModel);
+		Assert.assertTrue(compacted.get(1) instanceof InsertOneModel);
+		Assert.assertTrue(compacted.get(2) instanceof UpdateOneModel);
+	}
+}